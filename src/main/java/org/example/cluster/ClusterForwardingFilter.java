@@ -0,0 +1,299 @@
+package org.example.cluster;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.example.service.SpreadsheetService;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends each sheet request to the node owning the sheet, so a client can talk to any node.
+ * The request and response bodies are streamed through, so exports and imports are not buffered here.
+ * <p>
+ * A forwarded request is marked and always served where it arrives, so nodes whose views of the
+ * members briefly differ cannot bounce it around. A sheet missing on its owner is looked for on its
+ * owner before the last membership change, which still holds it until it has been handed over.
+ * New sheets without an ID are created where the request arrives, under an ID that node owns.
+ * <p>
+ * A request for a sheet whose owner cannot be reached fails with 503 rather than being served here, which
+ * would split the sheet's writes between two nodes. Only a previous owner that cannot be reached is passed
+ * over, as this node owns the sheet by then.
+ */
+@Slf4j
+public class ClusterForwardingFilter extends OncePerRequestFilter {
+
+    public static final String FORWARDED_HEADER = "X-Spreadsheet-Forwarded-By";
+
+    private static final String SHEETS_PATH = "/api/sheets";
+    private static final String IMPORT_SEGMENT = "import";
+
+    // Headers passed on in each direction; the client sets the framing headers itself
+    private static final List<String> REQUEST_HEADERS = List.of("Content-Type", "Accept", "Accept-Encoding",
+            "If-None-Match");
+    private static final List<String> RESPONSE_HEADERS = List.of("Content-Type", "Content-Encoding",
+            "Content-Disposition", "Retry-After", "ETag", "Cache-Control", "Vary");
+
+    private final ClusterMembership membership;
+    private final SpreadsheetService service;
+    private final ObjectMapper objectMapper;
+    private final HttpClient client;
+    private final Duration forwardTimeout;
+
+    /**
+     * @param forwardTimeoutMillis longest wait for the owner to start its response, which for an import
+     *                             includes loading the whole body
+     */
+    public ClusterForwardingFilter(ClusterMembership membership, SpreadsheetService service, ObjectMapper objectMapper,
+                                   long forwardTimeoutMillis) {
+        this.membership = membership;
+        this.service = service;
+        this.objectMapper = objectMapper;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        this.forwardTimeout = Duration.ofMillis(forwardTimeoutMillis);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith(SHEETS_PATH) || request.getHeader(FORWARDED_HEADER) != null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(SHEETS_PATH.length());
+        if (path.isEmpty() || path.equals("/")) {
+            if (!"POST".equals(request.getMethod())) {
+                chain.doFilter(request, response);
+                return;
+            }
+            // A create names its sheet in the JSON body, which is small enough to read twice
+            CachedBodyRequest cached = new CachedBodyRequest(request, request.getInputStream().readAllBytes());
+            routeCreate(bodySheetId(cached.body), cached, response, chain);
+            return;
+        }
+
+        int end = path.indexOf('/', 1);
+        String segment = URLDecoder.decode(end < 0 ? path.substring(1) : path.substring(1, end), StandardCharsets.UTF_8);
+        if (segment.equals(IMPORT_SEGMENT) && end < 0) {
+            routeCreate(request.getParameter("id"), request, response, chain);
+            return;
+        }
+
+        String owner = membership.getRing().ownerOf(segment);
+        if (!owner.equals(membership.getSelf())) {
+            if (!forward(owner, request, response, null)) {
+                writeUnreachable(owner, response);
+            }
+            return;
+        }
+        String previousOwner = membership.getPreviousRing().ownerOf(segment);
+        if (!previousOwner.equals(owner) && !service.hasSheet(segment)) {
+            // Possibly still on its way here; if the previous owner is gone, so is the sheet
+            if (!forward(previousOwner, request, response, null)) {
+                chain.doFilter(request, response);
+            }
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Create a sheet on the node owning its ID, or here under a generated ID
+     */
+    private void routeCreate(String sheetId, HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (sheetId == null || sheetId.isEmpty()) {
+            chain.doFilter(request, response);
+            return;
+        }
+        String owner = membership.getRing().ownerOf(sheetId);
+        if (owner.equals(membership.getSelf())) {
+            chain.doFilter(request, response);
+            return;
+        }
+        byte[] body = request instanceof CachedBodyRequest ? ((CachedBodyRequest) request).body : null;
+        if (!forward(owner, request, response, body)) {
+            writeUnreachable(owner, response);
+        }
+    }
+
+    private String bodySheetId(byte[] body) {
+        try {
+            JsonNode id = objectMapper.readTree(body).get("id");
+            return id != null && id.isTextual() ? id.asText() : null;
+        } catch (IOException e) {
+            // Not JSON; the controller rejects it
+            return null;
+        }
+    }
+
+    /**
+     * Replay the request on another node and stream its response back, or answer 504 if the node does not
+     * start answering in time
+     * @param body the request body if it was already read, or null to stream it from the request
+     * @return false if the node cannot be reached, in which case nothing was written or read
+     */
+    private boolean forward(String node, HttpServletRequest request, HttpServletResponse response, byte[] body)
+            throws IOException {
+        String query = request.getQueryString();
+        URI uri = URI.create(node + request.getRequestURI() + (query != null ? "?" + query : ""));
+        HttpRequest.BodyPublisher publisher;
+        if (body != null) {
+            publisher = HttpRequest.BodyPublishers.ofByteArray(body);
+        } else if (request.getContentLengthLong() > 0 || request.getHeader("Transfer-Encoding") != null) {
+            publisher = HttpRequest.BodyPublishers.ofInputStream(() -> {
+                try {
+                    return request.getInputStream();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } else {
+            publisher = HttpRequest.BodyPublishers.noBody();
+        }
+        HttpRequest.Builder forwarded = HttpRequest.newBuilder(uri)
+                .timeout(forwardTimeout)
+                .method(request.getMethod(), publisher)
+                .header(FORWARDED_HEADER, membership.getSelf());
+        for (String name : REQUEST_HEADERS) {
+            String value = request.getHeader(name);
+            if (value != null) {
+                forwarded.header(name, value);
+            }
+        }
+
+        HttpResponse<InputStream> reply;
+        try {
+            reply = client.send(forwarded.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (ConnectException | HttpConnectTimeoutException e) {
+            log.warn("Cannot reach node: {} for: {} {}", node, request.getMethod(), request.getRequestURI());
+            return false;
+        } catch (HttpTimeoutException e) {
+            log.warn("Node: {} did not answer {} {} within {} ms", node, request.getMethod(), request.getRequestURI(),
+                    forwardTimeout.toMillis());
+            writeError(response, HttpServletResponse.SC_GATEWAY_TIMEOUT, "Sheet owner did not answer in time: " + node);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while forwarding to " + node, e);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Forwarded {} {} to: {}, status: {}", request.getMethod(), request.getRequestURI(), node,
+                    reply.statusCode());
+        }
+        response.setStatus(reply.statusCode());
+        for (String name : RESPONSE_HEADERS) {
+            reply.headers().firstValue(name).ifPresent(value -> response.setHeader(name, value));
+        }
+        boolean eventStream = reply.headers().firstValue("Content-Type")
+                .map(type -> type.startsWith("text/event-stream")).orElse(false);
+        try (InputStream in = reply.body()) {
+            if (eventStream) {
+                // Pass each event on as it comes instead of when a buffer fills
+                OutputStream out = response.getOutputStream();
+                byte[] buffer = new byte[8192];
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    out.write(buffer, 0, read);
+                    out.flush();
+                }
+            } else {
+                in.transferTo(response.getOutputStream());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Until the owner is dropped from the ring it still holds its sheets, so the client has to retry
+     */
+    private void writeUnreachable(String owner, HttpServletResponse response) throws IOException {
+        response.setHeader("Retry-After", "1");
+        writeError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Sheet owner cannot be reached: " + owner);
+    }
+
+    private void writeError(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        objectMapper.writeValue(response.getOutputStream(), Map.of("error", message));
+    }
+
+    /**
+     * A request whose body was read up front, served from memory
+     */
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+        final byte[] body;
+
+        CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    // Every byte is already here, so it can all be read right away
+                    try {
+                        if (!isFinished()) {
+                            listener.onDataAvailable();
+                        }
+                        if (isFinished()) {
+                            listener.onAllDataRead();
+                        }
+                    } catch (IOException e) {
+                        listener.onError(e);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    return in.read(buffer, offset, length);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package org.example.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Which nodes are in the cluster, found without a coordination service: every node heartbeats the
+ * seed nodes and every node it knows of, and each heartbeat carries the sender's view of the members
+ * both ways, so a node joining through one seed is soon known to all. A node is a member while it
+ * answered or sent a heartbeat within the failure timeout; one shutting down says so and is dropped
+ * at once. Nodes only heard of through another node's view are contacted before they count, so a
+ * node that is gone cannot be brought back by a stale view.
+ * <p>
+ * Nodes are named by their base URL, which must be the same in every node's configuration.
+ */
+@Slf4j
+public class ClusterMembership implements Closeable {
+
+    public static final String HEARTBEAT_PATH = "/internal/cluster/heartbeat";
+    public static final String LEAVE_PATH = "/internal/cluster/leave";
+
+    private final String self;
+    private final List<String> seeds;
+    private final int virtualNodes;
+    private final long heartbeatMillis;
+    private final long failureTimeoutNanos;
+    private final HttpClient client;
+
+    // Other members by base URL, with the System.nanoTime() they were last heard from
+    private final Map<String, Long> lastSeen = new ConcurrentHashMap<>();
+
+    // Nodes named in other nodes' views that this node has not reached yet
+    private final Set<String> candidates = ConcurrentHashMap.newKeySet();
+
+    private final List<Consumer<HashRing>> listeners = new CopyOnWriteArrayList<>();
+    private volatile HashRing ring;
+    private volatile HashRing previousRing;
+    private ScheduledExecutorService heartbeatScheduler;
+
+    /**
+     * @param self base URL of this node, as the other nodes reach it
+     * @param seeds base URLs of nodes to join through, may include this node
+     * @param virtualNodes points of each node on the hash ring
+     * @param heartbeatMillis time between heartbeats
+     * @param failureTimeoutMillis time without a heartbeat after which a node is dropped
+     */
+    public ClusterMembership(String self, List<String> seeds, int virtualNodes,
+                             long heartbeatMillis, long failureTimeoutMillis) {
+        if (failureTimeoutMillis <= heartbeatMillis) {
+            throw new IllegalArgumentException("Failure timeout must be longer than the heartbeat interval");
+        }
+        this.self = normalize(self);
+        this.seeds = new ArrayList<>();
+        for (String seed : seeds) {
+            if (!seed.isBlank()) {
+                this.seeds.add(normalize(seed));
+            }
+        }
+        this.virtualNodes = virtualNodes;
+        this.heartbeatMillis = heartbeatMillis;
+        this.failureTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(failureTimeoutMillis);
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(heartbeatMillis))
+                .build();
+        this.ring = new HashRing(List.of(this.self), virtualNodes);
+        this.previousRing = ring;
+    }
+
+    /**
+     * Start heartbeating. Until other nodes answer, this node owns every sheet.
+     */
+    public void start() {
+        log.info("Joining cluster as: {}, seeds: {}", self, seeds);
+        heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatScheduler.scheduleWithFixedDelay(this::scheduledHeartbeat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * The ring of the current members
+     */
+    public HashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * The ring before the last membership change, which places sheets that may not have reached
+     * their new owner yet
+     */
+    public HashRing getPreviousRing() {
+        return previousRing;
+    }
+
+    /**
+     * Whether this node owns the sheet
+     */
+    public boolean isOwner(String sheetId) {
+        return ring.ownerOf(sheetId).equals(self);
+    }
+
+    /**
+     * Call the listener with the new ring after every membership change, on the heartbeat thread
+     */
+    public void addListener(Consumer<HashRing> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Record a heartbeat from another node
+     * @param members the sender's view of the members, the sender first
+     * @return this node's view, this node first
+     */
+    public List<String> onHeartbeat(List<String> members) {
+        if (!members.isEmpty()) {
+            lastSeen.put(normalize(members.get(0)), System.nanoTime());
+            learn(members);
+        }
+        return view();
+    }
+
+    /**
+     * Drop a node that is shutting down
+     */
+    public void onLeave(String node) {
+        String leaving = normalize(node);
+        lastSeen.remove(leaving);
+        candidates.remove(leaving);
+        log.info("Node left the cluster: {}", leaving);
+        ScheduledExecutorService scheduler = heartbeatScheduler;
+        if (scheduler != null && !scheduler.isShutdown()) {
+            scheduler.execute(this::updateRing);
+        }
+    }
+
+    /**
+     * Stop heartbeating, so the other nodes drop this one once they time out or are told it left
+     */
+    public void stop() {
+        if (heartbeatScheduler != null) {
+            heartbeatScheduler.shutdownNow();
+            try {
+                heartbeatScheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stop heartbeating and tell the other members this node is leaving
+     */
+    @Override
+    public void close() {
+        stop();
+        List<CompletableFuture<?>> calls = new ArrayList<>();
+        for (String node : lastSeen.keySet()) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(node + LEAVE_PATH))
+                    .timeout(Duration.ofMillis(heartbeatMillis * 2))
+                    .header("Content-Type", "text/plain")
+                    .POST(HttpRequest.BodyPublishers.ofString(self))
+                    .build();
+            calls.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+        }
+        awaitQuietly(calls);
+        log.info("Left cluster: {}", self);
+    }
+
+    private void scheduledHeartbeat() {
+        try {
+            heartbeat();
+            updateRing();
+        } catch (RuntimeException e) {
+            // Keep the schedule going; a node not reached is dropped after the failure timeout
+            log.error("Cluster heartbeat failed", e);
+        }
+    }
+
+    private void heartbeat() {
+        Set<String> targets = new LinkedHashSet<>(seeds);
+        targets.addAll(lastSeen.keySet());
+        targets.addAll(candidates);
+        targets.remove(self);
+
+        String body = String.join("\n", view());
+        List<CompletableFuture<?>> calls = new ArrayList<>(targets.size());
+        for (String target : targets) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(target + HEARTBEAT_PATH))
+                    .timeout(Duration.ofMillis(heartbeatMillis * 2))
+                    .header("Content-Type", "text/plain")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            calls.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .handle((response, failure) -> {
+                        candidates.remove(target);
+                        if (failure == null && response.statusCode() == 200) {
+                            List<String> members = parseMembers(response.body());
+                            if (!members.isEmpty()) {
+                                // Named as the node names itself, which a seed URL may not be
+                                lastSeen.put(members.get(0), System.nanoTime());
+                                learn(members);
+                            }
+                        } else if (log.isDebugEnabled()) {
+                            log.debug("No heartbeat from: {}, {}", target,
+                                    failure != null ? failure.toString() : response.statusCode());
+                        }
+                        return null;
+                    }));
+        }
+        awaitQuietly(calls);
+    }
+
+    /**
+     * Drop the nodes not heard from within the failure timeout, and swap in a new ring if the members changed
+     */
+    private synchronized void updateRing() {
+        long now = System.nanoTime();
+        lastSeen.entrySet().removeIf(entry -> {
+            if (now - entry.getValue() > failureTimeoutNanos) {
+                log.warn("Node unreachable, dropped from the cluster: {}", entry.getKey());
+                return true;
+            }
+            return false;
+        });
+        Set<String> nodes = new TreeSet<>(lastSeen.keySet());
+        nodes.add(self);
+        if (nodes.equals(new TreeSet<>(ring.getNodes()))) {
+            return;
+        }
+        HashRing changed = new HashRing(nodes, virtualNodes);
+        previousRing = ring;
+        ring = changed;
+        log.info("Cluster members: {}", changed);
+        for (Consumer<HashRing> listener : listeners) {
+            try {
+                listener.accept(changed);
+            } catch (RuntimeException e) {
+                log.error("Cluster membership listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * This node first, then the other members
+     */
+    private List<String> view() {
+        List<String> members = new ArrayList<>(lastSeen.size() + 1);
+        members.add(self);
+        members.addAll(lastSeen.keySet());
+        return members;
+    }
+
+    private void learn(List<String> members) {
+        for (String member : members) {
+            String node = normalize(member);
+            if (!node.equals(self) && !lastSeen.containsKey(node)) {
+                candidates.add(node);
+            }
+        }
+    }
+
+    /**
+     * Parse a view sent as one base URL per line
+     */
+    public static List<String> parseMembers(String body) {
+        List<String> members = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            if (!line.isBlank()) {
+                members.add(normalize(line));
+            }
+        }
+        return members;
+    }
+
+    private static String normalize(String url) {
+        String trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    private void awaitQuietly(List<CompletableFuture<?>> calls) {
+        try {
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0]))
+                    .get(heartbeatMillis * 4, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // Each call handles its own outcome
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Consistent hash ring assigning sheet IDs to nodes. Each node sits at many points of the ring, its
+ * virtual nodes, so sheets spread evenly, and a node joining or leaving only moves the sheets next to
+ * its own points. Immutable: a membership change builds a new ring.
+ */
+public final class HashRing {
+
+    private final List<String> nodes;
+
+    // Points of the ring in ascending order, and the node at each point
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param nodes base URLs of the nodes
+     * @param virtualNodes points per node
+     */
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one node");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Virtual nodes must be positive: " + virtualNodes);
+        }
+        this.nodes = List.copyOf(new TreeSet<>(nodes));
+
+        int count = this.nodes.size() * virtualNodes;
+        long[] hashes = new long[count];
+        Integer[] order = new Integer[count];
+        for (int node = 0; node < this.nodes.size(); node++) {
+            for (int point = 0; point < virtualNodes; point++) {
+                int index = node * virtualNodes + point;
+                hashes[index] = hash(this.nodes.get(node) + "#" + point);
+                order[index] = index;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        this.points = new long[count];
+        this.owners = new String[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = this.nodes.get(order[i] / virtualNodes);
+        }
+    }
+
+    /**
+     * The node owning a sheet: the first node point at or after the sheet's hash, wrapping around
+     */
+    public String ownerOf(String sheetId) {
+        int index = Arrays.binarySearch(points, hash(sheetId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * The nodes of the ring, sorted
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    /**
+     * 64-bit FNV-1a with the MurmurHash3 finalizer, the same on every JVM unlike {@link String#hashCode}
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return nodes.toString();
+    }
+}
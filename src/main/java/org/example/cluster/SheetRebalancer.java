@@ -0,0 +1,157 @@
+package org.example.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.service.SpreadsheetService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Moves sheets to the node owning them: after every membership change, each sheet this node holds
+ * but no longer owns is sent to its owner, and on shutdown every sheet is sent to the node owning it
+ * without this one. Sheets that could not be sent are tried again a little later.
+ */
+@Slf4j
+public class SheetRebalancer implements Closeable {
+
+    public static final String SHEETS_PATH = "/internal/cluster/sheets/";
+
+    // Delay before sheets that could not be sent are tried again
+    private static final long RETRY_DELAY_MILLIS = 1_000;
+
+    private final ClusterMembership membership;
+    private final SpreadsheetService service;
+    private final HttpClient client;
+    private final ScheduledExecutorService executor;
+
+    // Set while a rebalance is queued, so a burst of membership changes runs it once
+    private final AtomicBoolean queued = new AtomicBoolean();
+
+    public SheetRebalancer(ClusterMembership membership, SpreadsheetService service) {
+        this.membership = membership;
+        this.service = service;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "cluster-rebalance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        membership.addListener(ring -> schedule(0));
+        // Sheets restored from disk may belong elsewhere by now
+        schedule(0);
+    }
+
+    private void schedule(long delayMillis) {
+        if (queued.compareAndSet(false, true)) {
+            executor.schedule(this::scheduledRebalance, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduledRebalance() {
+        queued.set(false);
+        try {
+            if (rebalance(membership.getRing()) > 0) {
+                schedule(RETRY_DELAY_MILLIS);
+            }
+        } catch (RuntimeException e) {
+            log.error("Rebalancing sheets failed", e);
+            schedule(RETRY_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Send every sheet this node holds to its owner on the ring, unless that is this node
+     * @return number of sheets that could not be sent
+     */
+    int rebalance(HashRing ring) {
+        List<String> moving = new ArrayList<>();
+        for (String sheetId : service.getSheetIds()) {
+            if (!ring.ownerOf(sheetId).equals(membership.getSelf())) {
+                moving.add(sheetId);
+            }
+        }
+        if (moving.isEmpty()) {
+            return 0;
+        }
+
+        log.info("Moving {} sheets to their owners on: {}", moving.size(), ring);
+        long start = System.nanoTime();
+        int failed = 0;
+        for (String sheetId : moving) {
+            String owner = ring.ownerOf(sheetId);
+            try {
+                service.transferSheet(sheetId, (id, sheetFile) -> send(owner, id, sheetFile));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot move sheet: {} to: {}, {}", sheetId, owner, e.toString());
+                failed++;
+            }
+        }
+        log.info("Moved {} sheets in {} ms, {} failed", moving.size() - failed,
+                (System.nanoTime() - start) / 1_000_000, failed);
+        return failed;
+    }
+
+    private void send(String owner, String sheetId, Path sheetFile) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(
+                        URI.create(owner + SHEETS_PATH + URLEncoder.encode(sheetId, StandardCharsets.UTF_8)))
+                .header("Content-Type", "application/octet-stream")
+                .PUT(HttpRequest.BodyPublishers.ofFile(sheetFile))
+                .build();
+        HttpResponse<String> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending sheet " + sheetId, e);
+        }
+        if (response.statusCode() == 409) {
+            // Left by a transfer that completed there but was cut short here; the owner's copy is newer
+            log.warn("Owner: {} already holds sheet: {}, dropping the copy here", owner, sheetId);
+            return;
+        }
+        if (response.statusCode() != 201) {
+            throw new IOException("Owner " + owner + " refused sheet " + sheetId + ": "
+                    + response.statusCode() + " " + response.body());
+        }
+    }
+
+    /**
+     * Stop heartbeating and send every sheet to the node owning it once this one is gone. Closing the
+     * membership afterwards tells the other nodes.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        membership.stop();
+
+        List<String> others = new ArrayList<>(membership.getRing().getNodes());
+        others.remove(membership.getSelf());
+        if (!others.isEmpty()) {
+            int failed = rebalance(new HashRing(others, membership.getVirtualNodes()));
+            if (failed > 0) {
+                log.warn("{} sheets stay on this node until it rejoins", failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.example.cluster.ClusterForwardingFilter;
+import org.example.cluster.ClusterMembership;
+import org.example.cluster.SheetRebalancer;
+import org.example.service.SpreadsheetService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import java.util.Arrays;
+
+/**
+ * Cluster mode: sheets are spread over the nodes by consistent hashing of their IDs, any node accepts
+ * a request and forwards it to the sheet's owner, and sheets move when nodes join or leave.
+ * Nodes find each other through the seed list, without a coordination service.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spreadsheet.cluster.enabled", havingValue = "true")
+@Slf4j
+public class ClusterConfiguration {
+
+    @Bean
+    public ClusterMembership clusterMembership(
+            @Value("${spreadsheet.cluster.self:}") String self,
+            @Value("${server.port:8080}") int port,
+            @Value("${spreadsheet.cluster.seeds:}") String seeds,
+            @Value("${spreadsheet.cluster.virtual-nodes:256}") int virtualNodes,
+            @Value("${spreadsheet.cluster.heartbeat-ms:500}") long heartbeatMillis,
+            @Value("${spreadsheet.cluster.failure-timeout-ms:3000}") long failureTimeoutMillis,
+            SpreadsheetService spreadsheetService) {
+        if (self.isBlank()) {
+            if (port == 0) {
+                throw new IllegalStateException("spreadsheet.cluster.self must be set when server.port is 0");
+            }
+            self = "http://localhost:" + port;
+        }
+        ClusterMembership membership = new ClusterMembership(self, Arrays.asList(seeds.split(",")),
+                virtualNodes, heartbeatMillis, failureTimeoutMillis);
+        spreadsheetService.setIdFilter(membership::isOwner);
+        membership.start();
+        return membership;
+    }
+
+    @Bean
+    public SheetRebalancer sheetRebalancer(ClusterMembership membership, SpreadsheetService spreadsheetService) {
+        return new SheetRebalancer(membership, spreadsheetService);
+    }
+
+    @Bean
+    public FilterRegistrationBean<ClusterForwardingFilter> clusterForwardingFilter(
+            ClusterMembership membership, SpreadsheetService spreadsheetService, ObjectMapper objectMapper,
+            @Value("${spreadsheet.cluster.forward-timeout-ms:60000}") long forwardTimeoutMillis) {
+        FilterRegistrationBean<ClusterForwardingFilter> registration = new FilterRegistrationBean<>(
+                new ClusterForwardingFilter(membership, spreadsheetService, objectMapper, forwardTimeoutMillis));
+        // After the access log, so forwarded requests are also logged where they arrived
+        registration.setOrder(Ordered.LOWEST_PRECEDENCE);
+        return registration;
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the HTTP requests on the threads of the configured {@link ExecutionMode}.
+ * Exports block their thread while the client's socket is full, which is the backpressure that keeps
+ * a slow download from buffering a sheet in memory; with virtual threads that wait no longer costs
+ * a worker, so slow clients cannot starve cell writes.
+ */
+@Configuration
+@Slf4j
+public class ExecutionConfiguration {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> requestExecutorCustomizer(
+            @Value("${spreadsheet.execution:platform}") String executionMode) {
+        ExecutionMode mode = ExecutionMode.fromName(executionMode);
+        log.info("Request execution mode: {}", mode);
+        if (mode == ExecutionMode.PLATFORM) {
+            return protocolHandler -> {
+            };
+        }
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    /**
+     * The build targets Java 17, so the Java 21 factory is looked up at runtime
+     * @throws IllegalStateException if the running JVM has no virtual threads
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | InvocationTargetException e) {
+            // Missing before Java 19, a preview feature that is not enabled before Java 21
+            throw new IllegalStateException("Virtual threads need Java 21 or later, running on Java "
+                    + Runtime.version().feature(), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor", e);
+        }
+    }
+}
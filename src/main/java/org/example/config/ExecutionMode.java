@@ -0,0 +1,32 @@
+package org.example.config;
+
+import java.util.Locale;
+
+/**
+ * Which threads run the HTTP requests
+ */
+public enum ExecutionMode {
+    /**
+     * Tomcat's fixed pool of worker threads, so at most server.tomcat.threads.max requests run at once
+     * and slow clients of large exports can hold every worker
+     */
+    PLATFORM,
+
+    /**
+     * A new virtual thread per request, so a request blocked on a slow client only holds memory and
+     * the number of open connections is limited by server.tomcat.max-connections alone. Needs Java 21.
+     */
+    VIRTUAL;
+
+    /**
+     * Resolve a configured mode name, ignoring case
+     * @throws IllegalArgumentException for an unknown mode
+     */
+    public static ExecutionMode fromName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException("Unsupported execution mode: " + name);
+        }
+    }
+}
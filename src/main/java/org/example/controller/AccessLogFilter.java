@@ -0,0 +1,76 @@
+package org.example.controller;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logs one line per request, with its method, path, status and duration, in place of per-step lines.
+ * Only a sample of the requests is logged, picked at random so concurrent requests never contend on
+ * a shared counter; failed requests are always logged.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+@Slf4j
+public class AccessLogFilter extends OncePerRequestFilter {
+
+    private final int sampleEvery;
+
+    /**
+     * @param sampleEvery log one in every sampleEvery requests, 0 to log only failed requests
+     */
+    public AccessLogFilter(@Value("${spreadsheet.access-log.sample-every:1}") int sampleEvery) {
+        if (sampleEvery < 0) {
+            throw new IllegalArgumentException("Access log sample-every must not be negative: " + sampleEvery);
+        }
+        this.sampleEvery = sampleEvery;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!log.isInfoEnabled()) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            chain.doFilter(request, response);
+        } catch (Throwable e) {
+            // The response still reads 200 here; the container turns the exception into a 500 later
+            failed = true;
+            throw e;
+        } finally {
+            int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus();
+            if (shouldLog(status)) {
+                logRequest(request, status, (System.nanoTime() - start) / 1_000);
+            }
+        }
+    }
+
+    void logRequest(HttpServletRequest request, int status, long micros) {
+        log.info("{} {} {} {} us", request.getMethod(), request.getRequestURI(), status, micros);
+    }
+
+    /**
+     * Whether the request with this response status is logged
+     */
+    boolean shouldLog(int status) {
+        if (status >= 400) {
+            return true;
+        }
+        return sampleEvery > 0 && (sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0);
+    }
+}
@@ -0,0 +1,102 @@
+package org.example.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.cluster.ClusterMembership;
+import org.example.service.SpreadsheetService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * Endpoints the nodes of a cluster call on each other, see {@link ClusterMembership}
+ */
+@RestController
+@RequestMapping("/internal/cluster")
+@ConditionalOnProperty(name = "spreadsheet.cluster.enabled", havingValue = "true")
+@Slf4j
+public class ClusterController {
+
+    private final ClusterMembership membership;
+    private final SpreadsheetService spreadsheetService;
+
+    @Autowired
+    public ClusterController(ClusterMembership membership, SpreadsheetService spreadsheetService) {
+        this.membership = membership;
+        this.spreadsheetService = spreadsheetService;
+    }
+
+    /**
+     * Exchange views of the members
+     * POST /internal/cluster/heartbeat
+     * The body lists one base URL per line, the sender first; the response lists this node's view the same way
+     */
+    @PostMapping(value = "/heartbeat", consumes = MediaType.TEXT_PLAIN_VALUE, produces = MediaType.TEXT_PLAIN_VALUE)
+    public String heartbeat(@RequestBody String members) {
+        return String.join("\n", membership.onHeartbeat(ClusterMembership.parseMembers(members)));
+    }
+
+    /**
+     * A node shutting down
+     * POST /internal/cluster/leave
+     */
+    @PostMapping(value = "/leave", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<Void> leave(@RequestBody String node) {
+        membership.onLeave(node);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * The members as this node sees them
+     * GET /internal/cluster/members
+     */
+    @GetMapping("/members")
+    public Map<String, Object> members() {
+        return Map.of("self", membership.getSelf(), "nodes", membership.getRing().getNodes());
+    }
+
+    /**
+     * Take over a sheet from another node
+     * PUT /internal/cluster/sheets/{sheetId}
+     * The body is the sheet in the snapshot format
+     */
+    @PutMapping(value = "/sheets/{sheetId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> installSheet(@PathVariable String sheetId, InputStream body) {
+        Path sheetFile = null;
+        try {
+            if (spreadsheetService.hasSheet(sheetId)) {
+                log.warn("Sheet handed over already exists: {}", sheetId);
+                return ResponseEntity.status(HttpStatus.CONFLICT)
+                        .body(Map.of("error", "Sheet with ID " + sheetId + " already exists"));
+            }
+            sheetFile = Files.createTempFile("sheet-transfer", ".snap");
+            Files.copy(body, sheetFile, StandardCopyOption.REPLACE_EXISTING);
+            spreadsheetService.installSheet(sheetId, sheetFile);
+            return ResponseEntity.status(HttpStatus.CREATED).build();
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid sheet handed over: {}", sheetId, e);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error taking over sheet: {}", sheetId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        } finally {
+            if (sheetFile != null) {
+                try {
+                    Files.deleteIfExists(sheetFile);
+                } catch (Exception e) {
+                    log.warn("Cannot delete: {}", sheetFile, e);
+                }
+            }
+        }
+    }
+}
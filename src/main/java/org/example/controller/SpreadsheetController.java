@@ -1,8 +1,17 @@
 package org.example.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.example.model.BatchUpdateResult;
 import org.example.model.Cell;
+import org.example.model.CellUpdate;
+import org.example.model.ImportResult;
+import org.example.model.RowPage;
 import org.example.model.Sheet;
+import org.example.service.CellSubscription;
+import org.example.service.SheetExport;
+import org.example.service.SheetMovedException;
 import org.example.service.SpreadsheetService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
@@ -10,14 +19,29 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 @RestController
 @RequestMapping("/api")
 @Slf4j
 public class SpreadsheetController {
 
+    // Binary columnar export, see ColumnarWriter for the layout
+    public static final String COLUMNAR_MEDIA_TYPE = "application/vnd.spreadsheet.columnar";
+
+    private static final MediaType COLUMNAR = MediaType.parseMediaType(COLUMNAR_MEDIA_TYPE);
+    private static final MediaType CSV = MediaType.parseMediaType("text/csv");
+
+    // Writes the errors of endpoints that return a stream instead of a ResponseEntity
+    private static final ObjectMapper ERROR_WRITER = new ObjectMapper();
+
     private final SpreadsheetService spreadsheetService;
 
     @Autowired
@@ -62,18 +86,87 @@ public class SpreadsheetController {
         }
     }
 
+    /**
+     * Create a sheet from CSV and import its rows
+     * POST /api/sheets/import?id=
+     * The header names the columns as name:type after the Row column, for example "Row,A:string,B:int"
+     */
+    @PostMapping(value = "/sheets/import", consumes = "text/csv")
+    public ResponseEntity<?> importSheet(
+            @RequestParam(required = false) String id,
+            InputStream body) {
+        try {
+            log.info("Received request to import a new sheet");
+            if (id != null && !id.isEmpty() && spreadsheetService.getSheet(id) != null) {
+                log.warn("Attempt to import sheet with duplicate ID: {}", id);
+                return ResponseEntity.status(HttpStatus.CONFLICT)
+                        .body(Map.of("error", "Sheet with ID " + id + " already exists"));
+            }
+            ImportResult result = spreadsheetService.importCsvAsNewSheet(id != null && !id.isEmpty() ? id : null, body);
+            log.info("Imported new sheet: {}", result.getSheetId());
+            return ResponseEntity.status(HttpStatus.CREATED).body(result);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid request to import sheet", e);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error importing sheet", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Import CSV rows into an existing sheet, in the layout the CSV export produces
+     * POST /api/sheets/{sheetId}/import
+     */
+    @PostMapping(value = "/sheets/{sheetId}/import", consumes = "text/csv")
+    public ResponseEntity<?> importRows(
+            @PathVariable String sheetId,
+            InputStream body) {
+        try {
+            log.info("Received request to import CSV into sheet: {}", sheetId);
+            ImportResult result = spreadsheetService.importCsv(sheetId, body);
+            log.info("CSV imported into sheet: {}", sheetId);
+            return ResponseEntity.ok(result);
+        } catch (SheetMovedException e) {
+            log.info("Sheet moved while the request waited for it: {}", sheetId);
+            return sheetMoved(e);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid request to import CSV", e);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error importing CSV", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
     /**
      * Get a sheet by ID
-     * GET /api/sheets/{sheetId}
-     * Supports CSV format responses and JSON error responses
+     * GET /api/sheets/{sheetId}?fromRow=&toRow=&columns=A,B
+     * Streams the sheet in row order straight to the response, as CSV or, when the Accept header prefers it,
+     * in the binary columnar format; errors are returned as JSON before streaming starts.
+     * The ETag names the sheet's version, and a request whose If-None-Match still matches it gets 304,
+     * usually without opening an export.
+     * The export is compressed with gzip or deflate when Accept-Encoding allows it
      */
     @GetMapping(
         value = "/sheets/{sheetId}",
-        produces = {"text/csv", "application/json"}
+        produces = {"text/csv", COLUMNAR_MEDIA_TYPE, "application/json"}
     )
-    public ResponseEntity<?> getSheet(@PathVariable String sheetId) {
+    public ResponseEntity<?> getSheet(
+            @PathVariable String sheetId,
+            @RequestParam(required = false) Integer fromRow,
+            @RequestParam(required = false) Integer toRow,
+            @RequestParam(required = false) List<String> columns,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletResponse response) {
         try {
-            log.info("Received request to get sheet with ID: {}", sheetId);
+            log.debug("Received request to get sheet with ID: {}", sheetId);
 
             Sheet sheet = spreadsheetService.getSheet(sheetId);
             if (sheet == null) {
@@ -83,21 +176,411 @@ public class SpreadsheetController {
                         .body(Map.of("error", "Sheet not found with id: " + sheetId));
             }
 
-            log.info("Returning sheet in CSV format");
-            String csvData = spreadsheetService.convertSheetToCsv(sheet);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType("text/csv"))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"sheet-" + sheetId + ".csv\"")
-                    .body(csvData);
+            int firstRow = fromRow != null ? fromRow : Integer.MIN_VALUE;
+            int lastRow = toRow != null ? toRow : Integer.MAX_VALUE;
+            if (firstRow > lastRow) {
+                log.warn("Invalid row range: {} to {}", fromRow, toRow);
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(Map.of("error", "fromRow must not be greater than toRow"));
+            }
+            int[] columnOrdinals = columns != null ? spreadsheetService.resolveColumns(sheet, columns) : null;
+
+            boolean columnar = prefersColumnar(accept);
+            SheetExport.Format format = columnar ? SheetExport.Format.COLUMNAR : SheetExport.Format.CSV;
+            SheetExport.Encoding encoding = preferredEncoding(acceptEncoding);
+            // Clients may keep the export, but must check it is still current before using it
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+            if (ifNoneMatch != null) {
+                // A client holding the current version needs no export opened at all
+                String currentTag = spreadsheetService.currentExportTag(sheet, format, encoding);
+                if (currentTag != null && matchesETag(ifNoneMatch, currentTag)) {
+                    log.debug("Sheet not modified: {}", sheetId);
+                    response.setHeader(HttpHeaders.ETAG, currentTag);
+                    response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                    return null;
+                }
+            }
+            try (SheetExport export = spreadsheetService.openExport(sheet, format, encoding,
+                    firstRow, lastRow, columnOrdinals)) {
+                response.setHeader(HttpHeaders.ETAG, export.getETag());
+                if (matchesETag(ifNoneMatch, export.getETag())) {
+                    log.debug("Sheet not modified: {}", sheetId);
+                    response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                    return null;
+                }
 
+                response.setStatus(HttpStatus.OK.value());
+                if (encoding != SheetExport.Encoding.IDENTITY) {
+                    response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding.getName());
+                }
+                if (columnar) {
+                    log.debug("Streaming sheet in columnar format");
+                    response.setContentType(COLUMNAR_MEDIA_TYPE);
+                    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"sheet-" + sheetId + ".bin\"");
+                } else {
+                    log.debug("Streaming sheet in CSV format");
+                    response.setContentType("text/csv");
+                    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"sheet-" + sheetId + ".csv\"");
+                }
+                export.writeTo(response.getOutputStream());
+            }
+
+            // The response has been written
+            return null;
+
+        } catch (SheetMovedException e) {
+            log.info("Sheet moved while the request waited for it: {}", sheetId);
+            return sheetMoved(e);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid request to get sheet with ID: {}", sheetId, e);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
             log.error("Error retrieving sheet with ID: {}", sheetId, e);
+            if (response.isCommitted()) {
+                // Part of the export is already out, the status can no longer change
+                return null;
+            }
+            response.reset();
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .contentType(MediaType.APPLICATION_JSON)
                     .body(Map.of("error", e.getMessage()));
         }
     }
 
+    /**
+     * Read a page of rows as JSON
+     * GET /api/sheets/{sheetId}/rows?fromRow=&toRow=&columns=A,B&limit=100&cursor=
+     * Pass the nextCursor of a page back as cursor, with the same other parameters, for the page after it
+     */
+    @GetMapping("/sheets/{sheetId}/rows")
+    public ResponseEntity<?> getRows(
+            @PathVariable String sheetId,
+            @RequestParam(required = false) Integer fromRow,
+            @RequestParam(required = false) Integer toRow,
+            @RequestParam(required = false) List<String> columns,
+            @RequestParam(defaultValue = "100") int limit,
+            @RequestParam(required = false) String cursor) {
+        try {
+            if (log.isDebugEnabled()) {
+                log.debug("Received request to read rows of sheet: {}, from: {}, to: {}, limit: {}",
+                        sheetId, fromRow, toRow, limit);
+            }
+
+            Sheet sheet = spreadsheetService.getSheet(sheetId);
+            if (sheet == null) {
+                log.warn("Sheet not found with ID: {}", sheetId);
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "Sheet not found with id: " + sheetId));
+            }
+
+            int firstRow = fromRow != null ? fromRow : Integer.MIN_VALUE;
+            int lastRow = toRow != null ? toRow : Integer.MAX_VALUE;
+            if (firstRow > lastRow) {
+                log.warn("Invalid row range: {} to {}", fromRow, toRow);
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body(Map.of("error", "fromRow must not be greater than toRow"));
+            }
+            int[] columnOrdinals = columns != null ? spreadsheetService.resolveColumns(sheet, columns) : null;
+
+            RowPage page = spreadsheetService.readRows(sheet, firstRow, lastRow, columnOrdinals, limit, cursor);
+            return ResponseEntity.ok(page);
+        } catch (SheetMovedException e) {
+            log.info("Sheet moved while the request waited for it: {}", sheetId);
+            return sheetMoved(e);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid request to read rows of sheet with ID: {}", sheetId, e);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error reading rows of sheet with ID: {}", sheetId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Subscribe to the changes of a sheet's cells as Server-Sent Events
+     * GET /api/sheets/{sheetId}/changes?fromRow=&toRow=&columns=A,B
+     * The stream starts with a "subscribed" event carrying the version every later change follows, then "cells" events
+     * with the latest values of the cells changed since the previous one, lookups updated by propagation
+     * included. A "reset" event means the subscriber fell behind and changes were dropped, so the sheet
+     * must be read again. The stream ends when the sheet moves to another node; reconnecting follows it.
+     */
+    @GetMapping("/sheets/{sheetId}/changes")
+    public SseEmitter subscribeToChanges(
+            @PathVariable String sheetId,
+            @RequestParam(required = false) Integer fromRow,
+            @RequestParam(required = false) Integer toRow,
+            @RequestParam(required = false) List<String> columns,
+            HttpServletResponse response) throws IOException {
+        try {
+            log.debug("Received request to subscribe to changes of sheet: {}", sheetId);
+
+            Sheet sheet = spreadsheetService.getSheet(sheetId);
+            if (sheet == null) {
+                log.warn("Sheet not found with ID: {}", sheetId);
+                return writeError(response, HttpStatus.NOT_FOUND, "Sheet not found with id: " + sheetId);
+            }
+            int firstRow = fromRow != null ? fromRow : Integer.MIN_VALUE;
+            int lastRow = toRow != null ? toRow : Integer.MAX_VALUE;
+            if (firstRow > lastRow) {
+                log.warn("Invalid row range: {} to {}", fromRow, toRow);
+                return writeError(response, HttpStatus.BAD_REQUEST, "fromRow must not be greater than toRow");
+            }
+            int[] columnOrdinals = columns != null ? spreadsheetService.resolveColumns(sheet, columns) : null;
+
+            // Open until either side ends it; heartbeats find connections that died quietly
+            SseEmitter emitter = new SseEmitter(0L);
+            // The version is only known once the subscription is in place, and its first batch may already
+            // be on the way; holding this while subscribing keeps batches behind the "subscribed" event.
+            // A lock rather than a monitor, as it is held over socket writes
+            ReentrantLock sendLock = new ReentrantLock();
+            CellSubscription subscription;
+            sendLock.lock();
+            try {
+                subscription = spreadsheetService.subscribe(sheet, columnOrdinals, firstRow, lastRow,
+                        new CellSubscription.Sink() {
+                            @Override
+                            public void changes(long version, List<Cell> cells) throws IOException {
+                                sendLock.lock();
+                                try {
+                                    emitter.send(SseEmitter.event().name("cells").id(Long.toString(version))
+                                            .data(Map.of("version", version, "cells", cells), MediaType.APPLICATION_JSON));
+                                } finally {
+                                    sendLock.unlock();
+                                }
+                            }
+
+                            @Override
+                            public void reset(long version) throws IOException {
+                                sendLock.lock();
+                                try {
+                                    emitter.send(SseEmitter.event().name("reset").id(Long.toString(version))
+                                            .data(Map.of("version", version), MediaType.APPLICATION_JSON));
+                                } finally {
+                                    sendLock.unlock();
+                                }
+                            }
+
+                            @Override
+                            public void heartbeat() throws IOException {
+                                sendLock.lock();
+                                try {
+                                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                                } finally {
+                                    sendLock.unlock();
+                                }
+                            }
+
+                            @Override
+                            public void end() {
+                                sendLock.lock();
+                                try {
+                                    emitter.complete();
+                                } finally {
+                                    sendLock.unlock();
+                                }
+                            }
+                        });
+                try {
+                    emitter.send(SseEmitter.event().name("subscribed")
+                            .data(Map.of("version", subscription.getSubscribedVersion()), MediaType.APPLICATION_JSON));
+                } catch (IOException | RuntimeException e) {
+                    subscription.close();
+                    throw e;
+                }
+            } finally {
+                sendLock.unlock();
+            }
+            emitter.onCompletion(subscription::close);
+            emitter.onTimeout(subscription::close);
+            emitter.onError(e -> subscription.close());
+            return emitter;
+        } catch (SheetMovedException e) {
+            log.info("Sheet moved while the request waited for it: {}", sheetId);
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            return writeError(response, HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid request to subscribe to changes of sheet with ID: {}", sheetId, e);
+            return writeError(response, HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private static SseEmitter writeError(HttpServletResponse response, HttpStatus status, String message)
+            throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        ERROR_WRITER.writeValue(response.getOutputStream(), Map.of("error", message));
+        // The response has been written
+        return null;
+    }
+
+    /**
+     * A request that lost the race with a sheet handed to another node; the client retries, and the retry
+     * is forwarded to the new owner
+     */
+    private static ResponseEntity<Map<String, String>> sheetMoved(SheetMovedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("error", e.getMessage()));
+    }
+
+    /**
+     * Whether an If-None-Match header names the given entity tag, or any with *. Tags are compared
+     * weakly, as the header requires, so a weak tag a proxy derived from ours still matches.
+     */
+    static boolean matchesETag(String ifNoneMatch, String entityTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(entityTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The compression the Accept-Encoding header weighs highest, gzip on a tie, or none if it
+     * allows neither gzip nor deflate
+     */
+    static SheetExport.Encoding preferredEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return SheetExport.Encoding.IDENTITY;
+        }
+        double gzipQuality = -1;
+        double deflateQuality = -1;
+        double anyQuality = 0;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzipQuality = Math.max(gzipQuality, quality);
+            } else if (name.equals("deflate")) {
+                deflateQuality = Math.max(deflateQuality, quality);
+            } else if (name.equals("*")) {
+                anyQuality = quality;
+            }
+        }
+        // Codings not named take the weight of *, if given
+        gzipQuality = gzipQuality >= 0 ? gzipQuality : anyQuality;
+        deflateQuality = deflateQuality >= 0 ? deflateQuality : anyQuality;
+        if (gzipQuality > 0 && gzipQuality >= deflateQuality) {
+            return SheetExport.Encoding.GZIP;
+        }
+        return deflateQuality > 0 ? SheetExport.Encoding.DEFLATE : SheetExport.Encoding.IDENTITY;
+    }
+
+    /**
+     * Whether the Accept header asks for the columnar format at least as strongly as for CSV.
+     * CSV stays the default, also for wildcards.
+     */
+    private static boolean prefersColumnar(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return false;
+        }
+        double columnarQuality = 0;
+        double csvQuality = 0;
+        for (MediaType type : MediaType.parseMediaTypes(accept)) {
+            if (type.equalsTypeAndSubtype(COLUMNAR)) {
+                columnarQuality = Math.max(columnarQuality, type.getQualityValue());
+            } else if (type.includes(CSV)) {
+                csvQuality = Math.max(csvQuality, type.getQualityValue());
+            }
+        }
+        return columnarQuality > 0 && columnarQuality >= csvQuality;
+    }
+
+    /**
+     * Get a cell value from a sheet
+     * GET /api/sheets/{sheetId}/cells/{columnName}/{rowIndex}
+     */
+    @GetMapping("/sheets/{sheetId}/cells/{columnName}/{rowIndex}")
+    public ResponseEntity<?> getCellValue(
+            @PathVariable String sheetId,
+            @PathVariable String columnName,
+            @PathVariable int rowIndex) {
+
+        try {
+            if (log.isDebugEnabled()) {
+                log.debug("Received request to get cell value for sheet: {}, column: {}, row: {}",
+                        sheetId, columnName, rowIndex);
+            }
+
+            Cell cell = spreadsheetService.getCellValue(sheetId, columnName, rowIndex);
+            if (cell == null) {
+                log.debug("Cell is empty");
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(Map.of("error", "Cell " + columnName + rowIndex + " is empty"));
+            }
+            return ResponseEntity.ok(cell);
+        } catch (SheetMovedException e) {
+            log.info("Sheet moved while the request waited for it: {}", sheetId);
+            return sheetMoved(e);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid request to get cell value", e);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error getting cell value", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Get many cell values in one request, all at the same version of the sheet
+     * POST /api/sheets/{sheetId}/cells/read
+     * The body lists the cells as [{"column": "A", "row": 1}, ...]; the response lists them in the same
+     * order with their values, leaving out the value of empty cells
+     */
+    @PostMapping("/sheets/{sheetId}/cells/read")
+    public ResponseEntity<?> getCellValues(
+            @PathVariable String sheetId,
+            @RequestBody List<Cell> addresses) {
+
+        try {
+            if (log.isDebugEnabled()) {
+                log.debug("Received request to get {} cell values for sheet: {}", addresses.size(), sheetId);
+            }
+
+            List<Cell> cells = spreadsheetService.getCellValues(sheetId, addresses);
+            return ResponseEntity.ok(cells);
+        } catch (SheetMovedException e) {
+            log.info("Sheet moved while the request waited for it: {}", sheetId);
+            return sheetMoved(e);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid request to get cell values", e);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error getting cell values", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
     /**
      * Set a cell value in a sheet
      * PUT /api/sheets/{sheetId}/cells/{columnName}/{rowIndex}
@@ -110,8 +593,10 @@ public class SpreadsheetController {
             @RequestBody Map<String, Object> requestBody) {
 
         try {
-            log.info("Received request to set cell value for sheet: {}, column: {}, row: {}",
-                    sheetId, columnName, rowIndex);
+            if (log.isDebugEnabled()) {
+                log.debug("Received request to set cell value for sheet: {}, column: {}, row: {}",
+                        sheetId, columnName, rowIndex);
+            }
 
             if (!requestBody.containsKey("value")) {
                 log.warn("Request body missing 'value' field");
@@ -123,8 +608,11 @@ public class SpreadsheetController {
             log.debug("Setting cell value: {}", value);
 
             Cell cell = spreadsheetService.setCellValue(sheetId, columnName, rowIndex, value);
-            log.info("Cell value set successfully");
+            log.debug("Cell value set successfully");
             return ResponseEntity.ok(cell);
+        } catch (SheetMovedException e) {
+            log.info("Sheet moved while the request waited for it: {}", sheetId);
+            return sheetMoved(e);
         } catch (IllegalArgumentException e) {
             log.warn("Invalid request to set cell value", e);
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
@@ -135,5 +623,35 @@ public class SpreadsheetController {
                     .body(Map.of("error", e.getMessage()));
         }
     }
-}
 
+    /**
+     * Set many cell values in one atomic batch
+     * POST /api/sheets/{sheetId}/cells
+     */
+    @PostMapping("/sheets/{sheetId}/cells")
+    public ResponseEntity<?> setCellValues(
+            @PathVariable String sheetId,
+            @RequestBody List<CellUpdate> updates) {
+
+        try {
+            if (log.isDebugEnabled()) {
+                log.debug("Received request to set {} cell values for sheet: {}", updates.size(), sheetId);
+            }
+
+            BatchUpdateResult result = spreadsheetService.setCellValues(sheetId, updates);
+            log.debug("Batch of cell values set successfully");
+            return ResponseEntity.ok(result);
+        } catch (SheetMovedException e) {
+            log.info("Sheet moved while the request waited for it: {}", sheetId);
+            return sheetMoved(e);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid request to set cell values", e);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Error setting cell values", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.example.model;
+
+import org.example.storage.MinMaxTree;
+
+import java.util.List;
+
+/**
+ * An aggregate formula held by a cell, such as sum(B) or max(A,1,1000): a function over the values
+ * of one column in a row range. Empty cells and cells holding null are skipped.
+ * <p>
+ * The result is maintained as the cells in the range change, never by rescanning the range:
+ * sum, avg and count from running totals kept here, O(1) per write, and min and max from the
+ * sheet's {@link MinMaxTree} of the column, O(log n) per write. The running state is owned by
+ * the sheet and changes under the write side of its structure lock.
+ */
+public class Aggregate {
+
+    public enum Function {
+        SUM("sum"),
+        AVG("avg"),
+        MIN("min"),
+        MAX("max"),
+        COUNT("count");
+
+        private final String name;
+
+        Function(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Resolve a function name as written in a formula, or null for an unknown function
+         */
+        public static Function lookup(String name) {
+            for (Function function : values()) {
+                if (function.name.equals(name)) {
+                    return function;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Type of the result over a column of the given type: count is an int, avg a double,
+         * and the others have the type of the column
+         * @throws IllegalArgumentException if the function needs numbers and the column holds none
+         */
+        public ColumnType resultType(ColumnType sourceType) {
+            if (this == COUNT) {
+                return ColumnType.INT;
+            }
+            if (sourceType != ColumnType.INT && sourceType != ColumnType.DOUBLE) {
+                throw new IllegalArgumentException("Cannot take the " + name + " of a " + sourceType.getName()
+                        + " column");
+            }
+            return this == AVG ? ColumnType.DOUBLE : sourceType;
+        }
+    }
+
+    private final Function function;
+    private final long address;
+    private final int sourceOrdinal;
+    private final ColumnType sourceType;
+    private final int fromRow;
+    private final int toRow;
+
+    // Values in the range, and for sum and avg their total: exact for int columns, compensated
+    // (Neumaier) for double columns with the non-finite values counted apart, so removing a value
+    // takes it back out of the total
+    private long count;
+    private long longSum;
+    private double sum;
+    private double compensation;
+    private int nans;
+    private int positiveInfinities;
+    private int negativeInfinities;
+
+    // Queued for its cell to be rewritten, and dropped from the sheet; guarded like the sheet's queue
+    boolean dirty;
+    boolean removed;
+
+    /**
+     * @param address address of the cell holding the formula
+     * @param sourceOrdinal position of the column read
+     * @param fromRow first row read, inclusive
+     * @param toRow last row read, inclusive
+     */
+    public Aggregate(Function function, long address, int sourceOrdinal, ColumnType sourceType,
+                     int fromRow, int toRow) {
+        this.function = function;
+        this.address = address;
+        this.sourceOrdinal = sourceOrdinal;
+        this.sourceType = sourceType;
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public long getAddress() {
+        return address;
+    }
+
+    public int getSourceOrdinal() {
+        return sourceOrdinal;
+    }
+
+    public int getFromRow() {
+        return fromRow;
+    }
+
+    public int getToRow() {
+        return toRow;
+    }
+
+    public boolean covers(int row) {
+        return row >= fromRow && row <= toRow;
+    }
+
+    /**
+     * Whether the result comes from the column's {@link MinMaxTree}
+     */
+    public boolean needsTree() {
+        return function == Function.MIN || function == Function.MAX;
+    }
+
+    /**
+     * The formula as written, such as sum(B), or sum(B,1,1000) for a row range
+     */
+    public String format(List<Column> columns) {
+        String column = columns.get(sourceOrdinal).getName();
+        if (fromRow == Integer.MIN_VALUE && toRow == Integer.MAX_VALUE) {
+            return function.name + "(" + column + ")";
+        }
+        return function.name + "(" + column + "," + fromRow + "," + toRow + ")";
+    }
+
+    void add(Object value) {
+        if (value == null) {
+            return;
+        }
+        count++;
+        if (function == Function.SUM || function == Function.AVG) {
+            accumulate(value, 1);
+        }
+    }
+
+    void remove(Object value) {
+        if (value == null) {
+            return;
+        }
+        if (--count == 0) {
+            // Nothing left, so drop whatever rounding the removals left behind
+            reset();
+            return;
+        }
+        if (function == Function.SUM || function == Function.AVG) {
+            accumulate(value, -1);
+        }
+    }
+
+    void reset() {
+        count = 0;
+        longSum = 0;
+        sum = 0;
+        compensation = 0;
+        nans = 0;
+        positiveInfinities = 0;
+        negativeInfinities = 0;
+    }
+
+    /**
+     * The current result, in the canonical form of its type
+     * @param tree values of the source column, for min and max
+     */
+    Object result(MinMaxTree tree) {
+        switch (function) {
+            case COUNT:
+                return (int) count;
+            case SUM:
+                if (sourceType == ColumnType.INT) {
+                    // Null once the total no longer fits the column
+                    return longSum == (int) longSum ? (Object) (int) longSum : null;
+                }
+                return doubleSum();
+            case AVG:
+                if (count == 0) {
+                    return null;
+                }
+                return (sourceType == ColumnType.INT ? (double) longSum : doubleSum()) / count;
+            default:
+                if (count == 0) {
+                    return null;
+                }
+                double extreme = function == Function.MIN ? tree.min(fromRow, toRow) : tree.max(fromRow, toRow);
+                return sourceType == ColumnType.INT ? (Object) (int) extreme : (Object) extreme;
+        }
+    }
+
+    private void accumulate(Object value, int sign) {
+        if (sourceType == ColumnType.INT) {
+            longSum += sign * (long) (Integer) value;
+            return;
+        }
+        double x = (Double) value;
+        if (Double.isNaN(x)) {
+            nans += sign;
+        } else if (x == Double.POSITIVE_INFINITY) {
+            positiveInfinities += sign;
+        } else if (x == Double.NEGATIVE_INFINITY) {
+            negativeInfinities += sign;
+        } else {
+            double y = sign * x;
+            double t = sum + y;
+            compensation += Math.abs(sum) >= Math.abs(y) ? (sum - t) + y : (y - t) + sum;
+            sum = t;
+        }
+    }
+
+    private double doubleSum() {
+        if (nans > 0 || (positiveInfinities > 0 && negativeInfinities > 0)) {
+            return Double.NaN;
+        }
+        if (positiveInfinities > 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (negativeInfinities > 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return sum + compensation;
+    }
+}
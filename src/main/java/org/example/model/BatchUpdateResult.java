@@ -0,0 +1,39 @@
+package org.example.model;
+
+/**
+ * Outcome of an applied batch update
+ */
+public class BatchUpdateResult {
+    private int updatedCells;
+    private int recalculatedCells;
+
+    public BatchUpdateResult() {
+    }
+
+    public BatchUpdateResult(int updatedCells, int recalculatedCells) {
+        this.updatedCells = updatedCells;
+        this.recalculatedCells = recalculatedCells;
+    }
+
+    /**
+     * Number of updates in the batch
+     */
+    public int getUpdatedCells() {
+        return updatedCells;
+    }
+
+    public void setUpdatedCells(int updatedCells) {
+        this.updatedCells = updatedCells;
+    }
+
+    /**
+     * Number of lookup cells whose value was recomputed, each counted once
+     */
+    public int getRecalculatedCells() {
+        return recalculatedCells;
+    }
+
+    public void setRecalculatedCells(int recalculatedCells) {
+        this.recalculatedCells = recalculatedCells;
+    }
+}
@@ -27,6 +27,7 @@ public class Cell {
         this.value = value;
     }
 
+
     public String getColumn() {
         return column;
     }
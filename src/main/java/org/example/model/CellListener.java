@@ -0,0 +1,16 @@
+package org.example.model;
+
+/**
+ * Told about every cell written to a sheet, including lookups recalculated by propagation.
+ * Called by the writing thread while it holds the write's locks, so it must not block.
+ */
+@FunctionalInterface
+public interface CellListener {
+
+    /**
+     * @param address packed address of the cell, see {@link org.example.storage.CellAddress}
+     * @param value the value now stored
+     * @param version sheet version of the mutation that wrote it
+     */
+    void cellWritten(long address, Object value, long version);
+}
@@ -0,0 +1,43 @@
+package org.example.model;
+
+/**
+ * One cell write in a batch update
+ */
+public class CellUpdate {
+    private String column;
+    private int row;
+    private Object value;
+
+    public CellUpdate() {
+    }
+
+    public CellUpdate(String column, int row, Object value) {
+        this.column = column;
+        this.row = row;
+        this.value = value;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public void setColumn(String column) {
+        this.column = column;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public void setRow(int row) {
+        this.row = row;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public void setValue(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,117 @@
+package org.example.model;
+
+/**
+ * The supported column types. Each type validates incoming values and converts them
+ * once into the canonical form stored for it: Integer, Double, Boolean or String.
+ */
+public enum ColumnType {
+    STRING("string") {
+        @Override
+        Object convert(Object value, String columnName) {
+            // All values can be represented as strings
+            return value.toString();
+        }
+    },
+    INT("int") {
+        @Override
+        Object convert(Object value, String columnName) {
+            if (value instanceof Integer) {
+                return value;
+            }
+            if (value instanceof Number) {
+                // Reject conversions that lose precision
+                int intValue = ((Number) value).intValue();
+                if (intValue != ((Number) value).doubleValue()) {
+                    throw new IllegalArgumentException("Expected integer value for column: " + columnName);
+                }
+                return intValue;
+            }
+            if (value instanceof String) {
+                try {
+                    return Integer.parseInt((String) value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Expected integer value for column: " + columnName);
+                }
+            }
+            throw new IllegalArgumentException("Expected integer value for column: " + columnName);
+        }
+    },
+    BOOLEAN("boolean") {
+        @Override
+        Object convert(Object value, String columnName) {
+            if (!(value instanceof Boolean)) {
+                throw new IllegalArgumentException("Expected boolean value for column: " + columnName);
+            }
+            return value;
+        }
+    },
+    DOUBLE("double") {
+        @Override
+        Object convert(Object value, String columnName) {
+            if (value instanceof Double) {
+                return value;
+            }
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            if (value instanceof String) {
+                try {
+                    return Double.parseDouble((String) value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Expected double value for column: " + columnName);
+                }
+            }
+            throw new IllegalArgumentException("Expected double value for column: " + columnName);
+        }
+    };
+
+    private final String name;
+
+    ColumnType(String name) {
+        this.name = name;
+    }
+
+    /**
+     * The type name used in sheet schemas
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Resolve a schema type name, ignoring case
+     * @throws IllegalArgumentException for an unknown type
+     */
+    public static ColumnType fromName(String name) {
+        ColumnType type = lookup(name);
+        if (type == null) {
+            throw new IllegalArgumentException("Unsupported column type: " + name);
+        }
+        return type;
+    }
+
+    /**
+     * Resolve a schema type name, ignoring case, or null for an unknown type
+     */
+    public static ColumnType lookup(String name) {
+        if (name != null) {
+            for (ColumnType type : values()) {
+                if (type.name.equalsIgnoreCase(name)) {
+                    return type;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Validate a value for this type and convert it to the canonical stored form.
+     * Null is allowed for every type.
+     * @throws IllegalArgumentException if the value cannot be represented in this type
+     */
+    public Object normalize(Object value, String columnName) {
+        return value != null ? convert(value, columnName) : null;
+    }
+
+    abstract Object convert(Object value, String columnName);
+}
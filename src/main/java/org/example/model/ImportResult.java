@@ -0,0 +1,62 @@
+package org.example.model;
+
+/**
+ * Outcome of a CSV import
+ */
+public class ImportResult {
+    private String sheetId;
+    private long importedRows;
+    private long importedCells;
+    private int recalculatedCells;
+
+    public ImportResult() {
+    }
+
+    public ImportResult(String sheetId, long importedRows, long importedCells, int recalculatedCells) {
+        this.sheetId = sheetId;
+        this.importedRows = importedRows;
+        this.importedCells = importedCells;
+        this.recalculatedCells = recalculatedCells;
+    }
+
+    public String getSheetId() {
+        return sheetId;
+    }
+
+    public void setSheetId(String sheetId) {
+        this.sheetId = sheetId;
+    }
+
+    /**
+     * Number of data rows read
+     */
+    public long getImportedRows() {
+        return importedRows;
+    }
+
+    public void setImportedRows(long importedRows) {
+        this.importedRows = importedRows;
+    }
+
+    /**
+     * Number of cells written; empty fields leave their cell as it was
+     */
+    public long getImportedCells() {
+        return importedCells;
+    }
+
+    public void setImportedCells(long importedCells) {
+        this.importedCells = importedCells;
+    }
+
+    /**
+     * Number of lookup cells whose value was recomputed, each counted once
+     */
+    public int getRecalculatedCells() {
+        return recalculatedCells;
+    }
+
+    public void setRecalculatedCells(int recalculatedCells) {
+        this.recalculatedCells = recalculatedCells;
+    }
+}
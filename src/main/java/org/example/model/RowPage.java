@@ -0,0 +1,86 @@
+package org.example.model;
+
+import java.util.List;
+
+/**
+ * One page of a row range read, in row order
+ */
+public class RowPage {
+    private List<String> columns;
+    private List<Row> rows;
+    private String nextCursor;
+
+    public RowPage() {
+    }
+
+    public RowPage(List<String> columns, List<Row> rows, String nextCursor) {
+        this.columns = columns;
+        this.rows = rows;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Names of the columns read, in the order of each row's values
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public void setColumns(List<String> columns) {
+        this.columns = columns;
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    public void setRows(List<Row> rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Token to pass back for the next page, or null if this is the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * A row with a cell in at least one of the columns read
+     */
+    public static class Row {
+        private int row;
+        private List<Object> values;
+
+        public Row() {
+        }
+
+        public Row(int row, List<Object> values) {
+            this.row = row;
+            this.values = values;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public void setRow(int row) {
+            this.row = row;
+        }
+
+        /**
+         * Values in column order, null for empty cells
+         */
+        public List<Object> getValues() {
+            return values;
+        }
+
+        public void setValues(List<Object> values) {
+            this.values = values;
+        }
+    }
+}
@@ -1,24 +1,131 @@
 package org.example.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.example.storage.CellAddress;
+import org.example.storage.ColumnStore;
+import org.example.storage.ColumnStoreSnapshot;
+import org.example.storage.LongHashSet;
+import org.example.storage.LongObjectHashMap;
+import org.example.storage.MinMaxTree;
+import org.example.storage.RangeIndex;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Sheet {
+    private static final int CELL_LOCK_BITS = 6;
+    private static final int CELL_LOCK_STRIPES = 1 << CELL_LOCK_BITS;
+
     private String id;
     private List<Column> columns;
-    private Map<String, Cell> cells;
+
+    // Compiled schema: column types and typed storage in column order, and column name -> position.
+    // Types and stores are null for unknown types, which only request bodies can carry.
+    @JsonIgnore
+    private ColumnType[] columnTypes;
+
+    @JsonIgnore
+    private ColumnStore[] stores;
+
+    @JsonIgnore
+    private Map<String, Integer> columnOrdinals;
+
+    // Reverse dependency index: address of a referenced cell -> addresses of the lookup cells pointing at it.
+    // Each entry also carries the cell's position in a topological order of the reference graph
+    // (Pearce-Kelly): a referenced cell is always ordered before its dependents. Cells nobody
+    // references have no entry and count as ordered after everything else.
+    // Only modified while holding the write side of the structure lock.
+    @JsonIgnore
+    private LongObjectHashMap<DependentSet> dependents = new LongObjectHashMap<>();
+
+    // Cells whose latest value has not reached their dependents yet, in lazy recalculation mode.
+    // Guarded by its own monitor, since plain writes only hold the structure read lock.
+    @JsonIgnore
+    private final LongHashSet staleSources = new LongHashSet();
+
+    // Next free positions at either end of the topological order
+    @JsonIgnore
+    private long firstOrder = -1;
+
+    @JsonIgnore
+    private long lastOrder = 0;
+
+    // Shared by plain value writes, exclusive for writes that change the dependency graph
+    @JsonIgnore
+    private final ReadWriteLock structureLock = new ReentrantReadWriteLock();
+
+    // Serializes plain writes (and their propagation) to the same cell
+    @JsonIgnore
+    private final Lock[] cellLocks = new Lock[CELL_LOCK_STRIPES];
+
+    @JsonIgnore
+    private final AtomicLong versionClock = new AtomicLong();
+
+    // Random per instance, since versions restart when a sheet is restored or handed to another node
+    @JsonIgnore
+    private final long instanceId = ThreadLocalRandom.current().nextLong();
+
+    // Open snapshot version -> number of readers using it
+    @JsonIgnore
+    private final TreeMap<Long, Integer> openSnapshots = new TreeMap<>();
+
+    // Pages written at or before this version are copied before being changed, -1 when no snapshot is open
+    @JsonIgnore
+    private volatile long newestSnapshotVersion = -1;
+
+    // Set while the cells are released from memory, see release()
+    @JsonIgnore
+    private volatile boolean spilled;
+
+    // Told about every cell write, null when nobody listens
+    @JsonIgnore
+    private volatile CellListener cellListener;
+
+    // Aggregate cells by address, and per column the aggregates reading it (null for columns nobody
+    // aggregates). Only modified while holding the write side of the structure lock, which writes to
+    // the cells an aggregate reads hold too.
+    @JsonIgnore
+    private final LongObjectHashMap<Aggregate> aggregates = new LongObjectHashMap<>();
+
+    @JsonIgnore
+    private AggregatedColumn[] aggregatedColumns;
+
+    // Aggregates whose range changed since their cell was last written. Guarded by the staleSources monitor.
+    @JsonIgnore
+    private final ArrayDeque<Aggregate> dirtyAggregates = new ArrayDeque<>();
+
+    // Every aggregate, for snapshots; rebuilt on first use after a change
+    @JsonIgnore
+    private List<Aggregate> aggregateList = Collections.emptyList();
 
     public Sheet() {
         this.columns = new ArrayList<>();
-        this.cells = new HashMap<>();
+        compileSchema(columns, false);
+        initCellLocks();
     }
 
+    /**
+     * @throws IllegalArgumentException if a column has an unsupported type
+     */
     public Sheet(String id, List<Column> columns) {
         this.id = id;
         this.columns = columns;
-        this.cells = new HashMap<>();
+        compileSchema(columns, true);
+        initCellLocks();
     }
 
     public String getId() {
@@ -33,36 +140,825 @@ public class Sheet {
         return columns;
     }
 
+    /**
+     * Replace the schema. Used when binding request bodies, so unknown column types are
+     * accepted here and rejected when a sheet is created from the request.
+     */
     public void setColumns(List<Column> columns) {
         this.columns = columns;
+        compileSchema(columns, false);
+    }
+
+    /**
+     * Add or replace a cell. The caller must hold the cell's lock, or the write
+     * side of the structure lock when the cell's lookup reference changes.
+     * @param version sheet version of the mutation writing the cell
+     */
+    public void addCell(Cell cell, long version) {
+        int ordinal = getColumnIndex(cell.getColumn());
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("Column not found: " + cell.getColumn());
+        }
+
+        long reference = CellAddress.NONE;
+        if (cell.isLookupCell()) {
+            int referencedOrdinal = getColumnIndex(cell.getReferencedColumn());
+            if (referencedOrdinal < 0) {
+                throw new IllegalArgumentException("Referenced column not found: " + cell.getReferencedColumn());
+            }
+            reference = CellAddress.pack(referencedOrdinal, cell.getReferencedRow());
+        }
+        Object value = getColumnTypeAt(ordinal).normalize(cell.getValue(), cell.getColumn());
+        setCell(CellAddress.pack(ordinal, cell.getRow()), value, reference, version);
+    }
+
+    /**
+     * Add or replace the cell at an address, with the same locking rules as {@link #addCell}
+     * @param value value in the canonical form of the column type, see {@link ColumnType#normalize}
+     * @param reference address of the cell a lookup points at, or {@link CellAddress#NONE} for a plain value
+     */
+    public void setCell(long address, Object value, long reference, long version) {
+        if (aggregates.size() > 0) {
+            Aggregate replaced = aggregates.get(address);
+            if (replaced != null) {
+                removeAggregate(replaced);
+            }
+        }
+        writeCell(address, value, reference, version);
     }
 
-    public Map<String, Cell> getCells() {
-        return cells;
+    /**
+     * Make the cell at the address hold an aggregate, replacing whatever it held, and write its result.
+     * Reads the aggregate's range once; from then on every write to the range updates it.
+     * The caller must hold the write side of the structure lock, and have checked for cycles.
+     * @return the result written into the cell
+     */
+    public Object setAggregateCell(Aggregate aggregate, long version) {
+        long address = aggregate.getAddress();
+        Aggregate replaced = aggregates.get(address);
+        if (replaced != null) {
+            removeAggregate(replaced);
+        }
+        addAggregate(aggregate);
+        computeAggregate(aggregate);
+        Object value = aggregate.result(aggregatedColumns[aggregate.getSourceOrdinal()].tree);
+        writeCell(address, value, CellAddress.NONE, version);
+        return value;
     }
 
-    public void setCells(Map<String, Cell> cells) {
-        this.cells = cells;
+    /**
+     * Write the current result of an aggregate into its cell, if it differs from the value there.
+     * The caller must hold the write side of the structure lock.
+     * @return whether the cell changed
+     */
+    public boolean refreshAggregate(Aggregate aggregate, long version) {
+        Object value = aggregate.result(aggregatedColumns[aggregate.getSourceOrdinal()].tree);
+        if (Objects.equals(value, getValue(aggregate.getAddress()))) {
+            return false;
+        }
+        writeCell(aggregate.getAddress(), value, CellAddress.NONE, version);
+        return true;
+    }
+
+    private void writeCell(long address, Object value, long reference, long version) {
+        int ordinal = CellAddress.ordinal(address);
+        ColumnStore store = getStore(ordinal);
+        int row = CellAddress.row(address);
+        long previousReference = store.getReference(row);
+        AggregatedColumn aggregated = aggregatedColumns != null ? aggregatedColumns[ordinal] : null;
+        Object previousValue = aggregated != null ? store.get(row) : null;
+        store.set(row, value, reference, version, newestSnapshotVersion);
+        if (aggregated != null && !Objects.equals(previousValue, value)) {
+            aggregated.cellChanged(row, previousValue, value);
+        }
+        CellListener listener = cellListener;
+        if (listener != null) {
+            listener.cellWritten(address, value, version);
+        }
+
+        // Only touch the index when the lookup reference actually changed
+        if (previousReference != reference) {
+            if (previousReference != CellAddress.NONE) {
+                removeDependent(previousReference, address);
+            }
+            if (reference != CellAddress.NONE) {
+                dependentSet(reference).add(address);
+            }
+        }
+    }
+
+    /**
+     * Check whether the cell at the address can reference another cell without closing a cycle,
+     * and if so move cells in the topological order so the new reference respects it. Most new
+     * references already do and cost O(1); otherwise only cells ordered between the two are visited.
+     * The caller must hold the write side of the structure lock and then store the reference.
+     * @return false, with the reference graph unchanged, if the reference would close a cycle
+     */
+    public boolean orderReference(long address, long reference) {
+        if (address == reference) {
+            return false;
+        }
+        DependentSet target = dependents.get(address);
+        if (target == null || target.isEmpty()) {
+            // Nothing depends on the cell, so nothing it references can lead back to it
+            return true;
+        }
+        DependentSet source = dependentSet(reference);
+        if (source.order < target.order) {
+            return true;
+        }
+
+        // Forward: the dependents of the cell ordered no later than the referenced cell. The
+        // graph is a forest, so each is reached once; reaching the referenced cell means a cycle.
+        List<DependentSet> forward = new ArrayList<>();
+        long[] pending = {address};
+        int pendingSize = 1;
+        while (pendingSize > 0) {
+            DependentSet node = dependents.get(pending[--pendingSize]);
+            forward.add(node);
+            for (int slot = 0; slot < node.slots(); slot++) {
+                long dependent = node.keyAt(slot);
+                if (dependent == reference) {
+                    // Leave no empty entry behind for the referenced cell
+                    if (source.isEmpty()) {
+                        dependents.remove(reference);
+                    }
+                    return false;
+                }
+                DependentSet next = dependent != CellAddress.NONE ? dependents.get(dependent) : null;
+                if (next != null && !next.isEmpty() && next.order < source.order) {
+                    if (pendingSize == pending.length) {
+                        pending = Arrays.copyOf(pending, pendingSize * 2);
+                    }
+                    pending[pendingSize++] = dependent;
+                }
+            }
+        }
+
+        // Backward: the chain of cells the referenced cell depends on, ordered after the cell
+        List<DependentSet> backward = new ArrayList<>();
+        for (long current = reference; current != CellAddress.NONE; current = getReference(current)) {
+            DependentSet node = dependents.get(current);
+            if (node.order < target.order) {
+                break;
+            }
+            backward.add(node);
+        }
+
+        // Reuse the positions of both sets: the backward chain first, then the forward cells,
+        // each keeping its relative order
+        Comparator<DependentSet> byOrder = Comparator.comparingLong(node -> node.order);
+        forward.sort(byOrder);
+        backward.sort(byOrder);
+        long[] positions = new long[forward.size() + backward.size()];
+        int i = 0;
+        for (DependentSet node : backward) {
+            positions[i++] = node.order;
+        }
+        for (DependentSet node : forward) {
+            positions[i++] = node.order;
+        }
+        Arrays.sort(positions);
+        i = 0;
+        for (DependentSet node : backward) {
+            node.order = positions[i++];
+        }
+        for (DependentSet node : forward) {
+            node.order = positions[i++];
+        }
+        return true;
     }
 
-    public void addCell(Cell cell) {
-        String cellKey = generateCellKey(cell.getColumn(), cell.getRow());
-        cells.put(cellKey, cell);
+    /**
+     * Move a referenced cell after every other cell in the topological order. Moving a set of cells
+     * closed under dependents, one by one in topological order, keeps the order valid; batch
+     * updates use this instead of reordering for each new reference.
+     * The caller must hold the write side of the structure lock.
+     */
+    public void moveToEndOfOrder(long address) {
+        DependentSet node = dependents.get(address);
+        if (node != null) {
+            node.order = lastOrder++;
+        }
+    }
+
+    /**
+     * Install the store of a column read back from a snapshot. Only for a sheet no other thread
+     * can see yet; columns may be installed from different threads, followed by one call to
+     * {@link #rebuildDependents} once all of them are in place.
+     */
+    public void restoreColumnStore(int ordinal, ColumnStore store) {
+        stores[ordinal] = store;
+    }
+
+    /**
+     * Rebuild the reverse dependency index and the topological order from the lookups held in
+     * the column stores, and the running state of the aggregates, after restoring them. Only for a sheet no other thread can see yet, or
+     * under the write side of the structure lock.
+     */
+    public void rebuildDependents() {
+        LongHashSet referenced = new LongHashSet();
+        for (int ordinal = 0; ordinal < stores.length; ordinal++) {
+            if (stores[ordinal] == null) {
+                continue;
+            }
+            int column = ordinal;
+            stores[ordinal].forEachReference((row, reference) -> {
+                DependentSet dependentAddresses = dependents.get(reference);
+                if (dependentAddresses == null) {
+                    dependentAddresses = new DependentSet();
+                    dependents.put(reference, dependentAddresses);
+                    referenced.add(reference);
+                }
+                dependentAddresses.add(CellAddress.pack(column, row));
+            });
+        }
+
+        // Number the referenced cells breadth first from the ones referencing nothing, so every
+        // cell is ordered after the cell it looks up. The graph is a forest, each cell is queued once.
+        long[] queue = new long[referenced.size()];
+        int tail = 0;
+        for (int slot = 0; slot < referenced.slots(); slot++) {
+            long address = referenced.keyAt(slot);
+            if (address != CellAddress.NONE && getReference(address) == CellAddress.NONE) {
+                queue[tail++] = address;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            DependentSet node = dependents.get(queue[head]);
+            node.order = lastOrder++;
+            for (int slot = 0; slot < node.slots(); slot++) {
+                long dependent = node.keyAt(slot);
+                if (dependent != CellAddress.NONE && dependents.get(dependent) != null) {
+                    queue[tail++] = dependent;
+                }
+            }
+        }
+        rebuildAggregates();
+    }
+
+    /**
+     * Drop the cells, the dependency index, the topological order and the state of the aggregates from
+     * memory, once the cells are saved elsewhere. The schema, aggregate formulas, version and locks stay, so the sheet remains addressable until
+     * {@link #reload} brings the cells back. The caller must hold the write side of the structure lock.
+     */
+    public void release() {
+        stores = new ColumnStore[stores.length];
+        dependents = new LongObjectHashMap<>();
+        if (aggregatedColumns != null) {
+            for (AggregatedColumn column : aggregatedColumns) {
+                if (column != null) {
+                    column.tree = null;
+                }
+            }
+        }
+        firstOrder = -1;
+        lastOrder = 0;
+        spilled = true;
+    }
+
+    /**
+     * Install the column stores of a released sheet, read back from where {@link #release} saved them,
+     * and rebuild its dependency index. The caller must hold the write side of the structure lock.
+     */
+    public void reload(ColumnStore[] columnStores) {
+        stores = columnStores;
+        rebuildDependents();
+        spilled = false;
+    }
+
+    /**
+     * Whether the cells are released from memory. Stays false while the caller holds either side
+     * of the structure lock, if it was false when the lock was taken.
+     */
+    @JsonIgnore
+    public boolean isSpilled() {
+        return spilled;
     }
 
     public Cell getCell(String columnName, int rowIndex) {
-        String cellKey = generateCellKey(columnName, rowIndex);
-        return cells.get(cellKey);
+        int ordinal = getColumnIndex(columnName);
+        if (ordinal < 0 || stores[ordinal] == null || !stores[ordinal].contains(rowIndex)) {
+            return null;
+        }
+        ColumnStore store = stores[ordinal];
+        return toCell(columnName, rowIndex, store.get(rowIndex), store.getReference(rowIndex));
+    }
+
+    /**
+     * Check whether a cell exists at the address, including cells holding null
+     */
+    public boolean containsCell(long address) {
+        ColumnStore store = stores[CellAddress.ordinal(address)];
+        return store != null && store.contains(CellAddress.row(address));
+    }
+
+    /**
+     * Get the value at the address, or null when the cell is missing or empty
+     */
+    public Object getValue(long address) {
+        ColumnStore store = stores[CellAddress.ordinal(address)];
+        return store != null ? store.get(CellAddress.row(address)) : null;
+    }
+
+    /**
+     * Get the address referenced by the lookup at the address, or {@link CellAddress#NONE}
+     */
+    public long getReference(long address) {
+        ColumnStore store = stores[CellAddress.ordinal(address)];
+        return store != null ? store.getReference(CellAddress.row(address)) : CellAddress.NONE;
     }
 
-    public String generateCellKey(String columnName, int rowIndex) {
-        return columnName + "," + rowIndex;
+    /**
+     * Get the addresses of the lookup cells that directly reference the given address, or null if there are none.
+     * The returned set is owned by the sheet and must not be modified.
+     */
+    public LongHashSet getDependents(long address) {
+        DependentSet dependentAddresses = dependents.get(address);
+        return dependentAddresses != null && !dependentAddresses.isEmpty() ? dependentAddresses : null;
+    }
+
+    /**
+     * Get the lookup cells that directly reference the given cell
+     */
+    public List<Cell> getDependentCells(String columnName, int rowIndex) {
+        int ordinal = getColumnIndex(columnName);
+        LongHashSet dependentAddresses = ordinal >= 0 ? getDependents(CellAddress.pack(ordinal, rowIndex)) : null;
+        if (dependentAddresses == null) {
+            return Collections.emptyList();
+        }
+        List<Cell> dependentCells = new ArrayList<>(dependentAddresses.size());
+        for (int slot = 0; slot < dependentAddresses.slots(); slot++) {
+            long address = dependentAddresses.keyAt(slot);
+            if (address != CellAddress.NONE) {
+                dependentCells.add(getCell(columns.get(CellAddress.ordinal(address)).getName(), CellAddress.row(address)));
+            }
+        }
+        return dependentCells;
+    }
+
+    /**
+     * Get the type of the column at a position in the schema
+     * @throws IllegalArgumentException if the column has an unsupported type
+     */
+    public ColumnType getColumnTypeAt(int ordinal) {
+        ColumnType type = columnTypes[ordinal];
+        if (type == null) {
+            throw new IllegalArgumentException("Unsupported column type: " + columns.get(ordinal).getType());
+        }
+        return type;
+    }
+
+    /**
+     * Format a cell address as "column,row" for messages and logs
+     */
+    public String formatAddress(long address) {
+        return columns.get(CellAddress.ordinal(address)).getName() + "," + CellAddress.row(address);
     }
 
     public Column getColumnByName(String columnName) {
-        return columns.stream()
-                .filter(column -> column.getName().equals(columnName))
-                .findFirst()
-                .orElse(null);
+        int ordinal = getColumnIndex(columnName);
+        return ordinal >= 0 ? columns.get(ordinal) : null;
+    }
+
+    /**
+     * Get the position of a column in the schema, or -1 if there is no such column
+     */
+    public int getColumnIndex(String columnName) {
+        Integer ordinal = columnOrdinals.get(columnName);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * Record that a cell's dependents no longer hold its current value
+     */
+    public void markStale(long address) {
+        synchronized (staleSources) {
+            staleSources.add(address);
+        }
+    }
+
+    /**
+     * Whether any cell's dependents are behind its current value, or any aggregate cell behind its range
+     */
+    public boolean hasStaleSources() {
+        synchronized (staleSources) {
+            return staleSources.size() > 0 || !dirtyAggregates.isEmpty();
+        }
+    }
+
+    /**
+     * Take the next aggregate whose cell is behind its range, or null if there is none.
+     * The caller must hold the write side of the structure lock.
+     */
+    public Aggregate pollDirtyAggregate() {
+        synchronized (staleSources) {
+            for (Aggregate aggregate = dirtyAggregates.poll(); aggregate != null; aggregate = dirtyAggregates.poll()) {
+                aggregate.dirty = false;
+                if (!aggregate.removed) {
+                    return aggregate;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Get the aggregate held by the cell at the address, or null
+     */
+    public Aggregate getAggregate(long address) {
+        return aggregates.get(address);
+    }
+
+    public boolean hasAggregates() {
+        return aggregates.size() > 0;
+    }
+
+    /**
+     * Get the aggregates reading the column at a position in the schema, whatever their range.
+     * The returned list is owned by the sheet and must not be modified.
+     */
+    public List<Aggregate> getAggregatesReading(int ordinal) {
+        AggregatedColumn column = aggregatedColumns != null ? aggregatedColumns[ordinal] : null;
+        return column != null ? column.aggregates : Collections.emptyList();
+    }
+
+    /**
+     * Check whether any aggregate reads the cell at the address
+     */
+    public boolean isAggregated(long address) {
+        AggregatedColumn column = aggregatedColumns != null ? aggregatedColumns[CellAddress.ordinal(address)] : null;
+        return column != null && column.byRow().covers(CellAddress.row(address));
+    }
+
+    /**
+     * Get the aggregates whose range holds the cell at the address
+     */
+    public List<Aggregate> getAggregatesCovering(long address) {
+        AggregatedColumn column = aggregatedColumns != null ? aggregatedColumns[CellAddress.ordinal(address)] : null;
+        if (column == null) {
+            return Collections.emptyList();
+        }
+        List<Aggregate> covering = new ArrayList<>();
+        column.byRow().forEachCovering(CellAddress.row(address), covering::add);
+        return covering;
+    }
+
+    /**
+     * Every aggregate of the sheet. The returned list must not be modified.
+     */
+    @JsonIgnore
+    public List<Aggregate> getAggregates() {
+        if (aggregateList == null) {
+            List<Aggregate> all = new ArrayList<>(aggregates.size());
+            for (AggregatedColumn column : aggregatedColumns) {
+                if (column != null) {
+                    all.addAll(column.aggregates);
+                }
+            }
+            aggregateList = Collections.unmodifiableList(all);
+        }
+        return aggregateList;
+    }
+
+    /**
+     * Add an aggregate read back from a snapshot, without its running state. Only for a sheet no
+     * other thread can see yet, followed by {@link #rebuildDependents} once the columns are in place.
+     */
+    public void restoreAggregate(Aggregate aggregate) {
+        addAggregate(aggregate);
+    }
+
+    /**
+     * Take the cells marked stale since the last call. The caller must hold the write side of the
+     * structure lock, so no write can mark another cell until the dependents are recalculated.
+     */
+    public long[] drainStaleSources() {
+        synchronized (staleSources) {
+            long[] addresses = new long[staleSources.size()];
+            int i = 0;
+            for (int slot = 0; slot < staleSources.slots(); slot++) {
+                if (staleSources.keyAt(slot) != CellAddress.NONE) {
+                    addresses[i++] = staleSources.keyAt(slot);
+                }
+            }
+            staleSources.clear();
+            return addresses;
+        }
+    }
+
+    /**
+     * Number of cells in the sheet
+     */
+    @JsonIgnore
+    public long getCellCount() {
+        long count = 0;
+        for (ColumnStore store : stores) {
+            if (store != null) {
+                count += store.getCellCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Approximate heap footprint of the sheet's cells
+     */
+    @JsonIgnore
+    public long getEstimatedBytes() {
+        long bytes = 0;
+        for (ColumnStore store : stores) {
+            if (store != null) {
+                bytes += store.estimatedBytes();
+            }
+        }
+        if (aggregatedColumns != null) {
+            for (AggregatedColumn column : aggregatedColumns) {
+                if (column != null && column.tree != null) {
+                    bytes += column.tree.estimatedBytes();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    @JsonIgnore
+    public ReadWriteLock getStructureLock() {
+        return structureLock;
+    }
+
+    /**
+     * Get the lock stripe guarding plain writes to the cell at the address
+     */
+    public Lock getCellLock(long address) {
+        long hash = address * 0x9E3779B97F4A7C15L;
+        return cellLocks[(int) (hash >>> (Long.SIZE - CELL_LOCK_BITS))];
+    }
+
+    @JsonIgnore
+    public CellListener getCellListener() {
+        return cellListener;
+    }
+
+    /**
+     * Listen to every cell write from now on, replacing the previous listener
+     * @param cellListener the listener, or null to stop listening
+     */
+    public void setCellListener(CellListener cellListener) {
+        this.cellListener = cellListener;
+    }
+
+    /**
+     * Version of the latest mutation
+     */
+    @JsonIgnore
+    public long getVersion() {
+        return versionClock.get();
+    }
+
+    /**
+     * Identifies this instance of the sheet, which with the version names one state of it for good
+     */
+    @JsonIgnore
+    public long getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Allocate the version stamped on the cells written by one mutation
+     */
+    public long nextVersion() {
+        return versionClock.incrementAndGet();
+    }
+
+    /**
+     * Open a consistent, read-only view of the sheet. Waits for in-flight writes to
+     * finish, after which writers proceed while the snapshot is being read.
+     */
+    public SheetSnapshot openSnapshot() {
+        structureLock.writeLock().lock();
+        try {
+            long version = versionClock.get();
+            ColumnStoreSnapshot[] storeSnapshots = new ColumnStoreSnapshot[stores.length];
+            for (int i = 0; i < stores.length; i++) {
+                storeSnapshots[i] = stores[i] != null ? stores[i].snapshot() : null;
+            }
+            synchronized (openSnapshots) {
+                openSnapshots.merge(version, 1, Integer::sum);
+                newestSnapshotVersion = openSnapshots.lastKey();
+            }
+            return new SheetSnapshot(this, version, storeSnapshots, getAggregates());
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    void closeSnapshot(long version) {
+        synchronized (openSnapshots) {
+            openSnapshots.computeIfPresent(version, (key, count) -> count > 1 ? count - 1 : null);
+            newestSnapshotVersion = openSnapshots.isEmpty() ? -1 : openSnapshots.lastKey();
+        }
+    }
+
+    /**
+     * Build the API view of a stored cell
+     */
+    Cell toCell(String columnName, int rowIndex, Object value, long reference) {
+        Cell cell = new Cell(columnName, rowIndex, value);
+        if (reference != CellAddress.NONE) {
+            String referencedColumn = columns.get(CellAddress.ordinal(reference)).getName();
+            int referencedRow = CellAddress.row(reference);
+            cell.setLookupFunction("lookup(" + referencedColumn + "," + referencedRow + ")");
+            cell.setReferencedColumn(referencedColumn);
+            cell.setReferencedRow(referencedRow);
+        }
+        return cell;
+    }
+
+    private ColumnStore getStore(int ordinal) {
+        ColumnStore store = stores[ordinal];
+        if (store == null) {
+            throw new IllegalArgumentException("Unsupported column type: " + columns.get(ordinal).getType());
+        }
+        return store;
+    }
+
+    private void compileSchema(List<Column> columns, boolean strict) {
+        int size = columns != null ? columns.size() : 0;
+        ColumnType[] types = new ColumnType[size];
+        ColumnStore[] columnStores = new ColumnStore[size];
+        Map<String, Integer> ordinals = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            Column column = columns.get(i);
+            types[i] = strict ? ColumnType.fromName(column.getType()) : ColumnType.lookup(column.getType());
+            columnStores[i] = types[i] != null ? ColumnStore.forType(types[i]) : null;
+            ordinals.putIfAbsent(column.getName(), i);
+        }
+        this.columnTypes = types;
+        this.stores = columnStores;
+        this.columnOrdinals = ordinals;
+    }
+
+    private void initCellLocks() {
+        for (int i = 0; i < CELL_LOCK_STRIPES; i++) {
+            cellLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Get the dependents entry of a cell, placing a cell that had none in the topological order
+     */
+    private DependentSet dependentSet(long address) {
+        DependentSet dependentAddresses = dependents.get(address);
+        if (dependentAddresses == null) {
+            dependentAddresses = new DependentSet();
+            // A cell without a lookup depends on nothing and can go first; a lookup nobody referenced
+            // counted as last, so it stays after its own referenced cell by going last
+            dependentAddresses.order = getReference(address) == CellAddress.NONE ? firstOrder-- : lastOrder++;
+            dependents.put(address, dependentAddresses);
+        }
+        return dependentAddresses;
+    }
+
+    private void removeDependent(long referencedAddress, long dependentAddress) {
+        DependentSet dependentAddresses = dependents.get(referencedAddress);
+        if (dependentAddresses != null) {
+            dependentAddresses.remove(dependentAddress);
+            if (dependentAddresses.isEmpty()) {
+                dependents.remove(referencedAddress);
+            }
+        }
+    }
+
+    private void addAggregate(Aggregate aggregate) {
+        if (aggregatedColumns == null) {
+            aggregatedColumns = new AggregatedColumn[stores.length];
+        }
+        int ordinal = aggregate.getSourceOrdinal();
+        if (aggregatedColumns[ordinal] == null) {
+            aggregatedColumns[ordinal] = new AggregatedColumn();
+        }
+        aggregatedColumns[ordinal].aggregates.add(aggregate);
+        aggregatedColumns[ordinal].index = null;
+        aggregates.put(aggregate.getAddress(), aggregate);
+        aggregateList = null;
+    }
+
+    private void removeAggregate(Aggregate aggregate) {
+        aggregates.remove(aggregate.getAddress());
+        int ordinal = aggregate.getSourceOrdinal();
+        AggregatedColumn column = aggregatedColumns[ordinal];
+        column.aggregates.remove(aggregate);
+        column.index = null;
+        if (column.aggregates.isEmpty()) {
+            aggregatedColumns[ordinal] = null;
+        } else if (column.aggregates.stream().noneMatch(Aggregate::needsTree)) {
+            column.tree = null;
+        }
+        synchronized (staleSources) {
+            aggregate.removed = true;
+        }
+        aggregateList = null;
+    }
+
+    /**
+     * Compute the running state of a new aggregate from its range, building the column's tree if it needs one
+     */
+    private void computeAggregate(Aggregate aggregate) {
+        ColumnStore store = getStore(aggregate.getSourceOrdinal());
+        AggregatedColumn column = aggregatedColumns[aggregate.getSourceOrdinal()];
+        if (aggregate.needsTree() && column.tree == null) {
+            MinMaxTree tree = new MinMaxTree();
+            store.forEachValue(Integer.MIN_VALUE, Integer.MAX_VALUE, (row, value) -> tree.put(row, toDouble(value)));
+            column.tree = tree;
+        }
+        aggregate.reset();
+        store.forEachValue(aggregate.getFromRow(), aggregate.getToRow(), (row, value) -> aggregate.add(value));
+    }
+
+    /**
+     * Recompute the running state of every aggregate, reading each aggregated column once
+     */
+    private void rebuildAggregates() {
+        if (aggregatedColumns == null) {
+            return;
+        }
+        for (int ordinal = 0; ordinal < aggregatedColumns.length; ordinal++) {
+            AggregatedColumn column = aggregatedColumns[ordinal];
+            if (column == null || stores[ordinal] == null) {
+                continue;
+            }
+            MinMaxTree tree = column.aggregates.stream().anyMatch(Aggregate::needsTree) ? new MinMaxTree() : null;
+            for (Aggregate aggregate : column.aggregates) {
+                aggregate.reset();
+            }
+            RangeIndex<Aggregate> byRow = column.byRow();
+            stores[ordinal].forEachValue(Integer.MIN_VALUE, Integer.MAX_VALUE, (row, value) -> {
+                if (tree != null) {
+                    tree.put(row, toDouble(value));
+                }
+                byRow.forEachCovering(row, aggregate -> aggregate.add(value));
+            });
+            column.tree = tree;
+        }
+    }
+
+    private void markDirty(Aggregate aggregate) {
+        synchronized (staleSources) {
+            if (!aggregate.dirty) {
+                aggregate.dirty = true;
+                dirtyAggregates.add(aggregate);
+            }
+        }
+    }
+
+    private static double toDouble(Object value) {
+        return value instanceof Integer ? (Integer) value : value instanceof Double ? (Double) value : 0;
+    }
+
+    /**
+     * The aggregates reading a column, and the column's values by row when a min or max reads it
+     */
+    private final class AggregatedColumn {
+        final List<Aggregate> aggregates = new ArrayList<>();
+        MinMaxTree tree;
+        // The aggregates by row range, so a write only visits those covering its row. Dropped when the
+        // aggregates change, under the structure write lock, and rebuilt on first use; readers under the
+        // read lock may race to rebuild it, which only costs the loser its work.
+        RangeIndex<Aggregate> index;
+
+        RangeIndex<Aggregate> byRow() {
+            RangeIndex<Aggregate> byRow = index;
+            if (byRow == null) {
+                byRow = new RangeIndex<>(aggregates, Aggregate::getFromRow, Aggregate::getToRow);
+                index = byRow;
+            }
+            return byRow;
+        }
+
+        /**
+         * Update the aggregates whose range holds the row, and queue them to rewrite their cells
+         */
+        void cellChanged(int row, Object previousValue, Object value) {
+            byRow().forEachCovering(row, aggregate -> {
+                aggregate.remove(previousValue);
+                aggregate.add(value);
+                markDirty(aggregate);
+            });
+            if (tree != null) {
+                if (value != null) {
+                    tree.put(row, toDouble(value));
+                } else {
+                    tree.remove(row);
+                }
+            }
+        }
+    }
+
+    /**
+     * The lookups referencing a cell, and the cell's position in the topological order
+     */
+    private static final class DependentSet extends LongHashSet {
+        long order;
     }
 }
@@ -0,0 +1,96 @@
+package org.example.model;
+
+import org.example.storage.ColumnStoreSnapshot;
+import org.example.storage.RowCursor;
+
+import java.util.List;
+
+/**
+ * A consistent, read-only view of a sheet as of one version.
+ * Writers keep going while the snapshot is open; close it to stop them copying the pages it sees.
+ */
+public class SheetSnapshot implements AutoCloseable {
+    private final Sheet sheet;
+    private final long version;
+    private final ColumnStoreSnapshot[] stores;
+    private final List<Aggregate> aggregates;
+
+    SheetSnapshot(Sheet sheet, long version, ColumnStoreSnapshot[] stores, List<Aggregate> aggregates) {
+        this.sheet = sheet;
+        this.version = version;
+        this.stores = stores;
+        this.aggregates = aggregates;
+    }
+
+    public Sheet getSheet() {
+        return sheet;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Column> getColumns() {
+        return sheet.getColumns();
+    }
+
+    public Cell getCell(String columnName, int rowIndex) {
+        int ordinal = sheet.getColumnIndex(columnName);
+        if (ordinal < 0 || stores[ordinal] == null || !stores[ordinal].contains(rowIndex)) {
+            return null;
+        }
+        ColumnStoreSnapshot store = stores[ordinal];
+        return sheet.toCell(columnName, rowIndex, store.get(rowIndex), store.getReference(rowIndex));
+    }
+
+    /**
+     * The aggregate formulas held by cells at the snapshot version
+     */
+    public List<Aggregate> getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * Get the stored cells of the column at a position in the schema, or null for an unsupported type
+     */
+    public ColumnStoreSnapshot getColumnStore(int ordinal) {
+        return stores[ordinal];
+    }
+
+    /**
+     * Count the cells that existed at the snapshot version
+     */
+    public long getCellCount() {
+        long count = 0;
+        for (ColumnStoreSnapshot store : stores) {
+            if (store != null) {
+                count += store.getCellCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Walk the rows holding at least one cell in row order, with values in column order
+     */
+    public RowCursor rows() {
+        return new RowCursor(stores);
+    }
+
+    /**
+     * Walk the rows in [fromRow, toRow] holding a cell in at least one of the given columns, in row order
+     * @param columnOrdinals positions of the columns to visit, values come back in this order
+     */
+    public RowCursor rows(int fromRow, int toRow, int[] columnOrdinals) {
+        ColumnStoreSnapshot[] projected = new ColumnStoreSnapshot[columnOrdinals.length];
+        for (int i = 0; i < columnOrdinals.length; i++) {
+            projected[i] = stores[columnOrdinals[i]];
+        }
+        return new RowCursor(projected, fromRow, toRow);
+    }
+
+    @Override
+    public void close() {
+        sheet.closeSnapshot(version);
+    }
+}
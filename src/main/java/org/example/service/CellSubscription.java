@@ -0,0 +1,227 @@
+package org.example.service;
+
+import org.example.model.Cell;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.storage.CellAddress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A subscriber to the cell changes of one sheet, optionally limited to some columns and a row range.
+ * <p>
+ * Writers add the cells they change to a pending buffer that keeps only the latest value of each cell,
+ * and never wait for the subscriber: the buffer is handed to the {@link Sink} in batches, from another
+ * thread. A subscriber that falls more than the buffer size behind loses the pending changes and is
+ * told to read the sheet again instead; the changes after that keep coming.
+ */
+public class CellSubscription implements AutoCloseable {
+
+    /**
+     * Where the changes go. Batches and heartbeats come from one thread at a time, and an exception
+     * thrown by them ends the subscription; {@link #end} may come from any thread.
+     */
+    public interface Sink {
+
+        /**
+         * The latest values of cells changed since the previous batch
+         * @param version sheet version the batch brings the cells up to
+         */
+        void changes(long version, List<Cell> cells) throws IOException;
+
+        /**
+         * Changes were dropped because the subscriber fell behind; the sheet must be read again
+         * @param version sheet version of the latest change dropped
+         */
+        void reset(long version) throws IOException;
+
+        /**
+         * Nothing changed for a while; lets either side notice a dead connection
+         */
+        void heartbeat() throws IOException;
+
+        /**
+         * The subscription was ended by the server, because the sheet moved or the server is stopping
+         */
+        void end();
+    }
+
+    private final ChangeFeed feed;
+    private final Sheet sheet;
+    private final boolean[] columns;
+    private final int fromRow;
+    private final int toRow;
+    private final int bufferCells;
+    private final Sink sink;
+
+    // Taken by writers, which may be virtual threads; those stay pinned to their carrier inside a monitor
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Latest value by cell address, in the order the cells first changed. Guarded by lock.
+    private Map<Long, Object> pending = new LinkedHashMap<>();
+    private long pendingVersion;
+    private boolean overflowed;
+
+    // Set while a batch is being handed to the sink
+    private final AtomicBoolean delivering = new AtomicBoolean();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long lastDeliveryNanos = System.nanoTime();
+    private volatile long subscribedVersion;
+
+    /**
+     * @param columnOrdinals positions of the columns to follow, or null for all columns
+     */
+    CellSubscription(ChangeFeed feed, Sheet sheet, int[] columnOrdinals, int fromRow, int toRow,
+                     int bufferCells, Sink sink) {
+        this.feed = feed;
+        this.sheet = sheet;
+        this.columns = new boolean[sheet.getColumns().size()];
+        if (columnOrdinals == null) {
+            Arrays.fill(columns, true);
+        } else {
+            for (int ordinal : columnOrdinals) {
+                columns[ordinal] = true;
+            }
+        }
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+        this.bufferCells = bufferCells;
+        this.sink = sink;
+    }
+
+    Sheet getSheet() {
+        return sheet;
+    }
+
+    /**
+     * Sheet version read once the subscription was in place: every change after it reaches the sink
+     */
+    public long getSubscribedVersion() {
+        return subscribedVersion;
+    }
+
+    void setSubscribedVersion(long subscribedVersion) {
+        this.subscribedVersion = subscribedVersion;
+    }
+
+    /**
+     * Record a cell write, if the subscription follows the cell. Called under the writer's locks.
+     * @return true if the subscriber fell behind with this write
+     */
+    boolean offer(long address, Object value, long version) {
+        int ordinal = CellAddress.ordinal(address);
+        int row = CellAddress.row(address);
+        if (ordinal >= columns.length || !columns[ordinal] || row < fromRow || row > toRow) {
+            return false;
+        }
+        lock.lock();
+        try {
+            pendingVersion = Math.max(pendingVersion, version);
+            if (overflowed) {
+                return false;
+            }
+            pending.put(address, value);
+            if (pending.size() <= bufferCells) {
+                return false;
+            }
+            pending = new LinkedHashMap<>();
+            overflowed = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean hasPending() {
+        lock.lock();
+        try {
+            return overflowed || !pending.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getLastDeliveryNanos() {
+        return lastDeliveryNanos;
+    }
+
+    /**
+     * Claim the right to call the sink, so batches go out one at a time and in order
+     */
+    boolean startDelivery() {
+        return !closed.get() && delivering.compareAndSet(false, true);
+    }
+
+    void endDelivery() {
+        delivering.set(false);
+    }
+
+    /**
+     * Hand the pending changes to the sink, or a heartbeat if there are none.
+     * The caller must have claimed the delivery, see {@link #startDelivery}.
+     */
+    void deliver() throws IOException {
+        Map<Long, Object> batch;
+        boolean reset;
+        long version;
+        lock.lock();
+        try {
+            batch = pending;
+            reset = overflowed;
+            version = pendingVersion;
+            if (!batch.isEmpty()) {
+                pending = new LinkedHashMap<>();
+            }
+            overflowed = false;
+        } finally {
+            lock.unlock();
+        }
+        if (reset) {
+            sink.reset(version);
+        } else if (!batch.isEmpty()) {
+            List<Column> schema = sheet.getColumns();
+            List<Cell> cells = new ArrayList<>(batch.size());
+            for (Map.Entry<Long, Object> change : batch.entrySet()) {
+                long address = change.getKey();
+                cells.add(new Cell(schema.get(CellAddress.ordinal(address)).getName(), CellAddress.row(address),
+                        change.getValue()));
+            }
+            sink.changes(version, cells);
+        } else {
+            sink.heartbeat();
+        }
+        lastDeliveryNanos = System.nanoTime();
+    }
+
+    /**
+     * End the subscription from the server side, telling the sink
+     */
+    void end() {
+        if (closed.compareAndSet(false, true)) {
+            feed.remove(this);
+            sink.end();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Stop receiving changes
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            feed.remove(this);
+        }
+    }
+}
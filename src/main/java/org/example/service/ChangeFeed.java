@@ -0,0 +1,211 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.CellListener;
+import org.example.model.Sheet;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streams cell changes to the subscribers of each sheet, see {@link CellSubscription}.
+ * <p>
+ * A sheet with subscribers gets a {@link CellListener} that hands each write to them; a sheet without
+ * any has none, so writes cost nothing extra. Every batch interval a scheduler thread looks for
+ * subscribers with pending changes and hands each to a delivery thread, so a subscriber whose
+ * connection stalls only holds up itself.
+ */
+@Slf4j
+class ChangeFeed implements Closeable {
+
+    // Idle subscribers get a heartbeat this often
+    private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    private final long batchMillis;
+    private final int bufferCells;
+    private final List<CellSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final LongAdder resets = new LongAdder();
+
+    // Guards the executors and the sheet listeners
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Started with the first subscription. Guarded by lock.
+    private ScheduledExecutorService scheduler;
+    private ExecutorService delivery;
+
+    /**
+     * @param batchMillis time between batches sent to a subscriber
+     * @param bufferCells most changed cells held for a subscriber before it has to read the sheet again
+     */
+    ChangeFeed(long batchMillis, int bufferCells) {
+        this.batchMillis = batchMillis;
+        this.bufferCells = bufferCells;
+    }
+
+    private void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "change-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threads = new AtomicInteger();
+        delivery = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "change-feed-delivery-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::deliverAll, batchMillis, batchMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start streaming the changes of a sheet. The caller holds a lock on the sheet that keeps it from
+     * being removed meanwhile.
+     * @param columnOrdinals positions of the columns to follow, or null for all columns
+     */
+    CellSubscription subscribe(Sheet sheet, int[] columnOrdinals, int fromRow, int toRow, CellSubscription.Sink sink) {
+        CellSubscription subscription = new CellSubscription(this, sheet, columnOrdinals, fromRow, toRow,
+                bufferCells, sink);
+        lock.lock();
+        try {
+            if (scheduler == null) {
+                start();
+            }
+            subscriptions.add(subscription);
+            SheetListener listener = (SheetListener) sheet.getCellListener();
+            if (listener == null) {
+                listener = new SheetListener();
+                sheet.setCellListener(listener);
+            }
+            listener.subscriptions.add(subscription);
+        } finally {
+            lock.unlock();
+        }
+        log.debug("Subscribed to changes of sheet: {}", sheet.getId());
+        return subscription;
+    }
+
+    void remove(CellSubscription subscription) {
+        Sheet sheet = subscription.getSheet();
+        lock.lock();
+        try {
+            subscriptions.remove(subscription);
+            SheetListener listener = (SheetListener) sheet.getCellListener();
+            if (listener != null) {
+                listener.subscriptions.remove(subscription);
+                if (listener.subscriptions.isEmpty()) {
+                    sheet.setCellListener(null);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        log.debug("Unsubscribed from changes of sheet: {}", sheet.getId());
+    }
+
+    /**
+     * End the subscriptions of a sheet that is gone from this node
+     */
+    void sheetRemoved(Sheet sheet) {
+        SheetListener listener = (SheetListener) sheet.getCellListener();
+        if (listener != null) {
+            for (CellSubscription subscription : listener.subscriptions) {
+                subscription.end();
+            }
+        }
+    }
+
+    int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Times a subscriber fell behind and was told to read its sheet again
+     */
+    long getResets() {
+        return resets.sum();
+    }
+
+    private void deliverAll() {
+        ExecutorService delivery;
+        lock.lock();
+        try {
+            delivery = this.delivery;
+        } finally {
+            lock.unlock();
+        }
+        long now = System.nanoTime();
+        for (CellSubscription subscription : subscriptions) {
+            if (!subscription.hasPending() && now - subscription.getLastDeliveryNanos() < HEARTBEAT_NANOS) {
+                continue;
+            }
+            if (!subscription.startDelivery()) {
+                // Still busy with the previous batch; this one grows meanwhile
+                continue;
+            }
+            try {
+                delivery.execute(() -> deliver(subscription));
+            } catch (RejectedExecutionException e) {
+                subscription.endDelivery();
+            }
+        }
+    }
+
+    private void deliver(CellSubscription subscription) {
+        try {
+            subscription.deliver();
+        } catch (Exception e) {
+            // Mostly a client that went away
+            log.debug("Ending subscription to sheet: {}", subscription.getSheet().getId(), e);
+            subscription.end();
+        } finally {
+            subscription.endDelivery();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (scheduler == null) {
+                return;
+            }
+            scheduler.shutdownNow();
+        } finally {
+            lock.unlock();
+        }
+        for (CellSubscription subscription : subscriptions) {
+            subscription.end();
+        }
+        lock.lock();
+        try {
+            delivery.shutdown();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the writes to a sheet to its subscribers
+     */
+    private final class SheetListener implements CellListener {
+        final List<CellSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void cellWritten(long address, Object value, long version) {
+            for (CellSubscription subscription : subscriptions) {
+                if (subscription.offer(address, value, version)) {
+                    resets.increment();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads CSV records from a stream through a fixed-size buffer, so memory use does not grow with
+ * the input. Fields may be quoted, with "" for a quote inside; quoted fields may span lines.
+ * Empty fields are returned as null, and blank lines are skipped.
+ */
+class CsvReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder field = new StringBuilder();
+    private int position;
+    private int limit;
+    private long line = 1;
+    private long recordLine;
+
+    CsvReader(InputStream in) {
+        this.reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the next record
+     * @param fields receives the fields; a record with more fields than it holds is rejected
+     * @return number of fields in the record, or -1 at the end of the input
+     * @throws IllegalArgumentException for a record with too many fields or an unterminated quote
+     */
+    int readRecord(String[] fields) throws IOException {
+        int c = read();
+        while (c == '\r' || c == '\n') {
+            c = read();
+        }
+        if (c < 0) {
+            return -1;
+        }
+        recordLine = line;
+
+        int count = 0;
+        for (;;) {
+            boolean quoted = false;
+            field.setLength(0);
+            if (c == '"') {
+                quoted = true;
+                for (c = read(); ; c = read()) {
+                    if (c < 0) {
+                        throw new IllegalArgumentException("Unterminated quoted field at line " + recordLine);
+                    }
+                    if (c == '"') {
+                        c = read();
+                        if (c != '"') {
+                            break;
+                        }
+                    }
+                    field.append((char) c);
+                }
+            }
+            // Unquoted fields, and anything after the closing quote up to the separator
+            while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                field.append((char) c);
+                c = read();
+            }
+
+            if (count == fields.length) {
+                throw new IllegalArgumentException("Line " + recordLine + " has more than " + fields.length + " fields");
+            }
+            fields[count++] = field.length() > 0 || quoted ? field.toString() : null;
+            if (c != ',') {
+                return count;
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * Line number where the last record read starts
+     */
+    long getRecordLine() {
+        return recordLine;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        char c = buffer[position++];
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+}
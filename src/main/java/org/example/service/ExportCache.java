@@ -0,0 +1,126 @@
+package org.example.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rendered exports, kept within a byte budget with the least recently used evicted first.
+ * <p>
+ * An entry is keyed by the sheet instance and the request (format, rows and columns), and holds the
+ * rendering of one version. A rendering of a newer version replaces it, so renderings of versions
+ * nobody can ask for again do not linger until evicted. Renderings above a share of the budget are
+ * not kept, so one large export cannot flush everything else.
+ */
+class ExportCache {
+
+    // Largest rendering kept, as a share of the budget
+    private static final int MAX_ENTRY_SHARE = 4;
+
+    private final long maxBytes;
+
+    // Guarded by itself; access ordered, so iteration starts at the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxBytes most bytes of renderings kept
+     */
+    ExportCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Largest rendering worth passing to {@link #put}
+     */
+    long getMaxEntryBytes() {
+        return maxBytes / MAX_ENTRY_SHARE;
+    }
+
+    /**
+     * @return the rendering of the given version, or null if it is not cached
+     */
+    byte[] get(String key, long version) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null || entry.version != version) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.rendered;
+    }
+
+    void put(String key, long version, byte[] rendered) {
+        if (rendered.length > getMaxEntryBytes()) {
+            return;
+        }
+        synchronized (entries) {
+            Entry previous = entries.get(key);
+            if (previous != null && previous.version >= version) {
+                // A slower render of an older version, or the same one rendered twice
+                return;
+            }
+            entries.put(key, new Entry(version, rendered));
+            bytes += rendered.length - (previous != null ? previous.rendered.length : 0);
+            Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+            while (bytes > maxBytes) {
+                bytes -= leastRecentlyUsed.next().rendered.length;
+                leastRecentlyUsed.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop the renderings of a sheet that is gone
+     */
+    void evictSheet(String keyPrefix) {
+        synchronized (entries) {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (entry.getKey().startsWith(keyPrefix)) {
+                    bytes -= entry.getValue().rendered.length;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    private static final class Entry {
+        final long version;
+        final byte[] rendered;
+
+        Entry(long version, byte[] rendered) {
+            this.version = version;
+            this.rendered = rendered;
+        }
+    }
+}
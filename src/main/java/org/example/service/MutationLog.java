@@ -0,0 +1,323 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.Aggregate;
+import org.example.model.CellUpdate;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.model.SheetSnapshot;
+import org.example.storage.CellAddress;
+import org.example.storage.LongObjectHashMap;
+import org.example.storage.RowCursor;
+import org.example.storage.WriteAheadLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records sheet mutations in a write-ahead log, and replays them into a service on startup.
+ * Cells are logged with their stored value, or with their lookup or aggregate formula, so
+ * replaying goes through the same validation and propagation as the original request.
+ */
+@Slf4j
+class MutationLog implements Closeable {
+
+    // Record types
+    private static final byte CREATE_SHEET = 1;
+    private static final byte SET_CELL = 2;
+    private static final byte SET_CELLS = 3;
+    private static final byte REMOVE_SHEET = 4;
+
+    // Cells per record when a whole sheet is logged
+    private static final int INSTALL_BATCH_CELLS = 65_536;
+
+    // Value tags
+    private static final byte NULL_VALUE = 0;
+    private static final byte INT_VALUE = 1;
+    private static final byte DOUBLE_VALUE = 2;
+    private static final byte BOOLEAN_VALUE = 3;
+    private static final byte STRING_VALUE = 4;
+
+    private final WriteAheadLog writeAheadLog;
+
+    private MutationLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    /**
+     * Open the log at the path and apply the mutations in it to the service
+     * @param restoredSequences sheet ID -> sequence number of the last record already reflected in the
+     *                          sheet restored from a snapshot; earlier records of those sheets are skipped
+     */
+    static MutationLog open(Path path, WriteAheadLog.SyncMode syncMode, long syncIntervalMillis,
+                            SpreadsheetService target, Map<String, Long> restoredSequences) throws IOException {
+        log.info("Opening write-ahead log: {}, sync: {}", path, syncMode);
+        long start = System.nanoTime();
+        WriteAheadLog writeAheadLog = WriteAheadLog.open(path, syncMode, syncIntervalMillis,
+                (sequence, record) -> replay(sequence, record, target, restoredSequences));
+        if (writeAheadLog.getTruncatedBytes() > 0) {
+            log.warn("Discarded {} bytes of incomplete records at the end of the write-ahead log",
+                    writeAheadLog.getTruncatedBytes());
+        }
+        log.info("Replayed {} mutations from the write-ahead log in {} ms",
+                writeAheadLog.getReplayedRecords(), (System.nanoTime() - start) / 1_000_000);
+        return new MutationLog(writeAheadLog);
+    }
+
+    void sheetCreated(Sheet sheet) {
+        Record record = new Record(CREATE_SHEET);
+        record.writeString(sheet.getId());
+        record.writeInt(sheet.getColumns().size());
+        for (Column column : sheet.getColumns()) {
+            record.writeString(column.getName());
+            record.writeString(column.getType());
+        }
+        writeAheadLog.append(record.toByteArray());
+    }
+
+    /**
+     * Log a whole sheet received from another node, as its creation followed by batches of its cells.
+     * The sheet must not be visible to other threads yet.
+     */
+    void sheetInstalled(Sheet sheet) {
+        sheetCreated(sheet);
+        long[] addresses = new long[INSTALL_BATCH_CELLS];
+        Object[] values = new Object[INSTALL_BATCH_CELLS];
+        long[] references = new long[INSTALL_BATCH_CELLS];
+        int count = 0;
+        try (SheetSnapshot snapshot = sheet.openSnapshot()) {
+            int columnCount = snapshot.getColumns().size();
+            LongObjectHashMap<Aggregate> aggregates = new LongObjectHashMap<>();
+            for (Aggregate aggregate : snapshot.getAggregates()) {
+                aggregates.put(aggregate.getAddress(), aggregate);
+            }
+            RowCursor rows = snapshot.rows();
+            while (rows.next()) {
+                int row = rows.getRow();
+                for (int column = 0; column < columnCount; column++) {
+                    if (!rows.hasCell(column)) {
+                        continue;
+                    }
+                    addresses[count] = CellAddress.pack(column, row);
+                    Aggregate aggregate = aggregates.get(addresses[count]);
+                    values[count] = aggregate != null ? aggregate.format(snapshot.getColumns()) : rows.getValue(column);
+                    references[count] = snapshot.getColumnStore(column).getReference(row);
+                    if (++count == INSTALL_BATCH_CELLS) {
+                        cellsWritten(sheet, addresses, values, references);
+                        count = 0;
+                    }
+                }
+            }
+        }
+        if (count > 0) {
+            cellsWritten(sheet, Arrays.copyOf(addresses, count), Arrays.copyOf(values, count),
+                    Arrays.copyOf(references, count));
+        }
+    }
+
+    /**
+     * Log that a sheet was removed, such as when it was handed to another node. The caller must hold
+     * the sheet's structure write lock, so no write to it can be logged after.
+     */
+    void sheetRemoved(Sheet sheet) {
+        Record record = new Record(REMOVE_SHEET);
+        record.writeString(sheet.getId());
+        writeAheadLog.append(record.toByteArray());
+    }
+
+    /**
+     * Log a cell write. The caller must hold the lock that orders writes to the cell.
+     * @param value the stored value, or the formula of an aggregate cell
+     */
+    void cellWritten(Sheet sheet, long address, Object value, long reference) {
+        Record record = new Record(SET_CELL);
+        record.writeString(sheet.getId());
+        writeCell(record, sheet, address, value, reference);
+        writeAheadLog.append(record.toByteArray());
+    }
+
+    /**
+     * Log a batch of cell writes, in the order they were applied
+     * @param values the stored values, or the formulas of aggregate cells
+     */
+    void cellsWritten(Sheet sheet, long[] addresses, Object[] values, long[] references) {
+        Record record = new Record(SET_CELLS);
+        record.writeString(sheet.getId());
+        record.writeInt(addresses.length);
+        for (int i = 0; i < addresses.length; i++) {
+            writeCell(record, sheet, addresses[i], values[i], references[i]);
+        }
+        writeAheadLog.append(record.toByteArray());
+    }
+
+    /**
+     * Sequence number of the last logged mutation. Read under a sheet's write lock, it marks
+     * the last record a snapshot taken under the same lock reflects.
+     */
+    long appendedSequence() {
+        return writeAheadLog.getAppendedSequence();
+    }
+
+    /**
+     * Start a new log segment
+     * @return sequence number of the last record in the closed segment
+     */
+    long rotate() throws IOException {
+        return writeAheadLog.rotate();
+    }
+
+    /**
+     * Drop the segments whose mutations are all covered by a snapshot
+     */
+    void deleteSegmentsThrough(long sequence) throws IOException {
+        writeAheadLog.deleteSegmentsThrough(sequence);
+    }
+
+    /**
+     * Wait until the calling thread's mutations are as durable as the sync mode promises
+     */
+    void commit() {
+        writeAheadLog.commit();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeAheadLog.close();
+    }
+
+    private static void writeCell(Record record, Sheet sheet, long address, Object value, long reference) {
+        record.writeString(sheet.getColumns().get(CellAddress.ordinal(address)).getName());
+        record.writeInt(CellAddress.row(address));
+        if (reference != CellAddress.NONE) {
+            record.writeValue(formatLookup(sheet, reference));
+        } else {
+            record.writeValue(value);
+        }
+    }
+
+    private static String formatLookup(Sheet sheet, long reference) {
+        return "lookup(" + sheet.getColumns().get(CellAddress.ordinal(reference)).getName()
+                + "," + CellAddress.row(reference) + ")";
+    }
+
+    private static void replay(long sequence, ByteBuffer record, SpreadsheetService target,
+                               Map<String, Long> restoredSequences) {
+        byte type = record.get();
+        String sheetId = readString(record);
+        if (sequence <= restoredSequences.getOrDefault(sheetId, 0L)) {
+            return;
+        }
+        try {
+            switch (type) {
+                case CREATE_SHEET: {
+                    int count = record.getInt();
+                    List<Column> columns = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        columns.add(new Column(readString(record), readString(record)));
+                    }
+                    target.createSheetWithId(sheetId, columns);
+                    break;
+                }
+                case SET_CELL:
+                    target.setCellValue(sheetId, readString(record), record.getInt(), readValue(record));
+                    break;
+                case SET_CELLS: {
+                    int count = record.getInt();
+                    List<CellUpdate> updates = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        updates.add(new CellUpdate(readString(record), record.getInt(), readValue(record)));
+                    }
+                    target.setCellValues(sheetId, updates);
+                    break;
+                }
+                case REMOVE_SHEET:
+                    target.removeSheet(sheetId);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown write-ahead log record type: " + type);
+            }
+        } catch (IllegalArgumentException e) {
+            // A mutation that failed when first applied after being logged fails again, skip it
+            log.warn("Skipping write-ahead log record for sheet: {}, {}", sheetId, e.getMessage());
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Object readValue(ByteBuffer record) {
+        byte tag = record.get();
+        switch (tag) {
+            case NULL_VALUE:
+                return null;
+            case INT_VALUE:
+                return record.getInt();
+            case DOUBLE_VALUE:
+                return record.getDouble();
+            case BOOLEAN_VALUE:
+                return record.get() != 0;
+            case STRING_VALUE:
+                return readString(record);
+            default:
+                throw new IllegalStateException("Unknown write-ahead log value tag: " + tag);
+        }
+    }
+
+    /**
+     * A record being encoded, big-endian like {@link ByteBuffer}
+     */
+    private static final class Record extends ByteArrayOutputStream {
+
+        Record(byte type) {
+            super(64);
+            write(type);
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeString(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(encoded.length);
+            write(encoded, 0, encoded.length);
+        }
+
+        /**
+         * Write a value in the canonical form of a column type
+         */
+        void writeValue(Object value) {
+            if (value == null) {
+                write(NULL_VALUE);
+            } else if (value instanceof Integer) {
+                write(INT_VALUE);
+                writeInt((Integer) value);
+            } else if (value instanceof Double) {
+                long bits = Double.doubleToRawLongBits((Double) value);
+                write(DOUBLE_VALUE);
+                writeInt((int) (bits >>> 32));
+                writeInt((int) bits);
+            } else if (value instanceof Boolean) {
+                write(BOOLEAN_VALUE);
+                write((Boolean) value ? 1 : 0);
+            } else {
+                write(STRING_VALUE);
+                writeString(value.toString());
+            }
+        }
+    }
+}
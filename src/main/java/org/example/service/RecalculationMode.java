@@ -0,0 +1,31 @@
+package org.example.service;
+
+import java.util.Locale;
+
+/**
+ * When lookup cells pick up a new value of the cell they reference
+ */
+public enum RecalculationMode {
+    /**
+     * Every write copies the new value into all of its dependents before returning
+     */
+    EAGER,
+
+    /**
+     * A write only marks its cell as stale; dependents are recalculated, once each, when the
+     * sheet is next read, so repeated writes to a heavily referenced cell cost O(1)
+     */
+    LAZY;
+
+    /**
+     * Resolve a configured mode name, ignoring case
+     * @throws IllegalArgumentException for an unknown mode
+     */
+    public static RecalculationMode fromName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException("Unsupported recalculation mode: " + name);
+        }
+    }
+}
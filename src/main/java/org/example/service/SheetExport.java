@@ -0,0 +1,228 @@
+package org.example.service;
+
+import org.example.model.SheetSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An export of a sheet pinned to one version: its entity tag, known before anything is written,
+ * and the bytes, served from the export cache or rendered from a snapshot taken at that version.
+ * A compressed export is compressed as it is rendered, and cached compressed.
+ * Holds the snapshot until closed.
+ */
+public class SheetExport implements AutoCloseable {
+
+    public enum Format {
+        CSV("csv"),
+        COLUMNAR("columnar");
+
+        private final String tag;
+
+        Format(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * Content codings of the bytes, as named in Accept-Encoding and Content-Encoding
+     */
+    public enum Encoding {
+        IDENTITY("identity"),
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String name;
+
+        Encoding(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        OutputStream compress(OutputStream out) throws IOException {
+            switch (this) {
+                case GZIP:
+                    return new GZIPOutputStream(out, COMPRESSION_BUFFER_SIZE);
+                case DEFLATE:
+                    // HTTP's deflate is the zlib format, not raw deflate
+                    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+                    return new DeflaterOutputStream(out, deflater, COMPRESSION_BUFFER_SIZE) {
+                        @Override
+                        public void close() throws IOException {
+                            try {
+                                super.close();
+                            } finally {
+                                deflater.end();
+                            }
+                        }
+                    };
+                default:
+                    return out;
+            }
+        }
+    }
+
+    private static final int COMPRESSION_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Renders a snapshot in one format
+     */
+    interface Renderer {
+        void render(SheetSnapshot snapshot, OutputStream out) throws IOException;
+    }
+
+    private final String entityTag;
+    private final Encoding encoding;
+    private final byte[] rendered;
+    private final SheetSnapshot snapshot;
+    private final Renderer renderer;
+    private final ExportCache cache;
+    private final String cacheKey;
+
+    /**
+     * An export served from the cache
+     */
+    SheetExport(String entityTag, Encoding encoding, byte[] rendered) {
+        this.entityTag = entityTag;
+        this.encoding = encoding;
+        this.rendered = rendered;
+        this.snapshot = null;
+        this.renderer = null;
+        this.cache = null;
+        this.cacheKey = null;
+    }
+
+    /**
+     * An export rendered from a snapshot
+     * @param cache where to keep the rendering, or null not to keep it
+     */
+    SheetExport(String entityTag, Encoding encoding, SheetSnapshot snapshot, Renderer renderer,
+                ExportCache cache, String cacheKey) {
+        this.entityTag = entityTag;
+        this.encoding = encoding;
+        this.rendered = null;
+        this.snapshot = snapshot;
+        this.renderer = renderer;
+        this.cache = cache;
+        this.cacheKey = cacheKey;
+    }
+
+    /**
+     * Strong entity tag of the export, quoted as in an ETag header. It changes whenever the sheet
+     * does, and differs between formats and encodings.
+     */
+    public String getETag() {
+        return entityTag;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Whether the bytes come from the export cache
+     */
+    public boolean isCached() {
+        return rendered != null;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        if (rendered != null) {
+            out.write(rendered);
+            return;
+        }
+        // The cache keeps the bytes as sent, so a compressed export is captured after compression
+        CapturingOutputStream capture = cache != null ? new CapturingOutputStream(out, cache.getMaxEntryBytes()) : null;
+        OutputStream target = capture != null ? capture : out;
+        if (encoding == Encoding.IDENTITY) {
+            renderer.render(snapshot, target);
+        } else {
+            // Closing the compressor writes its trailer and frees it, but must leave the response open
+            try (OutputStream compressed = encoding.compress(new UnclosableOutputStream(target))) {
+                renderer.render(snapshot, compressed);
+            }
+        }
+        if (capture != null && capture.captured != null) {
+            cache.put(cacheKey, snapshot.getVersion(), capture.captured.toByteArray());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (snapshot != null) {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Strong entity tag of one version of a sheet instance in one format and encoding
+     */
+    static String entityTag(long instanceId, long version, Format format, Encoding encoding) {
+        return "\"" + Long.toHexString(instanceId) + "-" + version + "-" + format.tag
+                + (encoding != Encoding.IDENTITY ? "-" + encoding.name : "") + "\"";
+    }
+
+    /**
+     * Passes bytes through, and only flushes when closed
+     */
+    private static final class UnclosableOutputStream extends FilterOutputStream {
+        UnclosableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Passes bytes through and keeps a copy of them, until there are more than the limit
+     */
+    private static final class CapturingOutputStream extends FilterOutputStream {
+        private final long limit;
+        private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+        CapturingOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            capture(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            capture(b, off, len);
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            if (captured == null) {
+                return;
+            }
+            if (captured.size() + (long) len > limit) {
+                // Too large to cache, stop copying
+                captured = null;
+                return;
+            }
+            captured.write(b, off, len);
+        }
+    }
+}
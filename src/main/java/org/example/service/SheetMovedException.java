@@ -0,0 +1,12 @@
+package org.example.service;
+
+/**
+ * Thrown to a request that waited for a sheet while the sheet was handed to another node.
+ * Retrying the request reaches the sheet on its new owner.
+ */
+public class SheetMovedException extends RuntimeException {
+
+    public SheetMovedException(String sheetId) {
+        super("Sheet " + sheetId + " moved to another node, retry the request");
+    }
+}
@@ -0,0 +1,450 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.Sheet;
+import org.example.model.SheetSnapshot;
+import org.example.storage.ColumnStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * The service's sheets by ID, optionally kept within a heap budget for their cells.
+ * <p>
+ * A background task measures the sheets held in memory and, above the budget, spills the least
+ * recently accessed ones to disk until they fit again. A spilled sheet keeps its schema, version and
+ * locks in memory and stays addressable; its cells are read back the next time its structure lock is
+ * taken through {@link #lock}. Spilling takes the write side of that lock, so a caller holding either
+ * side can rely on the cells staying in memory.
+ * <p>
+ * A spilled sheet is written in the snapshot file format, one file per sheet, so a checkpoint copies
+ * it as it is. Spill files only live as long as the process.
+ * <p>
+ * A sheet handed to another node is removed the same way, under its write lock; callers that were
+ * waiting for the lock get a {@link SheetMovedException}.
+ */
+@Slf4j
+class SheetStore implements Closeable {
+
+    private static final String SPILL_SUFFIX = ".snap";
+
+    // How often memory use is checked against the budget
+    private static final long EVICTION_INTERVAL_MILLIS = 200;
+
+    // Spilling stops once the sheets in memory fit in this share of the budget, so a sheet
+    // created right after does not trigger another round at once
+    private static final double EVICTION_TARGET = 0.9;
+
+    // Access times closer than this are not recorded again, so reads of a busy sheet do not keep
+    // writing the same field from every thread
+    private static final long ACCESS_GRANULARITY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long budgetBytes;
+    private final Path spillDirectory;
+    private final boolean temporarySpillDirectory;
+    private final Consumer<Sheet> settle;
+    private final LongSupplier walSequence;
+    private final AtomicLong spillFileNumber = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private ScheduledExecutorService evictionScheduler;
+
+    /**
+     * A sheet and its spill state. The spill fields are guarded by the sheet's structure write lock.
+     */
+    private static final class Entry {
+        final Sheet sheet;
+        volatile long lastAccess;
+        Path spillFile;
+        long spilledCells;
+        long spilledBytes;
+
+        Entry(Sheet sheet) {
+            this.sheet = sheet;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    /**
+     * A sheet in memory as measured by one eviction round
+     */
+    private static final class Candidate {
+        final Entry entry;
+        final long lastAccess;
+        final long bytes;
+
+        Candidate(Entry entry, long lastAccess, long bytes) {
+            this.entry = entry;
+            this.lastAccess = lastAccess;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * @param budgetBytes most heap the cells of the sheets in memory may take, 0 for no limit
+     * @param spillDirectory where spilled sheets are written, or null for a temporary directory
+     * @param settle brings a sheet's lookups up to date before it is spilled, called under its structure write lock
+     * @param walSequence sequence number of the last logged mutation, read under a sheet's structure write lock
+     */
+    SheetStore(long budgetBytes, Path spillDirectory, Consumer<Sheet> settle, LongSupplier walSequence) throws IOException {
+        this.budgetBytes = budgetBytes;
+        this.settle = settle;
+        this.walSequence = walSequence;
+        this.temporarySpillDirectory = budgetBytes > 0 && spillDirectory == null;
+        if (budgetBytes > 0) {
+            if (spillDirectory == null) {
+                spillDirectory = Files.createTempDirectory("spreadsheet-spill");
+            } else {
+                // Left by an earlier process; its sheets come back from the snapshot or the log
+                Files.createDirectories(spillDirectory);
+                deleteSpillFiles(spillDirectory);
+            }
+            log.info("Sheet memory budget: {} MB, spilling to: {}", budgetBytes >> 20, spillDirectory);
+        }
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Start checking memory use against the budget in the background, if there is one
+     */
+    void startEviction() {
+        if (budgetBytes <= 0) {
+            return;
+        }
+        evictionScheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "sheet-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictionScheduler.scheduleWithFixedDelay(this::scheduledEviction,
+                EVICTION_INTERVAL_MILLIS, EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get a sheet by ID, in memory or spilled, and record the access
+     */
+    Sheet get(String sheetId) {
+        Entry entry = entries.get(sheetId);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (now - entry.lastAccess > ACCESS_GRANULARITY_NANOS) {
+            entry.lastAccess = now;
+        }
+        if (entry.sheet.isSpilled()) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry.sheet;
+    }
+
+    boolean contains(String sheetId) {
+        return entries.containsKey(sheetId);
+    }
+
+    void put(Sheet sheet) {
+        entries.put(sheet.getId(), new Entry(sheet));
+    }
+
+    /**
+     * Whether the sheet is still the one stored under its ID, rather than removed
+     */
+    boolean holds(Sheet sheet) {
+        Entry entry = entries.get(sheet.getId());
+        return entry != null && entry.sheet == sheet;
+    }
+
+    /**
+     * Drop a sheet and its cells. The caller must hold the sheet's structure write lock.
+     */
+    void remove(Sheet sheet) {
+        Entry entry = entries.get(sheet.getId());
+        if (entry == null || entry.sheet != sheet) {
+            return;
+        }
+        entries.remove(sheet.getId(), entry);
+        if (entry.spillFile != null) {
+            deleteQuietly(entry.spillFile);
+            entry.spillFile = null;
+        }
+        // Marks the sheet spilled, so a caller still holding it is stopped by lock()
+        sheet.release();
+    }
+
+    List<Sheet> values() {
+        List<Sheet> sheets = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            sheets.add(entry.sheet);
+        }
+        return sheets;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Lock the structure of a sheet, first reading its cells back from disk if it was spilled
+     * @param exclusive whether to take the write side of the lock rather than the read side
+     * @return the lock taken, for the caller to release
+     * @throws UncheckedIOException if the spilled cells cannot be read
+     * @throws SheetMovedException if the sheet was removed
+     */
+    Lock lock(Sheet sheet, boolean exclusive) {
+        ReadWriteLock structureLock = sheet.getStructureLock();
+        if (exclusive) {
+            Lock writeLock = structureLock.writeLock();
+            writeLock.lock();
+            if (sheet.isSpilled()) {
+                try {
+                    Entry entry = entries.get(sheet.getId());
+                    if (entry == null || entry.sheet != sheet) {
+                        throw new SheetMovedException(sheet.getId());
+                    }
+                    reload(entry);
+                } catch (RuntimeException e) {
+                    writeLock.unlock();
+                    throw e;
+                }
+            }
+            return writeLock;
+        }
+
+        Lock readLock = structureLock.readLock();
+        readLock.lock();
+        while (sheet.isSpilled()) {
+            // Reloading needs the write side; another eviction can get in between, hence the loop
+            readLock.unlock();
+            lock(sheet, true).unlock();
+            readLock.lock();
+        }
+        return readLock;
+    }
+
+    /**
+     * Add a spilled sheet's file to a checkpoint. The caller must hold the sheet's structure write lock,
+     * and the sheet must be spilled: it has not changed since, so its spill file is a snapshot of it.
+     */
+    void copySpilled(Sheet sheet, SnapshotStore.Checkpoint checkpoint) throws IOException {
+        Entry entry = entries.get(sheet.getId());
+        checkpoint.copy(entry.spillFile, entry.spilledCells);
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Number of sheets whose cells are on disk
+     */
+    int getSpilledCount() {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.sheet.isSpilled()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Size of the spill files
+     */
+    long getSpilledBytes() {
+        long bytes = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.sheet.isSpilled()) {
+                bytes += entry.spilledBytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Stop evicting and delete the spill files. Checkpoints copying spill files must be done by then.
+     */
+    @Override
+    public void close() throws IOException {
+        if (evictionScheduler != null) {
+            evictionScheduler.shutdownNow();
+            try {
+                evictionScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (spillDirectory != null) {
+            deleteSpillFiles(spillDirectory);
+            if (temporarySpillDirectory) {
+                Files.deleteIfExists(spillDirectory);
+            }
+        }
+    }
+
+    private void scheduledEviction() {
+        try {
+            evict();
+        } catch (RuntimeException e) {
+            // Keep the schedule going; sheets that could not be spilled stay in memory
+            log.error("Sheet eviction failed", e);
+        }
+    }
+
+    /**
+     * Spill the least recently accessed sheets while the sheets in memory exceed the budget
+     * @return number of sheets spilled
+     */
+    int evict() {
+        // Access times are copied, so concurrent accesses cannot reorder the sheets while they are sorted
+        List<Candidate> candidates = new ArrayList<>();
+        long residentBytes = 0;
+        for (Entry entry : entries.values()) {
+            if (!entry.sheet.isSpilled()) {
+                Candidate candidate = new Candidate(entry, entry.lastAccess, entry.sheet.getEstimatedBytes());
+                candidates.add(candidate);
+                residentBytes += candidate.bytes;
+            }
+        }
+        if (residentBytes <= budgetBytes) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        long target = (long) (budgetBytes * EVICTION_TARGET);
+        candidates.sort(Comparator.comparingLong(candidate -> candidate.lastAccess));
+        int spilled = 0;
+        for (Candidate candidate : candidates) {
+            if (residentBytes <= target) {
+                break;
+            }
+            if (spill(candidate.entry)) {
+                residentBytes -= candidate.bytes;
+                spilled++;
+            }
+        }
+        log.info("Spilled {} sheets in {} ms, {} MB of sheets in memory", spilled,
+                (System.nanoTime() - start) / 1_000_000, residentBytes >> 20);
+        return spilled;
+    }
+
+    /**
+     * Write a sheet to a spill file and release its cells. The file is written without holding the
+     * sheet's lock; if the sheet is written meanwhile it is no longer cold and stays in memory.
+     * @return whether the sheet was spilled
+     */
+    private boolean spill(Entry entry) {
+        Sheet sheet = entry.sheet;
+        Lock writeLock = sheet.getStructureLock().writeLock();
+        SheetSnapshot snapshot;
+        long sequence;
+        long version;
+        writeLock.lock();
+        try {
+            if (sheet.isSpilled()) {
+                return false;
+            }
+            settle.accept(sheet);
+            sequence = walSequence.getAsLong();
+            version = sheet.getVersion();
+            snapshot = sheet.openSnapshot();
+        } finally {
+            writeLock.unlock();
+        }
+
+        Path file = spillDirectory.resolve(String.format("sheet-%016d%s", spillFileNumber.incrementAndGet(), SPILL_SUFFIX));
+        long cells;
+        long bytes;
+        try (snapshot) {
+            cells = snapshot.getCellCount();
+            // Only this process reads the file back, and a checkpoint syncs its own copy
+            bytes = SnapshotStore.writeSheet(file, snapshot, sequence, false);
+        } catch (IOException e) {
+            log.warn("Cannot spill sheet: {}", sheet.getId(), e);
+            deleteQuietly(file);
+            return false;
+        }
+
+        writeLock.lock();
+        try {
+            if (sheet.getVersion() != version || sheet.isSpilled()) {
+                deleteQuietly(file);
+                return false;
+            }
+            entry.spillFile = file;
+            entry.spilledCells = cells;
+            entry.spilledBytes = bytes;
+            sheet.release();
+        } finally {
+            writeLock.unlock();
+        }
+        evictions.increment();
+        log.debug("Spilled sheet: {}, {} cells, {} bytes", sheet.getId(), cells, bytes);
+        return true;
+    }
+
+    /**
+     * Read a spilled sheet's cells back. The caller must hold the sheet's structure write lock.
+     */
+    private void reload(Entry entry) {
+        Sheet sheet = entry.sheet;
+        long start = System.nanoTime();
+        ColumnStore[] stores;
+        try {
+            stores = SnapshotStore.readColumnStores(entry.spillFile, sheet);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot reload spilled sheet: " + sheet.getId(), e);
+        }
+        sheet.reload(stores);
+        deleteQuietly(entry.spillFile);
+        entry.spillFile = null;
+        entry.spilledBytes = 0;
+        log.debug("Reloaded sheet: {}, {} cells in {} ms", sheet.getId(), entry.spilledCells,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static void deleteSpillFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(file -> file.getFileName().toString().endsWith(SPILL_SUFFIX)).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Cannot delete spill file: {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.example.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Hands a sheet to another node, see {@link SpreadsheetService#transferSheet}
+ */
+@FunctionalInterface
+public interface SheetTransfer {
+
+    /**
+     * Send a sheet file, in the snapshot format, to the sheet's new owner
+     * @throws IOException if the new owner did not take the sheet; it then stays on this node
+     */
+    void send(String sheetId, Path sheetFile) throws IOException;
+}
@@ -0,0 +1,486 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.Aggregate;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.model.SheetSnapshot;
+import org.example.storage.ColumnStore;
+import org.example.storage.ColumnStoreSnapshot;
+import org.example.storage.SnapshotReader;
+import org.example.storage.SnapshotWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Binary snapshots of every sheet, written by checkpoints and read back on startup.
+ * <p>
+ * A checkpoint writes one file per sheet into a new directory and then points the CURRENT file
+ * at it, so a crash mid-checkpoint leaves the previous one in place. A sheet file holds the
+ * schema and each column's pages as they are laid out in memory, and records the sequence
+ * number of the last write-ahead log record the sheet reflects:
+ * <pre>
+ * magic, format version, WAL sequence, sheet ID, column count, (name, type) per column,
+ * aggregate count, (cell address, function, column, first row, last row) per aggregate,
+ * column data per column, (offset, length) of each column's data, offset of that table
+ * </pre>
+ * Files of format version 1, from before aggregates, have no aggregate list.
+ * Restoring maps the files and reads every column of every sheet in parallel.
+ */
+@Slf4j
+class SnapshotStore {
+
+    private static final int MAGIC = 0x53534E50;
+    private static final int FORMAT_VERSION = 2;
+    private static final String CURRENT = "CURRENT";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String SHEET_SUFFIX = ".snap";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private long lastCheckpoint;
+
+    private SnapshotStore(Path directory, long lastCheckpoint) {
+        this.directory = directory;
+        this.lastCheckpoint = lastCheckpoint;
+    }
+
+    static SnapshotStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long lastCheckpoint = 0;
+        for (Path checkpoint : checkpoints(directory)) {
+            lastCheckpoint = Math.max(lastCheckpoint, checkpointNumber(checkpoint));
+        }
+        return new SnapshotStore(directory, lastCheckpoint);
+    }
+
+    /**
+     * A sheet read back from a snapshot
+     */
+    static final class RestoredSheet {
+        final Sheet sheet;
+
+        // Sequence number of the last write-ahead log record reflected in the sheet
+        final long walSequence;
+
+        RestoredSheet(Sheet sheet, long walSequence) {
+            this.sheet = sheet;
+            this.walSequence = walSequence;
+        }
+    }
+
+    /**
+     * Read every sheet of the current checkpoint, or none if there is no checkpoint yet
+     */
+    List<RestoredSheet> load() throws IOException {
+        Path checkpoint = currentCheckpoint();
+        if (checkpoint == null) {
+            return new ArrayList<>();
+        }
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(checkpoint)) {
+            paths = files.filter(file -> file.getFileName().toString().endsWith(SHEET_SUFFIX)).sorted().toList();
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        log.info("Restoring {} sheets from snapshot: {}, threads: {}", paths.size(), checkpoint, threads);
+        long start = System.nanoTime();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "snapshot-restore-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<SheetFile> sheetFiles = new ArrayList<>(paths.size());
+        try {
+            for (Path path : paths) {
+                sheetFiles.add(SheetFile.open(path));
+            }
+
+            // Each column is a task of its own, so a single large sheet still loads on every thread
+            List<Future<?>> columns = new ArrayList<>();
+            for (SheetFile sheetFile : sheetFiles) {
+                for (int ordinal = 0; ordinal < sheetFile.columnOffsets.length; ordinal++) {
+                    int column = ordinal;
+                    columns.add(executor.submit(() -> {
+                        sheetFile.readColumn(column);
+                        return null;
+                    }));
+                }
+            }
+            await(columns);
+
+            List<Future<?>> indexes = new ArrayList<>(sheetFiles.size());
+            for (SheetFile sheetFile : sheetFiles) {
+                indexes.add(executor.submit(() -> {
+                    sheetFile.sheet.rebuildDependents();
+                    return null;
+                }));
+            }
+            await(indexes);
+        } finally {
+            executor.shutdownNow();
+            for (SheetFile sheetFile : sheetFiles) {
+                sheetFile.close();
+            }
+        }
+
+        List<RestoredSheet> restored = new ArrayList<>(sheetFiles.size());
+        long bytes = 0;
+        for (SheetFile sheetFile : sheetFiles) {
+            restored.add(new RestoredSheet(sheetFile.sheet, sheetFile.walSequence));
+            bytes += sheetFile.size;
+        }
+        log.info("Restored {} sheets, {} MB, in {} ms", restored.size(), bytes >> 20,
+                (System.nanoTime() - start) / 1_000_000);
+        return restored;
+    }
+
+    /**
+     * Start writing a new checkpoint
+     */
+    Checkpoint begin() throws IOException {
+        lastCheckpoint++;
+        Path target = directory.resolve(String.format("%s%020d", CHECKPOINT_PREFIX, lastCheckpoint));
+        Path temporary = target.resolveSibling(target.getFileName() + TEMPORARY_SUFFIX);
+        deleteRecursively(temporary);
+        Files.createDirectories(temporary);
+        return new Checkpoint(temporary, target);
+    }
+
+    /**
+     * A checkpoint being written. Sheets are written one at a time; nothing is visible to a
+     * restore until {@link #publish()}.
+     */
+    final class Checkpoint {
+        private final Path temporary;
+        private final Path target;
+        private int sheetCount;
+        private long cellCount;
+        private long bytes;
+
+        private Checkpoint(Path temporary, Path target) {
+            this.temporary = temporary;
+            this.target = target;
+        }
+
+        /**
+         * Write a sheet and sync it to disk
+         * @param walSequence sequence number of the last write-ahead log record the snapshot reflects
+         */
+        void write(SheetSnapshot snapshot, long walSequence) throws IOException {
+            bytes += writeSheet(nextPath(), snapshot, walSequence, true);
+            sheetCount++;
+            cellCount += snapshot.getCellCount();
+        }
+
+        /**
+         * Add a sheet file written earlier by {@link #writeSheet}, such as a spilled sheet, and sync it to disk
+         * @param cells number of cells in the sheet
+         */
+        void copy(Path sheetFile, long cells) throws IOException {
+            Path path = nextPath();
+            Files.copy(sheetFile, path);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(true);
+                bytes += channel.size();
+            }
+            sheetCount++;
+            cellCount += cells;
+        }
+
+        private Path nextPath() {
+            return temporary.resolve(String.format("sheet-%08d%s", sheetCount, SHEET_SUFFIX));
+        }
+
+        /**
+         * Make the checkpoint the one restored on startup, and delete the older ones
+         */
+        void publish() throws IOException {
+            syncDirectory(temporary);
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            Path current = directory.resolve(CURRENT);
+            Path next = directory.resolve(CURRENT + TEMPORARY_SUFFIX);
+            try (FileChannel channel = FileChannel.open(next, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                channel.write(StandardCharsets.UTF_8.encode(target.getFileName().toString()));
+                channel.force(true);
+            }
+            Files.move(next, current, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory(directory);
+
+            for (Path checkpoint : checkpoints(directory)) {
+                if (!checkpoint.equals(target)) {
+                    deleteRecursively(checkpoint);
+                }
+            }
+        }
+
+        void abort() {
+            try {
+                deleteRecursively(temporary);
+            } catch (IOException e) {
+                log.warn("Cannot delete incomplete snapshot: {}", temporary, e);
+            }
+        }
+
+        int getSheetCount() {
+            return sheetCount;
+        }
+
+        long getCellCount() {
+            return cellCount;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Write a sheet file
+     * @param walSequence sequence number of the last write-ahead log record the snapshot reflects
+     * @param sync whether to sync the file to disk before returning
+     * @return size of the file
+     */
+    static long writeSheet(Path path, SheetSnapshot snapshot, long walSequence, boolean sync) throws IOException {
+        List<Column> columns = snapshot.getColumns();
+        try (SnapshotWriter out = SnapshotWriter.create(path)) {
+            out.putInt(MAGIC);
+            out.putInt(FORMAT_VERSION);
+            out.putLong(walSequence);
+            out.putString(snapshot.getSheet().getId());
+            out.putInt(columns.size());
+            for (Column column : columns) {
+                out.putString(column.getName());
+                out.putString(column.getType());
+            }
+            out.putInt(snapshot.getAggregates().size());
+            for (Aggregate aggregate : snapshot.getAggregates()) {
+                out.putLong(aggregate.getAddress());
+                out.putString(aggregate.getFunction().getName());
+                out.putInt(aggregate.getSourceOrdinal());
+                out.putInt(aggregate.getFromRow());
+                out.putInt(aggregate.getToRow());
+            }
+
+            long[] offsets = new long[columns.size()];
+            long[] lengths = new long[columns.size()];
+            for (int ordinal = 0; ordinal < columns.size(); ordinal++) {
+                offsets[ordinal] = out.position();
+                ColumnStoreSnapshot column = snapshot.getColumnStore(ordinal);
+                if (column != null) {
+                    column.writeTo(out);
+                }
+                lengths[ordinal] = out.position() - offsets[ordinal];
+            }
+
+            long table = out.position();
+            for (int ordinal = 0; ordinal < columns.size(); ordinal++) {
+                out.putLong(offsets[ordinal]);
+                out.putLong(lengths[ordinal]);
+            }
+            out.putLong(table);
+            if (sync) {
+                out.sync();
+            }
+            return out.position();
+        }
+    }
+
+    /**
+     * Read the column stores of a sheet file, one column after the other
+     * @param sheet sheet with the schema the file was written with
+     */
+    static ColumnStore[] readColumnStores(Path path, Sheet sheet) throws IOException {
+        try (SheetFile sheetFile = SheetFile.open(path)) {
+            ColumnStore[] stores = new ColumnStore[sheetFile.columnOffsets.length];
+            for (int ordinal = 0; ordinal < stores.length; ordinal++) {
+                SnapshotReader in = new SnapshotReader(sheetFile.channel, sheetFile.columnOffsets[ordinal],
+                        sheetFile.columnLengths[ordinal]);
+                stores[ordinal] = ColumnStore.read(sheet.getColumnTypeAt(ordinal), in);
+            }
+            return stores;
+        }
+    }
+
+    /**
+     * Read a whole sheet file, one column after the other
+     */
+    static Sheet readSheet(Path path) throws IOException {
+        try (SheetFile sheetFile = SheetFile.open(path)) {
+            for (int ordinal = 0; ordinal < sheetFile.columnOffsets.length; ordinal++) {
+                sheetFile.readColumn(ordinal);
+            }
+            sheetFile.sheet.rebuildDependents();
+            return sheetFile.sheet;
+        }
+    }
+
+    private Path currentCheckpoint() throws IOException {
+        Path current = directory.resolve(CURRENT);
+        if (!Files.exists(current)) {
+            return null;
+        }
+        Path checkpoint = directory.resolve(Files.readString(current, StandardCharsets.UTF_8).trim());
+        if (!Files.isDirectory(checkpoint)) {
+            throw new IOException("Snapshot named in " + current + " is missing: " + checkpoint);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * One sheet file being restored: the header is read up front, the columns by separate tasks
+     */
+    private static final class SheetFile implements Closeable {
+        final FileChannel channel;
+        final long size;
+        final long walSequence;
+        final Sheet sheet;
+        final long[] columnOffsets;
+        final long[] columnLengths;
+
+        private SheetFile(FileChannel channel, long size, long walSequence, Sheet sheet,
+                          long[] columnOffsets, long[] columnLengths) {
+            this.channel = channel;
+            this.size = size;
+            this.walSequence = walSequence;
+            this.sheet = sheet;
+            this.columnOffsets = columnOffsets;
+            this.columnLengths = columnLengths;
+        }
+
+        static SheetFile open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                SnapshotReader header = new SnapshotReader(channel, 0, size);
+                if (header.getInt() != MAGIC) {
+                    throw new IOException("Not a sheet snapshot: " + path);
+                }
+                int version = header.getInt();
+                if (version != FORMAT_VERSION && version != 1) {
+                    throw new IOException("Unsupported sheet snapshot format " + version + ": " + path);
+                }
+                long walSequence = header.getLong();
+                String id = header.getString();
+                int columnCount = header.getInt();
+                List<Column> columns = new ArrayList<>(columnCount);
+                for (int i = 0; i < columnCount; i++) {
+                    columns.add(new Column(header.getString(), header.getString()));
+                }
+                Sheet sheet = new Sheet(id, columns);
+                int aggregateCount = version > 1 ? header.getInt() : 0;
+                for (int i = 0; i < aggregateCount; i++) {
+                    long address = header.getLong();
+                    Aggregate.Function function = Aggregate.Function.lookup(header.getString());
+                    int sourceOrdinal = header.getInt();
+                    if (function == null || sourceOrdinal < 0 || sourceOrdinal >= columnCount) {
+                        throw new IOException("Invalid aggregate in sheet snapshot: " + path);
+                    }
+                    sheet.restoreAggregate(new Aggregate(function, address, sourceOrdinal,
+                            sheet.getColumnTypeAt(sourceOrdinal), header.getInt(), header.getInt()));
+                }
+
+                long table = new SnapshotReader(channel, size - Long.BYTES, Long.BYTES).getLong();
+                SnapshotReader tableReader = new SnapshotReader(channel, table, size - Long.BYTES - table);
+                long[] offsets = new long[columnCount];
+                long[] lengths = new long[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    offsets[i] = tableReader.getLong();
+                    lengths[i] = tableReader.getLong();
+                }
+                return new SheetFile(channel, size, walSequence, sheet, offsets, lengths);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        void readColumn(int ordinal) throws IOException {
+            SnapshotReader in = new SnapshotReader(channel, columnOffsets[ordinal], columnLengths[ordinal]);
+            sheet.restoreColumnStore(ordinal, ColumnStore.read(sheet.getColumnTypeAt(ordinal), in));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static void await(List<Future<?>> tasks) throws IOException {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while restoring snapshot", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Cannot restore snapshot", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * The published and temporary checkpoint directories
+     */
+    private static List<Path> checkpoints(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> Files.isDirectory(file)
+                            && file.getFileName().toString().startsWith(CHECKPOINT_PREFIX))
+                    .sorted(Comparator.comparing(Path::getFileName))
+                    .toList();
+        }
+    }
+
+    private static long checkpointNumber(Path checkpoint) {
+        String name = checkpoint.getFileName().toString().substring(CHECKPOINT_PREFIX.length());
+        if (name.endsWith(TEMPORARY_SUFFIX)) {
+            name = name.substring(0, name.length() - TEMPORARY_SUFFIX.length());
+        }
+        try {
+            return Long.parseLong(name);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static void syncDirectory(Path directory) {
+        // Makes renames and new files durable; not every platform can open a directory
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+}
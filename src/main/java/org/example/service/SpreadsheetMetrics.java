@@ -0,0 +1,173 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.example.model.Sheet;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the calculation engine, exposed through the Prometheus scrape endpoint:
+ * <ul>
+ * <li>{@code spreadsheet.write.stage}: time spent validating writes, checking them for cycles and
+ * propagating them to lookups, as histograms tagged by stage</li>
+ * <li>{@code spreadsheet.propagation.fanout} and {@code spreadsheet.propagation.depth}: lookup cells
+ * recomputed by one propagation, and the longest chain of lookups it followed</li>
+ * <li>{@code spreadsheet.sheets}, and per sheet {@code spreadsheet.sheet.cells} and
+ * {@code spreadsheet.sheet.bytes}</li>
+ * <li>{@code spreadsheet.sheet.access}: sheet lookups by whether the sheet was in memory, tagged
+ * {@code result=hit} or {@code result=miss}; {@code spreadsheet.sheet.evictions}, and
+ * {@code spreadsheet.sheets.spilled} with {@code spreadsheet.sheets.spilled.bytes} for the sheets
+ * on disk</li>
+ * <li>{@code spreadsheet.export.cache}: exports by whether they were served from the export cache,
+ * tagged {@code result=hit} or {@code result=miss}, and {@code spreadsheet.export.cache.bytes}</li>
+ * <li>{@code spreadsheet.changes.subscribers}, and {@code spreadsheet.changes.resets}: subscribers that
+ * fell behind and were told to read their sheet again</li>
+ * </ul>
+ * Recording is a clock read and a few atomic increments, so it stays on under load; the sheet
+ * gauges are only computed when scraped.
+ */
+class SpreadsheetMetrics {
+
+    private final MeterRegistry registry;
+    private final Timer validation;
+    private final Timer cycleCheck;
+    private final Timer propagation;
+    private final DistributionSummary fanOut;
+    private final DistributionSummary depth;
+
+    /**
+     * @param sheets the service's sheets, measured when scraped
+     */
+    SpreadsheetMetrics(MeterRegistry registry, SheetStore sheets) {
+        this.registry = registry;
+        this.validation = stageTimer("validation");
+        this.cycleCheck = stageTimer("cycle_check");
+        this.propagation = stageTimer("propagation");
+        this.fanOut = DistributionSummary.builder("spreadsheet.propagation.fanout")
+                .description("Lookup cells recomputed by one propagation")
+                .baseUnit("cells")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(10_000_000.0)
+                .register(registry);
+        this.depth = DistributionSummary.builder("spreadsheet.propagation.depth")
+                .description("Longest chain of lookups followed by one propagation")
+                .baseUnit("cells")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(10_000_000.0)
+                .register(registry);
+        Gauge.builder("spreadsheet.sheets", sheets, SheetStore::size)
+                .description("Number of sheets")
+                .strongReference(true)
+                .register(registry);
+        FunctionCounter.builder("spreadsheet.sheet.access", sheets, SheetStore::getHits)
+                .description("Sheet lookups by whether the sheet was in memory")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("spreadsheet.sheet.access", sheets, SheetStore::getMisses)
+                .description("Sheet lookups by whether the sheet was in memory")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("spreadsheet.sheet.evictions", sheets, SheetStore::getEvictions)
+                .description("Sheets spilled to disk to stay within the memory budget")
+                .register(registry);
+        Gauge.builder("spreadsheet.sheets.spilled", sheets, SheetStore::getSpilledCount)
+                .description("Sheets spilled to disk")
+                .register(registry);
+        Gauge.builder("spreadsheet.sheets.spilled.bytes", sheets, SheetStore::getSpilledBytes)
+                .description("Size of the spill files of the sheets on disk")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private Timer stageTimer(String stage) {
+        return Timer.builder("spreadsheet.write.stage")
+                .description("Time spent in one stage of a write")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(1_000))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry);
+    }
+
+    void exportCacheCreated(ExportCache cache) {
+        FunctionCounter.builder("spreadsheet.export.cache", cache, ExportCache::getHits)
+                .description("Exports by whether they were served from the export cache")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("spreadsheet.export.cache", cache, ExportCache::getMisses)
+                .description("Exports by whether they were served from the export cache")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("spreadsheet.export.cache.bytes", cache, ExportCache::getBytes)
+                .description("Size of the exports kept in the export cache")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    void changeFeedCreated(ChangeFeed feed) {
+        Gauge.builder("spreadsheet.changes.subscribers", feed, ChangeFeed::getSubscriberCount)
+                .description("Subscribers to cell changes")
+                .register(registry);
+        FunctionCounter.builder("spreadsheet.changes.resets", feed, ChangeFeed::getResets)
+                .description("Subscribers that fell behind and were told to read their sheet again")
+                .register(registry);
+    }
+
+    /**
+     * Start measuring the size of a sheet, once it is published
+     */
+    void sheetAdded(Sheet sheet) {
+        Gauge.builder("spreadsheet.sheet.cells", sheet, Sheet::getCellCount)
+                .description("Cells stored in the sheet")
+                .tag("sheet", sheet.getId())
+                .baseUnit("cells")
+                .register(registry);
+        Gauge.builder("spreadsheet.sheet.bytes", sheet, Sheet::getEstimatedBytes)
+                .description("Approximate heap footprint of the sheet's cells")
+                .tag("sheet", sheet.getId())
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Stop measuring a sheet that was removed
+     */
+    void sheetRemoved(Sheet sheet) {
+        for (String name : new String[] {"spreadsheet.sheet.cells", "spreadsheet.sheet.bytes"}) {
+            for (Meter meter : registry.find(name).tag("sheet", sheet.getId()).meters()) {
+                registry.remove(meter);
+            }
+        }
+    }
+
+    /**
+     * @param start {@link System#nanoTime()} when validation began
+     */
+    void recordValidation(long start) {
+        validation.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param start {@link System#nanoTime()} when the cycle check began
+     */
+    void recordCycleCheck(long start) {
+        cycleCheck.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param start {@link System#nanoTime()} when propagation began
+     * @param recalculated lookup cells recomputed
+     * @param chainDepth longest chain of lookups followed
+     */
+    void recordPropagation(long start, int recalculated, int chainDepth) {
+        propagation.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        fanOut.record(recalculated);
+        depth.record(chainDepth);
+    }
+}
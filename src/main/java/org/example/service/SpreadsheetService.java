@@ -1,122 +1,1550 @@
 package org.example.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.example.model.Aggregate;
+import org.example.model.BatchUpdateResult;
 import org.example.model.Cell;
+import org.example.model.CellUpdate;
 import org.example.model.Column;
+import org.example.model.ColumnType;
+import org.example.model.ImportResult;
+import org.example.model.RowPage;
 import org.example.model.Sheet;
+import org.example.model.SheetSnapshot;
+import org.example.storage.CellAddress;
+import org.example.storage.ColumnarWriter;
+import org.example.storage.LongHashSet;
+import org.example.storage.LongObjectHashMap;
+import org.example.storage.RowCursor;
+import org.example.storage.WriteAheadLog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 @Service
 @Slf4j
 public class SpreadsheetService {
 
-    // In-memory storage for sheets
-    private final Map<String, Sheet> sheets = new ConcurrentHashMap<>();
+    // Matches lookup(columnName, rowIndex)
+    private static final Pattern LOOKUP_PATTERN = Pattern.compile("lookup\\(\\s*([A-Za-z]+)\\s*,\\s*(\\d+)\\s*\\)");
+
+    // Matches function(columnName) and function(columnName, fromRow, toRow) for the aggregate functions.
+    // Only values it matches whole are formulas; anything else, like "max(3 apples)", is a plain value
+    private static final Pattern AGGREGATE_PATTERN = Pattern.compile(
+            "(sum|avg|min|max|count)\\(\\s*([A-Za-z]+)\\s*(?:,\\s*(\\d+)\\s*,\\s*(\\d+)\\s*)?\\)");
+
+    // Size of the character buffer between CSV rendering and the output stream
+    private static final int CSV_BUFFER_SIZE = 64 * 1024;
+
+    // Rows validated and applied together by a CSV import, bounding its memory use
+    private static final int IMPORT_CHUNK_ROWS = 8192;
+
+    // Most columns a CSV import may declare for a new sheet
+    private static final int MAX_IMPORT_COLUMNS = 4096;
+
+    // Most rows one page of a row range read may hold
+    public static final int MAX_PAGE_ROWS = 10_000;
+
+    // Most cells one multi-get may read
+    public static final int MAX_READ_CELLS = 100_000;
+
+    // Sheets by ID, within the memory budget if one is set
+    private final SheetStore sheets;
+
+    private final RecalculationMode recalculationMode;
+
+    private final SpreadsheetMetrics metrics;
+
+    // Exports rendered before, by version, null when caching is off
+    private final ExportCache exportCache;
+
+    // Subscribers to cell changes
+    private final ChangeFeed changeFeed;
+
+    // Write-ahead log of mutations, null when persistence is off. Set once replay has finished,
+    // so replayed mutations are not logged again.
+    private volatile MutationLog mutationLog;
+
+    // Binary snapshots of the sheets, null when snapshots are off
+    private SnapshotStore snapshotStore;
+
+    private ScheduledExecutorService checkpointScheduler;
+
+    // Held while a sheet is logged and published, and while a checkpoint rotates the log and
+    // lists the sheets, so every sheet is either in the checkpoint or created in the new log segment.
+    // This and the checkpoint lock are held over file I/O, so they are not monitors: a virtual thread
+    // blocked inside a monitor stays pinned to its carrier thread
+    private final ReentrantLock sheetCreationLock = new ReentrantLock();
+
+    // Serializes checkpoints
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+
+    // Generated sheet IDs must pass it, so in a cluster a new sheet is owned by the node creating it
+    private volatile Predicate<String> idFilter = sheetId -> true;
+
+    public SpreadsheetService() {
+        this(new SpreadsheetSettings());
+    }
+
+    public SpreadsheetService(RecalculationMode recalculationMode) {
+        this(new SpreadsheetSettings().recalculationMode(recalculationMode));
+    }
+
+    /**
+     * @param settings read once, later changes to them have no effect
+     */
+    public SpreadsheetService(SpreadsheetSettings settings) {
+        RecalculationMode recalculationMode = settings.getRecalculationMode();
+        Path walPath = settings.getWalPath();
+        WriteAheadLog.SyncMode walSyncMode = settings.getWalSyncMode();
+        long walSyncIntervalMillis = settings.getWalSyncIntervalMillis();
+        Path snapshotPath = settings.getSnapshotPath();
+        long snapshotIntervalSeconds = settings.getSnapshotIntervalSeconds();
+        long memoryBudgetBytes = settings.getMemoryBudgetBytes();
+        Path spillPath = settings.getSpillPath();
+        long exportCacheBytes = settings.getExportCacheBytes();
+        long changeBatchMillis = settings.getChangeBatchMillis();
+        int changeBufferCells = settings.getChangeBufferCells();
+        MeterRegistry meterRegistry = settings.getMeterRegistry();
+        this.recalculationMode = recalculationMode;
+        try {
+            this.sheets = new SheetStore(memoryBudgetBytes, spillPath, this::propagateStaleCells, this::walSequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create sheet spill directory: " + spillPath, e);
+        }
+        this.metrics = new SpreadsheetMetrics(meterRegistry, sheets);
+        this.exportCache = exportCacheBytes > 0 ? new ExportCache(exportCacheBytes) : null;
+        if (exportCache != null) {
+            metrics.exportCacheCreated(exportCache);
+        }
+        this.changeFeed = new ChangeFeed(changeBatchMillis, changeBufferCells);
+        metrics.changeFeedCreated(changeFeed);
+        log.info("Lookup recalculation mode: {}", recalculationMode);
+        Map<String, Long> restoredSequences = new HashMap<>();
+        if (snapshotPath != null) {
+            try {
+                snapshotStore = SnapshotStore.open(snapshotPath);
+                for (SnapshotStore.RestoredSheet restored : snapshotStore.load()) {
+                    sheets.put(restored.sheet);
+                    metrics.sheetAdded(restored.sheet);
+                    restoredSequences.put(restored.sheet.getId(), restored.walSequence);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot restore snapshot: " + snapshotPath, e);
+            }
+        }
+        if (walPath != null) {
+            try {
+                this.mutationLog = MutationLog.open(walPath, walSyncMode, walSyncIntervalMillis, this, restoredSequences);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open write-ahead log: " + walPath, e);
+            }
+        }
+        if (snapshotStore != null && snapshotIntervalSeconds > 0) {
+            checkpointScheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "snapshot-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpointScheduler.scheduleWithFixedDelay(this::scheduledCheckpoint,
+                    snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+
+        // Only once replay is over, so every spilled sheet records the log position it reflects
+        sheets.startEviction();
+    }
+
+    @Autowired
+    public SpreadsheetService(@Value("${spreadsheet.recalculation:eager}") String recalculationMode,
+                              @Value("${spreadsheet.wal.path:}") String walPath,
+                              @Value("${spreadsheet.wal.sync:commit}") String walSyncMode,
+                              @Value("${spreadsheet.wal.sync-interval-ms:10}") long walSyncIntervalMillis,
+                              @Value("${spreadsheet.snapshot.path:}") String snapshotPath,
+                              @Value("${spreadsheet.snapshot.interval-seconds:300}") long snapshotIntervalSeconds,
+                              @Value("${spreadsheet.memory.budget-mb:0}") long memoryBudgetMegabytes,
+                              @Value("${spreadsheet.memory.spill-path:}") String spillPath,
+                              @Value("${spreadsheet.export-cache.max-mb:64}") long exportCacheMegabytes,
+                              @Value("${spreadsheet.changes.batch-ms:50}") long changeBatchMillis,
+                              @Value("${spreadsheet.changes.buffer-cells:10000}") int changeBufferCells,
+                              MeterRegistry meterRegistry) {
+        this(new SpreadsheetSettings()
+                .recalculationMode(RecalculationMode.fromName(recalculationMode))
+                .walPath(walPath.isBlank() ? null : Path.of(walPath.trim()))
+                .walSyncMode(WriteAheadLog.SyncMode.fromName(walSyncMode))
+                .walSyncIntervalMillis(walSyncIntervalMillis)
+                .snapshotPath(snapshotPath.isBlank() ? null : Path.of(snapshotPath.trim()))
+                .snapshotIntervalSeconds(snapshotIntervalSeconds)
+                .memoryBudgetBytes(memoryBudgetMegabytes << 20)
+                .spillPath(spillPath.isBlank() ? null : Path.of(spillPath.trim()))
+                .exportCacheBytes(exportCacheMegabytes << 20)
+                .changeBatchMillis(changeBatchMillis)
+                .changeBufferCells(changeBufferCells)
+                .meterRegistry(meterRegistry));
+    }
+
+    /**
+     * Write a snapshot of every sheet, then drop the write-ahead log segments it covers.
+     * Writers on a sheet only wait while its snapshot is opened, not while it is written.
+     * @return number of sheets written
+     * @throws IllegalStateException if snapshots are not configured
+     */
+    public int checkpoint() throws IOException {
+        if (snapshotStore == null) {
+            throw new IllegalStateException("Snapshots are not configured");
+        }
+        checkpointLock.lock();
+        try {
+            long start = System.nanoTime();
+            MutationLog mutations = mutationLog;
+            long rotatedThrough = 0;
+            List<Sheet> captured;
+            sheetCreationLock.lock();
+            try {
+                if (mutations != null) {
+                    rotatedThrough = mutations.rotate();
+                }
+                captured = sheets.values();
+            } finally {
+                sheetCreationLock.unlock();
+            }
+
+            SnapshotStore.Checkpoint checkpoint = snapshotStore.begin();
+            try {
+                for (Sheet sheet : captured) {
+                    SheetSnapshot snapshot;
+                    long walSequence;
+                    Lock structureWriteLock = sheet.getStructureLock().writeLock();
+                    structureWriteLock.lock();
+                    try {
+                        if (!sheets.holds(sheet)) {
+                            // Handed to another node since the sheets were listed
+                            continue;
+                        }
+                        if (sheet.isSpilled()) {
+                            // Unchanged since it was spilled, so the spill file is already its snapshot
+                            sheets.copySpilled(sheet, checkpoint);
+                            continue;
+                        }
+                        // The log position and the snapshot are taken together, so replay resumes
+                        // exactly after the last write the snapshot holds
+                        propagateStaleCells(sheet);
+                        walSequence = walSequence();
+                        snapshot = sheet.openSnapshot();
+                    } finally {
+                        structureWriteLock.unlock();
+                    }
+                    try (snapshot) {
+                        checkpoint.write(snapshot, walSequence);
+                    }
+                }
+                checkpoint.publish();
+            } catch (IOException | RuntimeException e) {
+                checkpoint.abort();
+                throw e;
+            }
+            if (mutations != null) {
+                mutations.deleteSegmentsThrough(rotatedThrough);
+            }
+            log.info("Checkpoint wrote {} sheets, {} cells, {} MB in {} ms", checkpoint.getSheetCount(),
+                    checkpoint.getCellCount(), checkpoint.getBytes() >> 20, (System.nanoTime() - start) / 1_000_000);
+            return checkpoint.getSheetCount();
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Stop background checkpoints, write a final one so the next start restores quickly,
+     * then flush and close the write-ahead log, if any
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        if (checkpointScheduler != null) {
+            checkpointScheduler.shutdownNow();
+            try {
+                checkpointScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (snapshotStore != null) {
+            try {
+                checkpoint();
+            } catch (IOException | RuntimeException e) {
+                log.error("Final checkpoint failed", e);
+            }
+        }
+        changeFeed.close();
+        MutationLog closing = mutationLog;
+        if (closing != null) {
+            mutationLog = null;
+            closing.close();
+            log.info("Write-ahead log closed");
+        }
+        sheets.close();
+    }
+
+    /**
+     * Sequence number of the last logged mutation, 0 without a write-ahead log
+     */
+    private long walSequence() {
+        MutationLog mutations = mutationLog;
+        return mutations != null ? mutations.appendedSequence() : 0;
+    }
+
+    /**
+     * Create a new sheet with the given columns
+     */
+    public Sheet createSheet(List<Column> columns) {
+        log.info("Creating new sheet with auto-generated ID");
+        Predicate<String> accepted = idFilter;
+        String sheetId;
+        do {
+            sheetId = UUID.randomUUID().toString();
+        } while (!accepted.test(sheetId));
+        Sheet sheet = new Sheet(sheetId, columns);
+
+        // Logged before the sheet is visible, so no write to it can be logged ahead of it
+        MutationLog mutations = mutationLog;
+        sheetCreationLock.lock();
+        try {
+            if (mutations != null) {
+                mutations.sheetCreated(sheet);
+            }
+            sheets.put(sheet);
+        } finally {
+            sheetCreationLock.unlock();
+        }
+        metrics.sheetAdded(sheet);
+        if (mutations != null) {
+            mutations.commit();
+        }
+        log.debug("Created sheet with ID: {}, columns: {}", sheetId, columns.size());
+        return sheet;
+    }
+
+    /**
+     * Create a new sheet with the given columns and a custom ID
+     */
+    public Sheet createSheetWithId(String sheetId, List<Column> columns) {
+        log.info("Creating new sheet with custom ID: {}", sheetId);
+        Sheet sheet = new Sheet(sheetId, columns);
+        MutationLog mutations = mutationLog;
+        sheetCreationLock.lock();
+        try {
+            if (sheets.contains(sheetId)) {
+                log.warn("Attempt to create sheet with existing ID: {}", sheetId);
+                throw new IllegalArgumentException("Sheet with ID " + sheetId + " already exists");
+            }
+            if (mutations != null) {
+                mutations.sheetCreated(sheet);
+            }
+            sheets.put(sheet);
+        } finally {
+            sheetCreationLock.unlock();
+        }
+        metrics.sheetAdded(sheet);
+        if (mutations != null) {
+            mutations.commit();
+        }
+        log.debug("Created sheet with custom ID: {}, columns: {}", sheetId, columns.size());
+        return sheet;
+    }
+
+    /**
+     * Get a sheet by ID
+     */
+    public Sheet getSheet(String sheetId) {
+        log.debug("Getting sheet with ID: {}", sheetId);
+        Sheet sheet = sheets.get(sheetId);
+        if (sheet == null) {
+            log.debug("Sheet not found with ID: {}", sheetId);
+        } else {
+            if (log.isDebugEnabled()) {
+                log.debug("Found sheet with ID: {}, columns: {}", sheetId, sheet.getColumns().size());
+            }
+        }
+        return sheet;
+    }
+
+    /**
+     * Whether a sheet with the ID is held by this service
+     */
+    public boolean hasSheet(String sheetId) {
+        return sheets.contains(sheetId);
+    }
+
+    /**
+     * IDs of the sheets held by this service
+     */
+    public List<String> getSheetIds() {
+        List<Sheet> held = sheets.values();
+        List<String> sheetIds = new ArrayList<>(held.size());
+        for (Sheet sheet : held) {
+            sheetIds.add(sheet.getId());
+        }
+        return sheetIds;
+    }
+
+    /**
+     * Only generate sheet IDs the filter accepts, such as the IDs this node owns in a cluster.
+     * The filter must accept a fair share of random IDs.
+     */
+    public void setIdFilter(Predicate<String> idFilter) {
+        this.idFilter = idFilter;
+    }
+
+    /**
+     * Hand a sheet over to another node and remove it here. The sheet's structure write lock is held
+     * from its snapshot until it is removed, so no write lands between the copy and the removal; writes
+     * waiting for the lock then fail with {@link SheetMovedException}.
+     * @return false if the sheet is not held by this service
+     * @throws IOException if the transfer failed; the sheet then stays here
+     */
+    public boolean transferSheet(String sheetId, SheetTransfer transfer) throws IOException {
+        Sheet sheet = sheets.get(sheetId);
+        if (sheet == null) {
+            return false;
+        }
+        long start = System.nanoTime();
+        long cells;
+        Path sheetFile = Files.createTempFile("sheet-transfer", ".snap");
+        MutationLog mutations = mutationLog;
+        try {
+            Lock structureWriteLock;
+            try {
+                structureWriteLock = sheets.lock(sheet, true);
+            } catch (SheetMovedException e) {
+                return false;
+            }
+            try {
+                propagateStaleCells(sheet);
+                try (SheetSnapshot snapshot = sheet.openSnapshot()) {
+                    cells = snapshot.getCellCount();
+                    SnapshotStore.writeSheet(sheetFile, snapshot, 0, false);
+                }
+                transfer.send(sheetId, sheetFile);
+                if (mutations != null) {
+                    mutations.sheetRemoved(sheet);
+                }
+                sheets.remove(sheet);
+            } finally {
+                structureWriteLock.unlock();
+            }
+        } finally {
+            Files.deleteIfExists(sheetFile);
+        }
+        metrics.sheetRemoved(sheet);
+        evictExports(sheet);
+        changeFeed.sheetRemoved(sheet);
+        if (mutations != null) {
+            mutations.commit();
+        }
+        log.info("Transferred sheet: {}, {} cells in {} ms", sheetId, cells, (System.nanoTime() - start) / 1_000_000);
+        return true;
+    }
+
+    /**
+     * Add a sheet handed over by another node
+     * @param sheetFile the sheet in the snapshot format, as sent by {@link #transferSheet}
+     * @throws IllegalArgumentException if the file holds another sheet, or the sheet already exists
+     */
+    public Sheet installSheet(String sheetId, Path sheetFile) throws IOException {
+        long start = System.nanoTime();
+        Sheet sheet = SnapshotStore.readSheet(sheetFile);
+        if (!sheet.getId().equals(sheetId)) {
+            throw new IllegalArgumentException("Sheet file holds sheet " + sheet.getId() + ", not " + sheetId);
+        }
+        MutationLog mutations = mutationLog;
+        sheetCreationLock.lock();
+        try {
+            if (sheets.contains(sheetId)) {
+                log.warn("Attempt to install sheet with existing ID: {}", sheetId);
+                throw new IllegalArgumentException("Sheet with ID " + sheetId + " already exists");
+            }
+            if (mutations != null) {
+                mutations.sheetInstalled(sheet);
+            }
+            sheets.put(sheet);
+        } finally {
+            sheetCreationLock.unlock();
+        }
+        metrics.sheetAdded(sheet);
+        if (mutations != null) {
+            mutations.commit();
+        }
+        log.info("Installed sheet: {}, {} cells in {} ms", sheetId, sheet.getCellCount(),
+                (System.nanoTime() - start) / 1_000_000);
+        return sheet;
+    }
+
+    /**
+     * Remove a sheet without handing it anywhere, when replaying its transfer from the write-ahead log
+     * @return false if there is no such sheet
+     */
+    boolean removeSheet(String sheetId) {
+        Sheet sheet = sheets.get(sheetId);
+        if (sheet == null) {
+            return false;
+        }
+        Lock structureWriteLock = sheet.getStructureLock().writeLock();
+        structureWriteLock.lock();
+        try {
+            MutationLog mutations = mutationLog;
+            if (mutations != null) {
+                mutations.sheetRemoved(sheet);
+            }
+            sheets.remove(sheet);
+        } finally {
+            structureWriteLock.unlock();
+        }
+        metrics.sheetRemoved(sheet);
+        evictExports(sheet);
+        changeFeed.sheetRemoved(sheet);
+        log.debug("Removed sheet: {}", sheetId);
+        return true;
+    }
+
+    /**
+     * Read one cell, with its lookup up to date
+     * @return the cell, or null if it is empty
+     * @throws IllegalArgumentException if the sheet or the column does not exist
+     */
+    public Cell getCellValue(String sheetId, String columnName, int rowIndex) {
+        Sheet sheet = getSheet(sheetId);
+        if (sheet == null) {
+            log.warn("Sheet not found with ID: {}", sheetId);
+            throw new IllegalArgumentException("Sheet not found with id: " + sheetId);
+        }
+        if (sheet.getColumnIndex(columnName) < 0) {
+            log.warn("Column not found: {} in sheet: {}", columnName, sheetId);
+            throw new IllegalArgumentException("Column not found: " + columnName);
+        }
+
+        if (sheet.hasStaleSources()) {
+            // Settle first, as a snapshot would, and read under the same lock
+            Lock structureWriteLock = sheets.lock(sheet, true);
+            try {
+                propagateStaleCells(sheet);
+                return sheet.getCell(columnName, rowIndex);
+            } finally {
+                structureWriteLock.unlock();
+            }
+        }
+        // Keeps the sheet in memory and lookup writes out; plain writes go on alongside, as with any reader
+        Lock structureReadLock = sheets.lock(sheet, false);
+        try {
+            return sheet.getCell(columnName, rowIndex);
+        } finally {
+            structureReadLock.unlock();
+        }
+    }
+
+    /**
+     * Read many cells at one version of the sheet, with lookups up to date
+     * @param addresses column and row of each cell to read; values are ignored
+     * @return the cells in the order asked for, without a value where a cell is empty
+     * @throws IllegalArgumentException if the sheet or a column does not exist, or too many cells are asked for
+     */
+    public List<Cell> getCellValues(String sheetId, List<Cell> addresses) {
+        Sheet sheet = getSheet(sheetId);
+        if (sheet == null) {
+            log.warn("Sheet not found with ID: {}", sheetId);
+            throw new IllegalArgumentException("Sheet not found with id: " + sheetId);
+        }
+        if (addresses.size() > MAX_READ_CELLS) {
+            throw new IllegalArgumentException("At most " + MAX_READ_CELLS + " cells can be read at once");
+        }
+        for (int i = 0; i < addresses.size(); i++) {
+            Cell address = addresses.get(i);
+            if (address == null || address.getColumn() == null || sheet.getColumnIndex(address.getColumn()) < 0) {
+                log.warn("Invalid cell to read at index {} in sheet: {}", i, sheetId);
+                throw new IllegalArgumentException("Invalid cell at index " + i + ": Column not found: "
+                        + (address != null ? address.getColumn() : null));
+            }
+        }
+
+        // One snapshot for all of them, so they are consistent with each other
+        List<Cell> cells = new ArrayList<>(addresses.size());
+        try (SheetSnapshot snapshot = openSettledSnapshot(sheet)) {
+            for (Cell address : addresses) {
+                Cell cell = snapshot.getCell(address.getColumn(), address.getRow());
+                cells.add(cell != null ? cell : new Cell(address.getColumn(), address.getRow(), null));
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Read {} cells of sheet: {}", cells.size(), sheetId);
+        }
+        return cells;
+    }
+
+    /**
+     * Stream the changes to a sheet's cells from now on, including lookups updated by propagation.
+     * In lazy recalculation mode lookups change when the sheet is next read, as for any other reader.
+     * @param columnOrdinals positions of the columns to follow, or null for all columns
+     * @param fromRow first row to follow, inclusive
+     * @param toRow last row to follow, inclusive
+     * @return the subscription, to close when the subscriber goes away; its subscribed version is the
+     *         version to read the sheet at before applying the changes
+     */
+    public CellSubscription subscribe(Sheet sheet, int[] columnOrdinals, int fromRow, int toRow,
+                                      CellSubscription.Sink sink) {
+        // Under the sheet's lock, so a sheet handed to another node meanwhile fails here or ends the subscription
+        Lock structureReadLock = sheets.lock(sheet, false);
+        try {
+            CellSubscription subscription = changeFeed.subscribe(sheet, columnOrdinals, fromRow, toRow, sink);
+            // Only read once the subscription is in place, so no write after this version can be missed
+            subscription.setSubscribedVersion(sheet.getVersion());
+            return subscription;
+        } finally {
+            structureReadLock.unlock();
+        }
+    }
+
+    /**
+     * Set a cell value in a sheet
+     */
+    public Cell setCellValue(String sheetId, String columnName, int rowIndex, Object value) {
+        if (log.isDebugEnabled()) {
+            log.debug("Setting cell value in sheet: {}, column: {}, row: {}", sheetId, columnName, rowIndex);
+        }
+
+        Sheet sheet = getSheet(sheetId);
+        if (sheet == null) {
+            log.warn("Sheet not found with ID: {}", sheetId);
+            throw new IllegalArgumentException("Sheet not found with id: " + sheetId);
+        }
+
+        // Resolve the column once, the rest of the request works on the packed cell address
+        int ordinal = sheet.getColumnIndex(columnName);
+        if (ordinal < 0) {
+            log.warn("Column not found: {} in sheet: {}", columnName, sheetId);
+            throw new IllegalArgumentException("Column not found: " + columnName);
+        }
+        ColumnType columnType = sheet.getColumnTypeAt(ordinal);
+        long address = CellAddress.pack(ordinal, rowIndex);
+
+        Cell cell = new Cell(columnName, rowIndex, value);
+        if (log.isDebugEnabled()) {
+            log.debug("Processing cell value type: {}", value != null ? value.getClass().getSimpleName() : "null");
+        }
+
+        boolean isLookup = value instanceof String && ((String) value).startsWith("lookup(");
+        boolean isAggregate = !isLookup && isAggregateFormula(value);
+        if (!isLookup && !isAggregate) {
+            // Validate the value against the column type and convert it to the stored form, once
+            log.debug("Validating value type against column type: {}", columnType);
+            long validationStart = System.nanoTime();
+            cell.setValue(normalizeValue(columnName, columnType, value));
+            metrics.recordValidation(validationStart);
+
+            // A plain value over a plain (or empty) cell leaves the dependency graph untouched,
+            // so it only needs the structure read lock and the lock of its own cell
+            if (trySetPlainCell(sheet, address, cell.getValue())) {
+                commitMutations();
+                return cell;
+            }
+        }
+
+        // Lookups, aggregates, and plain values replacing them or read by aggregates change the dependency graph
+        Lock structureWriteLock = sheets.lock(sheet, true);
+        try {
+            if (recalculationMode == RecalculationMode.EAGER) {
+                // An import in progress leaves stale cells behind; new lookups and aggregates read settled values
+                propagateStaleCells(sheet);
+            }
+            long reference = CellAddress.NONE;
+            Aggregate aggregate = null;
+            if (isLookup) {
+                log.debug("Processing lookup function: {}", value);
+                long validationStart = System.nanoTime();
+                reference = processLookupFunction(sheet, cell, columnType, (String) value);
+                metrics.recordValidation(validationStart);
+
+                // Check for cycles before adding the cell
+                log.debug("Checking for reference cycles");
+                long cycleCheckStart = System.nanoTime();
+                if (sheet.hasAggregates()) {
+                    checkAggregateCycles(sheet, new long[] {address}, new long[] {reference}, null);
+                }
+                checkForCycles(sheet, address, reference);
+                metrics.recordCycleCheck(cycleCheckStart);
+            } else if (isAggregate) {
+                log.debug("Processing aggregate function: {}", value);
+                long validationStart = System.nanoTime();
+                aggregate = resolveAggregate(sheet, address, columnType, (String) value);
+                metrics.recordValidation(validationStart);
+
+                long cycleCheckStart = System.nanoTime();
+                checkAggregateCycles(sheet, new long[] {address}, new long[] {CellAddress.NONE},
+                        new Aggregate[] {aggregate});
+                metrics.recordCycleCheck(cycleCheckStart);
+            }
+            cell.setValue(writeCell(sheet, address, cell.getValue(), reference, aggregate));
+        } finally {
+            structureWriteLock.unlock();
+        }
+        commitMutations();
+        return cell;
+    }
+
+    /**
+     * Write a plain value under the structure read lock, unless the cell currently holds a lookup
+     * or an aggregate, or the write could reach an aggregate
+     * @return false if the write needs the structure write lock instead
+     */
+    private boolean trySetPlainCell(Sheet sheet, long address, Object value) {
+        Lock structureReadLock = sheets.lock(sheet, false);
+        try {
+            if (sheet.getReference(address) != CellAddress.NONE) {
+                return false;
+            }
+            // Aggregates are shared by every cell of their range, so writes reaching one take turns
+            if (sheet.hasAggregates() && (sheet.getAggregate(address) != null || sheet.isAggregated(address)
+                    || (recalculationMode == RecalculationMode.EAGER && sheet.getDependents(address) != null))) {
+                return false;
+            }
+
+            // Dependents of distinct plain cells never overlap, so one cell lock covers the propagation
+            Lock cellLock = sheet.getCellLock(address);
+            cellLock.lock();
+            try {
+                writeCell(sheet, address, value, CellAddress.NONE);
+                return true;
+            } finally {
+                cellLock.unlock();
+            }
+        } finally {
+            structureReadLock.unlock();
+        }
+    }
+
+    private void writeCell(Sheet sheet, long address, Object value, long reference) {
+        writeCell(sheet, address, value, reference, null);
+    }
+
+    /**
+     * Store a new version of the cell and propagate it to its dependents
+     * @param aggregate the aggregate the cell is to hold, or null; its result is the value stored
+     * @return the value stored
+     */
+    private Object writeCell(Sheet sheet, long address, Object value, long reference, Aggregate aggregate) {
+        long version = sheet.nextVersion();
+
+        // Add or update the cell
+        if (aggregate != null) {
+            value = sheet.setAggregateCell(aggregate, version);
+        } else {
+            sheet.setCell(address, value, reference, version);
+        }
+        log.debug("Cell value set successfully");
+
+        // Still under the lock that orders writes to this cell, so the log keeps their order
+        MutationLog mutations = mutationLog;
+        if (mutations != null) {
+            mutations.cellWritten(sheet, address, aggregate != null ? aggregate.format(sheet.getColumns()) : value,
+                    reference);
+        }
+
+        if (recalculationMode == RecalculationMode.LAZY) {
+            // Dependents and aggregates catch up when the sheet is next read
+            if (sheet.getDependents(address) != null) {
+                sheet.markStale(address);
+            }
+            return value;
+        }
+
+        // Update dependent cells if any
+        log.debug("Updating dependent cells");
+        updateDependentCells(sheet, address, value, version);
+        if (sheet.hasAggregates()) {
+            settleAggregates(sheet, version);
+        }
+        return value;
+    }
+
+    /**
+     * Write the results of the aggregates whose range changed into their cells, and propagate them.
+     * The results are kept up to date by every write, so this only costs the cells that change.
+     * An aggregate cell can be in the range of another aggregate, so this goes on until none is behind.
+     * The caller must hold the structure write lock.
+     * @return number of aggregate cells rewritten
+     */
+    private int settleAggregates(Sheet sheet, long version) {
+        int refreshed = 0;
+        for (Aggregate aggregate = sheet.pollDirtyAggregate(); aggregate != null;
+             aggregate = sheet.pollDirtyAggregate()) {
+            if (sheet.refreshAggregate(aggregate, version)) {
+                refreshed++;
+                long address = aggregate.getAddress();
+                updateDependentCells(sheet, address, sheet.getValue(address), version);
+            }
+        }
+        return refreshed;
+    }
+
+    private void scheduledCheckpoint() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            // Keep the schedule going; the write-ahead log still holds every write
+            log.error("Checkpoint failed", e);
+        }
+    }
+
+    /**
+     * Wait until the mutations logged by this thread are durable, outside of any sheet lock
+     * so other writers can add to the same group commit
+     */
+    private void commitMutations() {
+        MutationLog mutations = mutationLog;
+        if (mutations != null) {
+            mutations.commit();
+        }
+    }
+
+    /**
+     * Open a snapshot in which every lookup is up to date. Lazy recalculation leaves stale lookups
+     * behind, and so does an import in progress in eager mode; they are recalculated under the same
+     * lock that takes the snapshot, so no write can slip in between.
+     */
+    private SheetSnapshot openSettledSnapshot(Sheet sheet) {
+        // Opening a snapshot takes the write lock anyway, taking it here also brings back a spilled sheet
+        Lock structureWriteLock = sheets.lock(sheet, true);
+        try {
+            propagateStaleCells(sheet);
+            return sheet.openSnapshot();
+        } finally {
+            structureWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Recalculate the dependents of all stale cells, each once, and the aggregate cells behind their
+     * range, while holding the structure write lock
+     */
+    private int propagateStaleCells(Sheet sheet) {
+        if (!sheet.hasStaleSources()) {
+            return 0;
+        }
+        long version = sheet.nextVersion();
+        long[] staleAddresses = sheet.drainStaleSources();
+        long[] references = new long[staleAddresses.length];
+        for (int i = 0; i < staleAddresses.length; i++) {
+            references[i] = sheet.getReference(staleAddresses[i]);
+        }
+        int recalculated = staleAddresses.length > 0 ? propagateBatch(sheet, staleAddresses, references, version) : 0;
+        recalculated += settleAggregates(sheet, version);
+        log.debug("Recalculated {} lookup and aggregate cells from {} stale cells in sheet: {}",
+                recalculated, staleAddresses.length, sheet.getId());
+        return recalculated;
+    }
+
+    /**
+     * Apply a batch of cell updates atomically. Every update is validated and the cycle check
+     * runs once over the whole batch before anything is written; a single invalid update
+     * rejects the batch. Later updates of the same cell win.
+     * Dependents are then recomputed once each, in topological order.
+     */
+    public BatchUpdateResult setCellValues(String sheetId, List<CellUpdate> updates) {
+        if (log.isDebugEnabled()) {
+            log.debug("Applying batch of {} cell updates to sheet: {}", updates.size(), sheetId);
+        }
+
+        Sheet sheet = getSheet(sheetId);
+        if (sheet == null) {
+            log.warn("Sheet not found with ID: {}", sheetId);
+            throw new IllegalArgumentException("Sheet not found with id: " + sheetId);
+        }
+
+        // Validate and normalize every update before touching the sheet
+        long validationStart = System.nanoTime();
+        int size = updates.size();
+        long[] addresses = new long[size];
+        long[] references = new long[size];
+        Object[] values = new Object[size];
+        Aggregate[] aggregates = new Aggregate[size];
+        boolean hasAggregates = false;
+        for (int i = 0; i < size; i++) {
+            try {
+                hasAggregates |= prepareUpdate(sheet, updates.get(i), i, addresses, references, values, aggregates);
+            } catch (IllegalArgumentException e) {
+                log.warn("Rejecting batch for sheet: {}, invalid update at index {}", sheetId, i);
+                throw new IllegalArgumentException("Invalid update at index " + i + ": " + e.getMessage(), e);
+            }
+        }
+        metrics.recordValidation(validationStart);
+
+        int recalculated;
+        Lock structureWriteLock = sheets.lock(sheet, true);
+        try {
+            // Lookups in the batch read settled values
+            propagateStaleCells(sheet);
+
+            log.debug("Checking batch for reference cycles");
+            long cycleCheckStart = System.nanoTime();
+            checkBatchForCycles(sheet, addresses, references);
+            if (hasAggregates || sheet.hasAggregates()) {
+                checkAggregateCycles(sheet, addresses, references, aggregates);
+            }
+            metrics.recordCycleCheck(cycleCheckStart);
+
+            // The whole batch is one version, so snapshots see all of it or none of it
+            long version = sheet.nextVersion();
+            for (int i = 0; i < size; i++) {
+                if (aggregates[i] != null) {
+                    sheet.setAggregateCell(aggregates[i], version);
+                } else {
+                    sheet.setCell(addresses[i], values[i], references[i], version);
+                }
+            }
+            recalculated = propagateBatch(sheet, addresses, references, version);
+            if (sheet.hasAggregates()) {
+                recalculated += settleAggregates(sheet, version);
+            }
+
+            MutationLog mutations = mutationLog;
+            if (mutations != null) {
+                mutations.cellsWritten(sheet, addresses, values, references);
+            }
+        } finally {
+            structureWriteLock.unlock();
+        }
+        commitMutations();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Batch applied to sheet: {}, updated: {}, recalculated: {}", sheetId, size, recalculated);
+        }
+        return new BatchUpdateResult(size, recalculated);
+    }
+
+    /**
+     * Import CSV rows into an existing sheet. The input has the layout of the CSV export: a header
+     * of "Row" and column names, any subset of the schema in any order, then one line per row.
+     * Empty fields leave their cell unchanged, a field starting with "lookup(" sets a lookup, and one
+     * such as "sum(" an aggregate.
+     * <p>
+     * The input is read as a stream, {@link #IMPORT_CHUNK_ROWS} rows at a time. The columns of a
+     * chunk are validated in parallel, then the chunk is written as one batch. Dependents of the
+     * imported cells are recalculated once, after the last chunk; in lazy mode, on the next read.
+     * A read while the import goes on recalculates those of the chunks written so far first, in either mode.
+     * Chunks containing lookups are propagated right away, keeping the reference graph ordered;
+     * aggregate cells catch up with their range with the other dependents.
+     * @throws IllegalArgumentException for an invalid header or row; the chunks before it stay imported
+     */
+    public ImportResult importCsv(String sheetId, InputStream in) throws IOException {
+        log.info("Importing CSV into sheet: {}", sheetId);
+        Sheet sheet = getSheet(sheetId);
+        if (sheet == null) {
+            log.warn("Sheet not found with ID: {}", sheetId);
+            throw new IllegalArgumentException("Sheet not found with id: " + sheetId);
+        }
+
+        CsvReader reader = new CsvReader(in);
+        List<String> names = readImportHeader(reader, sheet.getColumns().size() + 1);
+        int[] ordinals = resolveColumns(sheet, names);
+        Set<Integer> distinct = new HashSet<>();
+        for (int i = 0; i < ordinals.length; i++) {
+            if (!distinct.add(ordinals[i])) {
+                throw new IllegalArgumentException("Duplicate column in CSV header: " + names.get(i));
+            }
+        }
+        return importRows(sheet, reader, ordinals);
+    }
+
+    /**
+     * Create a sheet from CSV and import its rows, as {@link #importCsv} does. The header names the
+     * columns after "Row" as name:type, for example "Row,A:string,B:int"; without a type a column
+     * holds strings.
+     * @param sheetId ID of the new sheet, or null to generate one
+     */
+    public ImportResult importCsvAsNewSheet(String sheetId, InputStream in) throws IOException {
+        log.info("Importing CSV into a new sheet");
+        CsvReader reader = new CsvReader(in);
+        List<Column> columns = new ArrayList<>();
+        for (String name : readImportHeader(reader, MAX_IMPORT_COLUMNS + 1)) {
+            int separator = name.lastIndexOf(':');
+            columns.add(separator < 0
+                    ? new Column(name, ColumnType.STRING.getName())
+                    : new Column(name.substring(0, separator).trim(), name.substring(separator + 1).trim()));
+        }
+        Sheet sheet = sheetId != null ? createSheetWithId(sheetId, columns) : createSheet(columns);
+
+        int[] ordinals = new int[columns.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = i;
+        }
+        return importRows(sheet, reader, ordinals);
+    }
+
+    /**
+     * Read the header of a CSV import
+     * @return the column names following "Row"
+     */
+    private static List<String> readImportHeader(CsvReader reader, int maxFields) throws IOException {
+        String[] fields = new String[maxFields];
+        int count = reader.readRecord(fields);
+        if (count < 0) {
+            throw new IllegalArgumentException("CSV header is missing");
+        }
+        if (!"Row".equalsIgnoreCase(fields[0])) {
+            throw new IllegalArgumentException("CSV header must start with a Row column");
+        }
+        List<String> names = new ArrayList<>(count - 1);
+        for (int i = 1; i < count; i++) {
+            if (fields[i] == null) {
+                throw new IllegalArgumentException("CSV header has an empty column name");
+            }
+            names.add(fields[i].trim());
+        }
+        return names;
+    }
+
+    private ImportResult importRows(Sheet sheet, CsvReader reader, int[] ordinals) throws IOException {
+        long start = System.nanoTime();
+        ImportChunk chunk = new ImportChunk(sheet, ordinals);
+        String[] fields = new String[ordinals.length + 1];
+        long importedRows = 0;
+        long importedCells = 0;
+        int recalculated = 0;
+        try {
+            for (;;) {
+                int size = 0;
+                int count;
+                while (size < IMPORT_CHUNK_ROWS && (count = reader.readRecord(fields)) >= 0) {
+                    chunk.add(size++, fields, count, reader.getRecordLine());
+                }
+                if (size == 0) {
+                    break;
+                }
+
+                long validationStart = System.nanoTime();
+                chunk.validate(size, importedRows);
+                metrics.recordValidation(validationStart);
+                importedCells += chunk.collect(size);
+                recalculated += applyImportChunk(sheet, chunk);
+                importedRows += size;
+                if (size < IMPORT_CHUNK_ROWS) {
+                    break;
+                }
+            }
+        } finally {
+            // Also after a failed chunk, so the chunks already written leave no stale lookups behind
+            if (recalculationMode == RecalculationMode.EAGER) {
+                Lock structureWriteLock = sheets.lock(sheet, true);
+                try {
+                    recalculated += propagateStaleCells(sheet);
+                } finally {
+                    structureWriteLock.unlock();
+                }
+            }
+        }
+        log.info("Imported {} rows, {} cells into sheet: {} in {} ms, recalculated: {}", importedRows, importedCells,
+                sheet.getId(), (System.nanoTime() - start) / 1_000_000, recalculated);
+        return new ImportResult(sheet.getId(), importedRows, importedCells, recalculated);
+    }
+
+    /**
+     * Write a validated import chunk as one version
+     * @return number of lookup cells recomputed
+     */
+    private int applyImportChunk(Sheet sheet, ImportChunk chunk) {
+        long[] addresses = chunk.addresses;
+        long[] references = chunk.references;
+        Object[] values = chunk.values;
+        Aggregate[] aggregates = chunk.aggregates;
+        int recalculated = 0;
+        Lock structureWriteLock = sheets.lock(sheet, true);
+        try {
+            if (chunk.hasLookups || aggregates != null) {
+                long cycleCheckStart = System.nanoTime();
+                checkChunkForCycles(sheet, chunk);
+                metrics.recordCycleCheck(cycleCheckStart);
+            }
+            long version = sheet.nextVersion();
+            for (int i = 0; i < addresses.length; i++) {
+                if (aggregates != null && aggregates[i] != null) {
+                    sheet.setAggregateCell(aggregates[i], version);
+                } else {
+                    sheet.setCell(addresses[i], values[i], references[i], version);
+                }
+            }
+            if (chunk.hasLookups) {
+                recalculated = propagateBatch(sheet, addresses, references, version);
+            } else {
+                // Dependents catch up once the whole import is in
+                for (long address : addresses) {
+                    if (sheet.getDependents(address) != null) {
+                        sheet.markStale(address);
+                    }
+                }
+            }
+
+            MutationLog mutations = mutationLog;
+            if (mutations != null) {
+                mutations.cellsWritten(sheet, addresses, values, references);
+            }
+        } finally {
+            structureWriteLock.unlock();
+        }
+        commitMutations();
+        return recalculated;
+    }
+
+    private void checkChunkForCycles(Sheet sheet, ImportChunk chunk) {
+        try {
+            checkBatchForCycles(sheet, chunk.addresses, chunk.references);
+            if (chunk.aggregates != null || sheet.hasAggregates()) {
+                checkAggregateCycles(sheet, chunk.addresses, chunk.references, chunk.aggregates);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(e.getMessage() + ", in the rows from line " + chunk.lines[0]
+                    + importedBefore(chunk.lines[0], chunk.rowsBefore), e);
+        }
+    }
+
+    private static String importedBefore(long line, long rowsBefore) {
+        return rowsBefore > 0 ? " (the " + rowsBefore + " rows before line " + line + " were imported)" : "";
+    }
+
+    /**
+     * Rows of a CSV import being validated and written together. The buffers are reused from
+     * chunk to chunk.
+     */
+    private final class ImportChunk {
+        private final Sheet sheet;
+        private final int[] ordinals;
+        private final ColumnType[] types;
+        private final int[] rows = new int[IMPORT_CHUNK_ROWS];
+        private final long[] lines = new long[IMPORT_CHUNK_ROWS];
+
+        // Per column: the raw fields, then the validated values and lookup references, and the
+        // aggregates, whose values are their formulas
+        private final String[][] fields;
+        private final Object[][] columnValues;
+        private final long[][] columnReferences;
+        private final Aggregate[][] columnAggregates;
+
+        // Per column: index of the first invalid row in the chunk, and why
+        private final int[] errorRows;
+        private final String[] errors;
+
+        private long rowsBefore;
+
+        // The non-empty cells of the chunk in row order, filled by collect()
+        long[] addresses;
+        Object[] values;
+        long[] references;
+        boolean hasLookups;
+        // Null unless the chunk sets aggregates
+        Aggregate[] aggregates;
+
+        ImportChunk(Sheet sheet, int[] ordinals) {
+            this.sheet = sheet;
+            this.ordinals = ordinals;
+            this.types = new ColumnType[ordinals.length];
+            for (int c = 0; c < ordinals.length; c++) {
+                types[c] = sheet.getColumnTypeAt(ordinals[c]);
+            }
+            this.fields = new String[ordinals.length][IMPORT_CHUNK_ROWS];
+            this.columnValues = new Object[ordinals.length][IMPORT_CHUNK_ROWS];
+            this.columnReferences = new long[ordinals.length][IMPORT_CHUNK_ROWS];
+            this.columnAggregates = new Aggregate[ordinals.length][];
+            this.errorRows = new int[ordinals.length];
+            this.errors = new String[ordinals.length];
+        }
+
+        /**
+         * Take one parsed record; missing trailing fields count as empty
+         */
+        void add(int index, String[] record, int count, long line) {
+            if (record[0] == null) {
+                throw new IllegalArgumentException("Row number is missing at line " + line);
+            }
+            try {
+                rows[index] = Integer.parseInt(record[0].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid row number at line " + line + ": " + record[0]);
+            }
+            lines[index] = line;
+            for (int c = 0; c < ordinals.length; c++) {
+                fields[c][index] = c + 1 < count ? record[c + 1] : null;
+            }
+        }
+
+        /**
+         * Validate and convert the fields, one column per task
+         * @throws IllegalArgumentException for the first invalid row of the chunk
+         */
+        void validate(int size, long rowsBefore) {
+            this.rowsBefore = rowsBefore;
+            IntStream columns = IntStream.range(0, ordinals.length);
+            (ordinals.length > 1 ? columns.parallel() : columns).forEach(c -> validateColumn(c, size));
+
+            int column = -1;
+            for (int c = 0; c < ordinals.length; c++) {
+                if (errors[c] != null && (column < 0 || errorRows[c] < errorRows[column])) {
+                    column = c;
+                }
+            }
+            if (column >= 0) {
+                long line = lines[errorRows[column]];
+                log.warn("Rejecting CSV import into sheet: {} at line {}: {}", sheet.getId(), line, errors[column]);
+                throw new IllegalArgumentException("Invalid value at line " + line + ": " + errors[column]
+                        + importedBefore(lines[0], rowsBefore));
+            }
+        }
+
+        private void validateColumn(int c, int size) {
+            errors[c] = null;
+            if (columnAggregates[c] != null) {
+                Arrays.fill(columnAggregates[c], 0, size, null);
+            }
+            String name = sheet.getColumns().get(ordinals[c]).getName();
+            String[] raw = fields[c];
+            for (int i = 0; i < size; i++) {
+                String field = raw[i];
+                if (field == null) {
+                    continue;
+                }
+                try {
+                    if (field.startsWith("lookup(")) {
+                        columnReferences[c][i] = resolveLookupReference(sheet, types[c], field);
+                        columnValues[c][i] = null;
+                    } else if (isAggregateFormula(field)) {
+                        if (columnAggregates[c] == null) {
+                            columnAggregates[c] = new Aggregate[IMPORT_CHUNK_ROWS];
+                        }
+                        Aggregate aggregate = resolveAggregate(sheet, CellAddress.pack(ordinals[c], rows[i]),
+                                types[c], field);
+                        columnAggregates[c][i] = aggregate;
+                        columnReferences[c][i] = CellAddress.NONE;
+                        columnValues[c][i] = aggregate.format(sheet.getColumns());
+                    } else {
+                        columnReferences[c][i] = CellAddress.NONE;
+                        columnValues[c][i] = parseImportValue(types[c], field, name);
+                    }
+                } catch (IllegalArgumentException e) {
+                    errorRows[c] = i;
+                    errors[c] = e.getMessage();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Gather the non-empty cells of the validated chunk in row order
+         * @return number of cells
+         */
+        int collect(int size) {
+            int cells = 0;
+            for (int c = 0; c < ordinals.length; c++) {
+                for (int i = 0; i < size; i++) {
+                    if (fields[c][i] != null) {
+                        cells++;
+                    }
+                }
+            }
+            addresses = new long[cells];
+            values = new Object[cells];
+            references = new long[cells];
+            hasLookups = false;
+            aggregates = null;
+            int cell = 0;
+            for (int i = 0; i < size; i++) {
+                for (int c = 0; c < ordinals.length; c++) {
+                    if (fields[c][i] == null) {
+                        continue;
+                    }
+                    addresses[cell] = CellAddress.pack(ordinals[c], rows[i]);
+                    values[cell] = columnValues[c][i];
+                    references[cell] = columnReferences[c][i];
+                    hasLookups |= references[cell] != CellAddress.NONE;
+                    if (columnAggregates[c] != null && columnAggregates[c][i] != null) {
+                        if (aggregates == null) {
+                            aggregates = new Aggregate[cells];
+                        }
+                        aggregates[cell] = columnAggregates[c][i];
+                    }
+                    cell++;
+                }
+            }
+            return cells;
+        }
+    }
 
     /**
-     * Create a new sheet with the given columns
+     * Convert a CSV field to the stored form of its column. Booleans are spelled true or false.
      */
-    public Sheet createSheet(List<Column> columns) {
-        log.info("Creating new sheet with auto-generated ID");
-        String sheetId = UUID.randomUUID().toString();
-        Sheet sheet = new Sheet(sheetId, columns);
-        sheets.put(sheetId, sheet);
-        log.debug("Created sheet with ID: {}, columns: {}", sheetId, columns.size());
-        return sheet;
+    private static Object parseImportValue(ColumnType type, String field, String columnName) {
+        if (type == ColumnType.BOOLEAN) {
+            if ("true".equalsIgnoreCase(field)) {
+                return Boolean.TRUE;
+            }
+            if ("false".equalsIgnoreCase(field)) {
+                return Boolean.FALSE;
+            }
+        }
+        return type.normalize(field, columnName);
     }
 
     /**
-     * Create a new sheet with the given columns and a custom ID
+     * Resolve and validate one batch update into the parallel address/reference/value/aggregate arrays.
+     * An aggregate update gets its formula as the value, which is what the write-ahead log keeps.
+     * @return whether the update sets an aggregate
      */
-    public Sheet createSheetWithId(String sheetId, List<Column> columns) {
-        log.info("Creating new sheet with custom ID: {}", sheetId);
-        if (sheets.containsKey(sheetId)) {
-            log.warn("Attempt to create sheet with existing ID: {}", sheetId);
-            throw new IllegalArgumentException("Sheet with ID " + sheetId + " already exists");
+    private boolean prepareUpdate(Sheet sheet, CellUpdate update, int index, long[] addresses, long[] references,
+                                  Object[] values, Aggregate[] aggregates) {
+        if (update == null || update.getColumn() == null) {
+            throw new IllegalArgumentException("Column is required");
         }
-        Sheet sheet = new Sheet(sheetId, columns);
-        sheets.put(sheetId, sheet);
-        log.debug("Created sheet with custom ID: {}, columns: {}", sheetId, columns.size());
-        return sheet;
+        int ordinal = sheet.getColumnIndex(update.getColumn());
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("Column not found: " + update.getColumn());
+        }
+        ColumnType columnType = sheet.getColumnTypeAt(ordinal);
+        addresses[index] = CellAddress.pack(ordinal, update.getRow());
+
+        Object value = update.getValue();
+        if (value instanceof String && ((String) value).startsWith("lookup(")) {
+            // The value is filled in by propagation, once the referenced cell has its final value
+            references[index] = resolveLookupReference(sheet, columnType, (String) value);
+            values[index] = null;
+        } else if (isAggregateFormula(value)) {
+            aggregates[index] = resolveAggregate(sheet, addresses[index], columnType, (String) value);
+            references[index] = CellAddress.NONE;
+            values[index] = aggregates[index].format(sheet.getColumns());
+            return true;
+        } else {
+            references[index] = CellAddress.NONE;
+            values[index] = normalizeValue(update.getColumn(), columnType, value);
+        }
+        return false;
     }
 
     /**
-     * Get a sheet by ID
+     * Check that the references as they will be once the batch is applied contain no cycle.
+     * Every cell has at most one reference, so each chain is walked once; chains already known
+     * to end without a cycle are not walked again.
      */
-    public Sheet getSheet(String sheetId) {
-        log.debug("Getting sheet with ID: {}", sheetId);
-        Sheet sheet = sheets.get(sheetId);
-        if (sheet == null) {
-            log.debug("Sheet not found with ID: {}", sheetId);
-        } else {
-            log.debug("Found sheet with ID: {}, columns: {}", sheetId, sheet.getColumns().size());
+    private void checkBatchForCycles(Sheet sheet, long[] addresses, long[] references) {
+        // Address -> index of the last update of that cell in the batch, only needed if the batch has lookups
+        LongObjectHashMap<Integer> lastUpdate = null;
+        for (int i = 0; i < addresses.length; i++) {
+            if (references[i] != CellAddress.NONE) {
+                lastUpdate = new LongObjectHashMap<>();
+                for (int j = 0; j < addresses.length; j++) {
+                    lastUpdate.put(addresses[j], j);
+                }
+                break;
+            }
+        }
+        if (lastUpdate == null) {
+            return;
+        }
+
+        LongHashSet acyclic = new LongHashSet();
+        LongHashSet onPath = new LongHashSet();
+        long[] path = new long[16];
+        for (int i = 0; i < addresses.length; i++) {
+            // Superseded updates never reach the sheet
+            long reference = references[i];
+            if (reference == CellAddress.NONE || lastUpdate.get(addresses[i]) != i || acyclic.contains(addresses[i])) {
+                continue;
+            }
+            if (reference == addresses[i]) {
+                log.warn("Self-reference cycle detected in batch at cell: {}", sheet.formatAddress(reference));
+                throw new IllegalArgumentException("Cycle detected in cell references: self-reference");
+            }
+
+            // Most lookups point at a plain cell; such a chain cannot loop
+            if (nextReference(sheet, lastUpdate, references, reference) == CellAddress.NONE) {
+                continue;
+            }
+
+            int length = 0;
+            long current = addresses[i];
+            while (current != CellAddress.NONE && !acyclic.contains(current)) {
+                if (!onPath.add(current)) {
+                    log.warn("Cycle detected in batch at cell: {}", sheet.formatAddress(current));
+                    throw new IllegalArgumentException("Cycle detected in cell references at " + sheet.formatAddress(current));
+                }
+                path = push(path, length++, current);
+                current = nextReference(sheet, lastUpdate, references, current);
+            }
+
+            // The whole path ends outside any cycle
+            for (int j = 0; j < length; j++) {
+                onPath.remove(path[j]);
+                acyclic.add(path[j]);
+            }
         }
-        return sheet;
     }
 
     /**
-     * Set a cell value in a sheet
+     * Get the reference a cell will have once the batch is applied
      */
-    public Cell setCellValue(String sheetId, String columnName, int rowIndex, Object value) {
-        log.info("Setting cell value in sheet: {}, column: {}, row: {}", sheetId, columnName, rowIndex);
+    private static long nextReference(Sheet sheet, LongObjectHashMap<Integer> lastUpdate, long[] references, long address) {
+        Integer update = lastUpdate.get(address);
+        return update != null ? references[update] : sheet.getReference(address);
+    }
 
-        Sheet sheet = getSheet(sheetId);
-        if (sheet == null) {
-            log.warn("Sheet not found with ID: {}", sheetId);
-            throw new IllegalArgumentException("Sheet not found with id: " + sheetId);
+    /**
+     * Recompute every lookup cell affected by a batch exactly once, in topological order
+     * @return number of lookup cells recomputed
+     */
+    private int propagateBatch(Sheet sheet, long[] addresses, long[] references, long version) {
+        long start = System.nanoTime();
+        // Collect the batch cells and everything reachable from them through the dependents index.
+        // Walking the batch backwards, the first sighting of a cell is its last update.
+        LongHashSet affected = new LongHashSet(addresses.length);
+        boolean[] lastUpdate = new boolean[addresses.length];
+        long[] pending = new long[Math.max(16, addresses.length)];
+        int pendingSize = 0;
+        for (int i = addresses.length - 1; i >= 0; i--) {
+            if (affected.add(addresses[i])) {
+                lastUpdate[i] = true;
+                pending = push(pending, pendingSize++, addresses[i]);
+            }
+        }
+        while (pendingSize > 0) {
+            LongHashSet dependents = sheet.getDependents(pending[--pendingSize]);
+            for (int slot = 0; dependents != null && slot < dependents.slots(); slot++) {
+                long dependent = dependents.keyAt(slot);
+                if (dependent != CellAddress.NONE && affected.add(dependent)) {
+                    pending = push(pending, pendingSize++, dependent);
+                }
+            }
         }
 
-        Column column = sheet.getColumnByName(columnName);
-        if (column == null) {
-            log.warn("Column not found: {} in sheet: {}", columnName, sheetId);
-            throw new IllegalArgumentException("Column not found: " + columnName);
+        // Start from the cells whose own value is settled: plain cells, and lookups into cells outside
+        // the affected set. Cells outside the batch were reached through the cell they reference, so
+        // only batch cells can start. Each lookup has one reference, so every other affected cell is
+        // reached exactly once, right after the cell it references.
+        long[] order = new long[affected.size()];
+        int[] depths = new int[order.length];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < addresses.length; i++) {
+            if (lastUpdate[i] && (references[i] == CellAddress.NONE || !affected.contains(references[i]))) {
+                order[tail++] = addresses[i];
+            }
         }
 
-        Cell cell = new Cell(columnName, rowIndex, value);
-        log.debug("Processing cell value type: {}", value != null ? value.getClass().getSimpleName() : "null");
+        // Every reference the batch added ends in this set and nothing outside it depends on it,
+        // so moving its cells to the end of the sheet's topological order, in this order, keeps it valid
+        int recalculated = 0;
+        int maxDepth = 0;
+        while (head < tail) {
+            int depth = depths[head];
+            long address = order[head++];
+            maxDepth = Math.max(maxDepth, depth);
+            sheet.moveToEndOfOrder(address);
+            long reference = sheet.getReference(address);
+            if (reference != CellAddress.NONE) {
+                sheet.setCell(address, sheet.getValue(reference), reference, version);
+                recalculated++;
+            }
+            LongHashSet dependents = sheet.getDependents(address);
+            for (int slot = 0; dependents != null && slot < dependents.slots(); slot++) {
+                long dependent = dependents.keyAt(slot);
+                if (dependent != CellAddress.NONE) {
+                    depths[tail] = depth + 1;
+                    order[tail++] = dependent;
+                }
+            }
+        }
+        metrics.recordPropagation(start, recalculated, maxDepth);
+        if (log.isDebugEnabled()) {
+            log.debug("Batch propagation recomputed {} of {} affected cells", recalculated, affected.size());
+        }
+        return recalculated;
+    }
 
-        // Check if value is a lookup function
-        if (value instanceof String && ((String) value).startsWith("lookup(")) {
-            log.debug("Processing lookup function: {}", value);
-            processLookupFunction(sheet, cell, (String) value);
-        } else {
-            // Validate the type of the value against the column type
-            log.debug("Validating value type against column type: {}", column.getType());
-            validateValueType(column, value);
+    private static long[] push(long[] stack, int size, long address) {
+        if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
         }
+        stack[size] = address;
+        return stack;
+    }
 
-        // Check for cycles before adding the cell
-        if (cell.isLookupCell()) {
-            log.debug("Checking for reference cycles");
-            checkForCycles(sheet, cell, new HashSet<>());
+    private static int[] push(int[] stack, int size, int value) {
+        if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
         }
+        stack[size] = value;
+        return stack;
+    }
 
-        // Add or update the cell
-        sheet.addCell(cell);
-        log.info("Cell value set successfully");
+    /**
+     * Process a lookup function in a cell value
+     * @return the address of the referenced cell
+     */
+    private long processLookupFunction(Sheet sheet, Cell cell, ColumnType currentType, String lookupFunction) {
+        long reference = resolveLookupReference(sheet, currentType, lookupFunction);
 
-        // Update dependent cells if any
-        log.debug("Updating dependent cells");
-        updateDependentCells(sheet, columnName, rowIndex, new HashSet<>());
+        // Get the referenced cell value
+        Object referencedValue = currentValue(sheet, reference);
+        log.debug("Referenced cell value: {}", referencedValue);
 
-        return cell;
+        // Set the lookup function and the referenced value
+        cell.setLookupFunction(lookupFunction);
+        cell.setReferencedColumn(sheet.getColumns().get(CellAddress.ordinal(reference)).getName());
+        cell.setReferencedRow(CellAddress.row(reference));
+        cell.setValue(referencedValue);
+        log.debug("Lookup function processed successfully");
+        return reference;
     }
 
     /**
-     * Process a lookup function in a cell value
+     * Get the current value at an address. In lazy mode a lookup may not have caught up with its
+     * referenced cell yet, so the value is taken from the plain cell at the end of the chain.
+     */
+    private Object currentValue(Sheet sheet, long address) {
+        if (recalculationMode == RecalculationMode.LAZY) {
+            for (long reference = sheet.getReference(address); reference != CellAddress.NONE;
+                 reference = sheet.getReference(address)) {
+                address = reference;
+            }
+        }
+        return sheet.getValue(address);
+    }
+
+    /**
+     * Parse a lookup function and check it against the schema
+     * @return the address of the referenced cell
      */
-    private void processLookupFunction(Sheet sheet, Cell cell, String lookupFunction) {
+    private long resolveLookupReference(Sheet sheet, ColumnType currentType, String lookupFunction) {
         log.debug("Processing lookup function: {}", lookupFunction);
 
         // Extract column name and row index from lookup function
-        // Regex to match lookup(columnName, rowIndex)
-        Pattern pattern = Pattern.compile("lookup\\(\\s*([A-Za-z]+)\\s*,\\s*(\\d+)\\s*\\)");
-        Matcher matcher = pattern.matcher(lookupFunction);
+        Matcher matcher = LOOKUP_PATTERN.matcher(lookupFunction);
 
         if (!matcher.matches()) {
             log.warn("Invalid lookup function format: {}", lookupFunction);
@@ -125,236 +1553,300 @@ public class SpreadsheetService {
 
         String referencedColumn = matcher.group(1);
         int referencedRow = Integer.parseInt(matcher.group(2));
-        log.debug("Lookup references column: {}, row: {}", referencedColumn, referencedRow);
+        if (log.isDebugEnabled()) {
+            log.debug("Lookup references column: {}, row: {}", referencedColumn, referencedRow);
+        }
 
         // Check if referenced column exists
-        Column referencedColDef = sheet.getColumnByName(referencedColumn);
-        if (referencedColDef == null) {
+        int referencedOrdinal = sheet.getColumnIndex(referencedColumn);
+        if (referencedOrdinal < 0) {
             log.warn("Referenced column not found: {}", referencedColumn);
             throw new IllegalArgumentException("Referenced column not found: " + referencedColumn);
         }
+        ColumnType referencedType = sheet.getColumnTypeAt(referencedOrdinal);
 
-        // Get the column definition of the current cell
-        Column currentColDef = sheet.getColumnByName(cell.getColumn());
-
-        // Check if the types are compatible
-        if (!isTypeCompatible(referencedColDef.getType(), currentColDef.getType())) {
+        // Check if the types are compatible; values are stored in canonical form, so no conversion is needed
+        if (!isTypeCompatible(referencedType, currentType)) {
             log.warn("Type mismatch: Cannot set lookup from {} to {}",
-                    referencedColDef.getType(), currentColDef.getType());
+                    referencedType.getName(), currentType.getName());
             throw new IllegalArgumentException(
-                "Type mismatch: Cannot set lookup from " + referencedColDef.getType() +
-                " to " + currentColDef.getType());
+                "Type mismatch: Cannot set lookup from " + referencedType.getName() +
+                " to " + currentType.getName());
         }
+        return CellAddress.pack(referencedOrdinal, referencedRow);
+    }
 
-        // Get the referenced cell value
-        Cell referencedCell = sheet.getCell(referencedColumn, referencedRow);
-        Object referencedValue = referencedCell != null ? referencedCell.getValue() : null;
-        log.debug("Referenced cell value: {}", referencedValue);
-
-        // Set the lookup function and the referenced value
-        cell.setLookupFunction(lookupFunction);
-        cell.setReferencedColumn(referencedColumn);
-        cell.setReferencedRow(referencedRow);
-        cell.setValue(referencedValue);
-        log.debug("Lookup function processed successfully");
+    private static boolean isAggregateFormula(Object value) {
+        return value instanceof String && AGGREGATE_PATTERN.matcher((String) value).matches();
     }
 
     /**
-     * Check if two column types are compatible
+     * Parse an aggregate function and check it against the schema
+     * @param address address of the cell that is to hold it
      */
-    private boolean isTypeCompatible(String sourceType, String targetType) {
-        boolean compatible = sourceType.equals(targetType);
-        log.trace("Type compatibility check: {} -> {} = {}", sourceType, targetType, compatible);
-        return compatible;
+    private Aggregate resolveAggregate(Sheet sheet, long address, ColumnType currentType, String formula) {
+        Matcher matcher = AGGREGATE_PATTERN.matcher(formula);
+        if (!matcher.matches()) {
+            log.warn("Invalid aggregate function format: {}", formula);
+            throw new IllegalArgumentException("Invalid aggregate function format: " + formula);
+        }
+        Aggregate.Function function = Aggregate.Function.lookup(matcher.group(1));
+
+        String sourceColumn = matcher.group(2);
+        int sourceOrdinal = sheet.getColumnIndex(sourceColumn);
+        if (sourceOrdinal < 0) {
+            log.warn("Referenced column not found: {}", sourceColumn);
+            throw new IllegalArgumentException("Referenced column not found: " + sourceColumn);
+        }
+
+        // Without a row range the whole column is read
+        int fromRow = Integer.MIN_VALUE;
+        int toRow = Integer.MAX_VALUE;
+        if (matcher.group(3) != null) {
+            fromRow = Integer.parseInt(matcher.group(3));
+            toRow = Integer.parseInt(matcher.group(4));
+            if (fromRow > toRow) {
+                throw new IllegalArgumentException("Invalid row range in aggregate function: " + formula);
+            }
+        }
+
+        ColumnType sourceType = sheet.getColumnTypeAt(sourceOrdinal);
+        ColumnType resultType = function.resultType(sourceType);
+        if (!isTypeCompatible(resultType, currentType)) {
+            log.warn("Type mismatch: Cannot set {} {} to {}",
+                    resultType.getName(), function.getName(), currentType.getName());
+            throw new IllegalArgumentException(
+                "Type mismatch: Cannot set " + resultType.getName() + " " + function.getName() +
+                " to " + currentType.getName());
+        }
+        return new Aggregate(function, address, sourceOrdinal, sourceType, fromRow, toRow);
     }
 
     /**
-     * Validate that the value matches the column type
+     * Check that the cells as they will be once the writes are applied contain no cycle through an
+     * aggregate. An aggregate depends on every cell of its range, so unlike lookups a cell can have
+     * many sources and the check walks the graph depth first. Only needed when the writes add
+     * lookups or aggregates to a sheet where aggregates are, or will be.
+     * @param aggregates the aggregate each write sets, or null where it sets none; null for no aggregates
      */
-    private void validateValueType(Column column, Object value) {
-        log.debug("Validating value type for column: {}, type: {}", column.getName(), column.getType());
-
-        if (value == null) {
-            log.debug("Null value is allowed for any type");
-            return; // Null values are allowed
+    private void checkAggregateCycles(Sheet sheet, long[] addresses, long[] references, Aggregate[] aggregates) {
+        LongObjectHashMap<Integer> lastUpdate = new LongObjectHashMap<>();
+        for (int i = 0; i < addresses.length; i++) {
+            lastUpdate.put(addresses[i], i);
+        }
+        // The lookups and aggregates the writes leave behind
+        LongObjectHashMap<LongHashSet> addedDependents = new LongObjectHashMap<>();
+        List<Aggregate> addedAggregates = new ArrayList<>();
+        for (int i = 0; i < addresses.length; i++) {
+            if (lastUpdate.get(addresses[i]) != i) {
+                continue;
+            }
+            if (references[i] != CellAddress.NONE) {
+                LongHashSet dependents = addedDependents.get(references[i]);
+                if (dependents == null) {
+                    dependents = new LongHashSet();
+                    addedDependents.put(references[i], dependents);
+                }
+                dependents.add(addresses[i]);
+            } else if (aggregates != null && aggregates[i] != null) {
+                addedAggregates.add(aggregates[i]);
+            }
+        }
+        if (addedDependents.size() == 0 && addedAggregates.isEmpty()) {
+            return;
         }
 
-        switch (column.getType().toLowerCase()) {
-            case "boolean":
-                if (!(value instanceof Boolean)) {
-                    log.warn("Type validation failed: expected boolean, got {}", value.getClass().getSimpleName());
-                    throw new IllegalArgumentException("Expected boolean value for column: " + column.getName());
+        // Any new cycle goes through a written cell
+        LongHashSet done = new LongHashSet();
+        LongHashSet onPath = new LongHashSet();
+        long[] path = new long[16];
+        long[][] successors = new long[16][];
+        int[] next = new int[16];
+        for (long start : addresses) {
+            if (done.contains(start)) {
+                continue;
+            }
+            path[0] = start;
+            successors[0] = dependentsAfter(sheet, start, lastUpdate, addedDependents, addedAggregates);
+            next[0] = 0;
+            onPath.add(start);
+            int depth = 1;
+            while (depth > 0) {
+                int top = depth - 1;
+                if (next[top] == successors[top].length) {
+                    onPath.remove(path[top]);
+                    done.add(path[top]);
+                    depth--;
+                    continue;
                 }
-                break;
-            case "int":
-                if (value instanceof Number) {
-                    // Convert to Integer if needed
-                    if (!(value instanceof Integer)) {
-                        try {
-                            int intValue = ((Number) value).intValue();
-                            // Check if the conversion loses precision
-                            if (intValue != ((Number) value).doubleValue()) {
-                                log.warn("Type validation failed: value {} cannot be converted to int without loss of precision", value);
-                                throw new IllegalArgumentException("Expected integer value for column: " + column.getName());
-                            }
-                        } catch (ClassCastException e) {
-                            log.warn("Type validation failed: cannot cast {} to int", value.getClass().getSimpleName());
-                            throw new IllegalArgumentException("Expected integer value for column: " + column.getName());
-                        }
-                    }
-                } else if (value instanceof String) {
-                    try {
-                        Integer.parseInt((String) value);
-                    } catch (NumberFormatException e) {
-                        log.warn("Type validation failed: string value '{}' cannot be parsed as int", value);
-                        throw new IllegalArgumentException("Expected integer value for column: " + column.getName());
-                    }
-                } else {
-                    log.warn("Type validation failed: expected int, got {}", value.getClass().getSimpleName());
-                    throw new IllegalArgumentException("Expected integer value for column: " + column.getName());
+                long successor = successors[top][next[top]++];
+                if (onPath.contains(successor)) {
+                    log.warn("Cycle detected through an aggregate at cell: {}", sheet.formatAddress(successor));
+                    throw new IllegalArgumentException("Cycle detected in cell references at " + sheet.formatAddress(successor));
                 }
-                break;
-            case "double":
-                if (value instanceof Number) {
-                    // Already a number, no validation needed
-                    log.trace("Value {} is already a number, validation passed", value);
-                } else if (value instanceof String) {
-                    try {
-                        Double.parseDouble((String) value);
-                        log.trace("String value '{}' can be parsed as double, validation passed", value);
-                    } catch (NumberFormatException e) {
-                        log.warn("Type validation failed: string value '{}' cannot be parsed as double", value);
-                        throw new IllegalArgumentException("Expected double value for column: " + column.getName());
-                    }
-                } else {
-                    log.warn("Type validation failed: expected double, got {}", value.getClass().getSimpleName());
-                    throw new IllegalArgumentException("Expected double value for column: " + column.getName());
+                if (done.contains(successor)) {
+                    continue;
                 }
-                break;
-            case "string":
-                // All values can be represented as strings
-                log.trace("Value can be represented as string, validation passed");
-                break;
-            default:
-                log.warn("Unsupported column type: {}", column.getType());
-                throw new IllegalArgumentException("Unsupported column type: " + column.getType());
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    successors = Arrays.copyOf(successors, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                path[depth] = successor;
+                successors[depth] = dependentsAfter(sheet, successor, lastUpdate, addedDependents, addedAggregates);
+                next[depth] = 0;
+                onPath.add(successor);
+                depth++;
+            }
         }
-
-        log.debug("Type validation successful for column: {}", column.getName());
     }
 
     /**
-     * Check for cycles in cell references
-     * This method detects direct and indirect cycles in cell references
+     * Get the cells whose value will depend directly on a cell once the writes are applied:
+     * its lookups and the aggregates whose range holds it
      */
-    private void checkForCycles(Sheet sheet, Cell newCell, Set<String> visited) {
-        log.debug("Checking for cycles starting from cell: {},{}", newCell.getColumn(), newCell.getRow());
-
-        // First check if this cell would create a self-reference
-        if (newCell.isLookupCell() &&
-            newCell.getColumn().equals(newCell.getReferencedColumn()) &&
-            newCell.getRow() == newCell.getReferencedRow()) {
-            log.warn("Self-reference cycle detected in cell: {},{}", newCell.getColumn(), newCell.getRow());
-            throw new IllegalArgumentException("Cycle detected in cell references: self-reference");
+    private static long[] dependentsAfter(Sheet sheet, long address, LongObjectHashMap<Integer> lastUpdate,
+                                          LongObjectHashMap<LongHashSet> addedDependents,
+                                          List<Aggregate> addedAggregates) {
+        long[] result = new long[4];
+        int size = 0;
+        // Written cells lose what they held before, so their old lookups and aggregates are gone
+        LongHashSet dependents = sheet.getDependents(address);
+        for (int slot = 0; dependents != null && slot < dependents.slots(); slot++) {
+            long dependent = dependents.keyAt(slot);
+            if (dependent != CellAddress.NONE && lastUpdate.get(dependent) == null) {
+                result = push(result, size++, dependent);
+            }
         }
-
-        // Start with the target cell itself
-        String cellKey = sheet.generateCellKey(newCell.getColumn(), newCell.getRow());
-
-        // Now check if this cell is part of a longer cycle
-        if (newCell.isLookupCell()) {
-            // Start a new set for tracking visited cells
-            Set<String> pathVisited = new HashSet<>();
-            pathVisited.add(cellKey); // Mark the starting cell as visited
-
-            log.debug("Checking for cycles in reference path");
-            // Check if adding this cell would create a cycle
-            checkPathForCycles(sheet, newCell.getReferencedColumn(), newCell.getReferencedRow(),
-                              newCell.getColumn(), newCell.getRow(), pathVisited);
+        LongHashSet added = addedDependents.get(address);
+        for (int slot = 0; added != null && slot < added.slots(); slot++) {
+            long dependent = added.keyAt(slot);
+            if (dependent != CellAddress.NONE) {
+                result = push(result, size++, dependent);
+            }
         }
-
-        log.debug("No cycles detected");
+        int ordinal = CellAddress.ordinal(address);
+        int row = CellAddress.row(address);
+        for (Aggregate aggregate : sheet.getAggregatesCovering(address)) {
+            if (lastUpdate.get(aggregate.getAddress()) == null) {
+                result = push(result, size++, aggregate.getAddress());
+            }
+        }
+        for (Aggregate aggregate : addedAggregates) {
+            if (aggregate.getSourceOrdinal() == ordinal && aggregate.covers(row)) {
+                result = push(result, size++, aggregate.getAddress());
+            }
+        }
+        return Arrays.copyOf(result, size);
     }
 
     /**
-     * Helper method to check for cycles in a path of cell references
+     * Check if two column types are compatible
      */
-    private void checkPathForCycles(Sheet sheet, String currentCol, int currentRow,
-                                   String targetCol, int targetRow, Set<String> pathVisited) {
-        log.trace("Checking path node: {},{} (target: {},{})", currentCol, currentRow, targetCol, targetRow);
-
-        // Check if we've reached the target cell, which would mean we have a cycle
-        if (currentCol.equals(targetCol) && currentRow == targetRow) {
-            log.warn("Cycle detected in reference path");
-            throw new IllegalArgumentException("Cycle detected in cell references");
+    private boolean isTypeCompatible(ColumnType sourceType, ColumnType targetType) {
+        boolean compatible = sourceType == targetType;
+        if (log.isTraceEnabled()) {
+            log.trace("Type compatibility check: {} -> {} = {}", sourceType, targetType, compatible);
         }
+        return compatible;
+    }
 
-        // Get the current cell
-        Cell currentCell = sheet.getCell(currentCol, currentRow);
+    /**
+     * Validate that the value matches the column type and convert it to the stored form
+     */
+    private Object normalizeValue(String columnName, ColumnType columnType, Object value) {
+        try {
+            Object normalized = columnType.normalize(value, columnName);
+            log.debug("Type validation successful for column: {}", columnName);
+            return normalized;
+        } catch (IllegalArgumentException e) {
+            log.warn("Type validation failed for column: {}, type: {}, value: {}", columnName, columnType.getName(), value);
+            throw e;
+        }
+    }
 
-        // If we reached a cell that isn't a lookup or doesn't exist, we've reached the end of the path
-        if (currentCell == null || !currentCell.isLookupCell()) {
-            log.trace("Path ended at {},{} (not a lookup cell or doesn't exist)", currentCol, currentRow);
-            return;
+    /**
+     * Check for cycles in cell references
+     * The sheet keeps its lookups in topological order, so the check only looks at cells ordered
+     * between the two ends of the new reference, never at the whole chain
+     */
+    private void checkForCycles(Sheet sheet, long address, long reference) {
+        if (log.isDebugEnabled()) {
+            log.debug("Checking for cycles starting from cell: {}", sheet.formatAddress(address));
         }
 
-        // Mark this cell as visited in our path
-        String cellKey = sheet.generateCellKey(currentCol, currentRow);
-        if (pathVisited.contains(cellKey)) {
-            // We've already visited this cell in our current path, which means there's a cycle,
-            // but it doesn't involve our target cell
-            log.trace("Already visited cell {},{} in this path (different cycle)", currentCol, currentRow);
-            return;
+        // First check if this cell would create a self-reference
+        if (reference == address) {
+            log.warn("Self-reference cycle detected in cell: {}", sheet.formatAddress(address));
+            throw new IllegalArgumentException("Cycle detected in cell references: self-reference");
         }
 
-        pathVisited.add(cellKey);
-        log.trace("Added {},{} to visited path", currentCol, currentRow);
+        if (!sheet.orderReference(address, reference)) {
+            log.warn("Cycle detected in reference path");
+            throw new IllegalArgumentException("Cycle detected in cell references");
+        }
 
-        // Continue following the path
-        checkPathForCycles(sheet, currentCell.getReferencedColumn(), currentCell.getReferencedRow(),
-                          targetCol, targetRow, pathVisited);
+        log.debug("No cycles detected");
     }
 
     /**
      * Update all cells that reference a specific cell
+     * A lookup references exactly one cell and cycles are rejected up front, so the dependents
+     * form a tree and every cell in it is reached at most once. The tree is walked with an
+     * explicit stack, so long chains of lookups cannot overflow the call stack.
+     * @param value the new value of the referenced cell
      */
-    private void updateDependentCells(Sheet sheet, String columnName, int rowIndex, Set<String> visited) {
-        log.debug("Updating dependent cells for {},{}", columnName, rowIndex);
-
-        String cellKey = sheet.generateCellKey(columnName, rowIndex);
-
-        // If we've already visited this cell in this update chain, stop to prevent infinite recursion
-        if (visited.contains(cellKey)) {
-            log.trace("Cell {},{} already visited, stopping recursive update", columnName, rowIndex);
+    private void updateDependentCells(Sheet sheet, long address, Object value, long version) {
+        // Only the cells registered in the reverse dependency index can reference this cell
+        if (sheet.getDependents(address) == null) {
             return;
         }
 
-        // Mark this cell as visited
-        visited.add(cellKey);
+        long start = System.nanoTime();
+        int updated = 0;
+        int maxDepth = 0;
+        long[] pending = new long[16];
+        int[] depths = new int[16];
+        int pendingSize = 0;
+        pending[pendingSize++] = address;
+        while (pendingSize > 0) {
+            int depth = depths[--pendingSize];
+            long referenced = pending[pendingSize];
+            LongHashSet dependentAddresses = sheet.getDependents(referenced);
+            if (dependentAddresses == null) {
+                continue;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Updating dependent cells for {}", sheet.formatAddress(referenced));
+            }
 
-        // Find all cells that reference this cell
-        for (Cell cell : sheet.getCells().values()) {
-            if (cell.isLookupCell() &&
-                columnName.equals(cell.getReferencedColumn()) &&
-                rowIndex == cell.getReferencedRow()) {
+            for (int slot = 0; slot < dependentAddresses.slots(); slot++) {
+                long dependent = dependentAddresses.keyAt(slot);
+                if (dependent == CellAddress.NONE) {
+                    continue;
+                }
 
-                log.debug("Found dependent cell: {},{}", cell.getColumn(), cell.getRow());
+                // A lookup always holds its referenced cell's value, so if this one already holds
+                // the new value, so does everything that depends on it
+                if (Objects.equals(sheet.getValue(dependent), value)) {
+                    continue;
+                }
 
                 // Update the value from the referenced cell
-                Cell referencedCell = sheet.getCell(columnName, rowIndex);
-                if (referencedCell != null) {
-                    Object oldValue = cell.getValue();
-                    cell.setValue(referencedCell.getValue());
-                    log.debug("Updated cell {},{} value from: {} to: {}",
-                            cell.getColumn(), cell.getRow(), oldValue, cell.getValue());
-
-                    // Recursively update cells that depend on this cell
-                    updateDependentCells(sheet, cell.getColumn(), cell.getRow(), visited);
+                sheet.setCell(dependent, value, referenced, version);
+                if (log.isDebugEnabled()) {
+                    log.debug("Updated cell {} value to: {}", sheet.formatAddress(dependent), value);
                 }
+
+                updated++;
+                maxDepth = Math.max(maxDepth, depth + 1);
+
+                // Then the cells that depend on this cell
+                pending = push(pending, pendingSize, dependent);
+                depths = push(depths, pendingSize++, depth + 1);
             }
         }
-
-        log.debug("Finished updating dependent cells for {},{}", columnName, rowIndex);
+        metrics.recordPropagation(start, updated, maxDepth);
     }
 
     /**
@@ -364,56 +1856,267 @@ public class SpreadsheetService {
      * @return String representation of the sheet in CSV format
      */
     public String convertSheetToCsv(Sheet sheet) {
-        log.debug("Converting sheet to CSV format: {}", sheet.getId());
-        StringBuilder csv = new StringBuilder();
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        try {
+            writeSheetCsv(sheet, Integer.MIN_VALUE, Integer.MAX_VALUE, null, csv);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return csv.toString(StandardCharsets.UTF_8);
+    }
 
-        // Add "Row" as first column header, followed by sheet column headers
-        csv.append("Row,");
-        List<Column> columns = sheet.getColumns();
-        for (int i = 0; i < columns.size(); i++) {
-            csv.append(columns.get(i).getName());
-            if (i < columns.size() - 1) {
-                csv.append(",");
+    /**
+     * Resolve the column names of an export projection to their positions in the schema
+     */
+    public int[] resolveColumns(Sheet sheet, List<String> columnNames) {
+        int[] ordinals = new int[columnNames.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = sheet.getColumnIndex(columnNames.get(i));
+            if (ordinals[i] < 0) {
+                log.warn("Column not found: {} in sheet: {}", columnNames.get(i), sheet.getId());
+                throw new IllegalArgumentException("Column not found: " + columnNames.get(i));
+            }
+        }
+        return ordinals;
+    }
+
+    /**
+     * Read one page of the rows in a range, in row order. Rows without a cell in any of the read columns
+     * are skipped. The rows are found by binary search over the sorted column pages and the read stops
+     * after the page, so it costs O(log n + page size) however large the sheet is.
+     * @param fromRow first row to read, inclusive
+     * @param toRow last row to read, inclusive
+     * @param columnOrdinals positions of the columns to read, or null for all columns
+     * @param limit most rows in the page, 1 to {@link #MAX_PAGE_ROWS}
+     * @param cursor next cursor of the previous page, or null for the first page
+     * @throws IllegalArgumentException if the limit is out of bounds or the cursor is invalid
+     */
+    public RowPage readRows(Sheet sheet, int fromRow, int toRow, int[] columnOrdinals, int limit, String cursor) {
+        if (limit < 1 || limit > MAX_PAGE_ROWS) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_ROWS);
+        }
+        if (columnOrdinals == null) {
+            columnOrdinals = new int[sheet.getColumns().size()];
+            for (int i = 0; i < columnOrdinals.length; i++) {
+                columnOrdinals[i] = i;
+            }
+        }
+        int firstRow = cursor != null ? Math.max(fromRow, decodeRowCursor(cursor)) : fromRow;
+
+        List<String> names = new ArrayList<>(columnOrdinals.length);
+        for (int ordinal : columnOrdinals) {
+            names.add(sheet.getColumns().get(ordinal).getName());
+        }
+        List<RowPage.Row> rows = new ArrayList<>(Math.min(limit, 1024));
+        String nextCursor = null;
+        if (firstRow <= toRow) {
+            try (SheetSnapshot snapshot = openSettledSnapshot(sheet)) {
+                RowCursor cells = snapshot.rows(firstRow, toRow, columnOrdinals);
+                while (cells.next()) {
+                    if (rows.size() == limit) {
+                        // Resume at the row found beyond the page, skipping the gap before it
+                        nextCursor = encodeRowCursor(cells.getRow());
+                        break;
+                    }
+                    Object[] values = new Object[columnOrdinals.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = cells.getValue(i);
+                    }
+                    rows.add(new RowPage.Row(cells.getRow(), Arrays.asList(values)));
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Read {} rows of sheet: {} from row: {}", rows.size(), sheet.getId(), firstRow);
+        }
+        return new RowPage(names, rows, nextCursor);
+    }
+
+    private static String encodeRowCursor(int row) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(("row:" + row).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static int decodeRowCursor(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            if (decoded.startsWith("row:")) {
+                return Integer.parseInt(decoded.substring(4));
+            }
+        } catch (IllegalArgumentException e) {
+            // Not base64 or not a number, rejected below
+        }
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+
+    /**
+     * Stream a sheet as CSV in row order, with memory use independent of the sheet size.
+     * Rows without a cell in any of the exported columns are skipped.
+     * @param fromRow first row to export, inclusive
+     * @param toRow last row to export, inclusive
+     * @param columnOrdinals positions of the columns to export, or null for all columns
+     */
+    public void writeSheetCsv(Sheet sheet, int fromRow, int toRow, int[] columnOrdinals, OutputStream out) throws IOException {
+        try (SheetExport export = openExport(sheet, SheetExport.Format.CSV, fromRow, toRow, columnOrdinals)) {
+            export.writeTo(out);
+        }
+    }
+
+    /**
+     * Stream a sheet in the binary columnar format of {@link ColumnarWriter}, in row order, with
+     * memory use independent of the sheet size. Takes the same rows and columns as the CSV export.
+     * @param fromRow first row to export, inclusive
+     * @param toRow last row to export, inclusive
+     * @param columnOrdinals positions of the columns to export, or null for all columns
+     */
+    public void writeSheetColumnar(Sheet sheet, int fromRow, int toRow, int[] columnOrdinals, OutputStream out) throws IOException {
+        try (SheetExport export = openExport(sheet, SheetExport.Format.COLUMNAR, fromRow, toRow, columnOrdinals)) {
+            export.writeTo(out);
+        }
+    }
+
+    /**
+     * Pin an uncompressed export of a sheet to its current version, see {@link #openExport(Sheet, SheetExport.Format,
+     * SheetExport.Encoding, int, int, int[])}
+     */
+    public SheetExport openExport(Sheet sheet, SheetExport.Format format, int fromRow, int toRow, int[] columnOrdinals) {
+        return openExport(sheet, format, SheetExport.Encoding.IDENTITY, fromRow, toRow, columnOrdinals);
+    }
+
+    /**
+     * Pin an export of a sheet to its current version, so its entity tag is known before it is written.
+     * An export of a version rendered before is served from the export cache without taking any lock;
+     * otherwise the export renders from a settled snapshot, compressed on the fly if asked to, and is
+     * cached if it is small enough once compressed. The export must be closed.
+     * @param fromRow first row to export, inclusive
+     * @param toRow last row to export, inclusive
+     * @param columnOrdinals positions of the columns to export, or null for all columns
+     */
+    public SheetExport openExport(Sheet sheet, SheetExport.Format format, SheetExport.Encoding encoding,
+                                  int fromRow, int toRow, int[] columnOrdinals) {
+        if (columnOrdinals == null) {
+            columnOrdinals = new int[sheet.getColumns().size()];
+            for (int i = 0; i < columnOrdinals.length; i++) {
+                columnOrdinals[i] = i;
+            }
+        }
+        String cacheKey = null;
+        if (exportCache != null) {
+            cacheKey = exportKey(sheet) + format + "|" + encoding + "|" + fromRow + "|" + toRow + "|" + Arrays.toString(columnOrdinals);
+            // A rendering is only cached once its version is settled, and the content of a version never
+            // changes, so a hit at the current version is what a fresh render would produce
+            long version = sheet.getVersion();
+            byte[] rendered = exportCache.get(cacheKey, version);
+            if (rendered != null) {
+                log.debug("Serving cached export of sheet: {} at version: {}", sheet.getId(), version);
+                return new SheetExport(SheetExport.entityTag(sheet.getInstanceId(), version, format, encoding),
+                        encoding, rendered);
             }
         }
-        csv.append("\n");
 
-        // Find all unique row indices and sort them
-        Set<Integer> rowIndices = new TreeSet<>();
-        for (Cell cell : sheet.getCells().values()) {
-            rowIndices.add(cell.getRow());
+        int[] ordinals = columnOrdinals;
+        SheetExport.Renderer renderer = format == SheetExport.Format.CSV
+                ? (snapshot, out) -> renderCsv(snapshot, fromRow, toRow, ordinals, out)
+                : (snapshot, out) -> renderColumnar(snapshot, fromRow, toRow, ordinals, out);
+        // Render from a snapshot so concurrent writes neither block nor tear the output
+        SheetSnapshot snapshot = openSettledSnapshot(sheet);
+        return new SheetExport(SheetExport.entityTag(sheet.getInstanceId(), snapshot.getVersion(), format, encoding),
+                encoding, snapshot, renderer, exportCache, cacheKey);
+    }
+
+    /**
+     * Entity tag an export of a sheet in this format and encoding would carry now, without rendering
+     * or locking anything, so a conditional request can be answered first. Null when the sheet has
+     * stale lookups, as in lazy mode or during an eager import, since settling them moves the version.
+     */
+    public String currentExportTag(Sheet sheet, SheetExport.Format format, SheetExport.Encoding encoding) {
+        if (sheet.hasStaleSources()) {
+            return null;
+        }
+        return SheetExport.entityTag(sheet.getInstanceId(), sheet.getVersion(), format, encoding);
+    }
+
+    private static String exportKey(Sheet sheet) {
+        return sheet.getId() + "|" + Long.toHexString(sheet.getInstanceId()) + "|";
+    }
+
+    private void evictExports(Sheet sheet) {
+        if (exportCache != null) {
+            exportCache.evictSheet(exportKey(sheet));
+        }
+    }
+
+    private void renderCsv(SheetSnapshot snapshot, int fromRow, int toRow, int[] columnOrdinals, OutputStream out)
+            throws IOException {
+        log.debug("Converting sheet to CSV format: {}", snapshot.getSheet().getId());
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), CSV_BUFFER_SIZE);
+        writeSnapshotCsv(snapshot, snapshot.rows(fromRow, toRow, columnOrdinals), columnOrdinals, writer);
+        writer.flush();
+        log.debug("CSV conversion complete");
+    }
+
+    private void renderColumnar(SheetSnapshot snapshot, int fromRow, int toRow, int[] columnOrdinals, OutputStream out)
+            throws IOException {
+        log.debug("Converting sheet to columnar format: {}", snapshot.getSheet().getId());
+        String[] names = new String[columnOrdinals.length];
+        ColumnType[] types = new ColumnType[columnOrdinals.length];
+        for (int i = 0; i < columnOrdinals.length; i++) {
+            Column column = snapshot.getColumns().get(columnOrdinals[i]);
+            names[i] = column.getName();
+            types[i] = ColumnType.lookup(column.getType());
+        }
+        new ColumnarWriter(Channels.newChannel(out)).write(names, types,
+                snapshot.rows(fromRow, toRow, columnOrdinals));
+        log.debug("Columnar conversion complete");
+    }
+
+    private void writeSnapshotCsv(SheetSnapshot snapshot, RowCursor rows, int[] columnOrdinals, Writer writer) throws IOException {
+        // Add "Row" as first column header, followed by sheet column headers
+        StringBuilder line = new StringBuilder("Row,");
+        List<Column> columns = snapshot.getColumns();
+        for (int i = 0; i < columnOrdinals.length; i++) {
+            line.append(columns.get(columnOrdinals[i]).getName());
+            if (i < columnOrdinals.length - 1) {
+                line.append(",");
+            }
         }
+        line.append("\n");
+        writer.append(line);
 
-        // Add data rows, sorted by row index
-        for (Integer rowIndex : rowIndices) {
+        // Walk the occupied rows in row order, page by page through the column stores
+        while (rows.next()) {
             // Add row number as first column
-            csv.append(rowIndex).append(",");
+            line.setLength(0);
+            line.append(rows.getRow()).append(",");
 
             // Add data for each column
-            for (int i = 0; i < columns.size(); i++) {
-                String columnName = columns.get(i).getName();
-                Cell cell = sheet.getCell(columnName, rowIndex);
-
-                if (cell != null) {
-                    Object value = cell.getValue();
-                    if (value != null) {
-                        // Handle string values that might contain commas - quote them
-                        if (value instanceof String && ((String) value).contains(",")) {
-                            csv.append("\"").append(value).append("\"");
-                        } else {
-                            csv.append(value);
-                        }
+            for (int i = 0; i < columnOrdinals.length; i++) {
+                Object value = rows.getValue(i);
+                if (value != null) {
+                    // Quote strings that might contain commas, quotes or line breaks, doubling the quotes
+                    if (value instanceof String && needsQuotes((String) value)) {
+                        line.append("\"").append(((String) value).replace("\"", "\"\"")).append("\"");
+                    } else {
+                        line.append(value);
                     }
                 }
 
-                if (i < columns.size() - 1) {
-                    csv.append(",");
+                if (i < columnOrdinals.length - 1) {
+                    line.append(",");
                 }
             }
-            csv.append("\n");
+            line.append("\n");
+            writer.append(line);
         }
+    }
 
-        log.debug("CSV conversion complete");
-        return csv.toString();
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
     }
 }
@@ -0,0 +1,168 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.example.storage.WriteAheadLog;
+
+import java.nio.file.Path;
+
+/**
+ * How a {@link SpreadsheetService} keeps its sheets. Every setting starts at its default, the one used by
+ * {@link SpreadsheetService#SpreadsheetService()}: eager recalculation, sheets in memory only, no export cache,
+ * and metrics kept in a registry nothing reads.
+ */
+public class SpreadsheetSettings {
+
+    private RecalculationMode recalculationMode = RecalculationMode.EAGER;
+    private Path walPath;
+    private WriteAheadLog.SyncMode walSyncMode = WriteAheadLog.SyncMode.COMMIT;
+    private long walSyncIntervalMillis;
+    private Path snapshotPath;
+    private long snapshotIntervalSeconds;
+    private long memoryBudgetBytes;
+    private Path spillPath;
+    private long exportCacheBytes;
+    private long changeBatchMillis = 50;
+    private int changeBufferCells = 10_000;
+    private MeterRegistry meterRegistry;
+
+    public SpreadsheetSettings recalculationMode(RecalculationMode recalculationMode) {
+        this.recalculationMode = recalculationMode;
+        return this;
+    }
+
+    /**
+     * @param walPath write-ahead log to replay on startup and append mutations to, or null to keep sheets in memory only
+     */
+    public SpreadsheetSettings walPath(Path walPath) {
+        this.walPath = walPath;
+        return this;
+    }
+
+    public SpreadsheetSettings walSyncMode(WriteAheadLog.SyncMode walSyncMode) {
+        this.walSyncMode = walSyncMode;
+        return this;
+    }
+
+    public SpreadsheetSettings walSyncIntervalMillis(long walSyncIntervalMillis) {
+        this.walSyncIntervalMillis = walSyncIntervalMillis;
+        return this;
+    }
+
+    /**
+     * @param snapshotPath directory of binary snapshots to restore on startup and write checkpoints to, or null for none
+     */
+    public SpreadsheetSettings snapshotPath(Path snapshotPath) {
+        this.snapshotPath = snapshotPath;
+        return this;
+    }
+
+    /**
+     * @param snapshotIntervalSeconds time between background checkpoints, 0 to only checkpoint on request and on close
+     */
+    public SpreadsheetSettings snapshotIntervalSeconds(long snapshotIntervalSeconds) {
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+        return this;
+    }
+
+    /**
+     * @param memoryBudgetBytes most heap the cells of the sheets in memory may take before the least recently
+     *                          used sheets are spilled to disk, 0 for no limit; see {@link SheetStore}
+     */
+    public SpreadsheetSettings memoryBudgetBytes(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        return this;
+    }
+
+    /**
+     * @param spillPath directory for spilled sheets, or null for a temporary directory
+     */
+    public SpreadsheetSettings spillPath(Path spillPath) {
+        this.spillPath = spillPath;
+        return this;
+    }
+
+    /**
+     * @param exportCacheBytes most heap kept for exports rendered before, 0 to render every export; see {@link ExportCache}
+     */
+    public SpreadsheetSettings exportCacheBytes(long exportCacheBytes) {
+        this.exportCacheBytes = exportCacheBytes;
+        return this;
+    }
+
+    /**
+     * @param changeBatchMillis time between batches of cell changes sent to a subscriber
+     */
+    public SpreadsheetSettings changeBatchMillis(long changeBatchMillis) {
+        this.changeBatchMillis = changeBatchMillis;
+        return this;
+    }
+
+    /**
+     * @param changeBufferCells most changed cells held for a subscriber before it is told to read the sheet again;
+     *                          see {@link CellSubscription}
+     */
+    public SpreadsheetSettings changeBufferCells(int changeBufferCells) {
+        this.changeBufferCells = changeBufferCells;
+        return this;
+    }
+
+    /**
+     * @param meterRegistry registry for the engine metrics, see {@link SpreadsheetMetrics}
+     */
+    public SpreadsheetSettings meterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        return this;
+    }
+
+    public RecalculationMode getRecalculationMode() {
+        return recalculationMode;
+    }
+
+    public Path getWalPath() {
+        return walPath;
+    }
+
+    public WriteAheadLog.SyncMode getWalSyncMode() {
+        return walSyncMode;
+    }
+
+    public long getWalSyncIntervalMillis() {
+        return walSyncIntervalMillis;
+    }
+
+    public Path getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    public long getSnapshotIntervalSeconds() {
+        return snapshotIntervalSeconds;
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public Path getSpillPath() {
+        return spillPath;
+    }
+
+    public long getExportCacheBytes() {
+        return exportCacheBytes;
+    }
+
+    public long getChangeBatchMillis() {
+        return changeBatchMillis;
+    }
+
+    public int getChangeBufferCells() {
+        return changeBufferCells;
+    }
+
+    /**
+     * The registry set, or a new one nothing reads
+     */
+    public MeterRegistry getMeterRegistry() {
+        return meterRegistry != null ? meterRegistry : new CompositeMeterRegistry();
+    }
+}
@@ -0,0 +1,91 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Column store for boolean columns, values are kept in bitsets
+ */
+public class BooleanColumnStore extends ColumnStore {
+
+    @Override
+    ColumnPage newPage(long version) {
+        return new BooleanPage(version);
+    }
+
+    @Override
+    void writeValue(ColumnPage page, int slot, Object value) {
+        ((BooleanPage) page).set(slot, (Boolean) value);
+    }
+
+    @Override
+    Object readSlot(ColumnPage page, int slot) {
+        return ((BooleanPage) page).get(slot);
+    }
+
+    static class BooleanPage extends ColumnPage {
+        long[] bits = new long[0];
+
+        BooleanPage(long version) {
+            super(version);
+        }
+
+        boolean get(int slot) {
+            return (bits[slot >>> 6] & (1L << slot)) != 0;
+        }
+
+        void set(int slot, boolean value) {
+            if (value) {
+                bits[slot >>> 6] |= 1L << slot;
+            } else {
+                bits[slot >>> 6] &= ~(1L << slot);
+            }
+        }
+
+        @Override
+        void writeSlots(SnapshotWriter out, int slots) throws IOException {
+            out.putLongs(bits, words(slots));
+        }
+
+        @Override
+        void readSlots(SnapshotReader in, int slots) throws IOException {
+            bits = new long[words(slots)];
+            in.getLongs(bits, bits.length);
+        }
+
+        @Override
+        void resizeSlots(int capacity) {
+            bits = Arrays.copyOf(bits, words(capacity));
+        }
+
+        private static int words(int slots) {
+            return (slots + Long.SIZE - 1) / Long.SIZE;
+        }
+
+        @Override
+        void moveSlots(int from, int to, int length) {
+            if (to > from) {
+                for (int i = length - 1; i >= 0; i--) {
+                    set(to + i, get(from + i));
+                }
+            } else {
+                for (int i = 0; i < length; i++) {
+                    set(to + i, get(from + i));
+                }
+            }
+        }
+
+        @Override
+        long slotBytes() {
+            return 16 + (long) bits.length * Long.BYTES;
+        }
+
+        @Override
+        ColumnPage copy(long version) {
+            BooleanPage copy = new BooleanPage(version);
+            copyStateTo(copy);
+            copy.bits = bits.clone();
+            return copy;
+        }
+    }
+}
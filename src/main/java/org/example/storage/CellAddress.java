@@ -0,0 +1,25 @@
+package org.example.storage;
+
+/**
+ * Packs a cell's column ordinal and row into a single long
+ */
+public final class CellAddress {
+
+    // Column ordinals are never negative, so no packed address is -1
+    public static final long NONE = -1L;
+
+    private CellAddress() {
+    }
+
+    public static long pack(int ordinal, int row) {
+        return ((long) ordinal << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    public static int ordinal(long address) {
+        return (int) (address >>> 32);
+    }
+
+    public static int row(long address) {
+        return (int) address;
+    }
+}
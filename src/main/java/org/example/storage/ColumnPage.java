@@ -0,0 +1,287 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Storage for up to {@link #PAGE_SIZE} consecutive rows of one column.
+ * A page starts sparse, with one slot per filled row kept in row order, and switches to
+ * dense (slot == row offset, presence bitset) once a quarter of its rows are filled.
+ * Callers synchronize on the page while reading or writing it.
+ */
+abstract class ColumnPage {
+    static final int PAGE_BITS = 10;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int OFFSET_MASK = PAGE_SIZE - 1;
+    static final int WORDS = PAGE_SIZE / Long.SIZE;
+    static final long NO_REFERENCE = CellAddress.NONE;
+
+    // Layout flags of a page in a snapshot file
+    private static final int DENSE = 1;
+    private static final int HAS_NULLS = 2;
+    private static final int HAS_REFERENCES = 4;
+
+    private static final int INITIAL_SPARSE_CAPACITY = 2;
+    private static final int DENSE_THRESHOLD = PAGE_SIZE / 4;
+
+    // Sparse pages: sorted row offsets of the filled slots. Null once the page is dense.
+    short[] offsets = new short[0];
+
+    // Dense pages: bit per row offset for the filled slots
+    long[] present;
+
+    // Bit per row offset for cells holding null, only allocated once the page stores a null
+    long[] nulls;
+
+    int count;
+
+    // Address of the referenced cell per slot, only allocated once the page holds a lookup cell
+    long[] references;
+
+    // Sheet version of the write that created this page, used to copy it on write while snapshots read it
+    long version;
+
+    // Set when a copy replaced this page in its column
+    boolean superseded;
+
+    ColumnPage(long version) {
+        this.version = version;
+    }
+
+    static int pageNumber(int row) {
+        return row >> PAGE_BITS;
+    }
+
+    static int offset(int row) {
+        return row & OFFSET_MASK;
+    }
+
+    boolean isDense() {
+        return offsets == null;
+    }
+
+    boolean isPresent(int offset) {
+        return slotOf(offset) >= 0;
+    }
+
+    boolean isNonNull(int offset) {
+        return nulls == null || (nulls[offset >>> 6] & (1L << offset)) == 0;
+    }
+
+    /**
+     * Get the slot holding the cell at the offset, or -1 when there is no cell
+     */
+    int slotOf(int offset) {
+        if (offsets == null) {
+            return (present[offset >>> 6] & (1L << offset)) != 0 ? offset : -1;
+        }
+        int index = Arrays.binarySearch(offsets, 0, count, (short) offset);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Get the slot for writing the cell at the offset, making room for a new cell if needed
+     */
+    int slotForWrite(int offset) {
+        if (offsets != null) {
+            int index = Arrays.binarySearch(offsets, 0, count, (short) offset);
+            if (index >= 0) {
+                return index;
+            }
+            if (count + 1 <= DENSE_THRESHOLD) {
+                return insertSparseSlot(-(index + 1), offset);
+            }
+            densify();
+        }
+
+        long bit = 1L << offset;
+        if ((present[offset >>> 6] & bit) == 0) {
+            present[offset >>> 6] |= bit;
+            count++;
+        }
+        return offset;
+    }
+
+    void setNonNull(int offset, boolean isNonNull) {
+        if (isNonNull) {
+            if (nulls != null) {
+                nulls[offset >>> 6] &= ~(1L << offset);
+            }
+        } else {
+            if (nulls == null) {
+                nulls = new long[WORDS];
+            }
+            nulls[offset >>> 6] |= 1L << offset;
+        }
+    }
+
+    long getReference(int slot) {
+        return references != null ? references[slot] : NO_REFERENCE;
+    }
+
+    void setReference(int slot, long reference) {
+        if (references == null) {
+            if (reference == NO_REFERENCE) {
+                return;
+            }
+            references = new long[offsets != null ? offsets.length : PAGE_SIZE];
+            Arrays.fill(references, NO_REFERENCE);
+        }
+        references[slot] = reference;
+    }
+
+    /**
+     * Set the bit of every filled row offset in the given bitset
+     */
+    void addPresentBits(long[] bits) {
+        if (offsets == null) {
+            for (int i = 0; i < WORDS; i++) {
+                bits[i] |= present[i];
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                bits[offsets[i] >>> 6] |= 1L << offsets[i];
+            }
+        }
+    }
+
+    /**
+     * Approximate heap footprint of the page
+     */
+    long estimatedBytes() {
+        long bytes = 48 + slotBytes();
+        bytes += offsets != null ? 16 + (long) offsets.length * Short.BYTES : 16 + WORDS * Long.BYTES;
+        if (nulls != null) {
+            bytes += 16 + WORDS * Long.BYTES;
+        }
+        if (references != null) {
+            bytes += 16 + (long) references.length * Long.BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * Copy the page state shared by every column type into a fresh copy
+     */
+    void copyStateTo(ColumnPage copy) {
+        copy.offsets = offsets != null ? offsets.clone() : null;
+        copy.present = present != null ? present.clone() : null;
+        copy.nulls = nulls != null ? nulls.clone() : null;
+        copy.count = count;
+        copy.references = references != null ? references.clone() : null;
+    }
+
+    /**
+     * Write the page to a snapshot: cell count, layout flags, the row offsets or presence bits,
+     * the null bits and references when the page has them, then the values of the slots
+     */
+    void writeTo(SnapshotWriter out) throws IOException {
+        int slots = offsets != null ? count : PAGE_SIZE;
+        out.putInt(count);
+        out.putByte((offsets == null ? DENSE : 0) | (nulls != null ? HAS_NULLS : 0)
+                | (references != null ? HAS_REFERENCES : 0));
+        if (offsets != null) {
+            out.putShorts(offsets, count);
+        } else {
+            out.putLongs(present, WORDS);
+        }
+        if (nulls != null) {
+            out.putLongs(nulls, WORDS);
+        }
+        if (references != null) {
+            out.putLongs(references, slots);
+        }
+        writeSlots(out, slots);
+    }
+
+    /**
+     * Fill a fresh page from a snapshot written by {@link #writeTo}. Sparse pages come back
+     * with no spare capacity and grow on the next insert like any other page.
+     */
+    void readFrom(SnapshotReader in) throws IOException {
+        count = in.getInt();
+        int flags = in.getByte();
+        int slots;
+        if ((flags & DENSE) != 0) {
+            offsets = null;
+            present = new long[WORDS];
+            in.getLongs(present, WORDS);
+            slots = PAGE_SIZE;
+        } else {
+            offsets = new short[count];
+            in.getShorts(offsets, count);
+            slots = count;
+        }
+        if ((flags & HAS_NULLS) != 0) {
+            nulls = new long[WORDS];
+            in.getLongs(nulls, WORDS);
+        }
+        if ((flags & HAS_REFERENCES) != 0) {
+            references = new long[slots];
+            in.getLongs(references, slots);
+        }
+        readSlots(in, slots);
+    }
+
+    abstract void writeSlots(SnapshotWriter out, int slots) throws IOException;
+
+    abstract void readSlots(SnapshotReader in, int slots) throws IOException;
+
+    abstract void resizeSlots(int capacity);
+
+    /**
+     * Move a range of slots, the ranges may overlap
+     */
+    abstract void moveSlots(int from, int to, int length);
+
+    abstract long slotBytes();
+
+    abstract ColumnPage copy(long version);
+
+    private int insertSparseSlot(int slot, int offset) {
+        if (count == offsets.length) {
+            int newCapacity = Math.min(Math.max(count * 2, INITIAL_SPARSE_CAPACITY), DENSE_THRESHOLD);
+            resizeSlots(newCapacity);
+            offsets = Arrays.copyOf(offsets, newCapacity);
+            if (references != null) {
+                references = Arrays.copyOf(references, newCapacity);
+            }
+        }
+
+        // Shift the slots of the following rows to keep slots in row order
+        int following = count - slot;
+        System.arraycopy(offsets, slot, offsets, slot + 1, following);
+        moveSlots(slot, slot + 1, following);
+        if (references != null) {
+            System.arraycopy(references, slot, references, slot + 1, following);
+            references[slot] = NO_REFERENCE;
+        }
+        offsets[slot] = (short) offset;
+        count++;
+        return slot;
+    }
+
+    private void densify() {
+        resizeSlots(PAGE_SIZE);
+        // Rows without a lookup must read NO_REFERENCE, not the sparse slots left behind
+        long[] denseReferences = null;
+        if (references != null) {
+            denseReferences = new long[PAGE_SIZE];
+            Arrays.fill(denseReferences, NO_REFERENCE);
+        }
+        present = new long[WORDS];
+
+        // Slot i moves to the offset of the i-th filled row, which is never below i,
+        // so walking from the last slot down never overwrites a slot still to be moved
+        for (int slot = count - 1; slot >= 0; slot--) {
+            int offset = offsets[slot];
+            present[offset >>> 6] |= 1L << offset;
+            moveSlots(slot, offset, 1);
+            if (denseReferences != null) {
+                denseReferences[offset] = references[slot];
+            }
+        }
+        references = denseReferences;
+        offsets = null;
+    }
+}
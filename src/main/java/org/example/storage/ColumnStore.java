@@ -0,0 +1,363 @@
+package org.example.storage;
+
+import org.example.model.ColumnType;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Typed, paged storage for the cells of one column.
+ * Pages are only allocated for row ranges that hold cells, and each page switches from
+ * sparse to dense slots as it fills up. Values are kept in primitive form; the boxed
+ * accessors are for the API and export boundaries.
+ */
+public abstract class ColumnStore {
+
+    // Pages sorted by page number. Appending a page or replacing one in place happens under
+    // the store monitor; inserting in the middle publishes a new directory.
+    private volatile Directory directory = new Directory(new int[4], new ColumnPage[4], 0);
+
+    /**
+     * Receives the lookup cells of a column, see {@link #forEachReference}
+     */
+    @FunctionalInterface
+    public interface ReferenceVisitor {
+        void visit(int row, long reference);
+    }
+
+    /**
+     * Receives the values of a column, see {@link #forEachValue}
+     */
+    @FunctionalInterface
+    public interface ValueVisitor {
+        void visit(int row, Object value);
+    }
+
+    /**
+     * Create the store for a column type
+     */
+    public static ColumnStore forType(ColumnType type) {
+        switch (type) {
+            case INT:
+                return new IntColumnStore();
+            case DOUBLE:
+                return new DoubleColumnStore();
+            case BOOLEAN:
+                return new BooleanColumnStore();
+            case STRING:
+                return new StringColumnStore();
+            default:
+                throw new IllegalArgumentException("Unsupported column type: " + type);
+        }
+    }
+
+    /**
+     * Check whether a cell exists at the row, including cells holding null
+     */
+    public boolean contains(int row) {
+        for (;;) {
+            ColumnPage page = findPage(ColumnPage.pageNumber(row));
+            if (page == null) {
+                return false;
+            }
+            synchronized (page) {
+                if (!page.superseded) {
+                    return page.isPresent(ColumnPage.offset(row));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the value at the row in boxed form, or null when the cell is missing or empty
+     */
+    public Object get(int row) {
+        for (;;) {
+            ColumnPage page = findPage(ColumnPage.pageNumber(row));
+            if (page == null) {
+                return null;
+            }
+            synchronized (page) {
+                if (!page.superseded) {
+                    return readValue(page, ColumnPage.offset(row));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the address of the cell referenced by the lookup at the row,
+     * or {@link CellAddress#NONE} for plain cells
+     */
+    public long getReference(int row) {
+        for (;;) {
+            ColumnPage page = findPage(ColumnPage.pageNumber(row));
+            if (page == null) {
+                return CellAddress.NONE;
+            }
+            synchronized (page) {
+                if (!page.superseded) {
+                    int slot = page.slotOf(ColumnPage.offset(row));
+                    return slot >= 0 ? page.getReference(slot) : CellAddress.NONE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a cell. The value must already be in the canonical form of the column type,
+     * see {@link ColumnType#normalize}.
+     * @param version sheet version of the write
+     * @param snapshotVersion version of the newest open snapshot, pages it can see are copied before writing
+     */
+    public void set(int row, Object value, long reference, long version, long snapshotVersion) {
+        int pageNumber = ColumnPage.pageNumber(row);
+        int offset = ColumnPage.offset(row);
+        for (;;) {
+            ColumnPage page = findOrCreatePage(pageNumber, version);
+            synchronized (page) {
+                if (page.superseded) {
+                    continue;
+                }
+                if (page.version <= snapshotVersion) {
+                    // Readers of an open snapshot may hold this page, write into a copy instead
+                    ColumnPage copy = page.copy(version);
+                    writeSlot(copy, offset, value, reference);
+                    replacePage(pageNumber, copy);
+                    page.superseded = true;
+                } else {
+                    writeSlot(page, offset, value, reference);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Capture the current pages for a snapshot. The caller must keep writers out while capturing.
+     */
+    public ColumnStoreSnapshot snapshot() {
+        Directory current = directory;
+        int size = current.size;
+        return new ColumnStoreSnapshot(this,
+                Arrays.copyOf(current.pageNumbers, size),
+                Arrays.copyOf(current.pages, size));
+    }
+
+    /**
+     * Read a column written by {@link ColumnStoreSnapshot#writeTo} into a new store.
+     * Restored pages carry version 0, older than any write to the restored sheet.
+     * @throws IOException if the column data is cut short
+     */
+    public static ColumnStore read(ColumnType type, SnapshotReader in) throws IOException {
+        ColumnStore store = forType(type);
+        store.readDictionary(in);
+        int size = in.getInt();
+        int[] pageNumbers = new int[Math.max(size, 4)];
+        ColumnPage[] pages = new ColumnPage[pageNumbers.length];
+        for (int i = 0; i < size; i++) {
+            pageNumbers[i] = in.getInt();
+            pages[i] = store.newPage(0);
+            pages[i].readFrom(in);
+        }
+        store.directory = new Directory(pageNumbers, pages, size);
+        return store;
+    }
+
+    /**
+     * Visit every lookup cell of the column in row order
+     */
+    public void forEachReference(ReferenceVisitor visitor) {
+        Directory current = directory;
+        for (int i = 0; i < current.size; i++) {
+            ColumnPage page = current.pages[i];
+            int firstRow = current.pageNumbers[i] << ColumnPage.PAGE_BITS;
+            synchronized (page) {
+                if (page.references == null) {
+                    continue;
+                }
+                int slots = page.isDense() ? ColumnPage.PAGE_SIZE : page.count;
+                for (int slot = 0; slot < slots; slot++) {
+                    // Dense slots of rows without a cell are not meaningful
+                    if (page.isDense() && !page.isPresent(slot)) {
+                        continue;
+                    }
+                    long reference = page.references[slot];
+                    if (reference != ColumnPage.NO_REFERENCE) {
+                        visitor.visit(firstRow + (page.isDense() ? slot : page.offsets[slot]), reference);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit the cells in [fromRow, toRow] holding a value, in row order, with the value in boxed form
+     */
+    public void forEachValue(int fromRow, int toRow, ValueVisitor visitor) {
+        Directory current = directory;
+        for (int i = 0; i < current.size; i++) {
+            int firstRow = current.pageNumbers[i] << ColumnPage.PAGE_BITS;
+            if (firstRow > toRow) {
+                break;
+            }
+            if ((long) firstRow + ColumnPage.PAGE_SIZE <= fromRow) {
+                continue;
+            }
+            ColumnPage page = current.pages[i];
+            synchronized (page) {
+                int slots = page.isDense() ? ColumnPage.PAGE_SIZE : page.count;
+                for (int slot = 0; slot < slots; slot++) {
+                    int offset = page.isDense() ? slot : page.offsets[slot];
+                    int row = firstRow + offset;
+                    if (row < fromRow || row > toRow || (page.isDense() && !page.isPresent(offset))
+                            || !page.isNonNull(offset)) {
+                        continue;
+                    }
+                    visitor.visit(row, readSlot(page, slot));
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of stored cells, including cells holding null
+     */
+    public long getCellCount() {
+        Directory current = directory;
+        long count = 0;
+        for (int i = 0; i < current.size; i++) {
+            ColumnPage page = current.pages[i];
+            synchronized (page) {
+                count += page.count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Approximate heap footprint of the stored cells
+     */
+    public long estimatedBytes() {
+        Directory current = directory;
+        long bytes = 16 + 2L * (16 + (long) current.pages.length * 8);
+        for (int i = 0; i < current.size; i++) {
+            ColumnPage page = current.pages[i];
+            synchronized (page) {
+                bytes += page.estimatedBytes();
+            }
+        }
+        return bytes + extraBytes();
+    }
+
+    abstract ColumnPage newPage(long version);
+
+    /**
+     * Store a non-null canonical value into the slot
+     */
+    abstract void writeValue(ColumnPage page, int slot, Object value);
+
+    /**
+     * Read the value in the slot in boxed form
+     */
+    abstract Object readSlot(ColumnPage page, int slot);
+
+    long extraBytes() {
+        return 0;
+    }
+
+    /**
+     * Write whatever the pages' values refer to, ahead of the pages in a snapshot
+     */
+    void writeDictionary(SnapshotWriter out) throws IOException {
+    }
+
+    void readDictionary(SnapshotReader in) throws IOException {
+    }
+
+    /**
+     * Read the boxed value at the offset of a page the caller may read
+     */
+    Object readValue(ColumnPage page, int offset) {
+        int slot = page.slotOf(offset);
+        if (slot < 0 || !page.isNonNull(offset)) {
+            return null;
+        }
+        return readSlot(page, slot);
+    }
+
+    private void writeSlot(ColumnPage page, int offset, Object value, long reference) {
+        int slot = page.slotForWrite(offset);
+        if (value != null) {
+            writeValue(page, slot, value);
+        }
+        page.setNonNull(offset, value != null);
+        page.setReference(slot, reference);
+    }
+
+    private ColumnPage findPage(int pageNumber) {
+        Directory current = directory;
+        int size = current.size;
+
+        // Rows mostly grow at the end, so check the last page first
+        if (size > 0 && current.pageNumbers[size - 1] == pageNumber) {
+            return current.pages[size - 1];
+        }
+        int index = Arrays.binarySearch(current.pageNumbers, 0, size, pageNumber);
+        return index >= 0 ? current.pages[index] : null;
+    }
+
+    private ColumnPage findOrCreatePage(int pageNumber, long version) {
+        ColumnPage page = findPage(pageNumber);
+        if (page != null) {
+            return page;
+        }
+        synchronized (this) {
+            Directory current = directory;
+            int size = current.size;
+            int index = Arrays.binarySearch(current.pageNumbers, 0, size, pageNumber);
+            if (index >= 0) {
+                return current.pages[index];
+            }
+
+            page = newPage(version);
+            int insertAt = -(index + 1);
+            if (insertAt == size && size < current.pages.length) {
+                // Appending past the published size is invisible to readers until size moves
+                current.pageNumbers[size] = pageNumber;
+                current.pages[size] = page;
+                current.size = size + 1;
+            } else {
+                int capacity = size < current.pages.length ? current.pages.length : current.pages.length * 2;
+                int[] pageNumbers = new int[capacity];
+                ColumnPage[] pages = new ColumnPage[capacity];
+                System.arraycopy(current.pageNumbers, 0, pageNumbers, 0, insertAt);
+                System.arraycopy(current.pages, 0, pages, 0, insertAt);
+                pageNumbers[insertAt] = pageNumber;
+                pages[insertAt] = page;
+                System.arraycopy(current.pageNumbers, insertAt, pageNumbers, insertAt + 1, size - insertAt);
+                System.arraycopy(current.pages, insertAt, pages, insertAt + 1, size - insertAt);
+                directory = new Directory(pageNumbers, pages, size + 1);
+            }
+            return page;
+        }
+    }
+
+    private synchronized void replacePage(int pageNumber, ColumnPage copy) {
+        Directory current = directory;
+        int index = Arrays.binarySearch(current.pageNumbers, 0, current.size, pageNumber);
+        current.pages[index] = copy;
+    }
+
+    private static final class Directory {
+        final int[] pageNumbers;
+        final ColumnPage[] pages;
+        volatile int size;
+
+        Directory(int[] pageNumbers, ColumnPage[] pages, int size) {
+            this.pageNumbers = pageNumbers;
+            this.pages = pages;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The pages of one column as of a snapshot. Writers copy a page before changing it
+ * while a snapshot can see it, so these pages are read without locking.
+ */
+public class ColumnStoreSnapshot {
+    private final ColumnStore store;
+    private final int[] pageNumbers;
+    private final ColumnPage[] pages;
+
+    ColumnStoreSnapshot(ColumnStore store, int[] pageNumbers, ColumnPage[] pages) {
+        this.store = store;
+        this.pageNumbers = pageNumbers;
+        this.pages = pages;
+    }
+
+    public boolean contains(int row) {
+        ColumnPage page = findPage(ColumnPage.pageNumber(row));
+        return page != null && page.isPresent(ColumnPage.offset(row));
+    }
+
+    public Object get(int row) {
+        ColumnPage page = findPage(ColumnPage.pageNumber(row));
+        return page != null ? store.readValue(page, ColumnPage.offset(row)) : null;
+    }
+
+    public long getReference(int row) {
+        ColumnPage page = findPage(ColumnPage.pageNumber(row));
+        if (page == null) {
+            return CellAddress.NONE;
+        }
+        int slot = page.slotOf(ColumnPage.offset(row));
+        return slot >= 0 ? page.getReference(slot) : CellAddress.NONE;
+    }
+
+    public long getCellCount() {
+        long count = 0;
+        for (ColumnPage page : pages) {
+            count += page.count;
+        }
+        return count;
+    }
+
+    /**
+     * Write the column to a snapshot file, in the format read by {@link ColumnStore#read}
+     */
+    public void writeTo(SnapshotWriter out) throws IOException {
+        store.writeDictionary(out);
+        out.putInt(pages.length);
+        for (int i = 0; i < pages.length; i++) {
+            out.putInt(pageNumbers[i]);
+            pages[i].writeTo(out);
+        }
+    }
+
+    int pageCount() {
+        return pages.length;
+    }
+
+    int pageNumberAt(int index) {
+        return pageNumbers[index];
+    }
+
+    ColumnPage pageAt(int index) {
+        return pages[index];
+    }
+
+    /**
+     * Get the index of the first page at or after the page number
+     */
+    int firstPageIndex(int pageNumber) {
+        int index = Arrays.binarySearch(pageNumbers, pageNumber);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    ColumnStore getStore() {
+        return store;
+    }
+
+    private ColumnPage findPage(int pageNumber) {
+        int index = Arrays.binarySearch(pageNumbers, pageNumber);
+        return index >= 0 ? pages[index] : null;
+    }
+}
@@ -0,0 +1,269 @@
+package org.example.storage;
+
+import org.example.model.ColumnType;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Writes rows in the binary columnar export format: typed blocks per column, copied straight
+ * from the column pages without boxing values or building strings. All numbers are big-endian.
+ * <pre>
+ * magic, format version, column count, (name, type code) per column,
+ * batches, then a row count of 0
+ *
+ * batch:  row count n (1 to {@link #BATCH_ROWS}), int[n] row numbers, then per column:
+ *         long[(n + 63) / 64] validity bits (set when the row has a non-null value),
+ *         followed by the values of its type, with 0 or false in the rows without one:
+ *         int      int[n]
+ *         double   double[n]
+ *         boolean  long[(n + 63) / 64] value bits
+ *         string   count of new dictionary entries, the entries as strings, then int[n] codes;
+ *                  codes number the dictionary entries of this and all earlier batches
+ * </pre>
+ * A string is the byte length as an int followed by its UTF-8 bytes. Rows come in row order,
+ * so memory use only depends on the batch size, not on the sheet.
+ */
+public class ColumnarWriter {
+    public static final int MAGIC = 0x53534342;
+    public static final int FORMAT_VERSION = 1;
+    public static final int BATCH_ROWS = 4096;
+
+    public static final byte STRING = 0;
+    public static final byte INT = 1;
+    public static final byte BOOLEAN = 2;
+    public static final byte DOUBLE = 3;
+
+    private static final int WORDS = BATCH_ROWS / Long.SIZE;
+
+    private final SnapshotWriter out;
+
+    public ColumnarWriter(WritableByteChannel channel) {
+        this.out = SnapshotWriter.to(channel);
+    }
+
+    /**
+     * Write the header and every row of the cursor, then flush to the channel
+     * @param names column names, in the cursor's column order
+     * @param types column types, in the cursor's column order; null for a column whose stored type
+     *              is unsupported, written as a string column without values
+     */
+    public void write(String[] names, ColumnType[] types, RowCursor rows) throws IOException {
+        out.putInt(MAGIC);
+        out.putInt(FORMAT_VERSION);
+        out.putInt(names.length);
+        Block[] blocks = new Block[names.length];
+        for (int i = 0; i < names.length; i++) {
+            blocks[i] = Block.forType(types[i], rows.getStore(i));
+            out.putString(names[i]);
+            out.putByte(blocks[i].typeCode());
+        }
+
+        int[] rowNumbers = new int[BATCH_ROWS];
+        int size = 0;
+        while (rows.next()) {
+            rowNumbers[size] = rows.getRow();
+            int offset = rows.getOffset();
+            for (int i = 0; i < blocks.length; i++) {
+                ColumnPage page = rows.getPage(i);
+                int slot = page != null && page.isNonNull(offset) ? page.slotOf(offset) : -1;
+                if (slot >= 0) {
+                    blocks[i].valid[size >>> 6] |= 1L << size;
+                    blocks[i].copy(page, slot, size);
+                }
+            }
+            if (++size == BATCH_ROWS) {
+                writeBatch(rowNumbers, size, blocks);
+                size = 0;
+            }
+        }
+        if (size > 0) {
+            writeBatch(rowNumbers, size, blocks);
+        }
+        out.putInt(0);
+        out.flush();
+    }
+
+    private void writeBatch(int[] rowNumbers, int size, Block[] blocks) throws IOException {
+        int words = (size + Long.SIZE - 1) / Long.SIZE;
+        out.putInt(size);
+        out.putInts(rowNumbers, size);
+        for (Block block : blocks) {
+            out.putLongs(block.valid, words);
+            block.writeValues(out, size);
+            Arrays.fill(block.valid, 0L);
+            block.clear();
+        }
+    }
+
+    /**
+     * Values of one column for the rows of the current batch
+     */
+    private abstract static class Block {
+        final long[] valid = new long[WORDS];
+
+        static Block forType(ColumnType type, ColumnStore store) {
+            if (type == null) {
+                return new StringBlock(null);
+            }
+            switch (type) {
+                case INT:
+                    return new IntBlock();
+                case DOUBLE:
+                    return new DoubleBlock();
+                case BOOLEAN:
+                    return new BooleanBlock();
+                default:
+                    return new StringBlock((StringColumnStore) store);
+            }
+        }
+
+        abstract byte typeCode();
+
+        /**
+         * Copy the value in a page slot to a row of the batch
+         */
+        abstract void copy(ColumnPage page, int slot, int row);
+
+        abstract void writeValues(SnapshotWriter out, int size) throws IOException;
+
+        /**
+         * Reset the values for the next batch
+         */
+        abstract void clear();
+    }
+
+    private static final class IntBlock extends Block {
+        final int[] values = new int[BATCH_ROWS];
+
+        @Override
+        byte typeCode() {
+            return INT;
+        }
+
+        @Override
+        void copy(ColumnPage page, int slot, int row) {
+            values[row] = ((IntColumnStore.IntPage) page).values[slot];
+        }
+
+        @Override
+        void writeValues(SnapshotWriter out, int size) throws IOException {
+            out.putInts(values, size);
+        }
+
+        @Override
+        void clear() {
+            Arrays.fill(values, 0);
+        }
+    }
+
+    private static final class DoubleBlock extends Block {
+        final double[] values = new double[BATCH_ROWS];
+
+        @Override
+        byte typeCode() {
+            return DOUBLE;
+        }
+
+        @Override
+        void copy(ColumnPage page, int slot, int row) {
+            values[row] = ((DoubleColumnStore.DoublePage) page).values[slot];
+        }
+
+        @Override
+        void writeValues(SnapshotWriter out, int size) throws IOException {
+            out.putDoubles(values, size);
+        }
+
+        @Override
+        void clear() {
+            Arrays.fill(values, 0.0);
+        }
+    }
+
+    private static final class BooleanBlock extends Block {
+        final long[] bits = new long[WORDS];
+
+        @Override
+        byte typeCode() {
+            return BOOLEAN;
+        }
+
+        @Override
+        void copy(ColumnPage page, int slot, int row) {
+            if (((BooleanColumnStore.BooleanPage) page).get(slot)) {
+                bits[row >>> 6] |= 1L << row;
+            }
+        }
+
+        @Override
+        void writeValues(SnapshotWriter out, int size) throws IOException {
+            out.putLongs(bits, (size + Long.SIZE - 1) / Long.SIZE);
+        }
+
+        @Override
+        void clear() {
+            Arrays.fill(bits, 0L);
+        }
+    }
+
+    /**
+     * Re-codes the store's dictionary codes densely, so the export only carries the strings it
+     * uses, each once, in the batch that first uses it
+     */
+    private static final class StringBlock extends Block {
+        final int[] codes = new int[BATCH_ROWS];
+        final StringColumnStore store;
+
+        // Store code -> export code + 1, 0 for a string not exported yet
+        int[] exportCodes = new int[64];
+        int exportedCount;
+
+        // Store codes of the strings first used in the current batch
+        int[] newCodes = new int[64];
+        int newCount;
+
+        StringBlock(StringColumnStore store) {
+            this.store = store;
+        }
+
+        @Override
+        byte typeCode() {
+            return STRING;
+        }
+
+        @Override
+        void copy(ColumnPage page, int slot, int row) {
+            int storeCode = ((IntColumnStore.IntPage) page).values[slot];
+            if (storeCode >= exportCodes.length) {
+                exportCodes = Arrays.copyOf(exportCodes, Math.max(exportCodes.length * 2, storeCode + 1));
+            }
+            int exportCode = exportCodes[storeCode] - 1;
+            if (exportCode < 0) {
+                exportCode = exportedCount++;
+                exportCodes[storeCode] = exportCode + 1;
+                if (newCount == newCodes.length) {
+                    newCodes = Arrays.copyOf(newCodes, newCount * 2);
+                }
+                newCodes[newCount++] = storeCode;
+            }
+            codes[row] = exportCode;
+        }
+
+        @Override
+        void writeValues(SnapshotWriter out, int size) throws IOException {
+            out.putInt(newCount);
+            for (int i = 0; i < newCount; i++) {
+                out.putString(store.decode(newCodes[i]));
+            }
+            out.putInts(codes, size);
+        }
+
+        @Override
+        void clear() {
+            Arrays.fill(codes, 0);
+            newCount = 0;
+        }
+    }
+}
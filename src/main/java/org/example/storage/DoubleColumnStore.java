@@ -0,0 +1,67 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Column store for double columns, values are kept in double arrays
+ */
+public class DoubleColumnStore extends ColumnStore {
+
+    @Override
+    ColumnPage newPage(long version) {
+        return new DoublePage(version);
+    }
+
+    @Override
+    void writeValue(ColumnPage page, int slot, Object value) {
+        ((DoublePage) page).values[slot] = (Double) value;
+    }
+
+    @Override
+    Object readSlot(ColumnPage page, int slot) {
+        return ((DoublePage) page).values[slot];
+    }
+
+    static class DoublePage extends ColumnPage {
+        double[] values = new double[0];
+
+        DoublePage(long version) {
+            super(version);
+        }
+
+        @Override
+        void writeSlots(SnapshotWriter out, int slots) throws IOException {
+            out.putDoubles(values, slots);
+        }
+
+        @Override
+        void readSlots(SnapshotReader in, int slots) throws IOException {
+            values = new double[slots];
+            in.getDoubles(values, slots);
+        }
+
+        @Override
+        void resizeSlots(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void moveSlots(int from, int to, int length) {
+            System.arraycopy(values, from, values, to, length);
+        }
+
+        @Override
+        long slotBytes() {
+            return 16 + (long) values.length * Double.BYTES;
+        }
+
+        @Override
+        ColumnPage copy(long version) {
+            DoublePage copy = new DoublePage(version);
+            copyStateTo(copy);
+            copy.values = values.clone();
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Column store for int columns, values are kept in int arrays
+ */
+public class IntColumnStore extends ColumnStore {
+
+    @Override
+    ColumnPage newPage(long version) {
+        return new IntPage(version);
+    }
+
+    @Override
+    void writeValue(ColumnPage page, int slot, Object value) {
+        ((IntPage) page).values[slot] = (Integer) value;
+    }
+
+    @Override
+    Object readSlot(ColumnPage page, int slot) {
+        return ((IntPage) page).values[slot];
+    }
+
+    static class IntPage extends ColumnPage {
+        int[] values = new int[0];
+
+        IntPage(long version) {
+            super(version);
+        }
+
+        @Override
+        void writeSlots(SnapshotWriter out, int slots) throws IOException {
+            out.putInts(values, slots);
+        }
+
+        @Override
+        void readSlots(SnapshotReader in, int slots) throws IOException {
+            values = new int[slots];
+            in.getInts(values, slots);
+        }
+
+        @Override
+        void resizeSlots(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void moveSlots(int from, int to, int length) {
+            System.arraycopy(values, from, values, to, length);
+        }
+
+        @Override
+        long slotBytes() {
+            return 16 + (long) values.length * Integer.BYTES;
+        }
+
+        @Override
+        ColumnPage copy(long version) {
+            IntPage copy = new IntPage(version);
+            copyStateTo(copy);
+            copy.values = values.clone();
+            return copy;
+        }
+    }
+}
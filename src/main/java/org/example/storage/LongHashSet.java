@@ -0,0 +1,160 @@
+package org.example.storage;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing set of long keys with linear probing, for cell addresses.
+ * {@link CellAddress#NONE} marks free slots and cannot be stored.
+ * Iterate with {@link #slots()} and {@link #keyAt(int)}, skipping free slots.
+ */
+public class LongHashSet {
+    static final long FREE = CellAddress.NONE;
+
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] keys;
+    private int size;
+
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongHashSet(int expectedSize) {
+        keys = new long[tableSize(expectedSize)];
+        Arrays.fill(keys, FREE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slotFor(key, mask); ; slot = (slot + 1) & mask) {
+            long current = keys[slot];
+            if (current == key) {
+                return true;
+            }
+            if (current == FREE) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return false if the key was already present
+     */
+    public boolean add(long key) {
+        checkKey(key);
+        int mask = keys.length - 1;
+        int slot = slotFor(key, mask);
+        for (; keys[slot] != FREE; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return false;
+            }
+        }
+        keys[slot] = key;
+        if (++size * 4 > keys.length * 3) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the key was not present
+     */
+    public boolean remove(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slotFor(key, mask); ; slot = (slot + 1) & mask) {
+            long current = keys[slot];
+            if (current == FREE) {
+                return false;
+            }
+            if (current == key) {
+                shiftBack(slot);
+                size--;
+                return true;
+            }
+        }
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, FREE);
+            size = 0;
+        }
+    }
+
+    /**
+     * Number of slots to walk when iterating
+     */
+    public int slots() {
+        return keys.length;
+    }
+
+    /**
+     * Get the key in a slot, or {@link CellAddress#NONE} for a free slot
+     */
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    static int tableSize(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static int slotFor(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    static void checkKey(long key) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Key " + FREE + " is reserved for free slots");
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        int mask = capacity - 1;
+        for (long key : oldKeys) {
+            if (key != FREE) {
+                int slot = slotFor(key, mask);
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    private void shiftBack(int freed) {
+        int mask = keys.length - 1;
+        int slot = freed;
+        for (;;) {
+            slot = (slot + 1) & mask;
+            long key = keys[slot];
+            if (key == FREE) {
+                break;
+            }
+            int home = slotFor(key, mask);
+            // Move the key into the hole unless its home lies cyclically in (freed, slot]
+            if (((slot - home) & mask) >= ((slot - freed) & mask)) {
+                keys[freed] = key;
+                freed = slot;
+            }
+        }
+        keys[freed] = FREE;
+    }
+}
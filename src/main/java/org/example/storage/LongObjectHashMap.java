@@ -0,0 +1,122 @@
+package org.example.storage;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from long keys to objects with linear probing, for cell addresses.
+ * {@link CellAddress#NONE} marks free slots and cannot be used as a key.
+ */
+public class LongObjectHashMap<V> {
+    private static final long FREE = LongHashSet.FREE;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    public LongObjectHashMap() {
+        keys = new long[LongHashSet.tableSize(0)];
+        values = new Object[keys.length];
+        Arrays.fill(keys, FREE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = LongHashSet.slotFor(key, mask); ; slot = (slot + 1) & mask) {
+            long current = keys[slot];
+            if (current == key) {
+                return (V) values[slot];
+            }
+            if (current == FREE) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return the previous value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        LongHashSet.checkKey(key);
+        int mask = keys.length - 1;
+        int slot = LongHashSet.slotFor(key, mask);
+        for (; keys[slot] != FREE; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 4 > keys.length * 3) {
+            rehash(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int mask = keys.length - 1;
+        for (int slot = LongHashSet.slotFor(key, mask); ; slot = (slot + 1) & mask) {
+            long current = keys[slot];
+            if (current == FREE) {
+                return null;
+            }
+            if (current == key) {
+                V previous = (V) values[slot];
+                shiftBack(slot);
+                size--;
+                return previous;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        Arrays.fill(keys, FREE);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = LongHashSet.slotFor(oldKeys[i], mask);
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    // Backward-shift deletion, see LongHashSet
+    private void shiftBack(int freed) {
+        int mask = keys.length - 1;
+        int slot = freed;
+        for (;;) {
+            slot = (slot + 1) & mask;
+            long key = keys[slot];
+            if (key == FREE) {
+                break;
+            }
+            int home = LongHashSet.slotFor(key, mask);
+            if (((slot - home) & mask) >= ((slot - freed) & mask)) {
+                keys[freed] = key;
+                values[freed] = values[slot];
+                freed = slot;
+            }
+        }
+        keys[freed] = FREE;
+        values[freed] = null;
+    }
+}
@@ -0,0 +1,259 @@
+package org.example.storage;
+
+import java.util.Arrays;
+
+/**
+ * Values by row, answering the smallest and largest value in any row range in O(log n).
+ * <p>
+ * A treap keyed by row whose nodes also hold the minimum and maximum of their subtree, kept in
+ * parallel primitive arrays so each row costs a few dozen bytes and no objects. Rows are sparse,
+ * so the tree only holds the rows that have a value, whatever the span between them. NaN wins
+ * both minimum and maximum, as with {@link Math#min} and {@link Math#max}.
+ * Not thread-safe.
+ */
+public class MinMaxTree {
+    private static final int NIL = -1;
+
+    private int[] rows;
+    private double[] values;
+    private double[] mins;
+    private double[] maxs;
+    private int[] left;
+    private int[] right;
+    private int[] priorities;
+
+    private int root = NIL;
+    private int size;
+
+    // Next never used node, and the head of the list of freed ones, chained through left
+    private int allocated;
+    private int free = NIL;
+
+    private int seed = 0x2545F491;
+
+    public MinMaxTree() {
+        int capacity = 16;
+        rows = new int[capacity];
+        values = new double[capacity];
+        mins = new double[capacity];
+        maxs = new double[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        priorities = new int[capacity];
+    }
+
+    /**
+     * Number of rows holding a value
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Set the value of a row, replacing its previous one
+     */
+    public void put(int row, double value) {
+        root = insert(root, row, value);
+    }
+
+    /**
+     * Remove the value of a row, if it has one
+     */
+    public void remove(int row) {
+        root = delete(root, row);
+    }
+
+    /**
+     * Smallest value in [fromRow, toRow], or NaN if no row in the range has a value
+     */
+    public double min(int fromRow, int toRow) {
+        return query(fromRow, toRow, false);
+    }
+
+    /**
+     * Largest value in [fromRow, toRow], or NaN if no row in the range has a value
+     */
+    public double max(int fromRow, int toRow) {
+        return query(fromRow, toRow, true);
+    }
+
+    /**
+     * Approximate heap footprint of the tree
+     */
+    public long estimatedBytes() {
+        return 64 + (long) rows.length * (4 * Integer.BYTES + 3 * Double.BYTES);
+    }
+
+    private double query(int fromRow, int toRow, boolean max) {
+        // Find the highest node inside the range; everything in range is below it
+        int node = root;
+        while (node != NIL && (rows[node] < fromRow || rows[node] > toRow)) {
+            node = rows[node] < fromRow ? right[node] : left[node];
+        }
+        if (node == NIL) {
+            return Double.NaN;
+        }
+        double result = values[node];
+
+        // Left of it, every node at or after fromRow brings its right subtree along
+        for (int n = left[node]; n != NIL; ) {
+            if (rows[n] >= fromRow) {
+                result = combine(result, values[n], max);
+                if (right[n] != NIL) {
+                    result = combine(result, max ? maxs[right[n]] : mins[right[n]], max);
+                }
+                n = left[n];
+            } else {
+                n = right[n];
+            }
+        }
+        // And symmetrically right of it, up to toRow
+        for (int n = right[node]; n != NIL; ) {
+            if (rows[n] <= toRow) {
+                result = combine(result, values[n], max);
+                if (left[n] != NIL) {
+                    result = combine(result, max ? maxs[left[n]] : mins[left[n]], max);
+                }
+                n = right[n];
+            } else {
+                n = left[n];
+            }
+        }
+        return result;
+    }
+
+    private static double combine(double a, double b, boolean max) {
+        return max ? Math.max(a, b) : Math.min(a, b);
+    }
+
+    private int insert(int node, int row, double value) {
+        if (node == NIL) {
+            return newNode(row, value);
+        }
+        if (row == rows[node]) {
+            values[node] = value;
+        } else if (row < rows[node]) {
+            // Inserting may grow the arrays, so only store into them afterwards
+            int child = insert(left[node], row, value);
+            left[node] = child;
+            if (priorities[child] > priorities[node]) {
+                node = rotateRight(node);
+            }
+        } else {
+            int child = insert(right[node], row, value);
+            right[node] = child;
+            if (priorities[child] > priorities[node]) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private int delete(int node, int row) {
+        if (node == NIL) {
+            return NIL;
+        }
+        if (row < rows[node]) {
+            left[node] = delete(left[node], row);
+        } else if (row > rows[node]) {
+            right[node] = delete(right[node], row);
+        } else {
+            int merged = merge(left[node], right[node]);
+            left[node] = free;
+            free = node;
+            size--;
+            return merged;
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Join two subtrees, every row of the first before every row of the second
+     */
+    private int merge(int a, int b) {
+        if (a == NIL) {
+            return b;
+        }
+        if (b == NIL) {
+            return a;
+        }
+        if (priorities[a] > priorities[b]) {
+            right[a] = merge(right[a], b);
+            update(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        update(b);
+        return b;
+    }
+
+    private int rotateRight(int node) {
+        int pivot = left[node];
+        left[node] = right[pivot];
+        right[pivot] = node;
+        update(node);
+        return pivot;
+    }
+
+    private int rotateLeft(int node) {
+        int pivot = right[node];
+        right[node] = left[pivot];
+        left[pivot] = node;
+        update(node);
+        return pivot;
+    }
+
+    private void update(int node) {
+        double min = values[node];
+        double max = min;
+        if (left[node] != NIL) {
+            min = Math.min(min, mins[left[node]]);
+            max = Math.max(max, maxs[left[node]]);
+        }
+        if (right[node] != NIL) {
+            min = Math.min(min, mins[right[node]]);
+            max = Math.max(max, maxs[right[node]]);
+        }
+        mins[node] = min;
+        maxs[node] = max;
+    }
+
+    private int newNode(int row, double value) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = left[node];
+        } else {
+            if (allocated == rows.length) {
+                grow();
+            }
+            node = allocated++;
+        }
+        rows[node] = row;
+        values[node] = value;
+        mins[node] = value;
+        maxs[node] = value;
+        left[node] = NIL;
+        right[node] = NIL;
+        // Xorshift, enough to keep the expected depth logarithmic
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        priorities[node] = seed;
+        size++;
+        return node;
+    }
+
+    private void grow() {
+        int capacity = rows.length * 2;
+        rows = Arrays.copyOf(rows, capacity);
+        values = Arrays.copyOf(values, capacity);
+        mins = Arrays.copyOf(mins, capacity);
+        maxs = Arrays.copyOf(maxs, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.storage;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Items spanning a range of rows, answering which of them cover a row in O(log n + k) for k matches.
+ * <p>
+ * The items are sorted by first row and the sorted arrays are read as an implicit balanced tree, the
+ * middle of each span being the root of its subtree. Each node also holds the largest last row in its
+ * subtree, so subtrees ending before the row are skipped whole, and the items after a node starting past
+ * the row are never looked at. Built once for a fixed set of items; a changed set needs a new index.
+ * Immutable, so it can be shared between threads once published.
+ */
+public final class RangeIndex<T> {
+
+    private final Object[] items;
+    private final int[] fromRows;
+    private final int[] toRows;
+    // Largest toRow in the subtree rooted at each position
+    private final int[] maxToRows;
+
+    /**
+     * @param fromRow first row an item covers, inclusive
+     * @param toRow last row an item covers, inclusive
+     */
+    public RangeIndex(Collection<T> ranged, ToIntFunction<T> fromRow, ToIntFunction<T> toRow) {
+        items = ranged.toArray();
+        @SuppressWarnings("unchecked")
+        Comparator<Object> byFromRow = Comparator.comparingInt(item -> fromRow.applyAsInt((T) item));
+        Arrays.sort(items, byFromRow);
+        fromRows = new int[items.length];
+        toRows = new int[items.length];
+        maxToRows = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            @SuppressWarnings("unchecked")
+            T item = (T) items[i];
+            fromRows[i] = fromRow.applyAsInt(item);
+            toRows[i] = toRow.applyAsInt(item);
+        }
+        buildMaxToRows(0, items.length);
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * Pass every item covering the row to the action, in the order of their first rows
+     */
+    public void forEachCovering(int row, Consumer<? super T> action) {
+        visit(0, items.length, row, action);
+    }
+
+    /**
+     * Whether any item covers the row
+     */
+    public boolean covers(int row) {
+        return find(0, items.length, row);
+    }
+
+    private int buildMaxToRows(int from, int to) {
+        if (from >= to) {
+            return Integer.MIN_VALUE;
+        }
+        int mid = (from + to) >>> 1;
+        int max = Math.max(toRows[mid], Math.max(buildMaxToRows(from, mid), buildMaxToRows(mid + 1, to)));
+        maxToRows[mid] = max;
+        return max;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void visit(int from, int to, int row, Consumer<? super T> action) {
+        // Recurse into the left subtree, loop into the right one
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (maxToRows[mid] < row) {
+                return;
+            }
+            visit(from, mid, row, action);
+            if (fromRows[mid] > row) {
+                return;
+            }
+            if (toRows[mid] >= row) {
+                action.accept((T) items[mid]);
+            }
+            from = mid + 1;
+        }
+    }
+
+    private boolean find(int from, int to, int row) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (maxToRows[mid] < row) {
+                return false;
+            }
+            if (fromRows[mid] <= row && toRows[mid] >= row) {
+                return true;
+            }
+            if (find(from, mid, row)) {
+                return true;
+            }
+            if (fromRows[mid] > row) {
+                return false;
+            }
+            from = mid + 1;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,165 @@
+package org.example.storage;
+
+import java.util.Arrays;
+
+/**
+ * Walks the rows of a set of column snapshots in row order, page by page,
+ * visiting every row that has a cell in at least one column.
+ * Pages are kept sorted by page number, so a row range starts with a binary search
+ * and never touches pages outside of it.
+ */
+public class RowCursor {
+    private static final int WORDS = ColumnPage.WORDS;
+
+    private final ColumnStoreSnapshot[] columns;
+    private final int[] pageIndexes;
+    private final ColumnPage[] currentPages;
+    private final long[] rowBits = new long[WORDS];
+    private final int fromRow;
+    private final int toRow;
+
+    private boolean pageLoaded;
+    private int pageNumber;
+    private int word;
+    private long remainingBits;
+    private int offset;
+
+    /**
+     * @param columns column snapshots in output order, null entries are treated as empty columns
+     */
+    public RowCursor(ColumnStoreSnapshot[] columns) {
+        this(columns, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param columns column snapshots in output order, null entries are treated as empty columns
+     * @param fromRow first row to visit, inclusive
+     * @param toRow last row to visit, inclusive
+     */
+    public RowCursor(ColumnStoreSnapshot[] columns, int fromRow, int toRow) {
+        this.columns = columns;
+        this.pageIndexes = new int[columns.length];
+        this.currentPages = new ColumnPage[columns.length];
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+        for (int c = 0; c < columns.length; c++) {
+            if (columns[c] != null) {
+                pageIndexes[c] = columns[c].firstPageIndex(ColumnPage.pageNumber(fromRow));
+            }
+        }
+    }
+
+    /**
+     * Move to the next row that has at least one cell
+     * @return false once every row has been visited
+     */
+    public boolean next() {
+        for (;;) {
+            if (remainingBits != 0) {
+                int bit = Long.numberOfTrailingZeros(remainingBits);
+                remainingBits &= remainingBits - 1;
+                offset = (word << 6) + bit;
+                return true;
+            }
+            if (pageLoaded && ++word < WORDS) {
+                remainingBits = rowBits[word];
+                continue;
+            }
+            if (!loadNextPage()) {
+                return false;
+            }
+            word = 0;
+            remainingBits = rowBits[0];
+        }
+    }
+
+    public int getRow() {
+        return (pageNumber << ColumnPage.PAGE_BITS) | offset;
+    }
+
+    public boolean hasCell(int column) {
+        ColumnPage page = currentPages[column];
+        return page != null && page.isPresent(offset);
+    }
+
+    /**
+     * Get the boxed value of the column in the current row, or null
+     */
+    public Object getValue(int column) {
+        ColumnPage page = currentPages[column];
+        return page != null ? columns[column].getStore().readValue(page, offset) : null;
+    }
+
+    /**
+     * Get the page of the column that holds the current row, or null when the column has none
+     */
+    ColumnPage getPage(int column) {
+        return currentPages[column];
+    }
+
+    /**
+     * Get the store of the column, or null for a column without one
+     */
+    ColumnStore getStore(int column) {
+        return columns[column] != null ? columns[column].getStore() : null;
+    }
+
+    /**
+     * Get the offset of the current row within its page
+     */
+    int getOffset() {
+        return offset;
+    }
+
+    private boolean loadNextPage() {
+        // The next page is the lowest page number not yet visited in any column
+        boolean found = false;
+        int next = 0;
+        for (int c = 0; c < columns.length; c++) {
+            ColumnStoreSnapshot column = columns[c];
+            if (column != null && pageIndexes[c] < column.pageCount()) {
+                int candidate = column.pageNumberAt(pageIndexes[c]);
+                if (!found || candidate < next) {
+                    next = candidate;
+                    found = true;
+                }
+            }
+        }
+        if (!found || next > ColumnPage.pageNumber(toRow)) {
+            pageLoaded = false;
+            return false;
+        }
+
+        Arrays.fill(rowBits, 0L);
+        for (int c = 0; c < columns.length; c++) {
+            ColumnStoreSnapshot column = columns[c];
+            currentPages[c] = null;
+            if (column != null && pageIndexes[c] < column.pageCount() && column.pageNumberAt(pageIndexes[c]) == next) {
+                ColumnPage page = column.pageAt(pageIndexes[c]++);
+                currentPages[c] = page;
+                page.addPresentBits(rowBits);
+            }
+        }
+        if (next == ColumnPage.pageNumber(fromRow)) {
+            clearBitsBelow(ColumnPage.offset(fromRow));
+        }
+        if (next == ColumnPage.pageNumber(toRow)) {
+            clearBitsAbove(ColumnPage.offset(toRow));
+        }
+        pageNumber = next;
+        pageLoaded = true;
+        return true;
+    }
+
+    private void clearBitsBelow(int offset) {
+        int word = offset >>> 6;
+        Arrays.fill(rowBits, 0, word, 0L);
+        rowBits[word] &= -1L << offset;
+    }
+
+    private void clearBitsAbove(int offset) {
+        int word = offset >>> 6;
+        rowBits[word] &= -1L >>> (63 - (offset & 63));
+        Arrays.fill(rowBits, word + 1, WORDS, 0L);
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a region of a snapshot file through memory-mapped windows, so the file is paged in by
+ * the operating system instead of copied through read buffers. Regions may be larger than a
+ * single mapping; the window moves forward as the region is consumed. Not thread-safe, but any
+ * number of readers can share one channel.
+ */
+public class SnapshotReader {
+    private static final int WINDOW_BYTES = 64 << 20;
+
+    private final FileChannel channel;
+    private final long end;
+    private long windowStart;
+    private MappedByteBuffer window;
+
+    /**
+     * @param position file offset of the region
+     * @param length length of the region in bytes
+     */
+    public SnapshotReader(FileChannel channel, long position, long length) throws IOException {
+        this.channel = channel;
+        this.end = position + length;
+        map(position, 0);
+    }
+
+    /**
+     * File offset of the next byte to read
+     */
+    public long position() {
+        return windowStart + window.position();
+    }
+
+    public byte getByte() throws IOException {
+        return ensure(1).get();
+    }
+
+    public int getInt() throws IOException {
+        return ensure(Integer.BYTES).getInt();
+    }
+
+    public long getLong() throws IOException {
+        return ensure(Long.BYTES).getLong();
+    }
+
+    public String getString() throws IOException {
+        int length = getInt();
+        byte[] bytes = new byte[length];
+        ensure(length).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public void getShorts(short[] values, int length) throws IOException {
+        ensure(length * Short.BYTES).asShortBuffer().get(values, 0, length);
+        skip(length * Short.BYTES);
+    }
+
+    public void getInts(int[] values, int length) throws IOException {
+        ensure(length * Integer.BYTES).asIntBuffer().get(values, 0, length);
+        skip(length * Integer.BYTES);
+    }
+
+    public void getLongs(long[] values, int length) throws IOException {
+        ensure(length * Long.BYTES).asLongBuffer().get(values, 0, length);
+        skip(length * Long.BYTES);
+    }
+
+    public void getDoubles(double[] values, int length) throws IOException {
+        ensure(length * Double.BYTES).asDoubleBuffer().get(values, 0, length);
+        skip(length * Double.BYTES);
+    }
+
+    private void skip(int bytes) {
+        window.position(window.position() + bytes);
+    }
+
+    /**
+     * Make sure the window holds the next bytes of the region, moving it forward if needed
+     * @throws IOException if the region ends first
+     */
+    private MappedByteBuffer ensure(int bytes) throws IOException {
+        if (window.remaining() < bytes) {
+            map(position(), bytes);
+        }
+        return window;
+    }
+
+    private void map(long position, int needed) throws IOException {
+        long size = Math.min(end - position, Math.max(WINDOW_BYTES, needed));
+        if (size < needed) {
+            throw new IOException("Snapshot file ends unexpectedly at offset " + position);
+        }
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+}
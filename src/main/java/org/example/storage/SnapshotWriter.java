@@ -0,0 +1,144 @@
+package org.example.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a snapshot file, or a binary export, through a direct buffer, big-endian like
+ * {@link SnapshotReader} expects. Primitive arrays are copied in bulk rather than value by value.
+ */
+public class SnapshotWriter implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private long flushed;
+
+    private SnapshotWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Create the file, replacing any existing one
+     */
+    public static SnapshotWriter create(Path path) throws IOException {
+        return new SnapshotWriter(FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Write to a channel, such as a response stream, which {@link #flush()} leaves open
+     */
+    public static SnapshotWriter to(WritableByteChannel channel) {
+        return new SnapshotWriter(channel);
+    }
+
+    /**
+     * Number of bytes written so far
+     */
+    public long position() {
+        return flushed + buffer.position();
+    }
+
+    public void putByte(int value) throws IOException {
+        ensure(1).put((byte) value);
+    }
+
+    public void putInt(int value) throws IOException {
+        ensure(Integer.BYTES).putInt(value);
+    }
+
+    public void putLong(long value) throws IOException {
+        ensure(Long.BYTES).putLong(value);
+    }
+
+    public void putString(String value) throws IOException {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        putInt(encoded.length);
+        int written = 0;
+        while (written < encoded.length) {
+            int chunk = Math.min(encoded.length - written, ensure(1).remaining());
+            buffer.put(encoded, written, chunk);
+            written += chunk;
+        }
+    }
+
+    public void putShorts(short[] values, int length) throws IOException {
+        for (int done = 0; done < length; ) {
+            int chunk = Math.min(length - done, ensure(Short.BYTES).remaining() / Short.BYTES);
+            buffer.asShortBuffer().put(values, done, chunk);
+            buffer.position(buffer.position() + chunk * Short.BYTES);
+            done += chunk;
+        }
+    }
+
+    public void putInts(int[] values, int length) throws IOException {
+        for (int done = 0; done < length; ) {
+            int chunk = Math.min(length - done, ensure(Integer.BYTES).remaining() / Integer.BYTES);
+            buffer.asIntBuffer().put(values, done, chunk);
+            buffer.position(buffer.position() + chunk * Integer.BYTES);
+            done += chunk;
+        }
+    }
+
+    public void putLongs(long[] values, int length) throws IOException {
+        for (int done = 0; done < length; ) {
+            int chunk = Math.min(length - done, ensure(Long.BYTES).remaining() / Long.BYTES);
+            buffer.asLongBuffer().put(values, done, chunk);
+            buffer.position(buffer.position() + chunk * Long.BYTES);
+            done += chunk;
+        }
+    }
+
+    public void putDoubles(double[] values, int length) throws IOException {
+        for (int done = 0; done < length; ) {
+            int chunk = Math.min(length - done, ensure(Double.BYTES).remaining() / Double.BYTES);
+            buffer.asDoubleBuffer().put(values, done, chunk);
+            buffer.position(buffer.position() + chunk * Double.BYTES);
+            done += chunk;
+        }
+    }
+
+    /**
+     * Write out the buffer and sync the file to disk
+     */
+    public void sync() throws IOException {
+        flush();
+        if (channel instanceof FileChannel) {
+            ((FileChannel) channel).force(true);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private ByteBuffer ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+        return buffer;
+    }
+
+    /**
+     * Write out the buffer
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
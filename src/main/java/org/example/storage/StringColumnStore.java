@@ -0,0 +1,86 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Column store for string columns. Each distinct string is kept once in a dictionary
+ * and pages hold int codes into it.
+ */
+public class StringColumnStore extends ColumnStore {
+
+    // Append-only dictionary; codes are published through the page monitors that store them
+    private final Map<String, Integer> codes = new HashMap<>();
+    private volatile String[] strings = new String[16];
+    private int dictionarySize;
+    private long dictionaryBytes;
+
+    @Override
+    ColumnPage newPage(long version) {
+        return new IntColumnStore.IntPage(version);
+    }
+
+    @Override
+    void writeValue(ColumnPage page, int slot, Object value) {
+        ((IntColumnStore.IntPage) page).values[slot] = encode((String) value);
+    }
+
+    @Override
+    Object readSlot(ColumnPage page, int slot) {
+        return strings[((IntColumnStore.IntPage) page).values[slot]];
+    }
+
+    /**
+     * Get the string of a code read from a page
+     */
+    String decode(int code) {
+        return strings[code];
+    }
+
+    @Override
+    synchronized long extraBytes() {
+        return 16 + (long) strings.length * 8 + dictionaryBytes + codes.size() * 48L;
+    }
+
+    /**
+     * Write the dictionary as it is now. Codes only ever get added, so it covers every page
+     * captured before, whichever snapshot they belong to.
+     */
+    @Override
+    void writeDictionary(SnapshotWriter out) throws IOException {
+        String[] current;
+        int size;
+        synchronized (this) {
+            current = strings;
+            size = dictionarySize;
+        }
+        out.putInt(size);
+        for (int code = 0; code < size; code++) {
+            out.putString(current[code]);
+        }
+    }
+
+    @Override
+    void readDictionary(SnapshotReader in) throws IOException {
+        int size = in.getInt();
+        for (int code = 0; code < size; code++) {
+            encode(in.getString());
+        }
+    }
+
+    private synchronized int encode(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        if (dictionarySize == strings.length) {
+            strings = Arrays.copyOf(strings, dictionarySize * 2);
+        }
+        strings[dictionarySize] = value;
+        codes.put(value, dictionarySize);
+        dictionaryBytes += 40 + 2L * value.length();
+        return dictionarySize++;
+    }
+}
@@ -0,0 +1,561 @@
+package org.example.storage;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records for crash-safe persistence.
+ * Each record is framed as [length][CRC32][payload]; a torn or corrupt tail, left by a crash in
+ * the middle of a write, is cut off when the log is opened.
+ * Appending only copies the record into a buffer. A background thread writes buffered records
+ * in groups and syncs them to disk according to the {@link SyncMode}, so a single fsync covers
+ * every record appended while the previous one was in progress (group commit).
+ * <p>
+ * Records are numbered from 1 in append order. {@link #rotate()} closes the current file as a
+ * segment named after its first record number, e.g. {@code sheets.wal.00000000000000000001}, and
+ * continues in a fresh file; segments are replayed ahead of the current file until a checkpoint
+ * that covers them deletes them.
+ */
+public class WriteAheadLog implements Closeable {
+
+    /**
+     * When records reach the disk
+     */
+    public enum SyncMode {
+        /**
+         * {@link #commit()} waits until the caller's records are synced; concurrent commits share an fsync
+         */
+        COMMIT,
+
+        /**
+         * Records are synced at a fixed interval and {@link #commit()} does not wait,
+         * so a crash can lose the writes of the last interval
+         */
+        INTERVAL,
+
+        /**
+         * Records are written at a fixed interval and syncing is left to the operating system
+         */
+        NONE;
+
+        /**
+         * Resolve a configured mode name, ignoring case
+         * @throws IllegalArgumentException for an unknown mode
+         */
+        public static SyncMode fromName(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                throw new IllegalArgumentException("Unsupported write-ahead log sync mode: " + name);
+            }
+        }
+    }
+
+    /**
+     * Receives each intact record with its sequence number when a log is opened
+     */
+    @FunctionalInterface
+    public interface Replay {
+        void accept(long sequence, ByteBuffer record);
+    }
+
+    // File header: magic, format version, sequence number of the first record in the file
+    private static final int MAGIC = 0x5357414C;
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 16;
+
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 64 << 20;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    private final Path path;
+    private final SyncMode syncMode;
+    private final long syncIntervalMillis;
+    private final Thread flusher;
+
+    // Sequence number of the last record appended by each thread, for commit()
+    private final ThreadLocal<long[]> lastAppended = ThreadLocal.withInitial(() -> new long[1]);
+
+    // Guards the fields below. A lock rather than the monitor, so a virtual thread waiting in commit()
+    // unmounts from its carrier instead of pinning it.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    // Records appended since the flusher last took the buffer, and the buffer it hands back
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private FileChannel channel;
+    private long firstSequence;
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private boolean closed;
+
+    // Set while the flusher writes outside the monitor, rotation waits for it
+    private boolean flushing;
+
+    private final long replayedRecords;
+    private final long truncatedBytes;
+
+    private WriteAheadLog(Path path, FileChannel channel, long firstSequence, long appended, SyncMode syncMode,
+                          long syncIntervalMillis, long replayedRecords, long truncatedBytes) {
+        this.path = path;
+        this.channel = channel;
+        this.firstSequence = firstSequence;
+        this.appended = appended;
+        this.durable = appended;
+        this.syncMode = syncMode;
+        this.syncIntervalMillis = Math.max(1, syncIntervalMillis);
+        this.replayedRecords = replayedRecords;
+        this.truncatedBytes = truncatedBytes;
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Open a log, creating it if it does not exist, and hand every intact record, from the
+     * segments and then the current file, to the consumer in append order before any new
+     * record can be appended.
+     * @param syncIntervalMillis how often records are written in the INTERVAL and NONE modes
+     * @throws IOException if the file is not a write-ahead log, or cannot be read
+     */
+    public static WriteAheadLog open(Path path, SyncMode syncMode, long syncIntervalMillis,
+                                     Replay replay) throws IOException {
+        path = path.toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        long nextSequence = 1;
+        long records = 0;
+        for (Path segment : segments(path)) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                long first = readFileHeader(channel, segment);
+                long[] replayed = replayRecords(channel, first, replay);
+                nextSequence = first + replayed[0];
+                records += replayed[0];
+            }
+        }
+
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long first;
+            long truncated = 0;
+            if (channel.size() < FILE_HEADER_BYTES) {
+                // New, or cut off before its header was complete: start over after the segments
+                first = nextSequence;
+                channel.truncate(0);
+                writeFileHeader(channel, first);
+                channel.force(true);
+            } else {
+                first = readFileHeader(channel, path);
+                long[] replayed = replayRecords(channel, first, replay);
+                records += replayed[0];
+                nextSequence = first + replayed[0];
+
+                // Cut off whatever follows the last intact record and append after it
+                long validBytes = replayed[1];
+                truncated = channel.size() - validBytes;
+                if (truncated > 0) {
+                    channel.truncate(validBytes);
+                    channel.force(true);
+                }
+                channel.position(validBytes);
+            }
+            return new WriteAheadLog(path, channel, first, nextSequence - 1, syncMode, syncIntervalMillis,
+                    records, truncated);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of records handed to the replay consumer when the log was opened
+     */
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    /**
+     * Number of bytes of torn or corrupt records cut off when the log was opened
+     */
+    public long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    /**
+     * Sequence number of the last record appended, 0 before the first
+     */
+    public long getAppendedSequence() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the current file as a segment and continue in a new one. Appends wait while the
+     * buffered records are synced to the segment.
+     * @return sequence number of the last record in the segment; every later record goes to the new file
+     * @throws UncheckedIOException if an earlier write to the log failed
+     */
+    public long rotate() throws IOException {
+        lock.lock();
+        try {
+            checkUsable();
+            if (appended < firstSequence) {
+                // Nothing since the last rotation
+                return appended;
+            }
+            while (flushing) {
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while rotating the write-ahead log", e);
+                }
+            }
+            try {
+                pending.flip();
+                while (pending.hasRemaining()) {
+                    channel.write(pending);
+                }
+                pending.clear();
+                channel.force(true);
+                channel.close();
+                Files.move(path, segmentPath(path, firstSequence), StandardCopyOption.ATOMIC_MOVE);
+
+                firstSequence = appended + 1;
+                channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                writeFileHeader(channel, firstSequence);
+                channel.force(true);
+                syncDirectory(path.getParent());
+            } catch (IOException e) {
+                failure = e;
+                changed.signalAll();
+                throw e;
+            }
+            durable = appended;
+            changed.signalAll();
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete the segments holding only records up to the sequence number, once something
+     * else, such as a snapshot, preserves their effect
+     */
+    public void deleteSegmentsThrough(long sequence) throws IOException {
+        List<Path> segments = segments(path);
+        long nextFirst;
+        lock.lock();
+        try {
+            nextFirst = firstSequence;
+        } finally {
+            lock.unlock();
+        }
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            long first = segmentSequence(segments.get(i));
+            if (nextFirst - 1 <= sequence) {
+                Files.deleteIfExists(segments.get(i));
+            }
+            nextFirst = first;
+        }
+    }
+
+    /**
+     * Buffer a record. Callers that need records in a particular order must append them in that order,
+     * e.g. while holding the lock that orders the mutations they describe.
+     * @throws IllegalStateException if the log is closed
+     * @throws UncheckedIOException if an earlier write to the log failed
+     */
+    public void append(byte[] record) {
+        if (record.length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Record of " + record.length + " bytes exceeds the log limit");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        lock.lock();
+        try {
+            checkUsable();
+            if (pending.remaining() < HEADER_BYTES + record.length) {
+                pending = grow(pending, HEADER_BYTES + record.length);
+            }
+            pending.putInt(record.length).putInt((int) crc.getValue()).put(record);
+            lastAppended.get()[0] = ++appended;
+            if (syncMode == SyncMode.COMMIT) {
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Make the records appended by the calling thread durable as far as the sync mode promises:
+     * in COMMIT mode wait until they are synced, otherwise return at once.
+     * @throws UncheckedIOException if writing the log failed
+     */
+    public void commit() {
+        long sequence = lastAppended.get()[0];
+        lock.lock();
+        try {
+            if (syncMode == SyncMode.COMMIT) {
+                while (durable < sequence && failure == null) {
+                    try {
+                        changed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for the write-ahead log", e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Write-ahead log failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write and sync every buffered record, then close the file
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        FileChannel current;
+        lock.lock();
+        try {
+            current = channel;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            current.force(true);
+        } finally {
+            current.close();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            FileChannel target;
+            long sequence;
+            lock.lock();
+            try {
+                try {
+                    if (syncMode == SyncMode.COMMIT) {
+                        while (pending.position() == 0 && !closed) {
+                            changed.await();
+                        }
+                    } else if (!closed) {
+                        changed.await(syncIntervalMillis, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                if (pending.position() == 0) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                batch = pending;
+                pending = spare;
+                spare = null;
+                target = channel;
+                sequence = appended;
+                flushing = true;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    target.write(batch);
+                }
+                if (syncMode != SyncMode.NONE) {
+                    target.force(false);
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    flushing = false;
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+
+            batch.clear();
+            lock.lock();
+            try {
+                spare = batch;
+                durable = Math.max(durable, sequence);
+                flushing = false;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void checkUsable() {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+    }
+
+    /**
+     * Replay the records following the file header
+     * @return the number of intact records, and the file offset just past the last of them
+     */
+    private static long[] replayRecords(FileChannel channel, long firstSequence, Replay replay) throws IOException {
+        long validBytes = FILE_HEADER_BYTES;
+        long records = 0;
+        channel.position(FILE_HEADER_BYTES);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] payload;
+            int checksum;
+            try {
+                int length = in.readInt();
+                checksum = in.readInt();
+                if (length < 0 || length > MAX_RECORD_BYTES) {
+                    break;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            replay.accept(firstSequence + records, ByteBuffer.wrap(payload));
+            validBytes += HEADER_BYTES + payload.length;
+            records++;
+        }
+        return new long[] {records, validBytes};
+    }
+
+    private static long readFileHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Keep reading until the header is complete or the file ends
+        }
+        header.flip();
+        if (header.remaining() < FILE_HEADER_BYTES || header.getInt() != MAGIC) {
+            throw new IOException("Not a write-ahead log: " + path);
+        }
+        int version = header.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported write-ahead log format " + version + ": " + path);
+        }
+        return header.getLong();
+    }
+
+    private static void writeFileHeader(FileChannel channel, long firstSequence) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(firstSequence).flip();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * The segments of the log at the path, oldest first
+     */
+    private static List<Path> segments(Path path) throws IOException {
+        String prefix = path.getFileName() + ".";
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(path.getParent())) {
+            files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(prefix) && name.length() > prefix.length()
+                        && name.substring(prefix.length()).chars().allMatch(Character::isDigit);
+            }).forEach(segments::add);
+        }
+        segments.sort((a, b) -> Long.compare(segmentSequence(a), segmentSequence(b)));
+        return segments;
+    }
+
+    private static Path segmentPath(Path path, long firstSequence) {
+        return path.resolveSibling(String.format("%s.%020d", path.getFileName(), firstSequence));
+    }
+
+    private static long segmentSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    private static void syncDirectory(Path directory) {
+        // Makes the rename and the new file durable; not every platform can open a directory
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        int capacity = buffer.capacity();
+        while (capacity - buffer.position() < needed) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.benchmark;
+
+import com.sun.management.ThreadMXBean;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.example.storage.CellAddress;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures the bytes allocated per operation on the cell read/write paths.
+ * Only runs with the benchmark profile: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+public class AllocationBenchmarkTest {
+
+    private static final int ROWS = 10_000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 20;
+
+    // Values are boxed up front so the caller's boxing is not counted
+    private static final Integer[] VALUES = new Integer[ROWS + 1];
+
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final SpreadsheetService service = new SpreadsheetService();
+    private Sheet sheet;
+
+    @BeforeAll
+    public static void quietLogging() {
+        Configurator.setLevel("org.example", Level.WARN);
+        for (int i = 0; i <= ROWS; i++) {
+            VALUES[i] = 1_000 + i;
+        }
+    }
+
+    @AfterAll
+    public static void restoreLogging() {
+        Configurator.setLevel("org.example", Level.DEBUG);
+    }
+
+    @Test
+    public void testAllocationPerOperation() {
+        sheet = service.createSheet(Arrays.asList(
+                new Column("A", "int"), new Column("B", "int"), new Column("C", "int")));
+        for (int row = 1; row <= ROWS; row++) {
+            service.setCellValue(sheet.getId(), "A", row, VALUES[row]);
+            service.setCellValue(sheet.getId(), "C", row, VALUES[row]);
+        }
+        // Every row of A feeds a lookup in B, C has no dependents
+        for (int row = 1; row <= ROWS; row++) {
+            service.setCellValue(sheet.getId(), "B", row, "lookup(A," + row + ")");
+        }
+        String[] lookups = new String[ROWS + 1];
+        for (int row = 1; row <= ROWS; row++) {
+            lookups[row] = "lookup(C," + row + ")";
+        }
+
+        System.out.println("Bytes allocated per operation:");
+        double plainWrite = report("plain write", () -> {
+            for (int row = 1; row <= ROWS; row++) {
+                service.setCellValue(sheet.getId(), "C", row, VALUES[ROWS - row]);
+            }
+        });
+        double dependentWrite = report("write with dependent", () -> {
+            for (int row = 1; row <= ROWS; row++) {
+                service.setCellValue(sheet.getId(), "A", row, VALUES[ROWS - row]);
+            }
+        });
+        report("lookup write", () -> {
+            for (int row = 1; row <= ROWS; row++) {
+                service.setCellValue(sheet.getId(), "B", row, lookups[row]);
+            }
+        });
+        report("cell read", () -> {
+            for (int row = 1; row <= ROWS; row++) {
+                sheet.getCell("A", row);
+            }
+        });
+        report("value read by address", () -> {
+            for (int row = 1; row <= ROWS; row++) {
+                sheet.getValue(CellAddress.pack(0, row));
+            }
+        });
+
+        // What is left is the Cell handed back to the caller, propagation adds nothing
+        assertTrue(plainWrite <= 64, "Plain writes allocate " + plainWrite + " bytes each");
+        assertTrue(dependentWrite <= 64, "Writes with a dependent allocate " + dependentWrite + " bytes each");
+    }
+
+    private double report(String operation, Runnable round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            round.run();
+        }
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            round.run();
+        }
+        double bytesPerOperation = (THREADS.getCurrentThreadAllocatedBytes() - before) / (double) (MEASURED_ROUNDS * ROWS);
+        System.out.printf("  %-22s %8.1f bytes/op%n", operation, bytesPerOperation);
+        return bytesPerOperation;
+    }
+}
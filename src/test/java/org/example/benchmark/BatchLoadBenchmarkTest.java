@@ -0,0 +1,119 @@
+package org.example.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.example.model.CellUpdate;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares loading a sheet cell by cell with loading it in batches.
+ * Only runs with the benchmark profile: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+public class BatchLoadBenchmarkTest {
+
+    private static final int ROWS = 200_000;
+    private static final int BATCH_SIZE = 10_000;
+
+    @BeforeAll
+    public static void quietLogging() {
+        Configurator.setLevel("org.example", Level.WARN);
+    }
+
+    @AfterAll
+    public static void restoreLogging() {
+        Configurator.setLevel("org.example", Level.DEBUG);
+    }
+
+    @Test
+    public void testBatchLoadThroughput() {
+        // Warm up both paths
+        for (int i = 0; i < 3; i++) {
+            loadOneByOne(50_000);
+            loadInBatches(50_000);
+        }
+
+        double single = loadOneByOne(ROWS);
+        double batched = loadInBatches(ROWS);
+        System.out.printf("Loading %,d rows (plain column A, column B = lookup(A,row)):%n", ROWS);
+        System.out.printf("  one setCellValue per cell  %,12.0f cells/s%n", single);
+        System.out.printf("  batches of %,d          %,12.0f cells/s%n", BATCH_SIZE, batched);
+
+        // Re-writing the source of a wide fan-out in one batch recomputes each dependent once
+        System.out.printf("  fan-out re-write, 10,000 dependents: %,d ms one by one, %,d ms batched%n",
+                fanOut(false), fanOut(true));
+    }
+
+    private double loadOneByOne(int rows) {
+        SpreadsheetService service = new SpreadsheetService();
+        Sheet sheet = createSheet(service);
+        long start = System.nanoTime();
+        for (int row = 1; row <= rows; row++) {
+            service.setCellValue(sheet.getId(), "A", row, row);
+            service.setCellValue(sheet.getId(), "B", row, "lookup(A," + row + ")");
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(rows, sheet.getCell("B", rows).getValue());
+        return 2.0 * rows / (elapsed / 1e9);
+    }
+
+    private double loadInBatches(int rows) {
+        SpreadsheetService service = new SpreadsheetService();
+        Sheet sheet = createSheet(service);
+        long start = System.nanoTime();
+        for (int first = 1; first <= rows; first += BATCH_SIZE) {
+            List<CellUpdate> batch = new ArrayList<>(2 * BATCH_SIZE);
+            for (int row = first; row < first + BATCH_SIZE && row <= rows; row++) {
+                batch.add(new CellUpdate("A", row, row));
+                batch.add(new CellUpdate("B", row, "lookup(A," + row + ")"));
+            }
+            service.setCellValues(sheet.getId(), batch);
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(rows, sheet.getCell("B", rows).getValue());
+        return 2.0 * rows / (elapsed / 1e9);
+    }
+
+    private long fanOut(boolean batched) {
+        SpreadsheetService service = new SpreadsheetService();
+        Sheet sheet = createSheet(service);
+        List<CellUpdate> lookups = new ArrayList<>();
+        for (int row = 1; row <= 10_000; row++) {
+            lookups.add(new CellUpdate("B", row, "lookup(A,1)"));
+        }
+        service.setCellValues(sheet.getId(), lookups);
+
+        // The same source written 100 times
+        long start = System.nanoTime();
+        if (batched) {
+            List<CellUpdate> writes = new ArrayList<>();
+            for (int i = 1; i <= 100; i++) {
+                writes.add(new CellUpdate("A", 1, i));
+            }
+            service.setCellValues(sheet.getId(), writes);
+        } else {
+            for (int i = 1; i <= 100; i++) {
+                service.setCellValue(sheet.getId(), "A", 1, i);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(100, sheet.getCell("B", 10_000).getValue());
+        return elapsed / 1_000_000;
+    }
+
+    private static Sheet createSheet(SpreadsheetService service) {
+        return service.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+    }
+}
@@ -0,0 +1,125 @@
+package org.example.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.Main;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Multi-threaded HTTP throughput against the create, set cell and get sheet endpoints.
+ * Only runs with the benchmark profile: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+public class ConcurrentThroughputBenchmarkTest {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16};
+    private static final long RUN_MILLIS = 3_000;
+    private static final int ROWS = 10_000;
+
+    private static ConfigurableApplicationContext context;
+    private static String baseUrl;
+    private static final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .build();
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeAll
+    public static void startServer() {
+        // Per-request logging would dominate the measurement
+        context = SpringApplication.run(Main.class, "--server.port=0", "--logging.level.org.example=WARN");
+        baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api";
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Test
+    public void testWriteThroughputScalesWithThreads() throws Exception {
+        // Warm up the JIT and the connection pools before measuring
+        run(THREAD_COUNTS[THREAD_COUNTS.length - 1], createSheet());
+
+        System.out.println("Writes to one sheet, 1% lookup writes, 1% CSV reads:");
+        for (int threads : THREAD_COUNTS) {
+            String sheetId = createSheet();
+            double opsPerSecond = run(threads, sheetId);
+            System.out.printf("  %2d threads: %,10.0f requests/s%n", threads, opsPerSecond);
+        }
+    }
+
+    private double run(int threads, String sheetId) throws Exception {
+        AtomicLong completed = new AtomicLong();
+        long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < deadline) {
+                    int dice = random.nextInt(100);
+                    int row = 1 + random.nextInt(ROWS);
+                    if (dice == 0) {
+                        assertEquals(200, send(HttpRequest.newBuilder(URI.create(baseUrl + "/sheets/" + sheetId))
+                                .GET().build()));
+                    } else if (dice == 1) {
+                        assertEquals(200, put(sheetId, "B", row, "lookup(A," + row + ")"));
+                    } else {
+                        assertEquals(200, put(sheetId, "A", row, random.nextInt()));
+                    }
+                    completed.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(RUN_MILLIS * 10, TimeUnit.MILLISECONDS);
+        }
+        executor.shutdown();
+        return completed.get() * 1000.0 / RUN_MILLIS;
+    }
+
+    private String createSheet() throws Exception {
+        String body = "{\"columns\":[{\"name\":\"A\",\"type\":\"int\"},{\"name\":\"B\",\"type\":\"int\"}]}";
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(URI.create(baseUrl + "/sheets"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(201, response.statusCode());
+        return objectMapper.readTree(response.body()).get("id").asText();
+    }
+
+    private int put(String sheetId, String column, int row, Object value) throws Exception {
+        String body = objectMapper.writeValueAsString(Map.of("value", value));
+        return send(HttpRequest.newBuilder(URI.create(baseUrl + "/sheets/" + sheetId + "/cells/" + column + "/" + row))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(body))
+                .build());
+    }
+
+    private int send(HttpRequest request) throws Exception {
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.example.model.Column;
+import org.example.model.ImportResult;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.example.storage.CellAddress;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures a bulk CSV import of 10M cells, exported from a sheet and imported into a new one.
+ * Only runs with the benchmark profile: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+public class CsvImportBenchmarkTest {
+
+    private static final int ROWS = 2_500_000;
+
+    @BeforeAll
+    public static void quietLogging() {
+        Configurator.setLevel("org.example", Level.WARN);
+    }
+
+    @AfterAll
+    public static void restoreLogging() {
+        Configurator.setLevel("org.example", Level.DEBUG);
+    }
+
+    @Test
+    public void testImportThroughput() throws IOException {
+        byte[] csv = export(ROWS);
+
+        // Warm up
+        importCopy(export(100_000));
+
+        long start = System.nanoTime();
+        ImportResult result = importCopy(csv);
+        long elapsed = System.nanoTime() - start;
+        assertEquals(4L * ROWS, result.getImportedCells());
+        System.out.printf("Importing %,d cells (%,d MB of CSV): %,d ms, %,.0f cells/s%n", result.getImportedCells(),
+                csv.length >> 20, elapsed / 1_000_000, result.getImportedCells() / (elapsed / 1e9));
+    }
+
+    private static byte[] export(int rows) {
+        SpreadsheetService service = new SpreadsheetService();
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "double"),
+                new Column("C", "string"), new Column("D", "boolean")));
+        // Written straight to the stores, the benchmark is about the import
+        long version = sheet.nextVersion();
+        for (int row = 1; row <= rows; row++) {
+            sheet.setCell(CellAddress.pack(0, row), row, CellAddress.NONE, version);
+            sheet.setCell(CellAddress.pack(1, row), row / 8.0, CellAddress.NONE, version);
+            sheet.setCell(CellAddress.pack(2, row), "customer " + row % 1_000, CellAddress.NONE, version);
+            sheet.setCell(CellAddress.pack(3, row), row % 2 == 0, CellAddress.NONE, version);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            service.writeSheetCsv(sheet, Integer.MIN_VALUE, Integer.MAX_VALUE, null, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        String csv = out.toString(StandardCharsets.UTF_8);
+        return csv.replaceFirst("Row,A,B,C,D", "Row,A:int,B:double,C:string,D:boolean")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ImportResult importCopy(byte[] csv) throws IOException {
+        return new SpreadsheetService().importCsvAsNewSheet(null, new ByteArrayInputStream(csv));
+    }
+}
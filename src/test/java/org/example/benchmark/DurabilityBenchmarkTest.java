@@ -0,0 +1,97 @@
+package org.example.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.example.service.SpreadsheetSettings;
+import org.example.storage.WriteAheadLog;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures write throughput with the write-ahead log off and in each sync mode,
+ * from one writer and from many concurrent writers sharing group commits.
+ * Only runs with the benchmark profile: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+public class DurabilityBenchmarkTest {
+
+    private static final int WRITES = 40_000;
+    private static final int[] WRITER_THREADS = {1, 16};
+    private static final long SYNC_INTERVAL_MILLIS = 10;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    public static void quietLogging() {
+        Configurator.setLevel("org.example", Level.WARN);
+    }
+
+    @AfterAll
+    public static void restoreLogging() {
+        Configurator.setLevel("org.example", Level.DEBUG);
+    }
+
+    @Test
+    public void testWriteThroughputWithDurability() throws Exception {
+        // Warm up
+        measure(null, 1, "warmup-1");
+        measure(WriteAheadLog.SyncMode.COMMIT, 16, "warmup-2");
+
+        System.out.printf("setCellValue throughput, %,d writes (sync interval %d ms):%n", WRITES, SYNC_INTERVAL_MILLIS);
+        for (int threads : WRITER_THREADS) {
+            System.out.printf("  %2d writer(s): off %,9.0f/s", threads, measure(null, threads, "off-" + threads));
+            for (WriteAheadLog.SyncMode mode : WriteAheadLog.SyncMode.values()) {
+                System.out.printf("  %s %,9.0f/s", mode.name().toLowerCase(), measure(mode, threads, mode + "-" + threads));
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * @return writes per second
+     */
+    private double measure(WriteAheadLog.SyncMode mode, int threads, String name) throws Exception {
+        SpreadsheetService service = mode == null
+                ? new SpreadsheetService()
+                : new SpreadsheetService(new SpreadsheetSettings()
+                        .walPath(directory.resolve(name + ".wal"))
+                        .walSyncMode(mode)
+                        .walSyncIntervalMillis(SYNC_INTERVAL_MILLIS));
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        String sheetId = sheet.getId();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            writers.add(executor.submit(() -> {
+                for (int i = offset; i < WRITES; i += threads) {
+                    service.setCellValue(sheetId, i % 2 == 0 ? "A" : "B", 1 + i % 10_000, i);
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        double throughput = WRITES / ((System.nanoTime() - start) / 1e9);
+        executor.shutdown();
+        service.close();
+        return throughput;
+    }
+}
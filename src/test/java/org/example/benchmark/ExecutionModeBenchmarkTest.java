@@ -0,0 +1,140 @@
+package org.example.benchmark;
+
+import org.example.Main;
+import org.example.benchmark.jmh.SheetGenerator;
+import org.example.config.ExecutionMode;
+import org.example.service.SpreadsheetService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Cell writes while 10k slow clients hold connections open on large CSV exports they never read,
+ * with the requests on Tomcat's worker pool and on virtual threads. The virtual thread run needs Java 21.
+ * Each connection takes two file descriptors in this process, so the open file limit has to allow for
+ * them; -Dbenchmark.connections sets a smaller count.
+ * Only runs with the benchmark profile: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+public class ExecutionModeBenchmarkTest {
+
+    private static final int SLOW_CLIENTS = Integer.getInteger("benchmark.connections", 10_000);
+    private static final int EXPORT_CELLS = 400_000;
+    private static final int WRITES = 200;
+    private static final Duration WRITE_TIMEOUT = Duration.ofSeconds(5);
+
+    @Test
+    public void testCellWritesWithSlowExportClients() throws Exception {
+        Map<ExecutionMode, long[]> latencies = new LinkedHashMap<>();
+        latencies.put(ExecutionMode.PLATFORM, measure(ExecutionMode.PLATFORM));
+        if (Runtime.version().feature() >= 21) {
+            latencies.put(ExecutionMode.VIRTUAL, measure(ExecutionMode.VIRTUAL));
+        } else {
+            System.out.println("Skipping virtual threads, running on Java " + Runtime.version().feature());
+        }
+
+        System.out.printf("Cell writes with %,d slow export clients connected:%n", SLOW_CLIENTS);
+        latencies.forEach((mode, nanos) -> {
+            if (nanos.length == 0) {
+                System.out.printf("  %-8s: 0 of %d writes completed within %d s%n", mode, WRITES,
+                        WRITE_TIMEOUT.toSeconds());
+                return;
+            }
+            Arrays.sort(nanos);
+            System.out.printf("  %-8s: %d of %d writes completed, p50 %,.0f us, p99 %,.0f us%n", mode,
+                    nanos.length, WRITES, nanos[nanos.length / 2] / 1_000.0,
+                    nanos[(int) (nanos.length * 0.99)] / 1_000.0);
+        });
+
+        if (latencies.containsKey(ExecutionMode.VIRTUAL)) {
+            assertEquals(WRITES, latencies.get(ExecutionMode.VIRTUAL).length,
+                    "Writes timed out while slow clients held their connections");
+        }
+    }
+
+    /**
+     * @return the latency of each write that completed, up to the first one that timed out
+     */
+    private long[] measure(ExecutionMode mode) throws Exception {
+        ConfigurableApplicationContext context = SpringApplication.run(Main.class,
+                "--server.port=0",
+                "--spreadsheet.execution=" + mode.name().toLowerCase(Locale.ROOT),
+                "--server.tomcat.max-connections=" + (SLOW_CLIENTS + 1_000),
+                "--server.tomcat.accept-count=1000",
+                // Per-request logging would dominate the measurement
+                "--logging.level.org.example=WARN");
+        List<Socket> slowClients = new ArrayList<>(SLOW_CLIENTS);
+        try {
+            int port = Integer.parseInt(context.getEnvironment().getProperty("local.server.port"));
+            SpreadsheetService service = context.getBean(SpreadsheetService.class);
+            String sheetId = SheetGenerator.mixed(service, EXPORT_CELLS).getId();
+
+            // Each slow client asks for the whole sheet and reads none of it, so its export blocks
+            // once the socket buffers are full
+            byte[] request = ("GET /api/sheets/" + sheetId + " HTTP/1.1\r\nHost: localhost\r\nAccept: text/csv\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < SLOW_CLIENTS; i++) {
+                Socket socket = new Socket();
+                socket.setReceiveBufferSize(4096);
+                socket.connect(new InetSocketAddress("localhost", port));
+                slowClients.add(socket);
+                socket.getOutputStream().write(request);
+            }
+            Thread.sleep(2_000);
+
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(WRITE_TIMEOUT)
+                    .build();
+            long[] nanos = new long[WRITES];
+            int completed = 0;
+            for (int i = 0; i < WRITES; i++) {
+                HttpRequest write = HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:" + port + "/api/sheets/" + sheetId + "/cells/A/" + (i + 1)))
+                        .header("Content-Type", "application/json")
+                        .timeout(WRITE_TIMEOUT)
+                        .PUT(HttpRequest.BodyPublishers.ofString("{\"value\": " + i + "}"))
+                        .build();
+                long start = System.nanoTime();
+                try {
+                    HttpResponse<String> response = client.send(write, HttpResponse.BodyHandlers.ofString());
+                    assertEquals(200, response.statusCode());
+                } catch (HttpTimeoutException e) {
+                    // Every worker is busy; the rest would time out the same way
+                    break;
+                }
+                nanos[completed++] = System.nanoTime() - start;
+            }
+            return Arrays.copyOf(nanos, completed);
+        } finally {
+            for (Socket socket : slowClients) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+            context.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures retained heap per cell for numeric, boolean and string sheets.
+ * Only runs with the benchmark profile: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+public class HeapUsageBenchmarkTest {
+
+    private static final int ROWS = 300_000;
+
+    @BeforeAll
+    public static void quietLogging() {
+        Configurator.setLevel("org.example", Level.WARN);
+    }
+
+    @AfterAll
+    public static void restoreLogging() {
+        Configurator.setLevel("org.example", Level.DEBUG);
+    }
+
+    @Test
+    public void testHeapPerCell() {
+        System.out.println("Retained heap per cell, " + ROWS + " dense rows:");
+        measure("int", row -> row * 7);
+        measure("double", row -> row * 0.5);
+        measure("boolean", row -> row % 3 == 0);
+        measure("string", row -> "category-" + (row % 100));
+        measureSparse();
+    }
+
+    private void measure(String type, java.util.function.IntFunction<Object> valueForRow) {
+        long before = usedHeap();
+        SpreadsheetService service = new SpreadsheetService();
+        Sheet sheet = service.createSheet(List.of(new Column("A", type), new Column("B", type)));
+        for (int row = 1; row <= ROWS; row++) {
+            service.setCellValue(sheet.getId(), "A", row, valueForRow.apply(row));
+            service.setCellValue(sheet.getId(), "B", row, valueForRow.apply(row + 1));
+        }
+        long after = usedHeap();
+        System.out.printf("  %-8s %8.1f bytes/cell%n", type, (after - before) / (2.0 * ROWS));
+
+        // Keep the sheet reachable until after the measurement
+        assertEquals(valueForRow.apply(ROWS), sheet.getCell("A", ROWS).getValue());
+    }
+
+    private void measureSparse() {
+        long before = usedHeap();
+        SpreadsheetService service = new SpreadsheetService();
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int")));
+        int cells = ROWS / 10;
+        for (int i = 1; i <= cells; i++) {
+            service.setCellValue(sheet.getId(), "A", i * 997, i);
+        }
+        long after = usedHeap();
+        System.out.printf("  %-8s %8.1f bytes/cell (one cell every 997 rows)%n", "sparse", (after - before) / (double) cells);
+        assertEquals(cells, sheet.getCell("A", cells * 997).getValue());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
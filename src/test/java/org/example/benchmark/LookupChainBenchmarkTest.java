@@ -0,0 +1,78 @@
+package org.example.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Measures cycle checks and propagation on long chains of lookups, built one write at a time.
+ * Only runs with the benchmark profile: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+public class LookupChainBenchmarkTest {
+
+    private static final int LENGTH = 200_000;
+
+    @BeforeAll
+    public static void quietLogging() {
+        Configurator.setLevel("org.example", Level.WARN);
+    }
+
+    @AfterAll
+    public static void restoreLogging() {
+        Configurator.setLevel("org.example", Level.DEBUG);
+    }
+
+    @Test
+    public void testLongChains() {
+        SpreadsheetService service = new SpreadsheetService();
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        String sheetId = sheet.getId();
+
+        // Column A: each row looks up the row above, written top down
+        service.setCellValue(sheetId, "A", 1, 0);
+        long start = System.nanoTime();
+        for (int row = 2; row <= LENGTH; row++) {
+            service.setCellValue(sheetId, "A", row, "lookup(A," + (row - 1) + ")");
+        }
+        report("chain built top down", System.nanoTime() - start, LENGTH - 1);
+
+        // Column B: the same chain, written bottom up
+        start = System.nanoTime();
+        for (int row = LENGTH; row >= 2; row--) {
+            service.setCellValue(sheetId, "B", row, "lookup(B," + (row - 1) + ")");
+        }
+        report("chain built bottom up", System.nanoTime() - start, LENGTH - 1);
+
+        // Hang the B chain off the end of the A chain, which reorders the whole B chain once
+        start = System.nanoTime();
+        service.setCellValue(sheetId, "B", 1, "lookup(A," + LENGTH + ")");
+        report("join the chains", System.nanoTime() - start, 1);
+
+        start = System.nanoTime();
+        service.setCellValue(sheetId, "A", 1, 42);
+        report("propagate through both", System.nanoTime() - start, 1);
+        assertEquals(42, sheet.getCell("B", LENGTH).getValue());
+
+        start = System.nanoTime();
+        assertThrows(IllegalArgumentException.class,
+                () -> service.setCellValue(sheetId, "A", 1, "lookup(B," + LENGTH + ")"));
+        report("reject closing cycle", System.nanoTime() - start, 1);
+    }
+
+    private static void report(String operation, long elapsedNanos, int writes) {
+        System.out.printf("  %-24s %,10.1f ms total %,10.2f us/write%n",
+                operation, elapsedNanos / 1e6, elapsedNanos / 1e3 / writes);
+    }
+}
@@ -0,0 +1,87 @@
+package org.example.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.example.model.CellUpdate;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.service.RecalculationMode;
+import org.example.service.SpreadsheetService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares eager and lazy recalculation on a write-heavy sheet: one source cell referenced by
+ * many lookups, written repeatedly between reads.
+ * Only runs with the benchmark profile: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+public class RecalculationBenchmarkTest {
+
+    private static final int DEPENDENTS = 10_000;
+    private static final int WRITES_PER_READ = 1_000;
+    private static final int ROUNDS = 5;
+
+    @BeforeAll
+    public static void quietLogging() {
+        Configurator.setLevel("org.example", Level.WARN);
+    }
+
+    @AfterAll
+    public static void restoreLogging() {
+        Configurator.setLevel("org.example", Level.DEBUG);
+    }
+
+    @Test
+    public void testHotSourceWrites() {
+        // Warm up both modes
+        measure(RecalculationMode.EAGER);
+        measure(RecalculationMode.LAZY);
+
+        System.out.printf("%,d writes to a cell with %,d dependents, then a CSV export, %d rounds:%n",
+                WRITES_PER_READ, DEPENDENTS, ROUNDS);
+        for (RecalculationMode mode : RecalculationMode.values()) {
+            long[] nanos = measure(mode);
+            System.out.printf("  %-5s %,10.1f us/write %,8.1f ms/export%n",
+                    mode, nanos[0] / 1e3 / (ROUNDS * WRITES_PER_READ), nanos[1] / 1e6 / ROUNDS);
+        }
+    }
+
+    /**
+     * @return total nanoseconds spent writing and exporting
+     */
+    private long[] measure(RecalculationMode mode) {
+        SpreadsheetService service = new SpreadsheetService(mode);
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        List<CellUpdate> lookups = new ArrayList<>();
+        for (int row = 1; row <= DEPENDENTS; row++) {
+            lookups.add(new CellUpdate("B", row, "lookup(A,1)"));
+        }
+        service.setCellValues(sheet.getId(), lookups);
+
+        long writing = 0;
+        long exporting = 0;
+        int value = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < WRITES_PER_READ; i++) {
+                service.setCellValue(sheet.getId(), "A", 1, ++value);
+            }
+            writing += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            service.convertSheetToCsv(sheet);
+            exporting += System.nanoTime() - start;
+            assertEquals(value, sheet.getCell("B", DEPENDENTS).getValue());
+        }
+        return new long[] {writing, exporting};
+    }
+}
@@ -0,0 +1,132 @@
+package org.example.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.example.model.CellUpdate;
+import org.example.model.Column;
+import org.example.service.SpreadsheetService;
+import org.example.service.SpreadsheetSettings;
+import org.example.storage.WriteAheadLog;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares startup from a binary snapshot with startup from replaying the whole write-ahead log,
+ * for the same sheets. Only runs with the benchmark profile: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+public class StartupBenchmarkTest {
+
+    private static final int SHEETS = 4;
+    private static final int ROWS = 250_000;
+    private static final int BATCH_SIZE = 10_000;
+
+    @BeforeAll
+    public static void quietLogging() {
+        Configurator.setLevel("org.example", Level.WARN);
+    }
+
+    @AfterAll
+    public static void restoreLogging() {
+        Configurator.setLevel("org.example", Level.DEBUG);
+    }
+
+    @Test
+    public void testStartupTime(@TempDir Path directory) throws Exception {
+        Path snapshotWal = directory.resolve("snapshot/sheets.wal");
+        Path snapshots = directory.resolve("snapshot/snapshots");
+        Path replayWal = directory.resolve("replay/sheets.wal");
+
+        SpreadsheetService withSnapshots = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(snapshotWal)
+                .walSyncMode(WriteAheadLog.SyncMode.NONE)
+                .walSyncIntervalMillis(10)
+                .snapshotPath(snapshots));
+        load(withSnapshots);
+        long start = System.nanoTime();
+        withSnapshots.checkpoint();
+        long checkpointMillis = (System.nanoTime() - start) / 1_000_000;
+        withSnapshots.close();
+
+        SpreadsheetService logOnly = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(replayWal)
+                .walSyncMode(WriteAheadLog.SyncMode.NONE)
+                .walSyncIntervalMillis(10));
+        load(logOnly);
+        logOnly.close();
+
+        long snapshotBytes = size(snapshots);
+        long walBytes = size(replayWal.getParent());
+        long cells = (long) SHEETS * ROWS * 4;
+        System.out.printf("Startup with %d sheets, %,d cells (int, double, string, lookup columns):%n", SHEETS, cells);
+        System.out.printf("  checkpoint                 %,8d ms, %,6d MB snapshot%n", checkpointMillis, snapshotBytes >> 20);
+
+        // Restore a few times, the first run also warms up the code
+        for (int run = 0; run < 3; run++) {
+            start = System.nanoTime();
+            SpreadsheetService restored = new SpreadsheetService(new SpreadsheetSettings()
+                    .walPath(snapshotWal)
+                    .walSyncMode(WriteAheadLog.SyncMode.NONE)
+                    .walSyncIntervalMillis(10)
+                    .snapshotPath(snapshots));
+            long snapshotMillis = (System.nanoTime() - start) / 1_000_000;
+            check(restored);
+            restored.close();
+            System.out.printf("  restore from snapshot      %,8d ms, %,8.0f MB/s%n", snapshotMillis,
+                    snapshotBytes / 1e6 / Math.max(1, snapshotMillis) * 1000);
+        }
+
+        start = System.nanoTime();
+        SpreadsheetService replayed = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(replayWal)
+                .walSyncMode(WriteAheadLog.SyncMode.NONE)
+                .walSyncIntervalMillis(10));
+        long replayMillis = (System.nanoTime() - start) / 1_000_000;
+        check(replayed);
+        replayed.close();
+        System.out.printf("  replay write-ahead log     %,8d ms, %,6d MB log%n", replayMillis, walBytes >> 20);
+    }
+
+    private static void load(SpreadsheetService service) {
+        for (int i = 0; i < SHEETS; i++) {
+            String sheetId = "sheet-" + i;
+            service.createSheetWithId(sheetId, Arrays.asList(new Column("A", "int"), new Column("B", "double"),
+                    new Column("C", "string"), new Column("D", "int")));
+            for (int first = 1; first <= ROWS; first += BATCH_SIZE) {
+                List<CellUpdate> batch = new ArrayList<>(4 * BATCH_SIZE);
+                for (int row = first; row < first + BATCH_SIZE && row <= ROWS; row++) {
+                    batch.add(new CellUpdate("A", row, row));
+                    batch.add(new CellUpdate("B", row, row / 8.0));
+                    batch.add(new CellUpdate("C", row, "customer " + row % 1_000));
+                    batch.add(new CellUpdate("D", row, "lookup(A," + row + ")"));
+                }
+                service.setCellValues(sheetId, batch);
+            }
+        }
+    }
+
+    private static void check(SpreadsheetService service) {
+        for (int i = 0; i < SHEETS; i++) {
+            assertEquals(ROWS, service.getSheet("sheet-" + i).getCell("D", ROWS).getValue());
+        }
+    }
+
+    private static long size(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
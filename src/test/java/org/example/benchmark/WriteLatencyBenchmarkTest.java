@@ -0,0 +1,84 @@
+package org.example.benchmark;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures setCellValue latency on sheets of growing size.
+ * Only runs with the benchmark profile: mvn test -Pbenchmark
+ */
+@Tag("benchmark")
+public class WriteLatencyBenchmarkTest {
+
+    private static final int[] SHEET_SIZES = {1_000, 10_000, 100_000, 300_000};
+    private static final int WARMUP_WRITES = 20_000;
+    private static final int MEASURED_WRITES = 50_000;
+
+    @BeforeAll
+    public static void quietLogging() {
+        // Per-write logging would dominate the measurement
+        Configurator.setLevel("org.example", Level.WARN);
+    }
+
+    @AfterAll
+    public static void restoreLogging() {
+        Configurator.setLevel("org.example", Level.DEBUG);
+    }
+
+    @Test
+    public void testWriteLatencyStaysFlatAsSheetGrows() {
+        Map<Integer, Double> nanosPerWrite = new LinkedHashMap<>();
+        for (int size : SHEET_SIZES) {
+            nanosPerWrite.put(size, measure(size));
+        }
+
+        System.out.println("setCellValue latency by sheet size (every 10th row has a lookup dependent):");
+        nanosPerWrite.forEach((size, nanos) ->
+                System.out.printf("  %,9d cells: %,10.0f ns/write%n", size, nanos));
+
+        double smallest = nanosPerWrite.get(SHEET_SIZES[0]);
+        double largest = nanosPerWrite.get(SHEET_SIZES[SHEET_SIZES.length - 1]);
+        assertTrue(largest < smallest * 5,
+                "Write latency grew from " + smallest + " ns to " + largest + " ns");
+    }
+
+    private double measure(int size) {
+        SpreadsheetService service = new SpreadsheetService();
+        Sheet sheet = service.createSheet(Arrays.asList(
+                new Column("A", "int"),
+                new Column("B", "int")
+        ));
+        String sheetId = sheet.getId();
+
+        int rows = size * 10 / 11;
+        for (int row = 1; row <= rows; row++) {
+            service.setCellValue(sheetId, "A", row, row);
+            if (row % 10 == 0) {
+                service.setCellValue(sheetId, "B", row, "lookup(A," + row + ")");
+            }
+        }
+
+        for (int i = 0; i < WARMUP_WRITES; i++) {
+            service.setCellValue(sheetId, "A", 1 + (i * 7) % rows, i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_WRITES; i++) {
+            service.setCellValue(sheetId, "A", 1 + (i * 7) % rows, i);
+        }
+        return (System.nanoTime() - start) / (double) MEASURED_WRITES;
+    }
+}
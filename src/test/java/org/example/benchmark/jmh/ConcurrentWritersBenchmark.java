@@ -0,0 +1,66 @@
+package org.example.benchmark.jmh;
+
+import org.example.model.Cell;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Eight threads writing to one sheet at once, each to rows of its own, so the measurement shows
+ * the cost of the sheet's locking rather than of contention on single cells.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ConcurrentWritersBenchmark {
+
+    private static final int ROWS_PER_THREAD = 10_000;
+
+    private SpreadsheetService service;
+    private String sheetId;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Writer {
+        int firstRow;
+        int row;
+        int value;
+
+        @Setup(Level.Trial)
+        public void assignRows(ConcurrentWritersBenchmark benchmark) {
+            firstRow = benchmark.threads.getAndIncrement() * ROWS_PER_THREAD + 1;
+            row = firstRow;
+        }
+
+        int nextRow() {
+            row = row < firstRow + ROWS_PER_THREAD - 1 ? row + 1 : firstRow;
+            return row;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createSheet() {
+        SheetGenerator.quietLogging();
+        service = new SpreadsheetService();
+        Sheet sheet = SheetGenerator.plain(service, 8 * ROWS_PER_THREAD);
+        sheetId = sheet.getId();
+    }
+
+    @Benchmark
+    public Cell writePlainValues(Writer writer) {
+        return service.setCellValue(sheetId, "A", writer.nextRow(), ++writer.value);
+    }
+
+    @Benchmark
+    public Cell writeLookups(Writer writer) {
+        int row = writer.nextRow();
+        return service.setCellValue(sheetId, "B", row, "lookup(A," + row + ")");
+    }
+}
@@ -0,0 +1,37 @@
+package org.example.benchmark.jmh;
+
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a whole sheet with {@link SpreadsheetService#convertSheetToCsv}, from a thousand to ten million cells.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CsvExportBenchmark {
+
+    @Param({"1000", "100000", "10000000"})
+    public int cells;
+
+    private SpreadsheetService service;
+    private Sheet sheet;
+
+    @Setup(Level.Trial)
+    public void createSheet() {
+        SheetGenerator.quietLogging();
+        service = new SpreadsheetService();
+        sheet = SheetGenerator.mixed(service, cells);
+    }
+
+    @Benchmark
+    public String convertSheetToCsv() {
+        return service.convertSheetToCsv(sheet);
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.benchmark.jmh;
+
+import org.example.model.Cell;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes to a cell that a whole column of lookups references, so every write updates all of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({"100000"})
+    public int width;
+
+    private SpreadsheetService service;
+    private String sheetId;
+    private int value;
+
+    @Setup(Level.Trial)
+    public void createSheet() {
+        SheetGenerator.quietLogging();
+        service = new SpreadsheetService();
+        Sheet sheet = SheetGenerator.fanOut(service, width);
+        sheetId = sheet.getId();
+    }
+
+    @Benchmark
+    public Cell writeSource() {
+        return service.setCellValue(sheetId, "A", 1, ++value);
+    }
+}
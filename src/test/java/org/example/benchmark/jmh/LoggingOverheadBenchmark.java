@@ -0,0 +1,100 @@
+package org.example.benchmark.jmh;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.example.controller.AccessLogFilter;
+import org.example.controller.SpreadsheetController;
+import org.example.service.SpreadsheetService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A cell write through the access log filter, the controller and the service, under each logging setup:
+ * <ul>
+ * <li>off: application logging below WARN disabled, the floor the other two are compared to</li>
+ * <li>sync: every debug line written to the log file by the request thread, as the default log4j2.xml does</li>
+ * <li>async: the production setup of log4j2-prod.xml, with async loggers and one in 100 requests logged</li>
+ * </ul>
+ * The log files go to a temporary directory, deleted after the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingOverheadBenchmark {
+
+    private static final int ROWS = 10_000;
+
+    @Param({"off", "sync", "async"})
+    public String logging;
+
+    private Path logDirectory;
+    private SpreadsheetController controller;
+    private AccessLogFilter accessLog;
+    private String sheetId;
+    private int row;
+    private int value;
+
+    @Setup(Level.Trial)
+    public void configure() throws IOException, URISyntaxException {
+        logDirectory = Files.createTempDirectory("logging-benchmark");
+        System.setProperty("spreadsheet.log.dir", logDirectory.toString());
+
+        SheetGenerator.quietLogging();
+        SpreadsheetService service = new SpreadsheetService();
+        sheetId = SheetGenerator.plain(service, ROWS).getId();
+        controller = new SpreadsheetController(service);
+
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        switch (logging) {
+            case "off" -> accessLog = new AccessLogFilter(1);
+            case "sync" -> {
+                context.setConfigLocation(getClass().getResource("/log4j2-benchmark-sync.xml").toURI());
+                accessLog = new AccessLogFilter(1);
+            }
+            case "async" -> {
+                context.setConfigLocation(getClass().getResource("/log4j2-prod.xml").toURI());
+                accessLog = new AccessLogFilter(100);
+            }
+            default -> throw new IllegalArgumentException("Unknown logging setup: " + logging);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLogs() throws IOException {
+        // Stops the async loggers' background thread once it has written out the ring buffer
+        LogManager.shutdown();
+        try (Stream<Path> files = Files.walk(logDirectory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public void setCellValue(Blackhole blackhole) throws Exception {
+        int target = nextRow();
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT",
+                "/api/sheets/" + sheetId + "/cells/A/" + target);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        accessLog.doFilter(request, response, (req, res) ->
+                blackhole.consume(controller.setCellValue(sheetId, "A", target, Map.of("value", ++value))));
+    }
+
+    private int nextRow() {
+        row = row < ROWS ? row + 1 : 1;
+        return row;
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.benchmark.jmh;
+
+import org.example.model.Cell;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes to the head of a long chain of lookups, each of which propagates down the whole chain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupChainBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int length;
+
+    private SpreadsheetService service;
+    private String sheetId;
+    private int value;
+
+    @Setup(Level.Trial)
+    public void createSheet() {
+        SheetGenerator.quietLogging();
+        service = new SpreadsheetService();
+        Sheet sheet = SheetGenerator.chain(service, length);
+        sheetId = sheet.getId();
+    }
+
+    @Benchmark
+    public Cell writeChainHead() {
+        return service.setCellValue(sheetId, "A", 1, ++value);
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.benchmark.jmh;
+
+import org.example.model.Cell;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-cell writes through {@link SpreadsheetService#setCellValue}: a plain value, and a lookup
+ * into a filled column, cycling over the rows of the sheet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetCellValueBenchmark {
+
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private SpreadsheetService service;
+    private String sheetId;
+    private int row;
+    private int value;
+
+    @Setup(Level.Trial)
+    public void createSheet() {
+        SheetGenerator.quietLogging();
+        service = new SpreadsheetService();
+        Sheet sheet = SheetGenerator.plain(service, rows);
+        sheetId = sheet.getId();
+    }
+
+    @Benchmark
+    public Cell setPlainValue() {
+        return service.setCellValue(sheetId, "A", nextRow(), ++value);
+    }
+
+    @Benchmark
+    public Cell setLookup() {
+        int target = nextRow();
+        return service.setCellValue(sheetId, "B", target, "lookup(A," + target + ")");
+    }
+
+    private int nextRow() {
+        row = row < rows ? row + 1 : 1;
+        return row;
+    }
+}
@@ -0,0 +1,109 @@
+package org.example.benchmark.jmh;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.example.model.CellUpdate;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the sheets the JMH benchmarks run against, sized by their parameters.
+ * Cells are loaded through batch updates, so even the largest sheets build in seconds.
+ */
+public final class SheetGenerator {
+
+    private static final int BATCH_SIZE = 10_000;
+
+    private SheetGenerator() {
+    }
+
+    /**
+     * Keep the per-request logging out of the measurements
+     */
+    public static void quietLogging() {
+        Configurator.setLevel("org.example", Level.WARN);
+    }
+
+    /**
+     * A sheet of int columns A and B, with A filled in rows 1 to rows
+     */
+    public static Sheet plain(SpreadsheetService service, int rows) {
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        List<CellUpdate> batch = new ArrayList<>(BATCH_SIZE);
+        for (int row = 1; row <= rows; row++) {
+            batch.add(new CellUpdate("A", row, row));
+            batch = flushIfFull(service, sheet, batch);
+        }
+        flush(service, sheet, batch);
+        return sheet;
+    }
+
+    /**
+     * A sheet of int, double, string and boolean columns with about the given number of cells,
+     * four per row
+     */
+    public static Sheet mixed(SpreadsheetService service, int cells) {
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "double"),
+                new Column("C", "string"), new Column("D", "boolean")));
+        List<CellUpdate> batch = new ArrayList<>(BATCH_SIZE);
+        int rows = Math.max(1, cells / 4);
+        for (int row = 1; row <= rows; row++) {
+            batch.add(new CellUpdate("A", row, row));
+            batch.add(new CellUpdate("B", row, row / 8.0));
+            batch.add(new CellUpdate("C", row, "customer " + row % 1_000));
+            batch.add(new CellUpdate("D", row, row % 2 == 0));
+            batch = flushIfFull(service, sheet, batch);
+        }
+        flush(service, sheet, batch);
+        return sheet;
+    }
+
+    /**
+     * A chain of lookups in int column A: A1 holds a value and every following row looks up the one above
+     */
+    public static Sheet chain(SpreadsheetService service, int length) {
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int")));
+        List<CellUpdate> batch = new ArrayList<>(BATCH_SIZE);
+        batch.add(new CellUpdate("A", 1, 0));
+        for (int row = 2; row <= length; row++) {
+            batch.add(new CellUpdate("A", row, "lookup(A," + (row - 1) + ")"));
+            batch = flushIfFull(service, sheet, batch);
+        }
+        flush(service, sheet, batch);
+        return sheet;
+    }
+
+    /**
+     * A wide fan-out: A1 holds a value and rows 1 to width of column B all look it up
+     */
+    public static Sheet fanOut(SpreadsheetService service, int width) {
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        List<CellUpdate> batch = new ArrayList<>(BATCH_SIZE);
+        batch.add(new CellUpdate("A", 1, 0));
+        for (int row = 1; row <= width; row++) {
+            batch.add(new CellUpdate("B", row, "lookup(A,1)"));
+            batch = flushIfFull(service, sheet, batch);
+        }
+        flush(service, sheet, batch);
+        return sheet;
+    }
+
+    private static List<CellUpdate> flushIfFull(SpreadsheetService service, Sheet sheet, List<CellUpdate> batch) {
+        if (batch.size() < BATCH_SIZE) {
+            return batch;
+        }
+        flush(service, sheet, batch);
+        return new ArrayList<>(BATCH_SIZE);
+    }
+
+    private static void flush(SpreadsheetService service, Sheet sheet, List<CellUpdate> batch) {
+        if (!batch.isEmpty()) {
+            service.setCellValues(sheet.getId(), batch);
+        }
+    }
+}
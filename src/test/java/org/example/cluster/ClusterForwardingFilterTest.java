@@ -0,0 +1,127 @@
+package org.example.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import org.example.service.SpreadsheetService;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the ClusterForwardingFilter: owners that cannot be reached or do not answer,
+ * and request bodies read up front.
+ */
+public class ClusterForwardingFilterTest {
+
+    private static final String SELF = "http://localhost:8081";
+    // Nothing listens on port 1, so connecting is refused right away
+    private static final String UNREACHABLE = "http://127.0.0.1:1";
+
+    private final ClusterMembership membership = mock(ClusterMembership.class);
+    private final SpreadsheetService service = mock(SpreadsheetService.class);
+
+    private ClusterForwardingFilter filter(long forwardTimeoutMillis) {
+        when(membership.getSelf()).thenReturn(SELF);
+        return new ClusterForwardingFilter(membership, service, new ObjectMapper(), forwardTimeoutMillis);
+    }
+
+    @Test
+    public void testUnreachableOwnerIsNotServedHere() throws Exception {
+        ClusterForwardingFilter filter = filter(5_000);
+        when(membership.getRing()).thenReturn(new HashRing(List.of(UNREACHABLE), 16));
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/api/sheets/s1/cells/A/1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, (req, res) -> fail("Served a sheet owned by another node"));
+
+        assertEquals(503, response.getStatus());
+        assertEquals("1", response.getHeader("Retry-After"));
+        assertTrue(response.getContentAsString().contains("cannot be reached"));
+    }
+
+    @Test
+    public void testUnreachablePreviousOwnerIsPassedOver() throws Exception {
+        ClusterForwardingFilter filter = filter(5_000);
+        when(membership.getRing()).thenReturn(new HashRing(List.of(SELF), 16));
+        when(membership.getPreviousRing()).thenReturn(new HashRing(List.of(UNREACHABLE), 16));
+        when(service.hasSheet("s1")).thenReturn(false);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/sheets/s1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        boolean[] served = new boolean[1];
+
+        // This node owns the sheet now, so it answers for it
+        filter.doFilter(request, response, (req, res) -> served[0] = true);
+
+        assertTrue(served[0]);
+    }
+
+    @Test
+    public void testSilentOwnerTimesOut() throws Exception {
+        ClusterForwardingFilter filter = filter(200);
+        // Connections complete in the backlog, but nothing ever answers them
+        try (ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            String owner = "http://127.0.0.1:" + silent.getLocalPort();
+            when(membership.getRing()).thenReturn(new HashRing(List.of(owner), 16));
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/sheets/s1");
+            MockHttpServletResponse response = new MockHttpServletResponse();
+
+            long start = System.nanoTime();
+            filter.doFilter(request, response, (req, res) -> fail("Served a sheet owned by another node"));
+
+            assertEquals(504, response.getStatus());
+            assertTrue(System.nanoTime() - start < 4_000_000_000L, "Did not time out");
+        }
+    }
+
+    @Test
+    public void testCachedBodySupportsReadListener() throws Exception {
+        ClusterForwardingFilter filter = filter(5_000);
+        when(membership.getRing()).thenReturn(new HashRing(List.of(SELF), 16));
+        String body = "{\"id\":\"s1\",\"columns\":[]}";
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/sheets");
+        request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        List<String> events = new ArrayList<>();
+
+        // The create is owned here, so the chain gets the body the filter already read
+        filter.doFilter(request, response, (req, res) -> {
+            ServletInputStream in = req.getInputStream();
+            in.setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() throws IOException {
+                    events.add("data");
+                    byte[] buffer = new byte[4];
+                    while (in.isReady() && !in.isFinished()) {
+                        read.write(buffer, 0, in.read(buffer));
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() {
+                    events.add("done");
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    fail(t);
+                }
+            });
+        });
+
+        assertEquals(List.of("data", "done"), events);
+        assertEquals(body, read.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the consistent hash ring: even spread, stable placement, and minimal movement
+ * when a node joins or leaves.
+ */
+public class HashRingTest {
+
+    private static final List<String> NODES = List.of(
+            "http://localhost:8081", "http://localhost:8082", "http://localhost:8083");
+
+    @Test
+    public void testSheetsSpreadEvenly() {
+        HashRing ring = new HashRing(NODES, 256);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30_000; i++) {
+            counts.merge(ring.ownerOf(UUID.randomUUID().toString()), 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(count > 8_500 && count < 11_500, "Uneven spread: " + counts);
+        }
+    }
+
+    @Test
+    public void testPlacementIgnoresNodeOrder() {
+        HashRing ring = new HashRing(NODES, 64);
+        HashRing reordered = new HashRing(List.of(NODES.get(2), NODES.get(0), NODES.get(1)), 64);
+        for (int i = 0; i < 1_000; i++) {
+            String sheetId = "sheet-" + i;
+            assertEquals(ring.ownerOf(sheetId), reordered.ownerOf(sheetId));
+        }
+        assertEquals(NODES, reordered.getNodes());
+    }
+
+    @Test
+    public void testJoiningNodeOnlyTakesSheets() {
+        HashRing before = new HashRing(NODES, 128);
+        String joining = "http://localhost:8084";
+        HashRing after = new HashRing(List.of(NODES.get(0), NODES.get(1), NODES.get(2), joining), 128);
+
+        int moved = 0;
+        int total = 20_000;
+        for (int i = 0; i < total; i++) {
+            String sheetId = UUID.randomUUID().toString();
+            String owner = after.ownerOf(sheetId);
+            if (!owner.equals(before.ownerOf(sheetId))) {
+                // Sheets only move to the new node, never between the existing ones
+                assertEquals(joining, owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > total / 6 && moved < total / 3, "Moved " + moved + " of " + total);
+    }
+
+    @Test
+    public void testLeavingNodeOnlyGivesUpItsSheets() {
+        HashRing before = new HashRing(NODES, 128);
+        HashRing after = new HashRing(List.of(NODES.get(0), NODES.get(2)), 128);
+        for (int i = 0; i < 10_000; i++) {
+            String sheetId = "sheet-" + i;
+            String owner = before.ownerOf(sheetId);
+            if (!owner.equals(NODES.get(1))) {
+                assertEquals(owner, after.ownerOf(sheetId));
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsEmptyRing() {
+        assertThrows(IllegalArgumentException.class, () -> new HashRing(List.of(), 16));
+    }
+}
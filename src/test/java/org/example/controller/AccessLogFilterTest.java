@@ -0,0 +1,87 @@
+package org.example.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the sampling of the AccessLogFilter.
+ */
+public class AccessLogFilterTest {
+
+    @Test
+    public void testSampleEveryOneLogsAllRequests() {
+        AccessLogFilter filter = new AccessLogFilter(1);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(filter.shouldLog(200));
+        }
+    }
+
+    @Test
+    public void testSampleEveryZeroLogsOnlyFailedRequests() {
+        AccessLogFilter filter = new AccessLogFilter(0);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(filter.shouldLog(200));
+        }
+        assertTrue(filter.shouldLog(400));
+        assertTrue(filter.shouldLog(500));
+    }
+
+    @Test
+    public void testSamplingLogsAFractionOfRequests() {
+        AccessLogFilter filter = new AccessLogFilter(100);
+        int logged = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.shouldLog(200)) {
+                logged++;
+            }
+        }
+        // About 1000 expected; the bounds are far outside any likely deviation
+        assertTrue(logged > 500 && logged < 1500, "Logged " + logged + " of 100000 requests");
+        assertTrue(filter.shouldLog(404));
+    }
+
+    @Test
+    public void testNegativeSampleEveryIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new AccessLogFilter(-1));
+    }
+
+    @Test
+    public void testRequestPassesThroughFilter() throws Exception {
+        AccessLogFilter filter = new AccessLogFilter(1);
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/api/sheets/s1/cells/A/1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        boolean[] called = new boolean[1];
+        filter.doFilter(request, response, (req, res) -> called[0] = true);
+        assertTrue(called[0]);
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    public void testFailedRequestIsLoggedAsServerError() {
+        List<Integer> logged = new ArrayList<>();
+        AccessLogFilter filter = new AccessLogFilter(0) {
+            @Override
+            void logRequest(HttpServletRequest request, int status, long micros) {
+                logged.add(status);
+            }
+        };
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/sheets/s1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // The handler fails before setting a status, so the response still says 200
+        IllegalStateException failure = new IllegalStateException("boom");
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                () -> filter.doFilter(request, response, (req, res) -> {
+                    throw failure;
+                }));
+        assertSame(failure, thrown);
+        assertEquals(List.of(500), logged);
+    }
+}
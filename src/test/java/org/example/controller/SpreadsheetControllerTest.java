@@ -1,9 +1,14 @@
 package org.example.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.model.BatchUpdateResult;
 import org.example.model.Cell;
 import org.example.model.Column;
+import org.example.model.ImportResult;
+import org.example.model.RowPage;
 import org.example.model.Sheet;
+import org.example.service.CellSubscription;
+import org.example.service.SheetExport;
 import org.example.service.SpreadsheetService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,10 +20,18 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -154,7 +167,7 @@ public class SpreadsheetControllerTest {
 
         // Mock service behavior
         when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
-        when(spreadsheetService.convertSheetToCsv(sheet)).thenReturn(csvContent);
+        mockCsvExport(sheet, csvContent);
 
         // Perform request and validate
         mockMvc.perform(get("/api/sheets/sheet-123"))
@@ -165,7 +178,8 @@ public class SpreadsheetControllerTest {
 
         // Verify service methods were called
         verify(spreadsheetService).getSheet("sheet-123");
-        verify(spreadsheetService).convertSheetToCsv(sheet);
+        verify(spreadsheetService).openExport(eq(sheet), eq(SheetExport.Format.CSV), eq(SheetExport.Encoding.IDENTITY),
+                eq(Integer.MIN_VALUE), eq(Integer.MAX_VALUE), isNull());
     }
 
     @Test
@@ -201,6 +215,97 @@ public class SpreadsheetControllerTest {
                 .andExpect(jsonPath("$.value", is("test value")));
     }
 
+    @Test
+    public void testGetCellValue() throws Exception {
+        // Mock service behavior
+        when(spreadsheetService.getCellValue("sheet-123", "B", 1)).thenReturn(new Cell("B", 1, 42));
+        when(spreadsheetService.getCellValue("sheet-123", "B", 2)).thenReturn(null);
+        when(spreadsheetService.getCellValue("sheet-123", "Z", 1))
+                .thenThrow(new IllegalArgumentException("Column not found: Z"));
+
+        // Perform requests and validate
+        mockMvc.perform(get("/api/sheets/sheet-123/cells/B/1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.column", is("B")))
+                .andExpect(jsonPath("$.row", is(1)))
+                .andExpect(jsonPath("$.value", is(42)));
+        mockMvc.perform(get("/api/sheets/sheet-123/cells/B/2"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.error").exists());
+        mockMvc.perform(get("/api/sheets/sheet-123/cells/Z/1"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error", is("Column not found: Z")));
+    }
+
+    @Test
+    public void testSubscribeToChanges() throws Exception {
+        // Mock service behavior
+        Sheet sheet = new Sheet("sheet-123", Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
+        when(spreadsheetService.getSheet("missing")).thenReturn(null);
+        when(spreadsheetService.resolveColumns(sheet, List.of("B"))).thenReturn(new int[] {1});
+        when(spreadsheetService.resolveColumns(sheet, List.of("Z")))
+                .thenThrow(new IllegalArgumentException("Column not found: Z"));
+        CellSubscription subscription = mock(CellSubscription.class);
+        when(spreadsheetService.subscribe(eq(sheet), any(int[].class), eq(1), eq(10), any()))
+                .thenReturn(subscription);
+
+        // Perform requests and validate
+        mockMvc.perform(get("/api/sheets/sheet-123/changes?columns=B&fromRow=1&toRow=10"))
+                .andExpect(request().asyncStarted())
+                .andExpect(content().string(containsString("event:subscribed")));
+        verify(spreadsheetService).subscribe(eq(sheet), aryEq(new int[] {1}), eq(1), eq(10), any());
+        mockMvc.perform(get("/api/sheets/missing/changes"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.error").exists());
+        mockMvc.perform(get("/api/sheets/sheet-123/changes?columns=Z"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error", is("Column not found: Z")));
+        mockMvc.perform(get("/api/sheets/sheet-123/changes?fromRow=5&toRow=1"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testSubscribedVersionReadAfterSubscribing() throws Exception {
+        // A write lands between the sheet being looked up and the subscription being in place
+        Sheet sheet = new Sheet("sheet-123", Arrays.asList(new Column("A", "int")));
+        when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
+        long versionBefore = sheet.getVersion();
+        CellSubscription subscription = mock(CellSubscription.class);
+        when(subscription.getSubscribedVersion()).thenReturn(versionBefore + 1);
+        when(spreadsheetService.subscribe(eq(sheet), isNull(), anyInt(), anyInt(), any())).thenAnswer(invocation -> {
+            sheet.nextVersion();
+            return subscription;
+        });
+
+        // The stream starts from the version read by the subscription, which already covers that write
+        mockMvc.perform(get("/api/sheets/sheet-123/changes"))
+                .andExpect(request().asyncStarted())
+                .andExpect(content().string(containsString("{\"version\":" + (versionBefore + 1) + "}")));
+    }
+
+    @Test
+    public void testGetCellValues() throws Exception {
+        // Mock service behavior
+        when(spreadsheetService.getCellValues(eq("sheet-123"), anyList())).thenReturn(List.of(
+                new Cell("A", 1, "x"), new Cell("B", 9, null)));
+
+        // Perform request and validate
+        mockMvc.perform(post("/api/sheets/sheet-123/cells/read")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"column\":\"A\",\"row\":1},{\"column\":\"B\",\"row\":9}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].value", is("x")))
+                .andExpect(jsonPath("$[1].row", is(9)))
+                .andExpect(jsonPath("$[1].value").doesNotExist());
+
+        // Verify the addresses were passed through in order
+        verify(spreadsheetService).getCellValues(eq("sheet-123"), argThat(addresses ->
+                addresses.size() == 2
+                        && addresses.get(0).getColumn().equals("A") && addresses.get(0).getRow() == 1
+                        && addresses.get(1).getColumn().equals("B") && addresses.get(1).getRow() == 9));
+    }
+
     @Test
     public void testSetCellValueMissingValue() throws Exception {
         // Prepare request with missing value
@@ -264,7 +369,7 @@ public class SpreadsheetControllerTest {
 
         // Mock service behavior
         when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
-        when(spreadsheetService.convertSheetToCsv(sheet)).thenReturn(csvContent);
+        mockCsvExport(sheet, csvContent);
 
         // Perform request with Accept header for CSV
         mockMvc.perform(get("/api/sheets/sheet-123")
@@ -276,6 +381,337 @@ public class SpreadsheetControllerTest {
 
         // Verify service methods were called
         verify(spreadsheetService).getSheet("sheet-123");
-        verify(spreadsheetService).convertSheetToCsv(sheet);
+        verify(spreadsheetService).openExport(eq(sheet), eq(SheetExport.Format.CSV), eq(SheetExport.Encoding.IDENTITY),
+                anyInt(), anyInt(), isNull());
+    }
+
+    @Test
+    public void testGetSheetAsColumnar() throws Exception {
+        // Prepare test data
+        Sheet sheet = new Sheet("sheet-123", Arrays.asList(
+                new Column("A", "string"),
+                new Column("B", "int")
+        ));
+        byte[] columnar = {1, 2, 3};
+
+        // Mock service behavior
+        when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
+        mockExport(sheet, SheetExport.Format.COLUMNAR, columnar, "\"1-1-columnar\"");
+
+        // The columnar format is picked when preferred over CSV
+        mockMvc.perform(get("/api/sheets/sheet-123")
+                .header("Accept", "text/csv;q=0.5, " + SpreadsheetController.COLUMNAR_MEDIA_TYPE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(SpreadsheetController.COLUMNAR_MEDIA_TYPE))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"sheet-sheet-123.bin\""))
+                .andExpect(content().bytes(columnar));
+
+        // CSV stays the default for wildcards
+        mockCsvExport(sheet, "Row,A,B\n");
+        mockMvc.perform(get("/api/sheets/sheet-123")
+                .header("Accept", "*/*"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("text/csv"));
+
+        verify(spreadsheetService).openExport(eq(sheet), eq(SheetExport.Format.COLUMNAR), eq(SheetExport.Encoding.IDENTITY),
+                eq(Integer.MIN_VALUE), eq(Integer.MAX_VALUE), isNull());
+        verify(spreadsheetService).openExport(eq(sheet), eq(SheetExport.Format.CSV), eq(SheetExport.Encoding.IDENTITY),
+                anyInt(), anyInt(), isNull());
+    }
+
+    @Test
+    public void testGetSheetWithRowRangeAndColumns() throws Exception {
+        // Prepare test data
+        Sheet sheet = new Sheet("sheet-123", Arrays.asList(
+                new Column("A", "string"),
+                new Column("B", "int")
+        ));
+        int[] ordinals = {1};
+        String csvContent = "Row,B\n5,42\n";
+
+        // Mock service behavior
+        when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
+        when(spreadsheetService.resolveColumns(sheet, List.of("B"))).thenReturn(ordinals);
+        SheetExport export = mockExportBytes(csvContent.getBytes(StandardCharsets.UTF_8), "\"1-1-csv\"");
+        when(spreadsheetService.openExport(eq(sheet), eq(SheetExport.Format.CSV), eq(SheetExport.Encoding.IDENTITY),
+                eq(5), eq(10), same(ordinals)))
+                .thenReturn(export);
+
+        // Perform request and validate
+        mockMvc.perform(get("/api/sheets/sheet-123")
+                .param("fromRow", "5")
+                .param("toRow", "10")
+                .param("columns", "B"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(csvContent));
+    }
+
+    @Test
+    public void testGetSheetWithInvalidExportParameters() throws Exception {
+        // Prepare test data
+        Sheet sheet = new Sheet("sheet-123", Arrays.asList(
+                new Column("A", "string")
+        ));
+
+        // Mock service behavior
+        when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
+        when(spreadsheetService.resolveColumns(sheet, List.of("Z")))
+                .thenThrow(new IllegalArgumentException("Column not found: Z"));
+
+        // Inverted row range
+        mockMvc.perform(get("/api/sheets/sheet-123")
+                .param("fromRow", "10")
+                .param("toRow", "5"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").exists());
+
+        // Unknown column in the projection
+        mockMvc.perform(get("/api/sheets/sheet-123")
+                .param("columns", "Z"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error", is("Column not found: Z")));
+
+        verify(spreadsheetService, never()).openExport(any(), any(), any(), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void testGetRows() throws Exception {
+        // Prepare test data
+        Sheet sheet = new Sheet("sheet-123", Arrays.asList(
+                new Column("A", "string"),
+                new Column("B", "int")
+        ));
+        int[] ordinals = {1};
+        RowPage page = new RowPage(List.of("B"), List.of(new RowPage.Row(7, Arrays.asList((Object) 42))), "next");
+
+        // Mock service behavior
+        when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
+        when(spreadsheetService.resolveColumns(sheet, List.of("B"))).thenReturn(ordinals);
+        when(spreadsheetService.readRows(eq(sheet), eq(5), eq(Integer.MAX_VALUE), same(ordinals), eq(1), eq("abc")))
+                .thenReturn(page);
+
+        // Perform request and validate
+        mockMvc.perform(get("/api/sheets/sheet-123/rows")
+                .param("fromRow", "5")
+                .param("columns", "B")
+                .param("limit", "1")
+                .param("cursor", "abc"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.columns[0]", is("B")))
+                .andExpect(jsonPath("$.rows[0].row", is(7)))
+                .andExpect(jsonPath("$.rows[0].values[0]", is(42)))
+                .andExpect(jsonPath("$.nextCursor", is("next")));
+
+        // An invalid page size or cursor is the client's error
+        when(spreadsheetService.readRows(eq(sheet), anyInt(), anyInt(), isNull(), eq(100), eq("bad")))
+                .thenThrow(new IllegalArgumentException("Invalid cursor: bad"));
+        mockMvc.perform(get("/api/sheets/sheet-123/rows")
+                .param("cursor", "bad"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error", is("Invalid cursor: bad")));
+    }
+
+    @Test
+    public void testSetCellValuesBatch() throws Exception {
+        // Prepare test data
+        String requestBody = "[{\"column\":\"A\",\"row\":1,\"value\":42},"
+                + "{\"column\":\"B\",\"row\":1,\"value\":\"lookup(A,1)\"}]";
+
+        // Mock service behavior
+        when(spreadsheetService.setCellValues(eq("sheet-123"), anyList())).thenReturn(new BatchUpdateResult(2, 1));
+
+        // Perform request and validate
+        mockMvc.perform(post("/api/sheets/sheet-123/cells")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(requestBody))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.updatedCells", is(2)))
+                .andExpect(jsonPath("$.recalculatedCells", is(1)));
+
+        // Verify the updates were passed through in order
+        verify(spreadsheetService).setCellValues(eq("sheet-123"), argThat(updates ->
+                updates.size() == 2
+                        && updates.get(0).getColumn().equals("A") && updates.get(0).getValue().equals(42)
+                        && updates.get(1).getValue().equals("lookup(A,1)")));
+    }
+
+    @Test
+    public void testSetCellValuesBatchRejected() throws Exception {
+        // Mock service behavior
+        when(spreadsheetService.setCellValues(eq("sheet-123"), anyList()))
+                .thenThrow(new IllegalArgumentException("Invalid update at index 0: Column not found: Z"));
+
+        // Perform request and validate
+        mockMvc.perform(post("/api/sheets/sheet-123/cells")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"column\":\"Z\",\"row\":1,\"value\":1}]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error", is("Invalid update at index 0: Column not found: Z")));
+    }
+
+    @Test
+    public void testImportSheet() throws Exception {
+        // Mock service behavior
+        when(spreadsheetService.importCsvAsNewSheet(eq("sheet-123"), any()))
+                .thenReturn(new ImportResult("sheet-123", 2, 4, 0));
+
+        // Perform request and validate
+        mockMvc.perform(post("/api/sheets/import?id=sheet-123")
+                .contentType("text/csv")
+                .content("Row,A:string,B:int\n1,x,1\n2,y,2\n"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.sheetId", is("sheet-123")))
+                .andExpect(jsonPath("$.importedRows", is(2)))
+                .andExpect(jsonPath("$.importedCells", is(4)));
+    }
+
+    @Test
+    public void testImportRowsInvalid() throws Exception {
+        // Mock service behavior
+        when(spreadsheetService.importCsv(eq("sheet-123"), any()))
+                .thenThrow(new IllegalArgumentException("Invalid value at line 2: Expected integer value for column: B"));
+
+        // Perform request and validate
+        mockMvc.perform(post("/api/sheets/sheet-123/import")
+                .contentType("text/csv")
+                .content("Row,B\n1,x\n"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error", is("Invalid value at line 2: Expected integer value for column: B")));
+    }
+
+    @Test
+    public void testGetSheetNotModified() throws Exception {
+        // Prepare test data
+        Sheet sheet = new Sheet("sheet-123", Arrays.asList(
+                new Column("A", "string")
+        ));
+        String etag = "\"5f0c2e9a-7-csv\"";
+
+        // Mock service behavior
+        when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
+        when(spreadsheetService.currentExportTag(sheet, SheetExport.Format.CSV, SheetExport.Encoding.IDENTITY))
+                .thenReturn(etag);
+
+        // The client still holds the current version, no export is opened
+        mockMvc.perform(get("/api/sheets/sheet-123")
+                .header("If-None-Match", "\"5f0c2e9a-6-csv\", W/" + etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(header().string("Cache-Control", "no-cache"))
+                .andExpect(content().string(""));
+
+        verify(spreadsheetService, never()).openExport(any(), any(), any(), anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void testGetSheetNotModifiedOnceSettled() throws Exception {
+        // Prepare test data
+        Sheet sheet = new Sheet("sheet-123", Arrays.asList(
+                new Column("A", "string")
+        ));
+        String etag = "\"5f0c2e9a-7-csv\"";
+        SheetExport export = mock(SheetExport.class);
+        when(export.getETag()).thenReturn(etag);
+
+        // Mock service behavior
+        when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
+        when(spreadsheetService.openExport(eq(sheet), eq(SheetExport.Format.CSV), eq(SheetExport.Encoding.IDENTITY),
+                anyInt(), anyInt(), isNull()))
+                .thenReturn(export);
+
+        // Stale lookups leave the tag unknown until the export settles them, and it still matches
+        mockMvc.perform(get("/api/sheets/sheet-123")
+                .header("If-None-Match", "\"5f0c2e9a-6-csv\", W/" + etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(content().string(""));
+
+        verify(export, never()).writeTo(any());
+        verify(export).close();
+    }
+
+    @Test
+    public void testGetSheetModifiedSinceETag() throws Exception {
+        // Prepare test data
+        Sheet sheet = new Sheet("sheet-123", Arrays.asList(
+                new Column("A", "string")
+        ));
+        String csvContent = "Row,A\n1,x\n";
+
+        // Mock service behavior
+        when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
+        mockCsvExport(sheet, csvContent);
+
+        // An older version is sent back in full, tagged with the current one
+        mockMvc.perform(get("/api/sheets/sheet-123")
+                .header("If-None-Match", "\"1-0-csv\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-1-csv\""))
+                .andExpect(header().string("Cache-Control", "no-cache"))
+                .andExpect(content().string(csvContent));
+    }
+
+    @Test
+    public void testMatchesETag() {
+        assertTrue(SpreadsheetController.matchesETag("\"a-1-csv\"", "\"a-1-csv\""));
+        assertTrue(SpreadsheetController.matchesETag("\"a-0-csv\" , W/\"a-1-csv\"", "\"a-1-csv\""));
+        assertTrue(SpreadsheetController.matchesETag("*", "\"a-1-csv\""));
+        assertFalse(SpreadsheetController.matchesETag(null, "\"a-1-csv\""));
+        assertFalse(SpreadsheetController.matchesETag("\"a-1-columnar\"", "\"a-1-csv\""));
+    }
+
+    @Test
+    public void testGetSheetCompressed() throws Exception {
+        // Prepare test data
+        Sheet sheet = new Sheet("sheet-123", Arrays.asList(
+                new Column("A", "string")
+        ));
+        byte[] compressed = {31, -117, 8, 0};
+        SheetExport export = mockExportBytes(compressed, "\"1-1-csv-gzip\"");
+
+        // Mock service behavior
+        when(spreadsheetService.getSheet("sheet-123")).thenReturn(sheet);
+        when(spreadsheetService.openExport(eq(sheet), eq(SheetExport.Format.CSV), eq(SheetExport.Encoding.GZIP),
+                anyInt(), anyInt(), isNull())).thenReturn(export);
+
+        // Perform request and validate
+        mockMvc.perform(get("/api/sheets/sheet-123")
+                .header("Accept-Encoding", "deflate;q=0.5, gzip"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("text/csv"))
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("Vary", "Accept, Accept-Encoding"))
+                .andExpect(content().bytes(compressed));
+    }
+
+    @Test
+    public void testPreferredEncoding() {
+        assertEquals(SheetExport.Encoding.IDENTITY, SpreadsheetController.preferredEncoding(null));
+        assertEquals(SheetExport.Encoding.IDENTITY, SpreadsheetController.preferredEncoding("identity, br"));
+        assertEquals(SheetExport.Encoding.GZIP, SpreadsheetController.preferredEncoding("gzip, deflate, br"));
+        assertEquals(SheetExport.Encoding.DEFLATE, SpreadsheetController.preferredEncoding("gzip;q=0.2, deflate"));
+        assertEquals(SheetExport.Encoding.DEFLATE, SpreadsheetController.preferredEncoding("gzip;q=0, *"));
+        assertEquals(SheetExport.Encoding.GZIP, SpreadsheetController.preferredEncoding("*;q=0.1"));
+        assertEquals(SheetExport.Encoding.IDENTITY, SpreadsheetController.preferredEncoding("*;q=0"));
+    }
+
+    private void mockCsvExport(Sheet sheet, String csvContent) throws Exception {
+        mockExport(sheet, SheetExport.Format.CSV, csvContent.getBytes(StandardCharsets.UTF_8), "\"1-1-csv\"");
+    }
+
+    private void mockExport(Sheet sheet, SheetExport.Format format, byte[] content, String etag) throws Exception {
+        SheetExport export = mockExportBytes(content, etag);
+        when(spreadsheetService.openExport(eq(sheet), eq(format), eq(SheetExport.Encoding.IDENTITY),
+                anyInt(), anyInt(), isNull())).thenReturn(export);
+    }
+
+    private static SheetExport mockExportBytes(byte[] content, String etag) throws Exception {
+        SheetExport export = mock(SheetExport.class);
+        when(export.getETag()).thenReturn(etag);
+        doAnswer(invocation -> {
+            invocation.getArgument(0, OutputStream.class).write(content);
+            return null;
+        }).when(export).writeTo(any());
+        return export;
     }
 }
@@ -0,0 +1,220 @@
+package org.example.integration;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.Main;
+import org.example.cluster.ClusterMembership;
+import org.example.model.Column;
+import org.example.model.Sheet;
+import org.example.service.SpreadsheetService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Several cluster nodes on localhost, each a server of its own, talking to each other over HTTP.
+ */
+public class ClusterIntegrationTest {
+
+    private static final long TIMEOUT_MILLIS = 15_000;
+
+    private final TestRestTemplate restTemplate = new TestRestTemplate();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<Integer, ConfigurableApplicationContext> nodes = new LinkedHashMap<>();
+
+    @AfterEach
+    public void tearDown() {
+        for (ConfigurableApplicationContext node : nodes.values()) {
+            node.close();
+        }
+    }
+
+    @Test
+    public void testAnyNodeServesEverySheet() throws Exception {
+        int[] ports = freePorts(3);
+        for (int port : ports) {
+            startNode(port, ports);
+        }
+        awaitMembers(3);
+
+        for (int i = 0; i < 30; i++) {
+            String sheetId = "sheet-" + i;
+            assertEquals(HttpStatus.CREATED, createSheet(ports[i % 3], sheetId).getStatusCode());
+            assertEquals(HttpStatus.OK, setCell(ports[(i + 1) % 3], sheetId, "A", 1, i).getStatusCode());
+            assertEquals(HttpStatus.OK, setCell(ports[(i + 2) % 3], sheetId, "B", 1, "lookup(A,1)").getStatusCode());
+        }
+        for (int i = 0; i < 30; i++) {
+            assertTrue(getSheet(ports[i % 3], "sheet-" + i).contains("\n1," + i + "," + i), "sheet-" + i);
+        }
+        // A sheet ID is taken cluster-wide, whichever node is asked
+        assertEquals(HttpStatus.CONFLICT, createSheet(ports[1], "sheet-0").getStatusCode());
+
+        // A generated ID belongs to the node that created the sheet
+        ResponseEntity<String> created = createSheet(ports[2], null);
+        String generatedId = objectMapper.readValue(created.getBody(), new TypeReference<Map<String, String>>() {}).get("id");
+        assertTrue(service(ports[2]).hasSheet(generatedId));
+        assertEquals(HttpStatus.OK, setCell(ports[0], generatedId, "A", 5, 42).getStatusCode());
+
+        assertEveryPlacedOnItsOwner(31);
+    }
+
+    @Test
+    public void testSheetsFollowNodesJoiningAndLeaving() throws Exception {
+        int[] ports = freePorts(3);
+        startNode(ports[0], ports);
+        startNode(ports[1], ports);
+        awaitMembers(2);
+        for (int i = 0; i < 40; i++) {
+            createSheet(ports[i % 2], "sheet-" + i);
+            setCell(ports[0], "sheet-" + i, "A", 1, i);
+            setCell(ports[1], "sheet-" + i, "B", 1, "lookup(A,1)");
+        }
+
+        // The new node takes over its share
+        startNode(ports[2], ports);
+        awaitMembers(3);
+        awaitTrue(() -> service(ports[2]).getSheetIds().size() > 0, "Sheets moved to the joining node");
+        assertEveryPlacedOnItsOwner(40);
+        for (int i = 0; i < 40; i++) {
+            assertTrue(getSheet(ports[i % 3], "sheet-" + i).contains("\n1," + i + "," + i), "sheet-" + i);
+        }
+
+        // A node shutting down hands its sheets over first
+        nodes.remove(ports[1]).close();
+        awaitMembers(2);
+        assertEveryPlacedOnItsOwner(40);
+        for (int i = 0; i < 40; i++) {
+            int port = i % 2 == 0 ? ports[0] : ports[2];
+            assertEquals(HttpStatus.OK, setCell(port, "sheet-" + i, "A", 1, i + 100).getStatusCode());
+            assertTrue(getSheet(port, "sheet-" + i).contains("\n1," + (i + 100) + "," + (i + 100)), "sheet-" + i);
+        }
+    }
+
+    private void startNode(int port, int[] seedPorts) {
+        StringBuilder seeds = new StringBuilder();
+        for (int seedPort : seedPorts) {
+            seeds.append(seeds.length() > 0 ? "," : "").append("http://localhost:").append(seedPort);
+        }
+        nodes.put(port, SpringApplication.run(Main.class,
+                "--server.port=" + port,
+                "--spreadsheet.cluster.enabled=true",
+                "--spreadsheet.cluster.seeds=" + seeds,
+                "--spreadsheet.cluster.heartbeat-ms=100",
+                "--spreadsheet.cluster.failure-timeout-ms=2000",
+                "--logging.level.org.example=WARN"));
+    }
+
+    /**
+     * Wait until every running node sees the given number of members
+     */
+    private void awaitMembers(int count) {
+        awaitTrue(() -> {
+            for (ConfigurableApplicationContext node : nodes.values()) {
+                if (node.getBean(ClusterMembership.class).getRing().getNodes().size() != count) {
+                    return false;
+                }
+            }
+            return true;
+        }, count + " members");
+    }
+
+    /**
+     * Wait until each sheet is held by its owner alone
+     */
+    private void assertEveryPlacedOnItsOwner(int sheetCount) {
+        awaitTrue(() -> {
+            int placed = 0;
+            for (ConfigurableApplicationContext node : nodes.values()) {
+                ClusterMembership membership = node.getBean(ClusterMembership.class);
+                for (String sheetId : node.getBean(SpreadsheetService.class).getSheetIds()) {
+                    if (!membership.isOwner(sheetId)) {
+                        return false;
+                    }
+                    placed++;
+                }
+            }
+            return placed == sheetCount;
+        }, sheetCount + " sheets on their owners");
+    }
+
+    private void awaitTrue(BooleanSupplier condition, String description) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for: " + description);
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted waiting for: " + description);
+            }
+        }
+    }
+
+    private SpreadsheetService service(int port) {
+        return nodes.get(port).getBean(SpreadsheetService.class);
+    }
+
+    private ResponseEntity<String> createSheet(int port, String sheetId) throws IOException {
+        Sheet sheetRequest = new Sheet();
+        sheetRequest.setId(sheetId);
+        sheetRequest.setColumns(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        return restTemplate.exchange(url(port, "/api/sheets"), HttpMethod.POST,
+                new HttpEntity<>(objectMapper.writeValueAsString(sheetRequest), jsonHeaders()), String.class);
+    }
+
+    private ResponseEntity<String> setCell(int port, String sheetId, String column, int row, Object value)
+            throws IOException {
+        String body = objectMapper.writeValueAsString(Map.of("value", value));
+        return restTemplate.exchange(url(port, "/api/sheets/" + sheetId + "/cells/" + column + "/" + row),
+                HttpMethod.PUT, new HttpEntity<>(body, jsonHeaders()), String.class);
+    }
+
+    private String getSheet(int port, String sheetId) {
+        ResponseEntity<String> response = restTemplate.getForEntity(url(port, "/api/sheets/" + sheetId), String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode(), "GET " + sheetId + " on " + port);
+        return response.getBody();
+    }
+
+    private static String url(int port, String path) {
+        return "http://localhost:" + port + path;
+    }
+
+    private static HttpHeaders jsonHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return headers;
+    }
+
+    private static int[] freePorts(int count) throws IOException {
+        List<ServerSocket> sockets = new ArrayList<>();
+        int[] ports = new int[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                ServerSocket socket = new ServerSocket(0);
+                sockets.add(socket);
+                ports[i] = socket.getLocalPort();
+            }
+        } finally {
+            for (ServerSocket socket : sockets) {
+                socket.close();
+            }
+        }
+        return ports;
+    }
+}
@@ -18,6 +18,7 @@ import org.springframework.http.*;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -313,4 +314,45 @@ public class SpreadsheetServerIntegrationTest {
         // Should return bad request due to type mismatch
         assertEquals(HttpStatus.BAD_REQUEST, invalidResponse.getStatusCode());
     }
+
+    @Test
+    public void testPrometheusMetrics() throws JsonProcessingException {
+        // Create a sheet and write a lookup, so every engine stage has run
+        Sheet sheetRequest = new Sheet();
+        sheetRequest.setColumns(Arrays.asList(
+                new Column("A", "int"),
+                new Column("B", "int")
+        ));
+        HttpEntity<String> request = new HttpEntity<>(objectMapper.writeValueAsString(sheetRequest), headers);
+        ResponseEntity<String> response = restTemplate.exchange(BASE_URL + "/sheets", HttpMethod.POST, request, String.class);
+        Map<String, String> responseMap = objectMapper.readValue(response.getBody(), new TypeReference<>() {});
+        String sheetId = responseMap.get("id");
+
+        Map<String, Object> lookup = new HashMap<>();
+        lookup.put("value", "lookup(A,1)");
+        restTemplate.exchange(BASE_URL + "/sheets/" + sheetId + "/cells/B/1", HttpMethod.PUT,
+                new HttpEntity<>(objectMapper.writeValueAsString(lookup), headers), String.class);
+        Map<String, Object> value = new HashMap<>();
+        value.put("value", 7);
+        restTemplate.exchange(BASE_URL + "/sheets/" + sheetId + "/cells/A/1", HttpMethod.PUT,
+                new HttpEntity<>(objectMapper.writeValueAsString(value), headers), String.class);
+
+        // Scrape the metrics
+        ResponseEntity<String> metrics = restTemplate.getForEntity(
+                "http://localhost:" + SERVER_PORT + "/actuator/prometheus", String.class);
+        assertEquals(HttpStatus.OK, metrics.getStatusCode());
+        String body = metrics.getBody();
+        assertNotNull(body);
+        assertTrue(body.contains("http_server_requests_seconds_bucket{"));
+        assertTrue(body.contains("uri=\"/api/sheets/{sheetId}/cells/{columnName}/{rowIndex}\""));
+        assertTrue(body.contains("spreadsheet_write_stage_seconds_bucket{"));
+        assertTrue(body.contains("stage=\"cycle_check\""));
+        assertTrue(body.contains("spreadsheet_propagation_fanout_cells_count"));
+        assertTrue(body.contains("spreadsheet_propagation_depth_cells_max"));
+        assertTrue(body.contains("spreadsheet_sheets "));
+        // The text format may end the label list with a comma
+        String sheetLabel = "\\{sheet=\"" + Pattern.quote(sheetId) + "\",?\\}";
+        assertTrue(Pattern.compile("(?m)^spreadsheet_sheet_cells" + sheetLabel + " 2\\.0$").matcher(body).find());
+        assertTrue(Pattern.compile("(?m)^spreadsheet_sheet_bytes" + sheetLabel + " \\d+\\.\\d+").matcher(body).find());
+    }
 }
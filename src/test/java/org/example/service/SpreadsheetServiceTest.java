@@ -1,13 +1,47 @@
 package org.example.service;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.model.BatchUpdateResult;
 import org.example.model.Cell;
+import org.example.model.CellUpdate;
 import org.example.model.Column;
+import org.example.model.ImportResult;
+import org.example.model.RowPage;
 import org.example.model.Sheet;
+import org.example.model.SheetSnapshot;
+import org.example.storage.ColumnarWriter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -127,6 +161,43 @@ public class SpreadsheetServiceTest {
         });
     }
 
+    @Test
+    public void testSetCellValueNormalizesToColumnType() {
+        // Create sheet
+        List<Column> columns = Arrays.asList(
+                new Column("A", "int"),
+                new Column("B", "double"),
+                new Column("C", "String")
+        );
+        Sheet sheet = spreadsheetService.createSheet(columns);
+        String sheetId = sheet.getId();
+
+        // Values are converted once, on write
+        assertEquals(42, spreadsheetService.setCellValue(sheetId, "A", 1, "42").getValue());
+        assertEquals(7, spreadsheetService.setCellValue(sheetId, "A", 2, 7.0).getValue());
+        assertEquals(3.0, spreadsheetService.setCellValue(sheetId, "B", 1, 3).getValue());
+        assertEquals(2.5, spreadsheetService.setCellValue(sheetId, "B", 2, "2.5").getValue());
+        assertEquals("5", spreadsheetService.setCellValue(sheetId, "C", 1, 5).getValue());
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.setCellValue(sheetId, "A", 3, 1.5));
+
+        // Stored values are the canonical ones
+        assertEquals(42, sheet.getCell("A", 1).getValue());
+        assertEquals(3.0, sheet.getCell("B", 1).getValue());
+        assertEquals("5", sheet.getCell("C", 1).getValue());
+    }
+
+    @Test
+    public void testCreateSheetRejectsUnsupportedColumnType() {
+        List<Column> columns = Arrays.asList(
+                new Column("A", "int"),
+                new Column("B", "date")
+        );
+
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> spreadsheetService.createSheet(columns));
+        assertEquals("Unsupported column type: date", exception.getMessage());
+    }
+
     @Test
     public void testLookupFunction() {
         // Create sheet
@@ -154,6 +225,60 @@ public class SpreadsheetServiceTest {
         assertEquals("updated value", updatedSheet.getCell("B", 1).getValue());
     }
 
+    @Test
+    public void testLookupChainPropagation() {
+        // Create sheet
+        List<Column> columns = Arrays.asList(
+                new Column("A", "string"),
+                new Column("B", "string"),
+                new Column("C", "string")
+        );
+        Sheet sheet = spreadsheetService.createSheet(columns);
+        String sheetId = sheet.getId();
+
+        // Set up A1 <- B1 <- C1 chain
+        spreadsheetService.setCellValue(sheetId, "A", 1, "first");
+        spreadsheetService.setCellValue(sheetId, "B", 1, "lookup(A,1)");
+        spreadsheetService.setCellValue(sheetId, "C", 1, "lookup(B,1)");
+
+        // Update the head of the chain
+        spreadsheetService.setCellValue(sheetId, "A", 1, "second");
+
+        // Verify the change reached every cell in the chain
+        assertEquals("second", sheet.getCell("B", 1).getValue());
+        assertEquals("second", sheet.getCell("C", 1).getValue());
+    }
+
+    @Test
+    public void testOverwrittenLookupStopsTracking() {
+        // Create sheet
+        List<Column> columns = Arrays.asList(
+                new Column("A", "string"),
+                new Column("B", "string")
+        );
+        Sheet sheet = spreadsheetService.createSheet(columns);
+        String sheetId = sheet.getId();
+
+        // B1 references A1, B2 references A1 and is then retargeted to A2
+        spreadsheetService.setCellValue(sheetId, "A", 1, "one");
+        spreadsheetService.setCellValue(sheetId, "A", 2, "two");
+        spreadsheetService.setCellValue(sheetId, "B", 1, "lookup(A,1)");
+        spreadsheetService.setCellValue(sheetId, "B", 2, "lookup(A,1)");
+        spreadsheetService.setCellValue(sheetId, "B", 2, "lookup(A,2)");
+
+        // Replace B1 with a plain value
+        spreadsheetService.setCellValue(sheetId, "B", 1, "plain");
+
+        // Only the current reference of B2 is left in the index
+        assertTrue(sheet.getDependentCells("A", 1).isEmpty());
+        assertEquals(1, sheet.getDependentCells("A", 2).size());
+
+        // Updates to A1 no longer reach either cell
+        spreadsheetService.setCellValue(sheetId, "A", 1, "changed");
+        assertEquals("plain", sheet.getCell("B", 1).getValue());
+        assertEquals("two", sheet.getCell("B", 2).getValue());
+    }
+
     @Test
     public void testLookupTypeMismatch() {
         // Create sheet
@@ -209,6 +334,268 @@ public class SpreadsheetServiceTest {
         });
     }
 
+    @Test
+    public void testLongLookupChains() {
+        int length = 50_000;
+        Sheet sheet = spreadsheetService.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        String sheetId = sheet.getId();
+
+        // A chain built front to back in one batch, and one built back to front cell by cell
+        spreadsheetService.setCellValue(sheetId, "A", 1, 1);
+        List<CellUpdate> chain = new ArrayList<>();
+        for (int row = 2; row <= length; row++) {
+            chain.add(new CellUpdate("A", row, "lookup(A," + (row - 1) + ")"));
+        }
+        spreadsheetService.setCellValues(sheetId, chain);
+        for (int row = 200; row >= 2; row--) {
+            spreadsheetService.setCellValue(sheetId, "B", row, "lookup(B," + (row - 1) + ")");
+        }
+        spreadsheetService.setCellValue(sheetId, "B", 1, 7);
+        assertEquals(7, sheet.getCell("B", 200).getValue());
+
+        // Propagation and cycle checks walk the whole chain without recursing
+        spreadsheetService.setCellValue(sheetId, "A", 1, 2);
+        assertEquals(2, sheet.getCell("A", length).getValue());
+        assertThrows(IllegalArgumentException.class, () ->
+                spreadsheetService.setCellValue(sheetId, "A", 1, "lookup(A," + length + ")"));
+
+        // Joining the chains moves the whole B chain after the end of the A chain
+        spreadsheetService.setCellValue(sheetId, "B", 1, "lookup(A," + length + ")");
+        assertEquals(2, sheet.getCell("B", 200).getValue());
+        assertThrows(IllegalArgumentException.class, () ->
+                spreadsheetService.setCellValue(sheetId, "A", 1, "lookup(B,200)"));
+    }
+
+    @Test
+    public void testRandomLookupsMatchReferenceGraph() {
+        int rows = 40;
+        Sheet sheet = spreadsheetService.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        String sheetId = sheet.getId();
+        Random random = new Random(11);
+
+        // Cell "A3" -> the cell its lookup references, mirrored from every accepted write
+        Map<String, String> references = new HashMap<>();
+        Map<String, Integer> plainValues = new HashMap<>();
+        for (int i = 0; i < 3_000; i++) {
+            String column = random.nextBoolean() ? "A" : "B";
+            int row = 1 + random.nextInt(rows);
+            String cell = column + row;
+            if (random.nextInt(4) == 0) {
+                spreadsheetService.setCellValue(sheetId, column, row, i);
+                references.remove(cell);
+                plainValues.put(cell, i);
+                continue;
+            }
+
+            String referencedColumn = random.nextBoolean() ? "A" : "B";
+            int referencedRow = 1 + random.nextInt(rows);
+            String referenced = referencedColumn + referencedRow;
+            boolean cycle = false;
+            for (String current = referenced; current != null; current = references.get(current)) {
+                if (current.equals(cell)) {
+                    cycle = true;
+                    break;
+                }
+            }
+
+            String lookup = "lookup(" + referencedColumn + "," + referencedRow + ")";
+            if (cycle) {
+                assertThrows(IllegalArgumentException.class,
+                        () -> spreadsheetService.setCellValue(sheetId, column, row, lookup), cell + " -> " + lookup);
+            } else {
+                spreadsheetService.setCellValue(sheetId, column, row, lookup);
+                references.put(cell, referenced);
+                plainValues.remove(cell);
+            }
+        }
+
+        // Every lookup holds the value at the end of its chain
+        for (String cell : references.keySet()) {
+            String root = cell;
+            while (references.containsKey(root)) {
+                root = references.get(root);
+            }
+            Cell stored = sheet.getCell(cell.substring(0, 1), Integer.parseInt(cell.substring(1)));
+            assertEquals(plainValues.get(root), stored.getValue(), cell);
+        }
+    }
+
+    @Test
+    public void testLazyRecalculationCatchesUpOnRead() {
+        SpreadsheetService lazyService = new SpreadsheetService(RecalculationMode.LAZY);
+        Sheet sheet = lazyService.createSheet(Arrays.asList(
+                new Column("A", "int"), new Column("B", "int"), new Column("C", "int")));
+        String sheetId = sheet.getId();
+
+        lazyService.setCellValue(sheetId, "A", 1, 1);
+        lazyService.setCellValue(sheetId, "B", 1, "lookup(A,1)");
+        lazyService.setCellValue(sheetId, "C", 1, "lookup(B,1)");
+
+        // Writes to the source leave the dependents alone
+        for (int i = 2; i <= 100; i++) {
+            lazyService.setCellValue(sheetId, "A", 1, i);
+        }
+        assertEquals(1, sheet.getCell("C", 1).getValue());
+
+        // A new lookup already sees the latest value through the stale chain
+        Cell lookup = lazyService.setCellValue(sheetId, "A", 2, "lookup(C,1)");
+        assertEquals(100, lookup.getValue());
+
+        // Reading the sheet brings every lookup up to date
+        assertEquals("Row,A,B,C\n1,100,100,100\n2,100,,\n", lazyService.convertSheetToCsv(sheet));
+        assertEquals(100, sheet.getCell("C", 1).getValue());
+
+        // So does a batch, before its own lookups are resolved
+        lazyService.setCellValue(sheetId, "A", 1, 7);
+        lazyService.setCellValues(sheetId, List.of(new CellUpdate("B", 2, "lookup(C,1)")));
+        assertEquals(7, sheet.getCell("B", 2).getValue());
+        assertEquals(7, sheet.getCell("A", 2).getValue());
+    }
+
+    @Test
+    public void testRecalculationModeNames() {
+        assertEquals(RecalculationMode.LAZY, RecalculationMode.fromName(" Lazy "));
+        assertEquals(RecalculationMode.EAGER, RecalculationMode.fromName("eager"));
+        assertThrows(IllegalArgumentException.class, () -> RecalculationMode.fromName("sometimes"));
+    }
+
+    @Test
+    public void testWriteAheadLogRebuildsSheets(@TempDir Path directory) throws Exception {
+        Path walPath = directory.resolve("sheets.wal");
+        SpreadsheetService durable = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(walPath)
+                .walSyncIntervalMillis(10));
+        Sheet named = durable.createSheetWithId("accounts", Arrays.asList(
+                new Column("A", "int"), new Column("B", "int"), new Column("C", "string")));
+        Sheet unnamed = durable.createSheet(Arrays.asList(new Column("X", "double"), new Column("Y", "boolean")));
+
+        durable.setCellValue("accounts", "A", 1, 10);
+        durable.setCellValue("accounts", "B", 1, "lookup(A,1)");
+        durable.setCellValue("accounts", "C", 2, "text, with comma");
+        durable.setCellValues("accounts", List.of(new CellUpdate("A", 2, "7"), new CellUpdate("B", 2, "lookup(A,2)")));
+        durable.setCellValue("accounts", "A", 1, 11);
+        durable.setCellValue(unnamed.getId(), "X", 3, 1.5);
+        durable.setCellValue(unnamed.getId(), "Y", 3, true);
+        assertThrows(IllegalArgumentException.class, () -> durable.setCellValue("accounts", "A", 3, "not a number"));
+        String namedCsv = durable.convertSheetToCsv(named);
+        String unnamedCsv = durable.convertSheetToCsv(unnamed);
+        durable.close();
+
+        // A restarted server has the same sheets, and keeps logging after the replayed history
+        SpreadsheetService restarted = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(walPath)
+                .walSyncIntervalMillis(10));
+        assertEquals(namedCsv, restarted.convertSheetToCsv(restarted.getSheet("accounts")));
+        assertEquals(unnamedCsv, restarted.convertSheetToCsv(restarted.getSheet(unnamed.getId())));
+        assertEquals(11, restarted.getSheet("accounts").getCell("B", 1).getValue());
+        restarted.setCellValue("accounts", "A", 1, 12);
+        restarted.close();
+
+        SpreadsheetService again = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(walPath)
+                .walSyncIntervalMillis(10));
+        assertEquals(12, again.getSheet("accounts").getCell("B", 1).getValue());
+        again.close();
+    }
+
+    @Test
+    public void testSnapshotRestoresSheetsAndReplaysLaterWrites(@TempDir Path directory) throws Exception {
+        Path walPath = directory.resolve("wal/sheets.wal");
+        Path snapshotPath = directory.resolve("snapshots");
+        SpreadsheetService durable = new SpreadsheetService(new SpreadsheetSettings()
+                .recalculationMode(RecalculationMode.LAZY)
+                .walPath(walPath)
+                .walSyncIntervalMillis(10)
+                .snapshotPath(snapshotPath));
+        Sheet sheet = durable.createSheetWithId("accounts", Arrays.asList(
+                new Column("A", "int"), new Column("B", "int"), new Column("C", "string"), new Column("D", "double")));
+        for (int row = 1; row <= 2_000; row++) {
+            durable.setCellValue("accounts", "A", row, row);
+            durable.setCellValue("accounts", "C", row, row % 3 == 0 ? null : "name " + row % 10);
+        }
+        durable.setCellValue("accounts", "B", 1, "lookup(A,1)");
+        durable.setCellValue("accounts", "B", 2, "lookup(B,1)");
+        durable.setCellValue("accounts", "D", 5, 2.5);
+        durable.setCellValue("accounts", "A", 1, 100);
+        assertEquals(1, durable.checkpoint());
+
+        // Writes after the checkpoint only live in the write-ahead log
+        durable.setCellValue("accounts", "A", 1, 200);
+        durable.setCellValue("accounts", "B", 3, "lookup(B,2)");
+        Sheet later = durable.createSheet(Arrays.asList(new Column("X", "boolean")));
+        durable.setCellValue(later.getId(), "X", 1, true);
+        String accountsCsv = durable.convertSheetToCsv(sheet);
+
+        // What a crash right now would leave on disk
+        Path crashed = directory.resolve("crashed");
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                Path copy = crashed.resolve(directory.relativize(file));
+                Files.createDirectories(copy.getParent());
+                Files.copy(file, copy);
+            }
+        }
+        durable.close();
+
+        SpreadsheetService restarted = new SpreadsheetService(new SpreadsheetSettings()
+                .recalculationMode(RecalculationMode.LAZY)
+                .walPath(crashed.resolve("wal/sheets.wal"))
+                .walSyncIntervalMillis(10)
+                .snapshotPath(crashed.resolve("snapshots")));
+        assertEquals(accountsCsv, restarted.convertSheetToCsv(restarted.getSheet("accounts")));
+        assertEquals(true, restarted.getSheet(later.getId()).getCell("X", 1).getValue());
+
+        // The restored reference graph keeps propagating and rejecting cycles
+        restarted.setCellValue("accounts", "A", 1, 300);
+        assertTrue(restarted.convertSheetToCsv(restarted.getSheet("accounts")).contains("\n1,300,300,"));
+        assertEquals(300, restarted.getSheet("accounts").getCell("B", 3).getValue());
+        assertThrows(IllegalArgumentException.class, () -> restarted.setCellValue("accounts", "A", 1, "lookup(B,3)"));
+        restarted.close();
+
+        // The final checkpoint on close leaves nothing to replay
+        SpreadsheetService again = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(crashed.resolve("wal/sheets.wal"))
+                .walSyncIntervalMillis(10)
+                .snapshotPath(crashed.resolve("snapshots")));
+        assertEquals(300, again.getSheet("accounts").getCell("B", 3).getValue());
+        assertEquals(2_000, again.getSheet("accounts").getCell("A", 2_000).getValue());
+        again.close();
+    }
+
+    @Test
+    public void testRestoredDensePageKeepsOnlyItsLookups(@TempDir Path directory) throws Exception {
+        Path walPath = directory.resolve("sheets.wal");
+        Path snapshotPath = directory.resolve("snapshots");
+        SpreadsheetService durable = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(walPath)
+                .walSyncIntervalMillis(10)
+                .snapshotPath(snapshotPath));
+        Sheet sheet = durable.createSheetWithId("dense", Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+
+        // The lookup is written while the page is sparse, then enough rows follow to make it dense
+        durable.setCellValue("dense", "A", 2, 7);
+        durable.setCellValue("dense", "B", 3, "lookup(A,2)");
+        for (int row = 4; row <= 600; row++) {
+            durable.setCellValue("dense", "B", row, row);
+        }
+        String csv = durable.convertSheetToCsv(sheet);
+        assertEquals(1, durable.checkpoint());
+        durable.close();
+
+        SpreadsheetService restarted = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(walPath)
+                .walSyncIntervalMillis(10)
+                .snapshotPath(snapshotPath));
+        Sheet restored = restarted.getSheet("dense");
+
+        // Only the restored lookup depends on anything, so a write to A0 changes nothing else
+        restarted.setCellValue("dense", "A", 0, 99);
+        assertEquals(csv.replace("Row,A,B\n", "Row,A,B\n0,99,\n"), restarted.convertSheetToCsv(restored));
+        restarted.setCellValue("dense", "A", 2, 8);
+        assertEquals(8, restored.getCell("B", 3).getValue());
+        restarted.close();
+    }
+
     @Test
     public void testNonExistentSheet() {
         assertThrows(IllegalArgumentException.class, () -> {
@@ -231,6 +618,85 @@ public class SpreadsheetServiceTest {
         });
     }
 
+    @Test
+    public void testConcurrentWritesKeepLookupsConsistent() throws Exception {
+        // Create sheet
+        List<Column> columns = Arrays.asList(
+                new Column("A", "int"),
+                new Column("B", "int"),
+                new Column("C", "int")
+        );
+        Sheet sheet = spreadsheetService.createSheet(columns);
+        String sheetId = sheet.getId();
+
+        // Every B row looks up A, every C row looks up B
+        int rows = 50;
+        for (int row = 1; row <= rows; row++) {
+            spreadsheetService.setCellValue(sheetId, "A", row, 0);
+            spreadsheetService.setCellValue(sheetId, "B", row, "lookup(A," + row + ")");
+            spreadsheetService.setCellValue(sheetId, "C", row, "lookup(B," + row + ")");
+        }
+
+        // Hammer the A column from several threads while re-creating lookups
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    int row = 1 + (i * 31 + seed) % rows;
+                    if (i % 100 == 0) {
+                        spreadsheetService.setCellValue(sheetId, "C", row, "lookup(B," + row + ")");
+                    } else {
+                        spreadsheetService.setCellValue(sheetId, "A", row, seed * 10_000 + i);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Every lookup ends up with the final value of its source
+        for (int row = 1; row <= rows; row++) {
+            Object source = sheet.getCell("A", row).getValue();
+            assertEquals(source, sheet.getCell("B", row).getValue());
+            assertEquals(source, sheet.getCell("C", row).getValue());
+        }
+    }
+
+    @Test
+    public void testSnapshotIgnoresLaterWrites() {
+        // Create sheet
+        List<Column> columns = Arrays.asList(
+                new Column("A", "string"),
+                new Column("B", "string")
+        );
+        Sheet sheet = spreadsheetService.createSheet(columns);
+        String sheetId = sheet.getId();
+
+        spreadsheetService.setCellValue(sheetId, "A", 1, "before");
+        spreadsheetService.setCellValue(sheetId, "B", 1, "lookup(A,1)");
+
+        try (SheetSnapshot snapshot = sheet.openSnapshot()) {
+            // Write while the snapshot is open
+            spreadsheetService.setCellValue(sheetId, "A", 1, "after");
+            spreadsheetService.setCellValue(sheetId, "A", 2, "new row");
+
+            // The snapshot still sees the sheet as it was
+            assertEquals("before", snapshot.getCell("A", 1).getValue());
+            assertEquals("before", snapshot.getCell("B", 1).getValue());
+            assertNull(snapshot.getCell("A", 2));
+            assertEquals(2, snapshot.getCellCount());
+        }
+
+        // The live sheet has the new values
+        assertEquals("after", sheet.getCell("B", 1).getValue());
+        assertEquals("new row", sheet.getCell("A", 2).getValue());
+    }
+
     @Test
     public void testConvertSheetToCsv() {
         // Create a test sheet with columns
@@ -270,4 +736,1078 @@ public class SpreadsheetServiceTest {
         assertEquals("3,World,99,", lines[2]);
         assertTrue(lines[3].startsWith("5,\"Hello, World\""));
     }
+
+    @Test
+    public void testWriteSheetCsvWithRowRangeAndColumns() throws IOException {
+        // Create sheet
+        List<Column> columns = Arrays.asList(
+                new Column("A", "string"),
+                new Column("B", "int"),
+                new Column("C", "boolean")
+        );
+        Sheet sheet = spreadsheetService.createSheet(columns);
+        String sheetId = sheet.getId();
+
+        // Rows on both sides of page boundaries
+        for (int row : new int[]{1, 1023, 1024, 2047, 5000}) {
+            spreadsheetService.setCellValue(sheetId, "A", row, "a" + row);
+            spreadsheetService.setCellValue(sheetId, "C", row, row % 2 == 0);
+        }
+        spreadsheetService.setCellValue(sheetId, "B", 1024, 7);
+        spreadsheetService.setCellValue(sheetId, "B", 3000, 8);
+
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        spreadsheetService.writeSheetCsv(sheet, 1023, 3000, null, range);
+        assertEquals("Row,A,B,C\n1023,a1023,,false\n1024,a1024,7,true\n2047,a2047,,false\n3000,,8,\n",
+                range.toString(StandardCharsets.UTF_8));
+
+        // Projected columns come back in the requested order, rows without a cell in them are skipped
+        ByteArrayOutputStream projected = new ByteArrayOutputStream();
+        int[] ordinals = spreadsheetService.resolveColumns(sheet, Arrays.asList("B", "A"));
+        spreadsheetService.writeSheetCsv(sheet, 1024, Integer.MAX_VALUE, ordinals, projected);
+        assertEquals("Row,B,A\n1024,7,a1024\n2047,,a2047\n3000,8,\n5000,,a5000\n",
+                projected.toString(StandardCharsets.UTF_8));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> spreadsheetService.resolveColumns(sheet, Arrays.asList("A", "Z")));
+    }
+
+    @Test
+    public void testGetCellValues() {
+        SpreadsheetService lazyService = new SpreadsheetService(RecalculationMode.LAZY);
+        Sheet sheet = lazyService.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "string")));
+        String sheetId = sheet.getId();
+        lazyService.setCellValue(sheetId, "A", 1, 5);
+        lazyService.setCellValue(sheetId, "A", 2, "lookup(A,1)");
+        lazyService.setCellValue(sheetId, "B", 3, "x");
+
+        // A point read brings the lookup up to date, like any other read
+        lazyService.setCellValue(sheetId, "A", 1, 6);
+        assertEquals(6, lazyService.getCellValue(sheetId, "A", 2).getValue());
+        assertEquals("x", lazyService.getCellValue(sheetId, "B", 3).getValue());
+        assertNull(lazyService.getCellValue(sheetId, "B", 4));
+        assertThrows(IllegalArgumentException.class, () -> lazyService.getCellValue(sheetId, "Z", 1));
+        assertThrows(IllegalArgumentException.class, () -> lazyService.getCellValue("missing", "A", 1));
+
+        lazyService.setCellValue(sheetId, "A", 1, 7);
+        List<Cell> cells = lazyService.getCellValues(sheetId, Arrays.asList(
+                new Cell("A", 2, null), new Cell("B", 4, null), new Cell("B", 3, null), new Cell("A", 1, null)));
+        assertEquals(4, cells.size());
+        assertEquals(7, cells.get(0).getValue());
+        assertEquals("B", cells.get(1).getColumn());
+        assertEquals(4, cells.get(1).getRow());
+        assertNull(cells.get(1).getValue());
+        assertEquals("x", cells.get(2).getValue());
+        assertEquals(7, cells.get(3).getValue());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> lazyService.getCellValues(sheetId, Arrays.asList(new Cell("A", 1, null), new Cell("Z", 1, null))));
+    }
+
+    @Test
+    public void testChangeFeed() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        // Batches every 10 ms, and at most 3 changed cells held per subscriber
+        SpreadsheetService service = new SpreadsheetService(new SpreadsheetSettings()
+                .changeBatchMillis(10)
+                .changeBufferCells(3)
+                .meterRegistry(registry));
+        try {
+            Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int"), new Column("C", "int")));
+            String sheetId = sheet.getId();
+            service.setCellValue(sheetId, "C", 1, "lookup(A,1)");
+
+            // The first batch of the unfiltered subscriber holds up its delivery until released
+            CountDownLatch release = new CountDownLatch(1);
+            RecordingSink all = new RecordingSink(release);
+            RecordingSink lookups = new RecordingSink(null);
+            CellSubscription allSubscription = service.subscribe(sheet, null, Integer.MIN_VALUE, Integer.MAX_VALUE, all);
+            CellSubscription lookupSubscription = service.subscribe(sheet, new int[] {1}, 1, 1, lookups);
+            assertEquals(sheet.getVersion(), allSubscription.getSubscribedVersion());
+            assertEquals(2, registry.get("spreadsheet.changes.subscribers").gauge().value());
+
+            // The propagated lookup is part of the change
+            service.setCellValue(sheetId, "A", 1, 5);
+            assertTrue(sheet.getVersion() > lookupSubscription.getSubscribedVersion());
+            awaitTrue(() -> lookups.events.size() == 1);
+            assertEquals(List.of("C1=5"), lookups.events.get(0));
+            awaitTrue(() -> all.events.size() == 1);
+
+            // Falling behind drops the pending changes for a reset, and later changes keep coming
+            for (int row = 10; row < 14; row++) {
+                service.setCellValue(sheetId, "A", row, row);
+            }
+            release.countDown();
+            awaitTrue(() -> all.events.contains("reset"));
+            service.setCellValue(sheetId, "A", 20, 20);
+            awaitTrue(() -> all.events.contains(List.of("A20=20")));
+            assertTrue(all.events.contains("reset"));
+            assertFalse(all.events.stream().anyMatch(event -> event.toString().contains("A13")));
+            assertEquals(1, registry.get("spreadsheet.changes.resets").functionCounter().count());
+            // Cells outside the filter never reached the other subscriber
+            assertEquals(1, lookups.events.size());
+
+            // A closed subscription gets nothing more
+            lookupSubscription.close();
+            assertTrue(lookupSubscription.isClosed());
+            assertEquals(1, registry.get("spreadsheet.changes.subscribers").gauge().value());
+            service.setCellValue(sheetId, "A", 1, 6);
+            awaitTrue(() -> all.events.stream().anyMatch(event -> event.toString().contains("C1=6")));
+            assertEquals(1, lookups.events.size());
+            assertFalse(lookups.ended);
+
+            // A sheet leaving this node ends its subscriptions
+            assertTrue(service.removeSheet(sheetId));
+            assertTrue(all.ended);
+            assertTrue(allSubscription.isClosed());
+            assertEquals(0, registry.get("spreadsheet.changes.subscribers").gauge().value());
+        } finally {
+            service.close();
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the change feed");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Records each batch as a list of "A1=value" strings, and each reset as "reset"
+     */
+    private static final class RecordingSink implements CellSubscription.Sink {
+        final List<Object> events = new CopyOnWriteArrayList<>();
+        final CountDownLatch release;
+        volatile boolean ended;
+
+        RecordingSink(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void changes(long version, List<Cell> cells) throws IOException {
+            List<String> batch = new ArrayList<>();
+            for (Cell cell : cells) {
+                batch.add(cell.getColumn() + cell.getRow() + "=" + cell.getValue());
+            }
+            events.add(batch);
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        @Override
+        public void reset(long version) {
+            events.add("reset");
+        }
+
+        @Override
+        public void heartbeat() {
+        }
+
+        @Override
+        public void end() {
+            ended = true;
+        }
+    }
+
+    @Test
+    public void testReadRowsPagesThroughARange() {
+        Sheet sheet = spreadsheetService.createSheet(Arrays.asList(
+                new Column("A", "int"), new Column("B", "string"), new Column("C", "int")));
+        String sheetId = sheet.getId();
+        // Sparse rows far apart, and a lookup
+        for (int row = 0; row < 2_000_000; row += 1_000) {
+            spreadsheetService.setCellValue(sheetId, "A", row, row);
+        }
+        spreadsheetService.setCellValue(sheetId, "B", 1_000_050, "x");
+        spreadsheetService.setCellValue(sheetId, "C", 1_001_000, "lookup(A,1000000)");
+
+        int[] ordinals = spreadsheetService.resolveColumns(sheet, Arrays.asList("C", "B"));
+        RowPage page = spreadsheetService.readRows(sheet, 1_000_000, 1_000_100, ordinals, 10, null);
+        assertEquals(Arrays.asList("C", "B"), page.getColumns());
+        assertEquals(1, page.getRows().size());
+        assertEquals(1_000_050, page.getRows().get(0).getRow());
+        assertEquals(Arrays.asList(null, "x"), page.getRows().get(0).getValues());
+        assertNull(page.getNextCursor());
+
+        // Every row of the range exactly once, page after page
+        List<Integer> rows = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            page = spreadsheetService.readRows(sheet, 500_000, 1_500_000, null, 300, cursor);
+            for (RowPage.Row row : page.getRows()) {
+                rows.add(row.getRow());
+            }
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+        assertEquals(4, pages);
+        assertEquals(1_002, rows.size());
+        assertEquals(500_000, rows.get(0));
+        assertEquals(1_500_000, rows.get(rows.size() - 1));
+        assertEquals(Arrays.asList(1_001_000, null, 1_000_000),
+                spreadsheetService.readRows(sheet, 1_001_000, 1_001_000, null, 1, null).getRows().get(0).getValues());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> spreadsheetService.readRows(sheet, 0, 10, null, 0, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> spreadsheetService.readRows(sheet, 0, 10, null, 10, "not a cursor"));
+    }
+
+    @Test
+    public void testWriteSheetColumnar() throws IOException {
+        // Create sheet
+        List<Column> columns = Arrays.asList(
+                new Column("A", "string"),
+                new Column("B", "int"),
+                new Column("C", "boolean"),
+                new Column("D", "double")
+        );
+        Sheet sheet = spreadsheetService.createSheet(columns);
+        String sheetId = sheet.getId();
+
+        // Enough rows for more than one batch, with nulls, gaps and a lookup
+        for (int row = 1; row <= 5_000; row++) {
+            spreadsheetService.setCellValue(sheetId, "A", row, row % 5 == 0 ? null : "name " + row % 7);
+            spreadsheetService.setCellValue(sheetId, "B", row, row * 3);
+            if (row % 2 == 0) {
+                spreadsheetService.setCellValue(sheetId, "C", row, row % 4 == 0);
+            }
+        }
+        spreadsheetService.setCellValue(sheetId, "D", 4_500, 0.25);
+        spreadsheetService.setCellValue(sheetId, "B", 9_000, "lookup(B,2)");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        spreadsheetService.writeSheetColumnar(sheet, Integer.MIN_VALUE, Integer.MAX_VALUE, null, out);
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        assertEquals(ColumnarWriter.MAGIC, in.getInt());
+        assertEquals(ColumnarWriter.FORMAT_VERSION, in.getInt());
+        assertEquals(4, in.getInt());
+        byte[] expectedTypes = {ColumnarWriter.STRING, ColumnarWriter.INT, ColumnarWriter.BOOLEAN, ColumnarWriter.DOUBLE};
+        for (int column = 0; column < 4; column++) {
+            assertEquals(columns.get(column).getName(), readString(in));
+            assertEquals(expectedTypes[column], in.get());
+        }
+
+        // Decode every batch and compare each row with the sheet
+        List<String> dictionary = new ArrayList<>();
+        List<Integer> rows = new ArrayList<>();
+        int batches = 0;
+        for (int size = in.getInt(); size > 0; size = in.getInt()) {
+            batches++;
+            int[] rowNumbers = new int[size];
+            for (int i = 0; i < size; i++) {
+                rowNumbers[i] = in.getInt();
+                rows.add(rowNumbers[i]);
+            }
+            for (int column = 0; column < 4; column++) {
+                long[] valid = readBits(in, size);
+                long[] booleans = expectedTypes[column] == ColumnarWriter.BOOLEAN ? readBits(in, size) : null;
+                if (expectedTypes[column] == ColumnarWriter.STRING) {
+                    for (int entries = in.getInt(); entries > 0; entries--) {
+                        dictionary.add(readString(in));
+                    }
+                }
+                for (int i = 0; i < size; i++) {
+                    Object value;
+                    switch (expectedTypes[column]) {
+                        case ColumnarWriter.STRING:
+                            value = dictionary.get(in.getInt());
+                            break;
+                        case ColumnarWriter.INT:
+                            value = in.getInt();
+                            break;
+                        case ColumnarWriter.DOUBLE:
+                            value = in.getDouble();
+                            break;
+                        default:
+                            value = (booleans[i >>> 6] & (1L << i)) != 0;
+                    }
+                    Cell cell = sheet.getCell(columns.get(column).getName(), rowNumbers[i]);
+                    Object expected = cell != null ? cell.getValue() : null;
+                    assertEquals(expected, (valid[i >>> 6] & (1L << i)) != 0 ? value : null,
+                            "column " + column + " row " + rowNumbers[i]);
+                }
+            }
+        }
+        assertFalse(in.hasRemaining());
+        assertEquals(2, batches);
+        assertEquals(5_001, rows.size());
+        assertEquals(9_000, rows.get(5_000));
+        assertEquals(7, dictionary.size());
+
+        // The row range and projection of the CSV export apply too
+        ByteArrayOutputStream projected = new ByteArrayOutputStream();
+        spreadsheetService.writeSheetColumnar(sheet, 4_500, 4_500,
+                spreadsheetService.resolveColumns(sheet, Arrays.asList("D")), projected);
+        in = ByteBuffer.wrap(projected.toByteArray());
+        in.position(3 * Integer.BYTES);
+        assertEquals("D", readString(in));
+        assertEquals(ColumnarWriter.DOUBLE, in.get());
+        assertEquals(1, in.getInt());
+        assertEquals(4_500, in.getInt());
+        assertEquals(1L, in.getLong());
+        assertEquals(0.25, in.getDouble());
+        assertEquals(0, in.getInt());
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long[] readBits(ByteBuffer in, int size) {
+        long[] bits = new long[(size + 63) / 64];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.getLong();
+        }
+        return bits;
+    }
+
+    @Test
+    public void testExportsTaggedAndCachedByVersion() throws IOException {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        SpreadsheetService service = new SpreadsheetService(new SpreadsheetSettings()
+                .recalculationMode(RecalculationMode.LAZY)
+                .exportCacheBytes(1 << 20)
+                .meterRegistry(registry));
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        String sheetId = sheet.getId();
+        service.setCellValue(sheetId, "A", 1, 1);
+        service.setCellValue(sheetId, "B", 1, "lookup(A,1)");
+
+        String first = export(service, sheet, SheetExport.Format.CSV);
+        try (SheetExport export = service.openExport(sheet, SheetExport.Format.CSV, Integer.MIN_VALUE, Integer.MAX_VALUE, null)) {
+            // Unchanged, so served from the cache under the same tag
+            assertTrue(export.isCached());
+            assertEquals(first, export.getETag());
+        }
+        assertEquals(first, service.currentExportTag(sheet, SheetExport.Format.CSV, SheetExport.Encoding.IDENTITY));
+        String columnar = export(service, sheet, SheetExport.Format.COLUMNAR);
+        assertNotEquals(first, columnar);
+
+        // A write only reaches the lookup once an export settles the sheet; both change the tag
+        service.setCellValue(sheetId, "A", 1, 2);
+        // The tag is unknown until the stale lookup is settled
+        assertNull(service.currentExportTag(sheet, SheetExport.Format.CSV, SheetExport.Encoding.IDENTITY));
+        try (SheetExport export = service.openExport(sheet, SheetExport.Format.CSV, Integer.MIN_VALUE, Integer.MAX_VALUE, null)) {
+            assertFalse(export.isCached());
+            assertNotEquals(first, export.getETag());
+            assertEquals(export.getETag(),
+                    service.currentExportTag(sheet, SheetExport.Format.CSV, SheetExport.Encoding.IDENTITY));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            export.writeTo(out);
+            assertEquals("Row,A,B\n1,2,2\n", out.toString(StandardCharsets.UTF_8));
+        }
+        assertEquals("Row,A,B\n1,2,2\n", service.convertSheetToCsv(sheet));
+
+        assertEquals(2, registry.get("spreadsheet.export.cache").tag("result", "hit").functionCounter().count());
+        assertEquals(3, registry.get("spreadsheet.export.cache").tag("result", "miss").functionCounter().count());
+        assertTrue(registry.get("spreadsheet.export.cache.bytes").gauge().value() > 0);
+    }
+
+    @Test
+    public void testCompressedExports() throws IOException {
+        SpreadsheetService service = new SpreadsheetService(new SpreadsheetSettings()
+                .exportCacheBytes(1 << 20)
+                .meterRegistry(new SimpleMeterRegistry()));
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "string"), new Column("B", "int")));
+        for (int row = 1; row <= 2_000; row++) {
+            service.setCellValue(sheet.getId(), "A", row, "value " + row % 10);
+            service.setCellValue(sheet.getId(), "B", row, row);
+        }
+        String csv = service.convertSheetToCsv(sheet);
+
+        for (SheetExport.Encoding encoding : List.of(SheetExport.Encoding.GZIP, SheetExport.Encoding.DEFLATE)) {
+            byte[] compressed;
+            try (SheetExport export = service.openExport(sheet, SheetExport.Format.CSV, encoding,
+                    Integer.MIN_VALUE, Integer.MAX_VALUE, null)) {
+                assertFalse(export.isCached());
+                assertTrue(export.getETag().endsWith("-" + encoding.getName() + "\""));
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                export.writeTo(out);
+                compressed = out.toByteArray();
+            }
+            // The ratio varies a little with the zlib build; a repetitive CSV shrinks well over 3x
+            assertTrue(compressed.length < csv.length() / 3, encoding + ": " + compressed.length);
+            InputStream in = encoding == SheetExport.Encoding.GZIP
+                    ? new GZIPInputStream(new ByteArrayInputStream(compressed))
+                    : new InflaterInputStream(new ByteArrayInputStream(compressed));
+            assertEquals(csv, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+
+            // The compressed bytes are kept and sent again as they are
+            try (SheetExport export = service.openExport(sheet, SheetExport.Format.CSV, encoding,
+                    Integer.MIN_VALUE, Integer.MAX_VALUE, null)) {
+                assertTrue(export.isCached());
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                export.writeTo(out);
+                assertArrayEquals(compressed, out.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testExportCacheStaysWithinBudget() {
+        ExportCache cache = new ExportCache(4_000);
+        cache.put("a", 1, new byte[1_000]);
+        cache.put("b", 1, new byte[1_000]);
+        cache.put("c", 1, new byte[1_000]);
+        assertNotNull(cache.get("a", 1));
+
+        // A newer version replaces the older one, an older one is ignored
+        cache.put("c", 2, new byte[500]);
+        cache.put("c", 1, new byte[1_000]);
+        assertNull(cache.get("c", 1));
+        assertNotNull(cache.get("c", 2));
+        assertEquals(2_500, cache.getBytes());
+
+        // Over the budget, the least recently used go first; too large is never kept
+        cache.put("d", 1, new byte[1_000]);
+        cache.put("e", 1, new byte[1_000]);
+        assertNull(cache.get("b", 1));
+        assertNotNull(cache.get("a", 1));
+        assertTrue(cache.getBytes() <= 4_000);
+        cache.put("f", 1, new byte[1_001]);
+        assertNull(cache.get("f", 1));
+    }
+
+    private static String export(SpreadsheetService service, Sheet sheet, SheetExport.Format format) throws IOException {
+        try (SheetExport export = service.openExport(sheet, format, Integer.MIN_VALUE, Integer.MAX_VALUE, null)) {
+            assertFalse(export.isCached());
+            export.writeTo(new ByteArrayOutputStream());
+            return export.getETag();
+        }
+    }
+
+    @Test
+    public void testImportCsvRoundTripsAnExport() throws IOException {
+        // Create a sheet spanning more than one import chunk
+        List<Column> columns = Arrays.asList(
+                new Column("A", "string"),
+                new Column("B", "int"),
+                new Column("C", "boolean"),
+                new Column("D", "double")
+        );
+        Sheet source = spreadsheetService.createSheet(columns);
+        List<CellUpdate> updates = new ArrayList<>();
+        for (int row = 1; row <= 10_000; row++) {
+            updates.add(new CellUpdate("A", row, row % 3 == 0 ? "a, \"quoted\" " + row : "a" + row));
+            updates.add(new CellUpdate("B", row, -row));
+            updates.add(new CellUpdate("C", row, row % 2 == 0));
+        }
+        updates.add(new CellUpdate("D", 20_000, 1.5));
+        spreadsheetService.setCellValues(source.getId(), updates);
+        String csv = spreadsheetService.convertSheetToCsv(source);
+
+        ImportResult result = spreadsheetService.importCsvAsNewSheet("copy",
+                new ByteArrayInputStream(csv.replace("Row,A,B,C,D", "Row,A,B:int,C:boolean,D:double")
+                        .getBytes(StandardCharsets.UTF_8)));
+        assertEquals("copy", result.getSheetId());
+        assertEquals(10_001, result.getImportedRows());
+        assertEquals(30_001, result.getImportedCells());
+
+        Sheet copy = spreadsheetService.getSheet("copy");
+        assertEquals("string", copy.getColumns().get(0).getType());
+        assertEquals("double", copy.getColumns().get(3).getType());
+        assertEquals("a, \"quoted\" 9", copy.getCell("A", 9).getValue());
+        assertEquals(-10_000, copy.getCell("B", 10_000).getValue());
+        assertEquals(1.5, copy.getCell("D", 20_000).getValue());
+    }
+
+    @Test
+    public void testImportCsvRecalculatesDependentsOnce() throws IOException {
+        // Create sheet with lookups into the imported column
+        List<Column> columns = Arrays.asList(
+                new Column("A", "int"),
+                new Column("B", "int")
+        );
+        Sheet sheet = spreadsheetService.createSheet(columns);
+        String sheetId = sheet.getId();
+        spreadsheetService.setCellValue(sheetId, "A", 1, 1);
+        spreadsheetService.setCellValue(sheetId, "B", 1, "lookup(A,1)");
+        spreadsheetService.setCellValue(sheetId, "B", 2, "lookup(B,1)");
+
+        // Columns in any order, empty fields keep their cell, lookups can be imported too
+        String csv = "Row,B,A\n1,,10\n3,\"lookup(A,1)\",\n4,\"lookup(B,3)\",7\n";
+        ImportResult result = spreadsheetService.importCsv(sheetId,
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(3, result.getImportedRows());
+        assertEquals(4, result.getImportedCells());
+        assertEquals(10, sheet.getCell("B", 2).getValue());
+        assertEquals(10, sheet.getCell("B", 4).getValue());
+        assertEquals("lookup(A,1)", sheet.getCell("B", 3).getLookupFunction());
+
+        // A cycle through the imported lookups is still rejected afterwards
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.setCellValue(sheetId, "A", 1, "lookup(B,4)"));
+    }
+
+    @Test
+    public void testReadsDuringAnImportSeeSettledLookups() throws Exception {
+        Sheet sheet = spreadsheetService.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        String sheetId = sheet.getId();
+        spreadsheetService.setCellValue(sheetId, "A", 1, 1);
+        spreadsheetService.setCellValue(sheetId, "B", 1, "lookup(A,1)");
+
+        // The first chunk rewrites A1, then the input stalls in the second chunk until the reads are done
+        StringBuilder csv = new StringBuilder("Row,A\n1,5\n");
+        for (int row = 2; row <= 8_200; row++) {
+            csv.append(row).append(",0\n");
+        }
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        InputStream in = new SequenceInputStream(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)),
+                new InputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        stalled.countDown();
+                        try {
+                            resume.await();
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                        return -1;
+                    }
+                });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ImportResult> imported = executor.submit(() -> spreadsheetService.importCsv(sheetId, in));
+            assertTrue(stalled.await(10, TimeUnit.SECONDS));
+            assertEquals(5, sheet.getCell("A", 1).getValue());
+
+            // Eager readers do not wait for the end of the import to see the lookup agree with its source
+            assertEquals(5, spreadsheetService.getCellValue(sheetId, "B", 1).getValue());
+            assertTrue(spreadsheetService.convertSheetToCsv(sheet).contains("\n1,5,5\n"));
+            assertEquals(5, spreadsheetService.setCellValue(sheetId, "B", 2, "lookup(B,1)").getValue());
+
+            resume.countDown();
+            assertEquals(8_200, imported.get(10, TimeUnit.SECONDS).getImportedRows());
+        } finally {
+            resume.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testImportCsvRejectsInvalidInput() {
+        // Create sheet
+        List<Column> columns = Arrays.asList(
+                new Column("A", "int"),
+                new Column("B", "boolean")
+        );
+        Sheet sheet = spreadsheetService.createSheet(columns);
+        String sheetId = sheet.getId();
+
+        IllegalArgumentException invalid = assertThrows(IllegalArgumentException.class, () ->
+                spreadsheetService.importCsv(sheetId, new ByteArrayInputStream(
+                        "Row,A,B\n1,1,true\n2,2,maybe\n".getBytes(StandardCharsets.UTF_8))));
+        assertEquals("Invalid value at line 3: Expected boolean value for column: B", invalid.getMessage());
+        assertNull(sheet.getCell("A", 1));
+
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.importCsv(sheetId,
+                new ByteArrayInputStream("A,B\n1,1,true\n".getBytes(StandardCharsets.UTF_8))));
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.importCsv(sheetId,
+                new ByteArrayInputStream("Row,A,Z\n".getBytes(StandardCharsets.UTF_8))));
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.importCsv(sheetId,
+                new ByteArrayInputStream("Row,A,A\n".getBytes(StandardCharsets.UTF_8))));
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.importCsv(sheetId,
+                new ByteArrayInputStream("Row,A\nx,1\n".getBytes(StandardCharsets.UTF_8))));
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.importCsv(sheetId,
+                new ByteArrayInputStream("Row,A\n1,\"lookup(A,1)\"\n".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testBatchUpdateResolvesReferencesWithinTheBatch() {
+        // Create sheet
+        List<Column> columns = Arrays.asList(
+                new Column("A", "int"),
+                new Column("B", "int"),
+                new Column("C", "int")
+        );
+        Sheet sheet = spreadsheetService.createSheet(columns);
+        String sheetId = sheet.getId();
+        spreadsheetService.setCellValue(sheetId, "A", 1, 1);
+        spreadsheetService.setCellValue(sheetId, "C", 1, "lookup(B,1)");
+
+        // The lookup comes before the value it reads, and A1 is written twice
+        BatchUpdateResult result = spreadsheetService.setCellValues(sheetId, Arrays.asList(
+                new CellUpdate("B", 1, "lookup(A,1)"),
+                new CellUpdate("A", 1, 5),
+                new CellUpdate("B", 2, "lookup(C,1)"),
+                new CellUpdate("A", 1, "7")
+        ));
+
+        assertEquals(4, result.getUpdatedCells());
+        // B1, C1 and B2 are each recomputed once
+        assertEquals(3, result.getRecalculatedCells());
+        assertEquals(7, sheet.getCell("A", 1).getValue());
+        assertEquals(7, sheet.getCell("B", 1).getValue());
+        assertEquals(7, sheet.getCell("C", 1).getValue());
+        assertEquals(7, sheet.getCell("B", 2).getValue());
+
+        // Later single writes propagate through the references set by the batch
+        spreadsheetService.setCellValue(sheetId, "A", 1, 9);
+        assertEquals(9, sheet.getCell("B", 2).getValue());
+    }
+
+    @Test
+    public void testBatchUpdateIsAtomic() {
+        // Create sheet
+        List<Column> columns = Arrays.asList(
+                new Column("A", "int"),
+                new Column("B", "int")
+        );
+        Sheet sheet = spreadsheetService.createSheet(columns);
+        String sheetId = sheet.getId();
+        spreadsheetService.setCellValue(sheetId, "A", 1, 1);
+        spreadsheetService.setCellValue(sheetId, "B", 1, "lookup(A,1)");
+
+        // An invalid value rejects the whole batch
+        IllegalArgumentException invalid = assertThrows(IllegalArgumentException.class, () ->
+                spreadsheetService.setCellValues(sheetId, Arrays.asList(
+                        new CellUpdate("A", 1, 2),
+                        new CellUpdate("A", 2, "not an integer")
+                )));
+        assertTrue(invalid.getMessage().startsWith("Invalid update at index 1"));
+
+        // So does a cycle that only exists once every update of the batch is applied
+        assertThrows(IllegalArgumentException.class, () ->
+                spreadsheetService.setCellValues(sheetId, Arrays.asList(
+                        new CellUpdate("A", 2, 3),
+                        new CellUpdate("B", 2, "lookup(B,1)"),
+                        new CellUpdate("A", 1, "lookup(B,2)")
+                )));
+
+        assertEquals(1, sheet.getCell("A", 1).getValue());
+        assertEquals(1, sheet.getCell("B", 1).getValue());
+        assertNull(sheet.getCell("A", 2));
+        assertNull(sheet.getCell("B", 2));
+    }
+
+    @Test
+    public void testAggregatesFollowWrites() {
+        Sheet sheet = spreadsheetService.createSheet(Arrays.asList(
+                new Column("A", "int"), new Column("B", "double"), new Column("C", "int"), new Column("D", "double")));
+        String sheetId = sheet.getId();
+        for (int row = 1; row <= 5; row++) {
+            spreadsheetService.setCellValue(sheetId, "A", row, row);
+        }
+
+        assertEquals(15, spreadsheetService.setCellValue(sheetId, "C", 1, "sum(A)").getValue());
+        spreadsheetService.setCellValue(sheetId, "C", 2, "count(A)");
+        spreadsheetService.setCellValue(sheetId, "C", 3, "max(A, 1, 4)");
+        spreadsheetService.setCellValue(sheetId, "C", 4, "min(A)");
+        spreadsheetService.setCellValue(sheetId, "D", 1, "avg(A)");
+        assertEquals(5, sheet.getCell("C", 2).getValue());
+        assertEquals(4, sheet.getCell("C", 3).getValue());
+        assertEquals(1, sheet.getCell("C", 4).getValue());
+        assertEquals(3.0, sheet.getCell("D", 1).getValue());
+
+        // Every write to the range updates the results
+        spreadsheetService.setCellValue(sheetId, "A", 3, 10);
+        assertEquals(22, sheet.getCell("C", 1).getValue());
+        assertEquals(10, sheet.getCell("C", 3).getValue());
+        assertEquals(4.4, sheet.getCell("D", 1).getValue());
+
+        // Empty cells are skipped, and removing the largest value falls back to the next one
+        spreadsheetService.setCellValue(sheetId, "A", 3, null);
+        spreadsheetService.setCellValue(sheetId, "A", 4, 0);
+        assertEquals(8, sheet.getCell("C", 1).getValue());
+        assertEquals(4, sheet.getCell("C", 2).getValue());
+        assertEquals(2, sheet.getCell("C", 3).getValue());
+        assertEquals(0, sheet.getCell("C", 4).getValue());
+        assertEquals(2.0, sheet.getCell("D", 1).getValue());
+
+        // Rows outside the range of max(A,1,4) only reach the whole column aggregates
+        spreadsheetService.setCellValue(sheetId, "A", 9, 100);
+        assertEquals(2, sheet.getCell("C", 3).getValue());
+        assertEquals(108, sheet.getCell("C", 1).getValue());
+
+        // An int sum that no longer fits is empty, until it fits again
+        spreadsheetService.setCellValue(sheetId, "A", 9, Integer.MAX_VALUE);
+        assertNull(sheet.getCell("C", 1).getValue());
+        spreadsheetService.setCellValue(sheetId, "A", 9, 1);
+        assertEquals(9, sheet.getCell("C", 1).getValue());
+
+        // Double sums keep their precision as values come and go
+        for (int row = 1; row <= 10; row++) {
+            spreadsheetService.setCellValue(sheetId, "B", row, 0.1);
+        }
+        spreadsheetService.setCellValue(sheetId, "D", 2, "sum(B)");
+        spreadsheetService.setCellValue(sheetId, "B", 11, 1e17);
+        spreadsheetService.setCellValue(sheetId, "B", 11, null);
+        assertEquals(1.0, (Double) sheet.getCell("D", 2).getValue(), 1e-15);
+
+        // A plain value replaces the aggregate for good
+        spreadsheetService.setCellValue(sheetId, "C", 1, 0);
+        spreadsheetService.setCellValue(sheetId, "A", 1, 50);
+        assertEquals(0, sheet.getCell("C", 1).getValue());
+        assertEquals(50, sheet.getCell("C", 3).getValue());
+    }
+
+    @Test
+    public void testAggregatesCombineWithLookups() {
+        Sheet sheet = spreadsheetService.createSheet(Arrays.asList(
+                new Column("A", "int"), new Column("B", "int"), new Column("C", "int")));
+        String sheetId = sheet.getId();
+        for (int row = 1; row <= 3; row++) {
+            spreadsheetService.setCellValue(sheetId, "A", row, row);
+        }
+        spreadsheetService.setCellValue(sheetId, "B", 1, "lookup(A,1)");
+        spreadsheetService.setCellValue(sheetId, "B", 2, "lookup(A,2)");
+
+        // An aggregate over lookups, a lookup of the aggregate, and an aggregate of both
+        assertEquals(3, spreadsheetService.setCellValue(sheetId, "C", 1, "sum(B)").getValue());
+        assertEquals(3, spreadsheetService.setCellValue(sheetId, "C", 2, "lookup(C,1)").getValue());
+        assertEquals(6, spreadsheetService.setCellValue(sheetId, "C", 3, "sum(C,1,2)").getValue());
+
+        spreadsheetService.setCellValue(sheetId, "A", 1, 10);
+        assertEquals(10, sheet.getCell("B", 1).getValue());
+        assertEquals(12, sheet.getCell("C", 1).getValue());
+        assertEquals(12, sheet.getCell("C", 2).getValue());
+        assertEquals(24, sheet.getCell("C", 3).getValue());
+
+        // Cycles through a range are rejected like cycles through lookups
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.setCellValue(sheetId, "B", 3, "lookup(C,1)"));
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.setCellValue(sheetId, "C", 4, "sum(C)"));
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.setCellValue(sheetId, "C", 1, "max(C,3,3)"));
+        assertNull(sheet.getCell("B", 3));
+        assertNull(sheet.getCell("C", 4));
+
+        spreadsheetService.setCellValue(sheetId, "A", 2, 5);
+        assertEquals(15, sheet.getCell("C", 1).getValue());
+        assertEquals(30, sheet.getCell("C", 3).getValue());
+    }
+
+    @Test
+    public void testAggregateValidation() {
+        Sheet sheet = spreadsheetService.createSheet(Arrays.asList(
+                new Column("A", "string"), new Column("B", "int"), new Column("C", "double")));
+        String sheetId = sheet.getId();
+        spreadsheetService.setCellValue(sheetId, "A", 1, "x");
+
+        IllegalArgumentException notNumeric = assertThrows(IllegalArgumentException.class, () ->
+                spreadsheetService.setCellValue(sheetId, "B", 1, "sum(A)"));
+        assertEquals("Cannot take the sum of a string column", notNumeric.getMessage());
+        IllegalArgumentException mismatch = assertThrows(IllegalArgumentException.class, () ->
+                spreadsheetService.setCellValue(sheetId, "B", 1, "avg(B)"));
+        assertEquals("Type mismatch: Cannot set double avg to int", mismatch.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.setCellValue(sheetId, "C", 1, "max(B)"));
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.setCellValue(sheetId, "C", 1, "sum(B,5,1)"));
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.setCellValue(sheetId, "C", 1, "sum(B"));
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.setCellValue(sheetId, "C", 1, "sum(Z)"));
+
+        // Any column can be counted
+        assertEquals(1, spreadsheetService.setCellValue(sheetId, "B", 1, "count(A)").getValue());
+        assertNull(spreadsheetService.setCellValue(sheetId, "C", 1, "avg(C,2,9)").getValue());
+    }
+
+    @Test
+    public void testLazyAggregatesCatchUpOnRead() {
+        SpreadsheetService lazyService = new SpreadsheetService(RecalculationMode.LAZY);
+        Sheet sheet = lazyService.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        String sheetId = sheet.getId();
+        for (int row = 1; row <= 3; row++) {
+            lazyService.setCellValue(sheetId, "A", row, row);
+        }
+        lazyService.setCellValue(sheetId, "A", 4, "lookup(A,1)");
+        assertEquals(7, lazyService.setCellValue(sheetId, "B", 1, "sum(A)").getValue());
+
+        // Writes keep the running total but leave the cell alone until it is read
+        lazyService.setCellValue(sheetId, "A", 2, 20);
+        lazyService.setCellValue(sheetId, "A", 1, 10);
+        assertEquals(7, sheet.getCell("B", 1).getValue());
+        assertEquals(43, lazyService.getCellValue(sheetId, "B", 1).getValue());
+        assertEquals(10, sheet.getCell("A", 4).getValue());
+    }
+
+    @Test
+    public void testAggregateLikeStringsStayStrings() {
+        Sheet sheet = spreadsheetService.createSheet(Arrays.asList(new Column("A", "string"), new Column("B", "int")));
+        String sheetId = sheet.getId();
+
+        // Only a whole formula is an aggregate, anything else starting like one is a plain value
+        assertEquals("max(3 apples)", spreadsheetService.setCellValue(sheetId, "A", 1, "max(3 apples)").getValue());
+        assertEquals("sum(A", spreadsheetService.setCellValue(sheetId, "A", 2, "sum(A").getValue());
+        assertEquals("sum(B) total", spreadsheetService.setCellValue(sheetId, "A", 3, "sum(B) total").getValue());
+        spreadsheetService.setCellValues(sheetId, Arrays.asList(
+                new CellUpdate("A", 4, "count(A) of them"),
+                new CellUpdate("B", 1, 1)
+        ));
+        assertEquals("count(A) of them", sheet.getCell("A", 4).getValue());
+
+        // Writes to the column named in the string do not touch it
+        spreadsheetService.setCellValue(sheetId, "B", 2, 5);
+        assertEquals("sum(B) total", sheet.getCell("A", 3).getValue());
+        assertEquals("max(3 apples)", sheet.getCell("A", 1).getValue());
+    }
+
+    @Test
+    public void testOverlappingAggregatesFollowWrites() {
+        Sheet sheet = spreadsheetService.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        String sheetId = sheet.getId();
+        for (int row = 1; row <= 60; row++) {
+            spreadsheetService.setCellValue(sheetId, "A", row, row);
+        }
+
+        // Many overlapping ranges, each write reaching only the ones covering its row
+        for (int row = 1; row <= 50; row++) {
+            spreadsheetService.setCellValue(sheetId, "B", row, "sum(A, " + row + ", " + (row + row % 7) + ")");
+        }
+        spreadsheetService.setCellValue(sheetId, "A", 20, 1_000);
+        spreadsheetService.setCellValue(sheetId, "A", 33, null);
+
+        for (int row = 1; row <= 50; row++) {
+            int expected = 0;
+            for (int r = row; r <= row + row % 7; r++) {
+                expected += r == 20 ? 1_000 : r == 33 ? 0 : r;
+            }
+            assertEquals(expected, sheet.getCell("B", row).getValue(), "B" + row);
+        }
+    }
+
+    @Test
+    public void testBatchesAndImportsSetAggregates() throws IOException {
+        Sheet sheet = spreadsheetService.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        String sheetId = sheet.getId();
+
+        // The aggregate comes before the values it reads
+        spreadsheetService.setCellValues(sheetId, Arrays.asList(
+                new CellUpdate("B", 1, "sum(A)"),
+                new CellUpdate("A", 1, 1),
+                new CellUpdate("A", 2, 2),
+                new CellUpdate("B", 2, "lookup(B,1)"),
+                new CellUpdate("B", 3, "max(A)")
+        ));
+        assertEquals(3, sheet.getCell("B", 1).getValue());
+        assertEquals(3, sheet.getCell("B", 2).getValue());
+        assertEquals(2, sheet.getCell("B", 3).getValue());
+
+        // A cycle through the range rejects the whole batch
+        assertThrows(IllegalArgumentException.class, () ->
+                spreadsheetService.setCellValues(sheetId, Arrays.asList(
+                        new CellUpdate("A", 2, 5),
+                        new CellUpdate("A", 3, "lookup(B,2)")
+                )));
+        assertEquals(2, sheet.getCell("A", 2).getValue());
+        assertNull(sheet.getCell("A", 3));
+
+        // Unless the same batch replaces the aggregate
+        spreadsheetService.setCellValues(sheetId, Arrays.asList(
+                new CellUpdate("A", 3, "lookup(B,2)"),
+                new CellUpdate("B", 1, 0)
+        ));
+        assertEquals(0, sheet.getCell("A", 3).getValue());
+        assertEquals(2, sheet.getCell("B", 3).getValue());
+
+        // Imports set aggregates the same way
+        spreadsheetService.importCsv(sheetId, new ByteArrayInputStream(
+                "Row,A,B\n4,7,\n5,,count(A)\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(4, sheet.getCell("B", 5).getValue());
+        assertEquals(7, sheet.getCell("B", 3).getValue());
+        assertThrows(IllegalArgumentException.class, () -> spreadsheetService.importCsv(sheetId,
+                new ByteArrayInputStream("Row,A\n6,sum(A)\n".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testAggregatesSurviveRestart(@TempDir Path directory) throws Exception {
+        Path walPath = directory.resolve("sheets.wal");
+        Path snapshotPath = directory.resolve("snapshots");
+        SpreadsheetService durable = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(walPath)
+                .walSyncIntervalMillis(10)
+                .snapshotPath(snapshotPath));
+        durable.createSheetWithId("totals", Arrays.asList(
+                new Column("A", "int"), new Column("B", "int"), new Column("C", "double")));
+        for (int row = 1; row <= 100; row++) {
+            durable.setCellValue("totals", "A", row, row);
+        }
+        durable.setCellValue("totals", "B", 1, "sum(A)");
+        durable.setCellValue("totals", "B", 2, "max(A,1,50)");
+        assertEquals(1, durable.checkpoint());
+
+        // Written after the checkpoint, so only the write-ahead log has them
+        durable.setCellValue("totals", "C", 1, "avg(A)");
+        durable.setCellValue("totals", "A", 50, 1_000);
+        String csv = durable.convertSheetToCsv(durable.getSheet("totals"));
+        durable.close();
+
+        for (int restart = 0; restart < 2; restart++) {
+            SpreadsheetService restarted = new SpreadsheetService(new SpreadsheetSettings()
+                    .walPath(walPath)
+                    .walSyncIntervalMillis(10)
+                    .snapshotPath(snapshotPath));
+            Sheet sheet = restarted.getSheet("totals");
+            assertEquals(csv, restarted.convertSheetToCsv(sheet));
+
+            // The aggregates are still maintained
+            restarted.setCellValue("totals", "A", 50, 50);
+            assertEquals(5_050, sheet.getCell("B", 1).getValue());
+            assertEquals(50, sheet.getCell("B", 2).getValue());
+            assertEquals(50.5, sheet.getCell("C", 1).getValue());
+            restarted.setCellValue("totals", "A", 50, 1_000);
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void testEngineMetrics() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        SpreadsheetService service = new SpreadsheetService(new SpreadsheetSettings().meterRegistry(registry));
+        Sheet sheet = service.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int")));
+        String sheetId = sheet.getId();
+
+        // A chain A1 <- A2 <- A3, and B1..B3 all referencing A1
+        service.setCellValue(sheetId, "A", 1, 1);
+        service.setCellValue(sheetId, "A", 2, "lookup(A,1)");
+        service.setCellValue(sheetId, "A", 3, "lookup(A,2)");
+        service.setCellValues(sheetId, Arrays.asList(
+                new CellUpdate("B", 1, "lookup(A,1)"),
+                new CellUpdate("B", 2, "lookup(A,1)"),
+                new CellUpdate("B", 3, "lookup(A,1)")
+        ));
+
+        // Reaches both lookups of the chain, and the three B cells
+        service.setCellValue(sheetId, "A", 1, 2);
+        DistributionSummary fanOut = registry.get("spreadsheet.propagation.fanout").summary();
+        DistributionSummary depth = registry.get("spreadsheet.propagation.depth").summary();
+        assertEquals(5, fanOut.max());
+        assertEquals(2, depth.max());
+
+        assertTrue(registry.get("spreadsheet.write.stage").tag("stage", "validation").timer().count() >= 5);
+        assertEquals(3, registry.get("spreadsheet.write.stage").tag("stage", "cycle_check").timer().count());
+        assertEquals(1, registry.get("spreadsheet.sheets").gauge().value());
+        assertEquals(6, registry.get("spreadsheet.sheet.cells").tag("sheet", sheetId).gauge().value());
+        assertTrue(registry.get("spreadsheet.sheet.bytes").tag("sheet", sheetId).gauge().value() > 0);
+    }
+
+    @Test
+    public void testColdSheetsSpillAndReloadOnAccess(@TempDir Path directory) throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        Path walPath = directory.resolve("wal/sheets.wal");
+        Path snapshotPath = directory.resolve("snapshots");
+        SpreadsheetService bounded = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(walPath)
+                .walSyncIntervalMillis(10)
+                .snapshotPath(snapshotPath)
+                .memoryBudgetBytes(64 * 1024)
+                .spillPath(directory.resolve("spill"))
+                .meterRegistry(registry));
+        List<String> sheetIds = new ArrayList<>();
+        List<String> csvs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Sheet sheet = bounded.createSheet(Arrays.asList(new Column("A", "int"), new Column("B", "int"),
+                    new Column("C", "string")));
+            List<CellUpdate> updates = new ArrayList<>();
+            for (int row = 1; row <= 2_000; row++) {
+                updates.add(new CellUpdate("A", row, row * i));
+                updates.add(new CellUpdate("C", row, "name " + row));
+            }
+            updates.add(new CellUpdate("B", 1, "lookup(A,2)"));
+            bounded.setCellValues(sheet.getId(), updates);
+            sheetIds.add(sheet.getId());
+            csvs.add(bounded.convertSheetToCsv(sheet));
+        }
+
+        // Far over the budget, so the eviction task spills the older sheets
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.get("spreadsheet.sheets.spilled").gauge().value() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(registry.get("spreadsheet.sheets.spilled").gauge().value() > 0);
+        assertTrue(registry.get("spreadsheet.sheets.spilled.bytes").gauge().value() > 0);
+        assertTrue(registry.get("spreadsheet.sheet.evictions").functionCounter().count() > 0);
+        assertEquals(8, registry.get("spreadsheet.sheets").gauge().value());
+
+        // Still addressable, and read back whole on access
+        for (int i = 0; i < 8; i++) {
+            assertEquals(csvs.get(i), bounded.convertSheetToCsv(bounded.getSheet(sheetIds.get(i))));
+        }
+        assertTrue(registry.get("spreadsheet.sheet.access").tag("result", "miss").functionCounter().count() > 0);
+        assertTrue(registry.get("spreadsheet.sheet.access").tag("result", "hit").functionCounter().count() > 0);
+
+        // The reference graph of a reloaded sheet keeps propagating and rejecting cycles
+        String first = sheetIds.get(0);
+        bounded.setCellValue(first, "A", 2, 42);
+        assertTrue(bounded.convertSheetToCsv(bounded.getSheet(first)).contains("\n1,0,42,name 1"));
+        assertThrows(IllegalArgumentException.class, () -> bounded.setCellValue(first, "A", 2, "lookup(B,1)"));
+        bounded.close();
+
+        // The final checkpoint holds spilled sheets as well
+        SpreadsheetService restarted = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(walPath)
+                .walSyncIntervalMillis(10)
+                .snapshotPath(snapshotPath));
+        for (int i = 1; i < 8; i++) {
+            assertEquals(csvs.get(i), restarted.convertSheetToCsv(restarted.getSheet(sheetIds.get(i))));
+        }
+        assertEquals(42, restarted.getSheet(first).getCell("B", 1).getValue());
+        restarted.close();
+        try (Stream<Path> files = Files.list(directory.resolve("spill"))) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testTransferredSheetMovesWithItsLog(@TempDir Path directory) throws Exception {
+        Path sourceWal = directory.resolve("source/sheets.wal");
+        Path targetWal = directory.resolve("target/sheets.wal");
+        SpreadsheetService source = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(sourceWal)
+                .walSyncIntervalMillis(10));
+        SpreadsheetService target = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(targetWal)
+                .walSyncIntervalMillis(10));
+        Sheet sheet = source.createSheetWithId("moving", Arrays.asList(
+                new Column("A", "int"), new Column("B", "int"), new Column("C", "string")));
+        for (int row = 1; row <= 1_000; row++) {
+            source.setCellValue("moving", "A", row, row);
+            source.setCellValue("moving", "C", row, "name " + row);
+        }
+        source.setCellValue("moving", "B", 1, "lookup(A,1)");
+        source.setCellValue("moving", "B", 2, "lookup(B,1)");
+        String csv = source.convertSheetToCsv(sheet);
+
+        assertTrue(source.transferSheet("moving", (sheetId, sheetFile) -> target.installSheet(sheetId, sheetFile)));
+        assertFalse(source.hasSheet("moving"));
+        assertEquals(List.of(), source.getSheetIds());
+        assertFalse(source.transferSheet("moving", (sheetId, sheetFile) -> fail("Nothing left to send")));
+        // Callers still holding the sheet are told it moved
+        assertThrows(SheetMovedException.class, () -> source.convertSheetToCsv(sheet));
+        assertEquals(csv, target.convertSheetToCsv(target.getSheet("moving")));
+
+        // The reference graph moved along
+        target.setCellValue("moving", "A", 1, 7);
+        assertEquals(7, target.getSheet("moving").getCell("B", 2).getValue());
+        assertThrows(IllegalArgumentException.class, () -> target.setCellValue("moving", "A", 1, "lookup(B,2)"));
+
+        // A failed transfer keeps the sheet where it is
+        assertThrows(IOException.class, () -> target.transferSheet("moving", (sheetId, sheetFile) -> {
+            throw new IOException("Owner unreachable");
+        }));
+        assertTrue(target.hasSheet("moving"));
+        source.close();
+        target.close();
+
+        // Each node's log replays to what it held last
+        SpreadsheetService sourceRestarted = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(sourceWal)
+                .walSyncIntervalMillis(10));
+        assertFalse(sourceRestarted.hasSheet("moving"));
+        sourceRestarted.close();
+        SpreadsheetService targetRestarted = new SpreadsheetService(new SpreadsheetSettings()
+                .walPath(targetWal)
+                .walSyncIntervalMillis(10));
+        assertEquals(7, targetRestarted.getSheet("moving").getCell("B", 2).getValue());
+        assertEquals("name 1000", targetRestarted.getSheet("moving").getCell("C", 1_000).getValue());
+        targetRestarted.close();
+    }
 }
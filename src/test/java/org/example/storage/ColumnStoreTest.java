@@ -0,0 +1,194 @@
+package org.example.storage;
+
+import org.example.model.ColumnType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the paged column stores.
+ * These tests cover page layout changes, null handling, snapshot isolation and snapshot files.
+ */
+public class ColumnStoreTest {
+
+    @Test
+    public void testSparsePageBecomesDense() {
+        ColumnStore store = ColumnStore.forType(ColumnType.INT);
+
+        // Fill rows out of order so sparse slots have to shift, then keep going past the dense threshold
+        for (int i = ColumnPage.PAGE_SIZE - 1; i >= 0; i -= 3) {
+            store.set(i, i * 10, CellAddress.NONE, 1, -1);
+        }
+        for (int i = 0; i < ColumnPage.PAGE_SIZE; i += 3) {
+            store.set(i, i * 10, CellAddress.NONE, 1, -1);
+        }
+
+        for (int i = 0; i < ColumnPage.PAGE_SIZE; i++) {
+            boolean written = (ColumnPage.PAGE_SIZE - 1 - i) % 3 == 0 || i % 3 == 0;
+            assertEquals(written, store.contains(i), "row " + i);
+            assertEquals(written ? i * 10 : null, store.get(i), "row " + i);
+        }
+    }
+
+    @Test
+    public void testDensifiedPageKeepsReferencesByRow() {
+        ColumnStore store = ColumnStore.forType(ColumnType.INT);
+        long reference = CellAddress.pack(1, 7);
+
+        // The lookup sits in the first sparse slot, at a row whose offset is not 0
+        store.set(5, 1, reference, 1, -1);
+        for (int i = 6; i < 6 + ColumnPage.PAGE_SIZE / 2; i++) {
+            store.set(i, i, CellAddress.NONE, 1, -1);
+        }
+
+        assertEquals(reference, store.getReference(5));
+        for (int i = 6; i < 6 + ColumnPage.PAGE_SIZE / 2; i++) {
+            assertEquals(CellAddress.NONE, store.getReference(i), "row " + i);
+        }
+        assertEquals(CellAddress.NONE, store.getReference(0));
+
+        // The rows without a cell hold no reference either, so only the lookup is visited
+        List<Integer> rows = new ArrayList<>();
+        List<Long> references = new ArrayList<>();
+        store.forEachReference((row, referenced) -> {
+            rows.add(row);
+            references.add(referenced);
+        });
+        assertEquals(List.of(5), rows);
+        assertEquals(List.of(reference), references);
+    }
+
+    @Test
+    public void testNullValuesAndReferences() {
+        ColumnStore store = ColumnStore.forType(ColumnType.STRING);
+        long reference = CellAddress.pack(3, 42);
+
+        store.set(5, null, CellAddress.NONE, 1, -1);
+        store.set(6, "text", reference, 1, -1);
+
+        assertTrue(store.contains(5));
+        assertNull(store.get(5));
+        assertEquals("text", store.get(6));
+        assertEquals(reference, store.getReference(6));
+        assertEquals(3, CellAddress.ordinal(store.getReference(6)));
+        assertEquals(42, CellAddress.row(store.getReference(6)));
+        assertEquals(CellAddress.NONE, store.getReference(5));
+        assertFalse(store.contains(7));
+    }
+
+    @Test
+    public void testTypedValues() {
+        ColumnStore doubles = ColumnStore.forType(ColumnType.DOUBLE);
+        ColumnStore booleans = ColumnStore.forType(ColumnType.BOOLEAN);
+        for (int row = 0; row < 300; row++) {
+            doubles.set(row, row / 2.0, CellAddress.NONE, 1, -1);
+            booleans.set(row, row % 2 == 0, CellAddress.NONE, 1, -1);
+        }
+
+        assertEquals(7.5, doubles.get(15));
+        assertEquals(true, booleans.get(200));
+        assertEquals(false, booleans.get(201));
+    }
+
+    @Test
+    public void testSnapshotPagesAreCopiedOnWrite() {
+        ColumnStore store = ColumnStore.forType(ColumnType.INT);
+        store.set(1, 1, CellAddress.NONE, 1, -1);
+
+        ColumnStoreSnapshot snapshot = store.snapshot();
+
+        // Writes after the snapshot, at a newer version, must not reach the captured page
+        store.set(1, 2, CellAddress.NONE, 2, 1);
+        store.set(2, 3, CellAddress.NONE, 2, 1);
+
+        assertEquals(1, snapshot.get(1));
+        assertFalse(snapshot.contains(2));
+        assertEquals(1, snapshot.getCellCount());
+        assertEquals(2, store.get(1));
+        assertEquals(3, store.get(2));
+    }
+
+    @Test
+    public void testRowCursorVisitsRowsInOrder() {
+        ColumnStore first = ColumnStore.forType(ColumnType.INT);
+        ColumnStore second = ColumnStore.forType(ColumnType.STRING);
+        int[] rows = {5_000, -3, 1, 70_000, 1_024, 2};
+        for (int row : rows) {
+            if (row % 2 == 0) {
+                first.set(row, row, CellAddress.NONE, 1, -1);
+            } else {
+                second.set(row, "r" + row, CellAddress.NONE, 1, -1);
+            }
+        }
+
+        RowCursor cursor = new RowCursor(new ColumnStoreSnapshot[]{first.snapshot(), null, second.snapshot()});
+        List<Integer> visited = new ArrayList<>();
+        while (cursor.next()) {
+            visited.add(cursor.getRow());
+            if (cursor.getRow() == 1) {
+                assertFalse(cursor.hasCell(0));
+                assertEquals("r1", cursor.getValue(2));
+            }
+        }
+
+        assertEquals(List.of(-3, 1, 2, 1_024, 5_000, 70_000), visited);
+    }
+
+    @Test
+    public void testSnapshotFileRoundTrip(@TempDir Path directory) throws Exception {
+        ColumnType[] types = {ColumnType.INT, ColumnType.DOUBLE, ColumnType.BOOLEAN, ColumnType.STRING};
+        for (ColumnType type : types) {
+            // A dense page with nulls and lookups, a sparse page, and a negative row
+            ColumnStore store = ColumnStore.forType(type);
+            for (int row = 0; row < ColumnPage.PAGE_SIZE; row += 2) {
+                store.set(row, row % 10 == 0 ? null : valueOf(type, row), row % 7 == 0 ? CellAddress.pack(1, row) : CellAddress.NONE, 1, -1);
+            }
+            for (int row : new int[] {-5, 10_000, 10_003, 70_001}) {
+                store.set(row, valueOf(type, row), CellAddress.NONE, 1, -1);
+            }
+
+            Path path = directory.resolve(type.getName() + ".snap");
+            try (SnapshotWriter out = SnapshotWriter.create(path)) {
+                store.snapshot().writeTo(out);
+            }
+            ColumnStore restored;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                restored = ColumnStore.read(type, new SnapshotReader(channel, 0, Files.size(path)));
+            }
+
+            for (int row = -10; row < 80_000; row++) {
+                assertEquals(store.contains(row), restored.contains(row), type + " row " + row);
+                assertEquals(store.get(row), restored.get(row), type + " row " + row);
+                assertEquals(store.getReference(row), restored.getReference(row), type + " row " + row);
+            }
+
+            // Restored pages take new cells like any other
+            restored.set(10_001, valueOf(type, 1), CellAddress.NONE, 1, -1);
+            restored.set(1, valueOf(type, 1), CellAddress.NONE, 1, -1);
+            assertEquals(valueOf(type, 1), restored.get(10_001));
+            assertEquals(valueOf(type, 1), restored.get(1));
+            assertEquals(valueOf(type, 10_003), restored.get(10_003));
+        }
+    }
+
+    private static Object valueOf(ColumnType type, int row) {
+        switch (type) {
+            case INT:
+                return row;
+            case DOUBLE:
+                return row / 4.0;
+            case BOOLEAN:
+                return row % 3 == 0;
+            default:
+                return "s" + row % 50;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.example.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the primitive long-keyed set and map.
+ * These tests compare them against the JDK collections under random adds and removes.
+ */
+public class LongHashSetTest {
+
+    @Test
+    public void testSetMatchesHashSet() {
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(42);
+
+        // A small key range forces collisions and removals in the middle of probe chains
+        for (int i = 0; i < 100_000; i++) {
+            long key = CellAddress.pack(random.nextInt(4), random.nextInt(500));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+        }
+
+        assertEquals(expected.size(), set.size());
+        Set<Long> iterated = new HashSet<>();
+        for (int slot = 0; slot < set.slots(); slot++) {
+            if (set.keyAt(slot) != CellAddress.NONE) {
+                iterated.add(set.keyAt(slot));
+            }
+        }
+        assertEquals(expected, iterated);
+        for (long key : expected) {
+            assertTrue(set.contains(key));
+        }
+    }
+
+    @Test
+    public void testMapMatchesHashMap() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(7);
+
+        for (int i = 0; i < 100_000; i++) {
+            long key = CellAddress.pack(random.nextInt(4), random.nextInt(500));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = "v" + i;
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        expected.forEach((key, value) -> assertEquals(value, map.get(key)));
+        assertNull(map.get(CellAddress.pack(9, 9)));
+    }
+
+    @Test
+    public void testNoneIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new LongHashSet().add(CellAddress.NONE));
+        assertThrows(IllegalArgumentException.class, () -> new LongObjectHashMap<>().put(CellAddress.NONE, "x"));
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the row range minimum and maximum tree.
+ * These tests compare it against a scan of a TreeMap under random puts, removes and queries.
+ */
+public class MinMaxTreeTest {
+
+    @Test
+    public void testRangesMatchScan() {
+        MinMaxTree tree = new MinMaxTree();
+        TreeMap<Integer, Double> expected = new TreeMap<>();
+        Random random = new Random(42);
+
+        // Enough rows to grow the node arrays several times, with negative rows and reused nodes
+        for (int i = 0; i < 200_000; i++) {
+            int row = random.nextInt(5_000) - 100;
+            int op = random.nextInt(4);
+            if (op == 0) {
+                tree.remove(row);
+                expected.remove(row);
+            } else if (op == 1) {
+                int toRow = row + random.nextInt(1_000);
+                double min = Double.NaN;
+                double max = Double.NaN;
+                for (double value : expected.subMap(row, true, toRow, true).values()) {
+                    min = Double.isNaN(min) ? value : Math.min(min, value);
+                    max = Double.isNaN(max) ? value : Math.max(max, value);
+                }
+                assertEquals(min, tree.min(row, toRow));
+                assertEquals(max, tree.max(row, toRow));
+            } else {
+                double value = random.nextInt(10_000) - 5_000;
+                tree.put(row, value);
+                expected.put(row, value);
+            }
+        }
+        assertEquals(expected.size(), tree.size());
+        assertEquals(expected.firstEntry().getValue().doubleValue(),
+                tree.min(expected.firstKey(), expected.firstKey()));
+    }
+
+    @Test
+    public void testWholeRangeAndEmptyRange() {
+        MinMaxTree tree = new MinMaxTree();
+        assertTrue(Double.isNaN(tree.min(Integer.MIN_VALUE, Integer.MAX_VALUE)));
+
+        tree.put(10, 3.0);
+        tree.put(Integer.MAX_VALUE, -1.0);
+        tree.put(Integer.MIN_VALUE, 7.0);
+        assertEquals(-1.0, tree.min(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(7.0, tree.max(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertTrue(Double.isNaN(tree.max(11, 100)));
+
+        // Replacing the largest value, then removing it, falls back to the next one
+        tree.put(Integer.MIN_VALUE, 2.0);
+        assertEquals(3.0, tree.max(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        tree.remove(10);
+        assertEquals(2.0, tree.max(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(2, tree.size());
+    }
+
+    @Test
+    public void testNaNWins() {
+        MinMaxTree tree = new MinMaxTree();
+        tree.put(1, 1.0);
+        tree.put(2, Double.NaN);
+        tree.put(3, 3.0);
+        assertTrue(Double.isNaN(tree.min(1, 3)));
+        assertTrue(Double.isNaN(tree.max(2, 2)));
+        assertEquals(3.0, tree.max(3, 3));
+        tree.remove(2);
+        assertEquals(1.0, tree.min(1, 3));
+    }
+}
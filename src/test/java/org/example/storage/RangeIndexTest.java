@@ -0,0 +1,71 @@
+package org.example.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the row range index.
+ * These tests compare it against a scan of all ranges for random ranges and rows.
+ */
+public class RangeIndexTest {
+
+    @Test
+    public void testCoveringMatchesScan() {
+        Random random = new Random(42);
+        for (int size : new int[]{0, 1, 2, 3, 7, 100, 2_000}) {
+            List<int[]> ranges = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                int fromRow = random.nextInt(5_000) - 100;
+                // Mostly short ranges, with some long ones reaching over many others
+                int length = random.nextInt(10) == 0 ? random.nextInt(3_000) : random.nextInt(20);
+                ranges.add(new int[]{fromRow, fromRow + length});
+            }
+            RangeIndex<int[]> index = new RangeIndex<>(ranges, range -> range[0], range -> range[1]);
+            assertEquals(size, index.size());
+
+            for (int i = 0; i < 2_000; i++) {
+                int row = random.nextInt(8_000) - 200;
+                List<int[]> expected = new ArrayList<>();
+                for (int[] range : ranges) {
+                    if (range[0] <= row && row <= range[1]) {
+                        expected.add(range);
+                    }
+                }
+                List<int[]> found = new ArrayList<>();
+                index.forEachCovering(row, found::add);
+                assertEquals(expected.size(), found.size());
+                assertTrue(found.containsAll(expected));
+                assertEquals(!expected.isEmpty(), index.covers(row));
+            }
+        }
+    }
+
+    @Test
+    public void testWholeColumnRanges() {
+        int[] whole = {Integer.MIN_VALUE, Integer.MAX_VALUE};
+        int[] head = {Integer.MIN_VALUE, 10};
+        int[] tail = {20, Integer.MAX_VALUE};
+        RangeIndex<int[]> index = new RangeIndex<>(List.of(tail, whole, head), range -> range[0], range -> range[1]);
+
+        List<int[]> found = new ArrayList<>();
+        index.forEachCovering(Integer.MAX_VALUE, found::add);
+        assertEquals(List.of(whole, tail), found);
+        found.clear();
+        index.forEachCovering(Integer.MIN_VALUE, found::add);
+        assertEquals(2, found.size());
+        assertTrue(found.contains(whole) && found.contains(head));
+        found.clear();
+        index.forEachCovering(15, found::add);
+        assertEquals(List.of(whole), found);
+
+        RangeIndex<int[]> gaps = new RangeIndex<>(List.of(head, tail), range -> range[0], range -> range[1]);
+        assertFalse(gaps.covers(15));
+        assertTrue(gaps.covers(10));
+        assertTrue(gaps.covers(20));
+    }
+}
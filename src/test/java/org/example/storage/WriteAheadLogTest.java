@@ -0,0 +1,151 @@
+package org.example.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the write-ahead log: replay order, group commit, recovery from a torn tail and segments.
+ */
+public class WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testRecordsAreReplayedInOrder() throws Exception {
+        Path path = directory.resolve("sheets.wal");
+        try (WriteAheadLog log = WriteAheadLog.open(path, WriteAheadLog.SyncMode.COMMIT, 10, (sequence, record) -> fail())) {
+            for (int i = 0; i < 1_000; i++) {
+                log.append(("record " + i).getBytes(StandardCharsets.UTF_8));
+            }
+            log.commit();
+        }
+
+        List<String> replayed = replay(path);
+        assertEquals(1_000, replayed.size());
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals("record " + i, replayed.get(i));
+        }
+    }
+
+    @Test
+    public void testConcurrentCommitsAreAllDurable() throws Exception {
+        Path path = directory.resolve("sheets.wal");
+        try (WriteAheadLog log = WriteAheadLog.open(path, WriteAheadLog.SyncMode.COMMIT, 10, (sequence, record) -> fail())) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            for (int thread = 0; thread < 8; thread++) {
+                int id = thread;
+                executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        log.append(("t" + id + " " + i).getBytes(StandardCharsets.UTF_8));
+                        log.commit();
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        assertEquals(1_600, replay(path).size());
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws Exception {
+        Path path = directory.resolve("sheets.wal");
+        try (WriteAheadLog log = WriteAheadLog.open(path, WriteAheadLog.SyncMode.INTERVAL, 1, (sequence, record) -> fail())) {
+            log.append("first".getBytes(StandardCharsets.UTF_8));
+            log.append("second".getBytes(StandardCharsets.UTF_8));
+        }
+
+        // A crash halfway through the third record
+        long intact = Files.size(path);
+        Files.write(path, new byte[] {0, 0, 0, 20, 1, 2, 3, 4, 'x'}, StandardOpenOption.APPEND);
+
+        List<String> replayed = new ArrayList<>();
+        try (WriteAheadLog log = WriteAheadLog.open(path, WriteAheadLog.SyncMode.COMMIT, 10,
+                (sequence, record) -> replayed.add(StandardCharsets.UTF_8.decode(record).toString()))) {
+            assertEquals(List.of("first", "second"), replayed);
+            assertEquals(9, log.getTruncatedBytes());
+            assertEquals(intact, Files.size(path));
+
+            // New records go right after the intact ones
+            log.append("third".getBytes(StandardCharsets.UTF_8));
+            log.commit();
+        }
+        assertEquals(List.of("first", "second", "third"), replay(path));
+    }
+
+    @Test
+    public void testCorruptRecordEndsReplay() throws Exception {
+        Path path = directory.resolve("sheets.wal");
+        try (WriteAheadLog log = WriteAheadLog.open(path, WriteAheadLog.SyncMode.NONE, 1, (sequence, record) -> fail())) {
+            log.append("good".getBytes(StandardCharsets.UTF_8));
+            log.append("flipped".getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(path, bytes);
+
+        assertEquals(List.of("good"), replay(path));
+    }
+
+    @Test
+    public void testRotatedSegmentsReplayUntilDeleted() throws Exception {
+        Path path = directory.resolve("sheets.wal");
+        try (WriteAheadLog log = WriteAheadLog.open(path, WriteAheadLog.SyncMode.COMMIT, 10, (sequence, record) -> fail())) {
+            log.append("first".getBytes(StandardCharsets.UTF_8));
+            log.append("second".getBytes(StandardCharsets.UTF_8));
+            assertEquals(2, log.rotate());
+            assertEquals(2, log.rotate());
+            log.append("third".getBytes(StandardCharsets.UTF_8));
+            log.commit();
+            assertEquals(3, log.getAppendedSequence());
+        }
+
+        List<Long> sequences = new ArrayList<>();
+        List<String> replayed = new ArrayList<>();
+        try (WriteAheadLog log = WriteAheadLog.open(path, WriteAheadLog.SyncMode.COMMIT, 10, (sequence, record) -> {
+            sequences.add(sequence);
+            replayed.add(StandardCharsets.UTF_8.decode(record).toString());
+        })) {
+            assertEquals(List.of("first", "second", "third"), replayed);
+            assertEquals(List.of(1L, 2L, 3L), sequences);
+
+            // The segment only holds records 1 and 2
+            log.deleteSegmentsThrough(1);
+            assertEquals(3, replay(path).size());
+            log.deleteSegmentsThrough(2);
+
+            log.append("fourth".getBytes(StandardCharsets.UTF_8));
+            log.commit();
+            assertEquals(4, log.getAppendedSequence());
+        }
+        assertEquals(List.of("third", "fourth"), replay(path));
+    }
+
+    @Test
+    public void testAppendAfterCloseIsRejected() throws Exception {
+        WriteAheadLog log = WriteAheadLog.open(directory.resolve("sheets.wal"), WriteAheadLog.SyncMode.COMMIT, 10, (sequence, record) -> fail());
+        log.close();
+        assertThrows(IllegalStateException.class, () -> log.append(new byte[1]));
+    }
+
+    private static List<String> replay(Path path) throws IOException {
+        List<String> records = new ArrayList<>();
+        WriteAheadLog.open(path, WriteAheadLog.SyncMode.NONE, 10,
+                (sequence, record) -> records.add(StandardCharsets.UTF_8.decode(record).toString())).close();
+        return records;
+    }
+}